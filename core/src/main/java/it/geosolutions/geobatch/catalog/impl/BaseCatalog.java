@@ -42,26 +42,98 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EventObject;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.apache.commons.collections.MultiHashMap;
-
 /**
+ * Base catalog implementation.
+ * <p>
+ * Resources, flow managers included, are kept in an immutable snapshot replaced on each
+ * change, so lookups take no lock. Each snapshot builds, on first use, a view per requested
+ * type holding the matching resources in insertion order and indexed by id and name: repeated
+ * lookups neither scan nor allocate. Ids and names are indexed when the resource is added and
+ * must not change afterwards.
+ * <p>
+ * Listeners are notified after the new snapshot has been published, in the same order as the
+ * changes, so that a listener always finds the resource it is notified about.
+ * 
  * @author Alessio Fabiani, GeoSolutions
  * @author Simone Giannecchini, GeoSolutions
  * 
  */
 public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> implements Catalog {
+
     /**
-     * flow manager types
+     * The resources of a given type within a snapshot.
      */
-    private final MultiHashMap /* <Class> */flowManagers = new MultiHashMap();
+    private final static class View<T> {
+        private final List<T> resources;
+
+        private final Map<String, T> byId;
+
+        private final Map<String, T> byName;
+
+        @SuppressWarnings("unchecked")
+        View(final Class<T> clazz, final List<Resource> snapshot) {
+            final List<T> resources = new ArrayList<T>();
+            final Map<String, T> byId = new HashMap<String, T>();
+            final Map<String, T> byName = new HashMap<String, T>();
+            for (Resource resource : snapshot) {
+                if (!clazz.isInstance(resource))
+                    continue;
+                final T t = (T) resource;
+                resources.add(t);
+                // the first added wins, as a scan would do
+                if (resource.getId() != null && !byId.containsKey(resource.getId()))
+                    byId.put(resource.getId(), t);
+                if (resource.getName() != null && !byName.containsKey(resource.getName()))
+                    byName.put(resource.getName(), t);
+            }
+            this.resources = Collections.unmodifiableList(resources);
+            this.byId = byId;
+            this.byName = byName;
+        }
+    }
 
     /**
-     * resources
+     * Immutable set of resources, with its lazily built views.
      */
-    private final MultiHashMap /* <Class> */resources = new MultiHashMap();
+    private final static class Snapshot {
+        private final List<Resource> resources;
+
+        private final ConcurrentHashMap<Class<?>, View<?>> views = new ConcurrentHashMap<Class<?>, View<?>>();
+
+        Snapshot(final List<Resource> resources) {
+            this.resources = resources;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> View<T> view(final Class<T> clazz) {
+            View<T> view = (View<T>) views.get(clazz);
+            if (view == null) {
+                view = new View<T>(clazz, resources);
+                final View<T> previous = (View<T>) views.putIfAbsent(clazz, view);
+                if (previous != null)
+                    view = previous;
+            }
+            return view;
+        }
+    }
+
+    private final static Snapshot EMPTY = new Snapshot(Collections.<Resource> emptyList());
+
+    /**
+     * resources, flow managers included
+     */
+    private volatile Snapshot snapshot = EMPTY;
+
+    /**
+     * Serializes the changes and their notifications.
+     */
+    private final Object writeLock = new Object();
 
     /**
      * listeners
@@ -97,11 +169,10 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
         // "No Flow BaseEventConsumer Descriptor has been specified for this Flow BaseEventConsumer.");
         // }
 
-        synchronized (resources) {
-            resources.put(resource.getClass(), resource);			
+        synchronized (writeLock) {
+            publish(resource, true);
+            added(resource);
         }
-
-        added(resource);
     }
 
     /*
@@ -116,8 +187,9 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
 			// TODO
 			e.printStackTrace();
 		}
-        flowManagers.clear();
-        resources.clear();
+        synchronized (writeLock) {
+            snapshot = EMPTY;
+        }
         listeners.clear();
     }
 
@@ -129,15 +201,7 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
      */
     public <E extends EventObject, C extends FlowConfiguration, T extends FlowManager<E, C>> T getFlowManager(
             final String id, final Class<T> clazz) {
-        final List<T> l = lookup(clazz, flowManagers);
-
-        for (final T fmt : l) {
-            if (id.equals(fmt.getId())) {
-                return fmt;
-            }
-        }
-
-        return null;
+        return snapshot.view(clazz).byId.get(id);
     }
 
     /*
@@ -148,16 +212,7 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
      */
     public <E extends EventObject, C extends FlowConfiguration, T extends FlowManager<E, C>> T getFlowManagerByName(
             final String name, final Class<T> clazz) {
-        final List<T> l = lookup(clazz, flowManagers);
-
-        for (final T fmt : l) {
-
-            if (name.equals(fmt.getName())) {
-                return fmt;
-            }
-        }
-
-        return null;
+        return snapshot.view(clazz).byName.get(name);
     }
 
     /*
@@ -176,15 +231,7 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
      * @see it.geosolutions.geobatch.catalog.Catalog#getResource(java.lang.String, java.lang.Class)
      */
     public <T extends Resource> T getResource(final String id, final Class<T> clazz) {
-        final List<T> l = lookup(clazz, resources);
-
-		for (T resource : l) {
-            if (id.equals(resource.getId())) {
-                return resource;
-            }
-		}
-
-        return null;
+        return snapshot.view(clazz).byId.get(id);
     }
 
     /*
@@ -194,15 +241,7 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
      * java.lang.Class)
      */
     public <T extends Resource> T getResourceByName(final String name, final Class<T> clazz) {
-        final List<T> l = lookup(clazz, resources);
-
-		for (T resource : l) {
-            if (name.equals(resource.getName())) {
-                return resource;
-            }
-        }
-
-        return null;
+        return snapshot.view(clazz).byName.get(name);
     }
 
     /*
@@ -211,7 +250,7 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
      * @see it.geosolutions.geobatch.catalog.Catalog#getResources(java.lang.Class)
      */
     public <T extends Resource> List<T> getResources(final Class<T> clazz) {
-        return Collections.unmodifiableList(lookup(clazz, resources));
+        return snapshot.view(clazz).resources;
     }
 
     /*
@@ -222,11 +261,10 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
      */
     public <E extends EventObject, C extends FlowConfiguration> void remove(
             final FlowManager<E, C> resource) {
-        synchronized (resources) {
-            resources.remove(resource.getClass(), resource);
+        synchronized (writeLock) {
+            if (publish(resource, false))
+                removed(resource);
         }
-
-        removed(resource);
     }
 
     /*
@@ -244,21 +282,28 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
     // Helper Methods
     // //
     /**
-     *
+     * Publishes a new snapshot with the provided resource added or removed. Must be called
+     * holding the write lock.
+     * 
+     * @return <code>false</code> if the resource to remove was not registered.
      */
-    @SuppressWarnings("unchecked")
-    <T extends Resource> List<T> lookup(final Class<T> clazz, final MultiHashMap map) {
-        final List<T> result = new ArrayList<T>();
-
-        for (final Class<T> key : (Iterable<Class<T>>)map.keySet() ) {
-//        for (final Iterator<Class<T>> k = map.keySet().iterator(); k.hasNext();) {
-//            final Class<T> key = k.next();
-            if (clazz.isAssignableFrom(key)) {
-                result.addAll(map.getCollection(key));
+    private boolean publish(final Resource resource, final boolean add) {
+        final List<Resource> resources = new ArrayList<Resource>(snapshot.resources);
+        if (add)
+            resources.add(resource);
+        else {
+            boolean found = false;
+            for (int i = 0; i < resources.size() && !found; i++) {
+                if (resources.get(i) == resource) {
+                    resources.remove(i);
+                    found = true;
+                }
             }
+            if (!found)
+                return false;
         }
-
-        return result;
+        snapshot = new Snapshot(Collections.unmodifiableList(resources));
+        return true;
     }
 
     // //
@@ -334,12 +379,11 @@ public class BaseCatalog extends BasePersistentResource<CatalogConfiguration> im
                     "No Flow BaseEventConsumer Descriptor has been specified for this Flow BaseEventConsumer.");
         }
 
-        synchronized (resources) {
-            resources.put(resource.getClass(), resource);
+        synchronized (writeLock) {
+            publish(resource, true);
+            added(resource);
         }
 
-        added(resource);
-
     }
 
 }
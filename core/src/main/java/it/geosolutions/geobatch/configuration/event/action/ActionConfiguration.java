@@ -27,7 +27,28 @@ package it.geosolutions.geobatch.configuration.event.action;
 import it.geosolutions.geobatch.catalog.Configuration;
 import it.geosolutions.geobatch.catalog.impl.BaseConfiguration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public abstract class ActionConfiguration extends BaseConfiguration implements Configuration {
+
+    /**
+     * workload: the resource the action mostly uses, <code>null</code> if the action is not
+     * throttled.
+     */
+    private ActionWorkload workload;
+
+    /**
+     * dependsOn: ids of the actions whose results this action consumes, <code>null</code> for
+     * the previous action of the list, empty for the events collected by the consumer.
+     */
+    private List<String> dependsOn;
+
+    /**
+     * failurePolicy: what a failure of this action does to the consumer, <code>null</code>
+     * means {@link ActionFailurePolicy#FAIL}.
+     */
+    private ActionFailurePolicy failurePolicy;
     
     @Override
 	public abstract ActionConfiguration clone() throws CloneNotSupportedException;
@@ -39,6 +60,72 @@ public abstract class ActionConfiguration extends BaseConfiguration implements C
     public ActionConfiguration(String id, String name, String description, boolean dirty) {
         super(id, name, description, dirty);
     }
+
+    /**
+     * Getter for the workload.
+     */
+    public ActionWorkload getWorkload() {
+        return workload;
+    }
+
+    /**
+     * Setter for the workload.
+     * 
+     * @param workload
+     *            the resource the action mostly uses, <code>null</code> for none.
+     */
+    public void setWorkload(ActionWorkload workload) {
+        this.workload = workload;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the dependsOn.
+     */
+    public List<String> getDependsOn() {
+        return dependsOn;
+    }
+
+    /**
+     * Setter for the dependsOn.
+     * 
+     * @param dependsOn
+     *            ids of the upstream actions, <code>null</code> for the previous action of the
+     *            list, empty for none.
+     */
+    public void setDependsOn(List<String> dependsOn) {
+        this.dependsOn = dependsOn != null ? new ArrayList<String>(dependsOn) : null;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the failurePolicy.
+     */
+    public ActionFailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    /**
+     * Setter for the failurePolicy.
+     * 
+     * @param failurePolicy
+     *            <code>null</code> for {@link ActionFailurePolicy#FAIL}.
+     */
+    public void setFailurePolicy(ActionFailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy;
+        setDirty(true);
+    }
+
+    /**
+     * Copies the settings held by this base class, apart from the ones passed to the
+     * constructor, to the provided configuration, leaving its dirty flag untouched. Subclasses
+     * call it from {@link #clone()}.
+     */
+    protected void copyTo(ActionConfiguration configuration) {
+        configuration.workload = workload;
+        configuration.dependsOn = dependsOn != null ? new ArrayList<String>(dependsOn) : null;
+        configuration.failurePolicy = failurePolicy;
+    }
     
     
 
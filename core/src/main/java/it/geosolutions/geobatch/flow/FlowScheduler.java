@@ -0,0 +1,621 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow;
+
+import it.geosolutions.geobatch.catalog.Catalog;
+import it.geosolutions.geobatch.catalog.impl.BaseService;
+import it.geosolutions.geobatch.configuration.event.action.ActionWorkload;
+import it.geosolutions.geobatch.flow.event.action.Action;
+
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Node wide scheduler of the consumer executions, shared by the flows through the catalog.
+ * <p>
+ * Each flow gets a {@link Share} with a priority, a weight and a maximum concurrency. A fixed
+ * pool of workers always runs the task of the highest priority flow having work and room for
+ * it, flows with the same priority are served in proportion of their weights: each started
+ * task advances the virtual time of its flow by the inverse of the weight and the flow with the
+ * lowest virtual time goes first. A flow which was idle restarts from the current virtual time,
+ * so that it cannot save up credit while idle.
+ * <p>
+ * A share may be bounded: once it holds as many waiting tasks as its capacity,
+ * {@link Share#execute(Runnable)} waits for room and {@link Share#offer(Runnable)} refuses the
+ * task, leaving the flow to apply its own saturation policy.
+ * <p>
+ * A flow which does not declare its maximum concurrency is capped to the
+ * {@link #setShareConcurrency(int) share concurrency}, by default half of the workers: consumers
+ * may hold their worker for long while waiting for their files to be ready, an unbounded flow
+ * would then starve all the others.
+ * <p>
+ * Actions declaring an {@link ActionWorkload} also need a permit of that workload, the number
+ * of CPU and I/O permits caps the concurrent heavy actions of the whole node whatever the
+ * number of workers.
+ * <p>
+ * The pool sizes must be set before the first task is submitted, usually through the Spring
+ * context.
+ */
+public class FlowScheduler extends BaseService {
+
+    private final static Logger LOGGER = Logger.getLogger(FlowScheduler.class.toString());
+
+    /**
+     * The execution share of a flow.
+     */
+    public final class Share {
+
+        private final String flowId;
+
+        private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+
+        private int weight;
+
+        private int priority;
+
+        private int maxConcurrency;
+
+        private int capacity;
+
+        private int running;
+
+        private long completed;
+
+        private double virtualTime;
+
+        private boolean closed;
+
+        private Share(final String flowId) {
+            this.flowId = flowId;
+        }
+
+        /**
+         * Queues a task of this flow, waiting for room if the share is full.
+         * 
+         * @throws RejectedExecutionException
+         *             if the share has been unregistered or the scheduler disposed, or if
+         *             interrupted while waiting for room.
+         */
+        public void execute(final Runnable task) {
+            lock.lock();
+            try {
+                while (isFull()) {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                }
+                enqueue(task);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Queues a task of this flow if the share is not full.
+         * 
+         * @return <code>false</code> if the share is full and the task has not been queued.
+         * @throws RejectedExecutionException
+         *             if the share has been unregistered or the scheduler disposed.
+         */
+        public boolean offer(final Runnable task) {
+            lock.lock();
+            try {
+                if (isFull())
+                    return false;
+                enqueue(task);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Must be called holding the lock.
+         */
+        private boolean isFull() {
+            return !closed && !disposed && capacity > 0 && queue.size() >= capacity;
+        }
+
+        /**
+         * Must be called holding the lock.
+         */
+        private void enqueue(final Runnable task) {
+            if (closed || disposed)
+                throw new RejectedExecutionException("Share of flow " + flowId + " is closed");
+            start();
+            if (queue.isEmpty() && running == 0)
+                virtualTime = Math.max(virtualTime, FlowScheduler.this.virtualTime);
+            queue.add(task);
+            available.signal();
+        }
+
+        /**
+         * Unregisters this share, see {@link FlowScheduler#unregister(Share)}.
+         */
+        public List<Runnable> close() {
+            return unregister(this);
+        }
+
+        public String getFlowId() {
+            return flowId;
+        }
+
+        public int getWeight() {
+            lock.lock();
+            try {
+                return weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int getPriority() {
+            lock.lock();
+            try {
+                return priority;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the maximum number of tasks of the flow run at the same time, the share
+         *         concurrency of the scheduler if the flow did not set its own.
+         */
+        public int getMaxConcurrency() {
+            lock.lock();
+            try {
+                return limit();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the maximum number of waiting tasks, zero if unbounded.
+         */
+        public int getCapacity() {
+            lock.lock();
+            try {
+                return capacity;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the number of tasks waiting for a worker.
+         */
+        public int getQueuedCount() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the number of tasks being run.
+         */
+        public int getRunningCount() {
+            lock.lock();
+            try {
+                return running;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the number of tasks run so far.
+         */
+        public long getCompletedCount() {
+            lock.lock();
+            try {
+                return completed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int limit() {
+            if (maxConcurrency > 0)
+                return maxConcurrency;
+            if (shareConcurrency > 0)
+                return shareConcurrency;
+            return Math.max(1, (threads > 0 ? threads : 1) / 2);
+        }
+
+        private boolean isEligible() {
+            return !queue.isEmpty() && running < limit();
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    /**
+     * Signalled when a task leaves a share or a share is closed.
+     */
+    private final Condition notFull = lock.newCondition();
+
+    private final List<Share> shares = new ArrayList<Share>();
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    private int threads = Runtime.getRuntime().availableProcessors() * 2;
+
+    private int cpuPermits = Runtime.getRuntime().availableProcessors();
+
+    private int ioPermits = 4;
+
+    private int shareConcurrency;
+
+    private Semaphore cpu;
+
+    private Semaphore io;
+
+    /**
+     * Virtual time of the last started task.
+     */
+    private double virtualTime;
+
+    private boolean disposed;
+
+    public FlowScheduler() {
+        super(true);
+    }
+
+    /**
+     * @return the scheduler registered in the provided catalog, <code>null</code> if none is.
+     */
+    public static FlowScheduler lookup(final Catalog catalog) {
+        if (catalog == null)
+            return null;
+        final List<FlowScheduler> schedulers = catalog.getResources(FlowScheduler.class);
+        return schedulers.isEmpty() ? null : schedulers.get(0);
+    }
+
+    /**
+     * Registers a flow, or updates its share if already registered.
+     * 
+     * @param flowId
+     *            the flow identifier.
+     * @param weight
+     *            relative share of the workers among flows with the same priority, values
+     *            lower than 1 mean 1.
+     * @param priority
+     *            flows with higher priority are always served first.
+     * @param maxConcurrency
+     *            maximum number of tasks of the flow run at the same time, zero or negative
+     *            values mean the {@link #setShareConcurrency(int) share concurrency}.
+     */
+    public Share register(final String flowId, final int weight, final int priority, final int maxConcurrency) {
+        return register(flowId, weight, priority, maxConcurrency, 0);
+    }
+
+    /**
+     * Registers a flow, or updates its share if already registered.
+     * 
+     * @param flowId
+     *            the flow identifier.
+     * @param weight
+     *            relative share of the workers among flows with the same priority, values
+     *            lower than 1 mean 1.
+     * @param priority
+     *            flows with higher priority are always served first.
+     * @param maxConcurrency
+     *            maximum number of tasks of the flow run at the same time, zero or negative
+     *            values mean the {@link #setShareConcurrency(int) share concurrency}.
+     * @param capacity
+     *            maximum number of tasks of the flow waiting for a worker, zero or negative
+     *            values mean no limit.
+     */
+    public Share register(final String flowId, final int weight, final int priority,
+            final int maxConcurrency, final int capacity) {
+        lock.lock();
+        try {
+            Share share = null;
+            for (Share candidate : shares)
+                if (candidate.flowId.equals(flowId))
+                    share = candidate;
+            if (share == null) {
+                share = new Share(flowId);
+                share.virtualTime = virtualTime;
+                shares.add(share);
+            }
+            share.weight = weight > 0 ? weight : 1;
+            share.priority = priority;
+            share.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : 0;
+            share.capacity = capacity > 0 ? capacity : 0;
+            // a higher limit may make the flow eligible, a higher capacity may make room
+            available.signalAll();
+            notFull.signalAll();
+            return share;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a flow, its queued tasks are discarded.
+     * 
+     * @return the discarded tasks.
+     */
+    public List<Runnable> unregister(final Share share) {
+        lock.lock();
+        try {
+            shares.remove(share);
+            share.closed = true;
+            final List<Runnable> discarded = new ArrayList<Runnable>(share.queue);
+            share.queue.clear();
+            notFull.signalAll();
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the registered shares.
+     */
+    public List<Share> getShares() {
+        lock.lock();
+        try {
+            return new ArrayList<Share>(shares);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a permit of the provided workload.
+     */
+    public void acquire(final ActionWorkload workload) throws InterruptedException {
+        permits(workload).acquire();
+    }
+
+    /**
+     * Returns a permit obtained through {@link #acquire(ActionWorkload)}.
+     */
+    public void release(final ActionWorkload workload) {
+        permits(workload).release();
+    }
+
+    /**
+     * @return the permits of the provided workload currently available.
+     */
+    public int getAvailablePermits(final ActionWorkload workload) {
+        return permits(workload).availablePermits();
+    }
+
+    /**
+     * Wraps an action so that it runs holding a permit of the provided workload.
+     * <p>
+     * The wrapper is a plain action even for a streaming action: a stage holding a permit while
+     * waiting for its upstream could starve it, throttled actions are therefore pipelined as
+     * batch stages.
+     */
+    public <T extends EventObject> Action<T> throttle(final Action<T> action, final ActionWorkload workload) {
+        return new Action<T>() {
+            public Queue<T> execute(Queue<T> events) throws Exception {
+                acquire(workload);
+                try {
+                    return action.execute(events);
+                } finally {
+                    release(workload);
+                }
+            }
+
+            public void destroy() {
+                action.destroy();
+            }
+        };
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads
+     *            number of workers running the tasks of all the flows.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getShareConcurrency() {
+        return shareConcurrency;
+    }
+
+    /**
+     * @param shareConcurrency
+     *            maximum number of tasks run at the same time for the flows which do not set
+     *            their own limit, zero or negative values mean half of the workers.
+     */
+    public void setShareConcurrency(int shareConcurrency) {
+        lock.lock();
+        try {
+            this.shareConcurrency = shareConcurrency;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCpuPermits() {
+        return cpuPermits;
+    }
+
+    /**
+     * @param cpuPermits
+     *            maximum number of {@link ActionWorkload#CPU} actions running at the same time.
+     */
+    public void setCpuPermits(int cpuPermits) {
+        this.cpuPermits = cpuPermits;
+    }
+
+    public int getIoPermits() {
+        return ioPermits;
+    }
+
+    /**
+     * @param ioPermits
+     *            maximum number of {@link ActionWorkload#IO} actions running at the same time.
+     */
+    public void setIoPermits(int ioPermits) {
+        this.ioPermits = ioPermits;
+    }
+
+    /**
+     * Stops the workers, tasks being run are interrupted and queued ones discarded.
+     */
+    @Override
+    public void dispose() {
+        lock.lock();
+        try {
+            disposed = true;
+            for (Share share : shares) {
+                share.closed = true;
+                share.queue.clear();
+            }
+            shares.clear();
+            notFull.signalAll();
+            for (Thread worker : workers)
+                worker.interrupt();
+            workers.clear();
+        } finally {
+            lock.unlock();
+        }
+        super.dispose();
+    }
+
+    private Semaphore permits(final ActionWorkload workload) {
+        lock.lock();
+        try {
+            if (cpu == null) {
+                cpu = new Semaphore(cpuPermits > 0 ? cpuPermits : 1, true);
+                io = new Semaphore(ioPermits > 0 ? ioPermits : 1, true);
+            }
+            return workload == ActionWorkload.CPU ? cpu : io;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the workers, must be called holding the lock.
+     */
+    private void start() {
+        if (!workers.isEmpty())
+            return;
+        final int count = threads > 0 ? threads : 1;
+        for (int i = 0; i < count; i++) {
+            final Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "FlowScheduler-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return the share to serve next, <code>null</code> if none is eligible. Must be called
+     *         holding the lock.
+     */
+    private Share next() {
+        Share next = null;
+        for (Share share : shares) {
+            if (!share.isEligible())
+                continue;
+            if (next == null || share.priority > next.priority
+                    || (share.priority == next.priority && share.virtualTime < next.virtualTime))
+                next = share;
+        }
+        return next;
+    }
+
+    private void work() {
+        while (true) {
+            final Share share;
+            final Runnable task;
+            lock.lock();
+            try {
+                Share next;
+                while ((next = next()) == null) {
+                    if (disposed)
+                        return;
+                    available.await();
+                }
+                share = next;
+                task = share.queue.removeFirst();
+                if (share.capacity > 0)
+                    notFull.signalAll();
+                share.running++;
+                virtualTime = share.virtualTime;
+                share.virtualTime += 1.0 / share.weight;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                if (LOGGER.isLoggable(Level.SEVERE))
+                    LOGGER.log(Level.SEVERE, "Task of flow " + share.flowId + " failed: "
+                            + t.getLocalizedMessage(), t);
+            } finally {
+                lock.lock();
+                try {
+                    share.running--;
+                    share.completed++;
+                    // the flow may be eligible again
+                    if (share.isEligible())
+                        available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
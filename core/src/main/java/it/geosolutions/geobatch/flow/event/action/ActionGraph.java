@@ -0,0 +1,403 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+import it.geosolutions.geobatch.configuration.event.action.ActionFailurePolicy;
+
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Directed acyclic graph of the actions of a consumer, built from the
+ * {@link ActionConfiguration#getDependsOn()} edges of their configurations.
+ * <p>
+ * An action without edges consumes the results of the previous action of the list, as in a
+ * plain action chain, an action with an empty list of edges consumes the events collected by
+ * the consumer and an action depending on several actions consumes their results in the order
+ * of its edges. Every action runs as soon as all its upstream actions are done, independent
+ * branches run in parallel on the provided executor and the consumer gets the results of the
+ * actions no other action depends on. Events handed over by several actions are only delivered
+ * once.
+ * <p>
+ * As in a chain, an action getting no events is not executed and the actions depending on it
+ * get nothing. A failure stops the whole graph unless the
+ * {@link ActionConfiguration#getFailurePolicy()} of the failed action is
+ * {@link ActionFailurePolicy#CONTINUE}, in which case only the actions depending on it are
+ * skipped.
+ * <p>
+ * Instances are immutable and shared by all the consumers of a flow.
+ */
+public final class ActionGraph {
+
+    private final static Logger LOGGER = Logger.getLogger(ActionGraph.class.toString());
+
+    /**
+     * Upstream actions of each action, by position in the action list.
+     */
+    private final int[][] upstream;
+
+    /**
+     * Downstream actions of each action, by position in the action list.
+     */
+    private final int[][] downstream;
+
+    private final boolean[] failFast;
+
+    private final String[] names;
+
+    /**
+     * @param configurations
+     *            the action configurations, in list order.
+     * @throws IllegalArgumentException
+     *             if an edge refers to an unknown action or the edges form a cycle.
+     */
+    public ActionGraph(final List<? extends ActionConfiguration> configurations) {
+        final int size = configurations.size();
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            final String id = configurations.get(i).getId();
+            if (id != null && positions.put(id, Integer.valueOf(i)) != null)
+                throw new IllegalArgumentException("Duplicated action id: " + id);
+        }
+
+        this.upstream = new int[size][];
+        this.failFast = new boolean[size];
+        this.names = new String[size];
+        final List<List<Integer>> down = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++)
+            down.add(new ArrayList<Integer>());
+        for (int i = 0; i < size; i++) {
+            final ActionConfiguration configuration = configurations.get(i);
+            names[i] = configuration.getId() != null ? configuration.getId() : "#" + i;
+            failFast[i] = configuration.getFailurePolicy() != ActionFailurePolicy.CONTINUE;
+            final List<String> dependsOn = configuration.getDependsOn();
+            if (dependsOn == null) {
+                upstream[i] = i > 0 ? new int[] { i - 1 } : new int[0];
+            } else {
+                upstream[i] = new int[dependsOn.size()];
+                for (int j = 0; j < upstream[i].length; j++) {
+                    final Integer position = positions.get(dependsOn.get(j));
+                    if (position == null)
+                        throw new IllegalArgumentException("Action " + names[i] + " depends on unknown action "
+                                + dependsOn.get(j));
+                    upstream[i][j] = position.intValue();
+                }
+            }
+            for (int j : upstream[i])
+                down.get(j).add(Integer.valueOf(i));
+        }
+        this.downstream = new int[size][];
+        for (int i = 0; i < size; i++) {
+            final List<Integer> list = down.get(i);
+            downstream[i] = new int[list.size()];
+            for (int j = 0; j < downstream[i].length; j++)
+                downstream[i][j] = list.get(j).intValue();
+        }
+        checkAcyclic();
+    }
+
+    /**
+     * @return <code>true</code> if at least one of the provided configurations declares its
+     *         dependencies, i.e. if the actions do not form a plain chain.
+     */
+    public static boolean isGraph(final List<? extends ActionConfiguration> configurations) {
+        if (configurations == null)
+            return false;
+        for (ActionConfiguration configuration : configurations)
+            if (configuration.getDependsOn() != null)
+                return true;
+        return false;
+    }
+
+    /**
+     * Tells whether a task submitted to an executor is a branch of an action graph. Branches
+     * are also run by the consumer waiting for them, executors should reject them rather than
+     * block their submitter.
+     */
+    public static boolean isBranch(final Runnable task) {
+        return task instanceof Branch<?>;
+    }
+
+    /**
+     * @return the number of actions of the graph.
+     */
+    public int size() {
+        return upstream.length;
+    }
+
+    /**
+     * Runs the provided actions on the provided events.
+     * 
+     * @param actions
+     *            the actions, in the order of the configurations the graph has been built from.
+     *            A <code>null</code> action hands its input to its downstream actions untouched.
+     * @param executor
+     *            runs the independent branches, may be <code>null</code> to run the whole graph
+     *            on the calling thread.
+     * @return the results of the actions no other action depends on.
+     * @throws Exception
+     *             the failure of an action whose policy is {@link ActionFailurePolicy#FAIL}.
+     */
+    public <T extends EventObject> Queue<T> execute(final List<Action<T>> actions, final Queue<T> events,
+            final Executor executor) throws Exception {
+        if (actions.size() != size())
+            throw new IllegalArgumentException("Expected " + size() + " actions, got " + actions.size());
+        return new Execution<T>(actions, events, executor).run();
+    }
+
+    private void checkAcyclic() {
+        final int size = upstream.length;
+        final int[] pending = new int[size];
+        final LinkedList<Integer> ready = new LinkedList<Integer>();
+        for (int i = 0; i < size; i++) {
+            pending[i] = upstream[i].length;
+            if (pending[i] == 0)
+                ready.add(Integer.valueOf(i));
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            final int i = ready.removeFirst().intValue();
+            visited++;
+            for (int j : downstream[i])
+                if (--pending[j] == 0)
+                    ready.add(Integer.valueOf(j));
+        }
+        if (visited < size)
+            throw new IllegalArgumentException("Action dependencies form a cycle");
+    }
+
+    /**
+     * An action of the graph running on the executor.
+     */
+    private final static class Branch<T extends EventObject> extends FutureTask<Queue<T>> {
+        private final int index;
+
+        private final BlockingQueue<Branch<T>> completions;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private Branch(final int index, final Callable<Queue<T>> callable, final BlockingQueue<Branch<T>> completions) {
+            super(callable);
+            this.index = index;
+            this.completions = completions;
+        }
+
+        /**
+         * Runs the action, unless another thread already did.
+         */
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true))
+                super.run();
+        }
+
+        /**
+         * Cancels the action if it did not start yet, started actions are left running.
+         */
+        private void discard() {
+            if (started.compareAndSet(false, true))
+                cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            completions.add(this);
+        }
+    }
+
+    /**
+     * State of a single run of the graph, used by the calling thread only.
+     */
+    private final class Execution<T extends EventObject> {
+        private final List<Action<T>> actions;
+
+        private final Queue<T> events;
+
+        private final Executor executor;
+
+        private final BlockingQueue<Branch<T>> completions = new LinkedBlockingQueue<Branch<T>>();
+
+        /**
+         * Results of the done actions, <code>null</code> for the failed or skipped ones.
+         */
+        private final List<Queue<T>> results;
+
+        private final int[] pending;
+
+        private final LinkedList<Branch<T>> running = new LinkedList<Branch<T>>();
+
+        private int finished;
+
+        private Exception failure;
+
+        private Execution(final List<Action<T>> actions, final Queue<T> events, final Executor executor) {
+            this.actions = actions;
+            this.events = events;
+            this.executor = executor;
+            this.results = new ArrayList<Queue<T>>(size());
+            this.pending = new int[size()];
+            for (int i = 0; i < size(); i++) {
+                results.add(null);
+                pending[i] = upstream[i].length;
+            }
+        }
+
+        private Queue<T> run() throws Exception {
+            for (int i = 0; i < size(); i++)
+                if (upstream[i].length == 0)
+                    start(i);
+
+            while (finished < size()) {
+                // run ourselves what the executor did not start yet, latest first
+                for (int i = running.size() - 1; i >= 0; i--)
+                    running.get(i).run();
+                final Branch<T> branch = completions.take();
+                running.remove(branch);
+                try {
+                    completed(branch.index, branch.get());
+                } catch (CancellationException e) {
+                    finished++;
+                } catch (ExecutionException e) {
+                    failed(branch.index, e.getCause());
+                }
+            }
+
+            if (failure != null)
+                throw failure;
+            final Queue<T> outputs = new LinkedList<T>();
+            for (int i = 0; i < size(); i++)
+                if (downstream[i].length == 0 && results.get(i) != null)
+                    merge(outputs, results.get(i));
+            return outputs;
+        }
+
+        /**
+         * Appends the events not already in the target queue, events handed over by several
+         * branches are only delivered once.
+         */
+        private void merge(final Queue<T> target, final Queue<T> events) {
+            if (target.isEmpty()) {
+                target.addAll(events);
+                return;
+            }
+            final Map<T, Boolean> present = new IdentityHashMap<T, Boolean>();
+            for (T event : target)
+                present.put(event, Boolean.TRUE);
+            for (T event : events)
+                if (present.put(event, Boolean.TRUE) == null)
+                    target.add(event);
+        }
+
+        /**
+         * Starts an action whose upstream actions are all done.
+         */
+        private void start(final int index) {
+            final Queue<T> input = new LinkedList<T>();
+            if (upstream[index].length == 0)
+                input.addAll(events);
+            for (int i : upstream[index]) {
+                final Queue<T> result = results.get(i);
+                if (result == null) {
+                    // upstream failed or skipped
+                    skipped(index);
+                    return;
+                }
+                merge(input, result);
+            }
+
+            final Action<T> action = actions.get(index);
+            if (action == null || input.isEmpty()) {
+                completed(index, input);
+                return;
+            }
+
+            final Branch<T> branch = new Branch<T>(index, new Callable<Queue<T>>() {
+                public Queue<T> call() throws Exception {
+                    return action.execute(input);
+                }
+            }, completions);
+            running.add(branch);
+            if (executor != null) {
+                try {
+                    executor.execute(branch);
+                } catch (RejectedExecutionException e) {
+                    // run by the calling thread
+                }
+            }
+        }
+
+        private void completed(final int index, final Queue<T> result) {
+            finished++;
+            results.set(index, result != null ? result : new LinkedList<T>());
+            if (failure != null)
+                return;
+            for (int i : downstream[index])
+                if (--pending[i] == 0)
+                    start(i);
+        }
+
+        private void failed(final int index, final Throwable cause) {
+            if (LOGGER.isLoggable(Level.INFO))
+                LOGGER.log(Level.INFO, "Action " + names[index] + " failed: " + cause.getLocalizedMessage(), cause);
+            if (failFast[index] && failure == null) {
+                failure = cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+                // actions not started yet are given up, the running ones are waited for
+                for (Branch<T> branch : running)
+                    branch.discard();
+                finished = size() - running.size();
+                return;
+            }
+            skipped(index);
+        }
+
+        /**
+         * Marks an action as done without results, skipping its downstream actions.
+         */
+        private void skipped(final int index) {
+            finished++;
+            if (failure != null)
+                return;
+            for (int i : downstream[index])
+                if (--pending[i] == 0)
+                    skipped(i);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a chain of actions as concurrent stages connected by bounded {@link EventChannel}s,
+ * instead of handing the whole event queue from one action to the next.
+ * <p>
+ * {@link StreamingAction}s see the events as soon as the previous stage emits them, any other
+ * action is adapted to a stage collecting its whole input, executing the action once and
+ * emitting its results: a chain of plain actions therefore behaves as before. As before, an
+ * action receiving no events is not executed at all.
+ * <p>
+ * The last stage runs on the calling thread, the others on a shared pool of daemon threads whose
+ * size can be set through the {@link #THREADS_KEY} system property. A pipeline only starts if
+ * the pool can run all its stages at once, otherwise its actions are executed one after the
+ * other on the calling thread, as a plain chain. A failing stage aborts all the channels,
+ * tearing down the pipeline, and its exception is rethrown to the caller.
+ */
+public final class ActionPipeline {
+
+    private final static Logger LOGGER = Logger.getLogger(ActionPipeline.class.toString());
+
+    /**
+     * Default maximum number of events waiting between two stages.
+     */
+    public final static int DEFAULT_CAPACITY = 100;
+
+    public final static String THREADS_KEY = "it.geosolutions.geobatch.pipeline.threads";
+
+    private final static int THREADS = Math.max(1, Integer.getInteger(THREADS_KEY,
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors())).intValue());
+
+    private final static ExecutorService STAGES = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "ActionPipeline-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Pool threads not reserved by a running pipeline.
+     */
+    private final static Semaphore PERMITS = new Semaphore(THREADS);
+
+    private ActionPipeline() {
+    }
+
+    /**
+     * @return <code>true</code> if at least one of the provided actions is a
+     *         {@link StreamingAction}, i.e. if pipelining them makes any difference.
+     */
+    public static <T extends EventObject> boolean isStreaming(final List<Action<T>> actions) {
+        for (Action<T> action : actions)
+            if (action instanceof StreamingAction<?>)
+                return true;
+        return false;
+    }
+
+    /**
+     * Adapts a plain action to the streaming contract, streaming actions are returned as is.
+     */
+    public static <T extends EventObject> StreamingAction<T> adapt(final Action<T> action) {
+        if (action instanceof StreamingAction<?>)
+            return (StreamingAction<T>) action;
+        return new BatchStage<T>(action);
+    }
+
+    /**
+     * Runs the provided actions on the provided events.
+     * 
+     * @param capacity
+     *            maximum number of events waiting between two stages.
+     * @return the events emitted by the last action.
+     * @throws Exception
+     *             the first failure of a stage.
+     */
+    public static <T extends EventObject> Queue<T> execute(final List<Action<T>> actions, final Queue<T> events,
+            final int capacity) throws Exception {
+        final int count = actions.size();
+        if (count == 0)
+            return events;
+        // stages wait for each other, all of them must run at the same time
+        if (count > 1 && !PERMITS.tryAcquire(count - 1)) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("No room for " + (count - 1) + " pipeline stages, running the actions in sequence");
+            return chain(actions, events);
+        }
+
+        final List<EventChannel<T>> channels = new ArrayList<EventChannel<T>>(count + 1);
+        channels.add(new EventChannel<T>(Integer.MAX_VALUE));
+        for (int i = 1; i < count; i++)
+            channels.add(new EventChannel<T>(capacity));
+        channels.add(new EventChannel<T>(Integer.MAX_VALUE));
+
+        final EventChannel<T> input = channels.get(0);
+        for (T event : events)
+            input.put(event);
+        input.close();
+
+        final Failure failure = new Failure(channels);
+        final List<Future<?>> stages = new ArrayList<Future<?>>(count - 1);
+        try {
+            for (int i = 0; i < count - 1; i++) {
+                final FutureTask<Object> stage = new FutureTask<Object>(new Stage<T>(adapt(actions.get(i)),
+                        channels.get(i), channels.get(i + 1), failure), null) {
+                    @Override
+                    public void run() {
+                        // a cancelled stage may still be running, keep its thread reserved
+                        // until it returns
+                        try {
+                            super.run();
+                        } finally {
+                            PERMITS.release();
+                        }
+                    }
+                };
+                STAGES.execute(stage);
+                stages.add(stage);
+            }
+            new Stage<T>(adapt(actions.get(count - 1)), channels.get(count - 1), channels.get(count), failure)
+                    .run();
+            for (Future<?> stage : stages)
+                stage.get();
+        } catch (InterruptedException e) {
+            failure.set(e);
+            for (Future<?> stage : stages)
+                stage.cancel(true);
+        } catch (ExecutionException e) {
+            failure.set(e.getCause());
+        }
+
+        final Throwable cause = failure.get();
+        if (cause instanceof Exception)
+            throw (Exception) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+
+        final EventChannel<T> output = channels.get(count);
+        final Queue<T> results = new LinkedList<T>();
+        T event;
+        while ((event = output.take()) != null)
+            results.add(event);
+        return results;
+    }
+
+    /**
+     * @return the number of pool threads not reserved by a running pipeline.
+     */
+    static int getAvailableThreads() {
+        return PERMITS.availablePermits();
+    }
+
+    /**
+     * @return the size of the pool running the stages.
+     */
+    static int getThreads() {
+        return THREADS;
+    }
+
+    /**
+     * Runs the provided actions one after the other on the calling thread.
+     */
+    private static <T extends EventObject> Queue<T> chain(final List<Action<T>> actions, Queue<T> events)
+            throws Exception {
+        for (Action<T> action : actions) {
+            if (events == null || events.isEmpty())
+                return new LinkedList<T>();
+            events = action.execute(events);
+        }
+        return events != null ? events : new LinkedList<T>();
+    }
+
+    /**
+     * First failure of a pipeline, aborting its channels.
+     */
+    private final static class Failure {
+        private final List<? extends EventChannel<?>> channels;
+
+        private Throwable cause;
+
+        private Failure(final List<? extends EventChannel<?>> channels) {
+            this.channels = channels;
+        }
+
+        private void set(final Throwable t) {
+            synchronized (this) {
+                if (cause != null)
+                    return;
+                cause = t;
+            }
+            for (EventChannel<?> channel : channels)
+                channel.abort();
+        }
+
+        private synchronized Throwable get() {
+            return cause;
+        }
+    }
+
+    private final static class Stage<T extends EventObject> implements Runnable {
+        private final StreamingAction<T> action;
+
+        private final EventChannel<T> input;
+
+        private final EventChannel<T> output;
+
+        private final Failure failure;
+
+        private Stage(final StreamingAction<T> action, final EventChannel<T> input, final EventChannel<T> output,
+                final Failure failure) {
+            this.action = action;
+            this.input = input;
+            this.output = output;
+            this.failure = failure;
+        }
+
+        public void run() {
+            try {
+                action.process(input, output);
+                output.close();
+                // do not leave the upstream stage blocked on a full channel
+                while (input.take() != null)
+                    ;
+            } catch (Throwable t) {
+                if (!input.isAborted() && LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, "Stage " + action + " failed: " + t.getLocalizedMessage(), t);
+                failure.set(t);
+                // let the caller running the last stage cancel the others
+                if (t instanceof InterruptedException)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs a plain action once on its whole input.
+     */
+    private final static class BatchStage<T extends EventObject> implements StreamingAction<T> {
+        private final Action<T> action;
+
+        private BatchStage(final Action<T> action) {
+            this.action = action;
+        }
+
+        public void process(EventChannel<T> input, EventChannel<T> output) throws Exception {
+            final Queue<T> events = new LinkedList<T>();
+            T event;
+            while ((event = input.take()) != null)
+                events.add(event);
+            if (events.isEmpty() || input.isAborted())
+                return;
+            final Queue<T> results = action.execute(events);
+            if (results != null)
+                for (T result : results)
+                    output.put(result);
+        }
+
+        public Queue<T> execute(Queue<T> events) throws Exception {
+            return action.execute(events);
+        }
+
+        public void destroy() {
+            action.destroy();
+        }
+
+        @Override
+        public String toString() {
+            return action.toString();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the warm action instances of a flow, keyed by their configuration.
+ * <p>
+ * {@link ActionReuse#SHAREABLE} actions are created once and handed to every consumer,
+ * {@link ActionReuse#POOLED} ones are lent to a consumer at a time and kept idle, up to a
+ * limit, once given back. Any other action is created on each {@link #borrow} as the
+ * consumers used to do.
+ * 
+ * @param <T>
+ */
+public class ActionPool<T extends EventObject> {
+
+    private final static Logger LOGGER = Logger.getLogger(ActionPool.class.toString());
+
+    private final int maxIdle;
+
+    private final Map<ActionConfiguration, Action<T>> shared = new IdentityHashMap<ActionConfiguration, Action<T>>();
+
+    private final Map<ActionConfiguration, LinkedList<Action<T>>> idle = new IdentityHashMap<ActionConfiguration, LinkedList<Action<T>>>();
+
+    /**
+     * Configuration of each lent pooled action.
+     */
+    private final Map<Action<T>, ActionConfiguration> lent = new IdentityHashMap<Action<T>, ActionConfiguration>();
+
+    private long createdCount;
+
+    private long reusedCount;
+
+    private boolean disposed;
+
+    /**
+     * @param maxIdle
+     *            maximum number of idle instances kept for each pooled action configuration.
+     */
+    public ActionPool(final int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Gets an action for the provided configuration, reusing a warm instance when allowed.
+     * 
+     * @return the action or <code>null</code> if the service could not create it.
+     */
+    public <C extends ActionConfiguration> Action<T> borrow(final ActionService<T, C> service, final C configuration) {
+        synchronized (this) {
+            final Action<T> action = shared.get(configuration);
+            if (action != null) {
+                reusedCount++;
+                return action;
+            }
+            final LinkedList<Action<T>> instances = idle.get(configuration);
+            if (instances != null && !instances.isEmpty()) {
+                final Action<T> pooled = instances.removeFirst();
+                lent.put(pooled, configuration);
+                reusedCount++;
+                return pooled;
+            }
+        }
+
+        // create outside the lock, it may be slow
+        final Action<T> action = service.createAction(configuration);
+        if (action == null)
+            return null;
+        synchronized (this) {
+            createdCount++;
+            switch (reuseOf(action)) {
+            case SHAREABLE:
+                final Action<T> winner = shared.get(configuration);
+                if (winner != null) {
+                    // lost a race with another consumer
+                    action.destroy();
+                    return winner;
+                }
+                if (!disposed)
+                    shared.put(configuration, action);
+                break;
+            case POOLED:
+                lent.put(action, configuration);
+                break;
+            default:
+                break;
+            }
+        }
+        return action;
+    }
+
+    /**
+     * Gives back an action obtained from {@link #borrow}, pooled instances are reset and kept
+     * for the next consumer.
+     */
+    public void giveBack(final Action<T> action) {
+        if (action == null)
+            return;
+        final ActionConfiguration configuration;
+        synchronized (this) {
+            configuration = lent.remove(action);
+        }
+        if (configuration == null)
+            return;
+
+        boolean keep;
+        try {
+            ((ReusableAction<T>) action).reset();
+            keep = true;
+        } catch (Exception e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Discarding " + action + ", unable to reset it: "
+                        + e.getLocalizedMessage(), e);
+            keep = false;
+        }
+        synchronized (this) {
+            if (keep && !disposed) {
+                LinkedList<Action<T>> instances = idle.get(configuration);
+                if (instances == null) {
+                    instances = new LinkedList<Action<T>>();
+                    idle.put(configuration, instances);
+                }
+                if (instances.size() < maxIdle) {
+                    instances.addFirst(action);
+                    return;
+                }
+            }
+        }
+        action.destroy();
+    }
+
+    /**
+     * @return the number of actions created so far.
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return the number of times a warm action has been handed out.
+     */
+    public synchronized long getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Destroys the idle and shared actions, lent ones are destroyed when given back.
+     */
+    public void dispose() {
+        final List<Action<T>> actions = new ArrayList<Action<T>>();
+        synchronized (this) {
+            disposed = true;
+            actions.addAll(shared.values());
+            shared.clear();
+            for (LinkedList<Action<T>> instances : idle.values())
+                actions.addAll(instances);
+            idle.clear();
+        }
+        for (Action<T> action : actions)
+            action.destroy();
+    }
+
+    private static ActionReuse reuseOf(final Action<?> action) {
+        if (action instanceof ReusableAction<?>) {
+            final ActionReuse reuse = ((ReusableAction<?>) action).getReuse();
+            if (reuse != null)
+                return reuse;
+        }
+        return ActionReuse.NONE;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+/**
+ * How an action instance can be reused across consumer executions, see {@link ReusableAction}.
+ */
+public enum ActionReuse {
+    /**
+     * A new instance is created for each consumer, the default for actions not implementing
+     * {@link ReusableAction}.
+     */
+    NONE,
+
+    /**
+     * A single thread safe instance is shared by all the consumers of a flow, even
+     * concurrently.
+     */
+    SHAREABLE,
+
+    /**
+     * Instances are used by one consumer at a time, then reset and handed to the next one.
+     */
+    POOLED
+}
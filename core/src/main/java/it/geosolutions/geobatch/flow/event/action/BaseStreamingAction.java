@@ -0,0 +1,53 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.EventObject;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Base class of the {@link StreamingAction}s, running {@link #process} on in memory channels
+ * when the action is executed as a whole batch.
+ * 
+ * @param <T>
+ */
+public abstract class BaseStreamingAction<T extends EventObject> extends BaseAction<T> implements
+        StreamingAction<T> {
+
+    public Queue<T> execute(Queue<T> events) throws Exception {
+        final EventChannel<T> input = new EventChannel<T>(Integer.MAX_VALUE);
+        for (T event : events)
+            input.put(event);
+        input.close();
+        final EventChannel<T> output = new EventChannel<T>(Integer.MAX_VALUE);
+        process(input, output);
+        output.close();
+
+        final Queue<T> results = new LinkedList<T>();
+        T event;
+        while ((event = output.take()) != null)
+            results.add(event);
+        return results;
+    }
+}
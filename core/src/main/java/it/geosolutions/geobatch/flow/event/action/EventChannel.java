@@ -0,0 +1,166 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.EventObject;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, closeable channel moving events from a {@link StreamingAction} to the next one.
+ * <p>
+ * The producer blocks on {@link #put} while the channel is full and {@link #close}s it once
+ * done, the consumer blocks on {@link #take} until an event is available and gets
+ * <code>null</code> once the channel is closed and drained. {@link #abort} discards the
+ * channel content and releases both sides, it is used to tear down a failing pipeline.
+ * 
+ * @param <T>
+ */
+public final class EventChannel<T extends EventObject> {
+
+    private final int capacity;
+
+    private final LinkedList<T> events = new LinkedList<T>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private boolean closed;
+
+    private boolean aborted;
+
+    /**
+     * @param capacity
+     *            maximum number of events waiting in the channel, values lower than 1 mean 1.
+     */
+    public EventChannel(final int capacity) {
+        this.capacity = capacity > 0 ? capacity : 1;
+    }
+
+    /**
+     * Emits an event, waiting for room in the channel.
+     * 
+     * @throws IllegalStateException
+     *             if the channel has been closed or aborted.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public void put(final T event) throws InterruptedException {
+        if (event == null)
+            throw new NullPointerException("Event is null");
+        lock.lockInterruptibly();
+        try {
+            while (!closed && !aborted && events.size() >= capacity)
+                notFull.await();
+            if (aborted)
+                throw new IllegalStateException("Channel aborted");
+            if (closed)
+                throw new IllegalStateException("Channel closed");
+            events.addLast(event);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the next event, waiting for one to be available.
+     * 
+     * @return the next event or <code>null</code> if the channel is closed and drained, or
+     *         aborted.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!aborted && !closed && events.isEmpty())
+                notEmpty.await();
+            if (aborted || events.isEmpty())
+                return null;
+            final T event = events.removeFirst();
+            notFull.signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the consumer no more events will come, the events already in the channel can still
+     * be taken.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the content of the channel and releases any waiting producer or consumer.
+     */
+    public void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            events.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the channel has been aborted.
+     */
+    public boolean isAborted() {
+        lock.lock();
+        try {
+            return aborted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events waiting in the channel.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return events.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.EventObject;
+
+/**
+ * Optional contract of the actions whose instances may outlive a consumer execution, so that
+ * their construction and initialization cost is paid once per flow instead of once per run.
+ * See {@link ActionPool}.
+ * 
+ * @param <T>
+ */
+public interface ReusableAction<T extends EventObject> extends Action<T> {
+
+    /**
+     * @return how this instance can be reused, must not change over its lifetime.
+     */
+    public ActionReuse getReuse();
+
+    /**
+     * Clears any state left by the last execution, called before a {@link ActionReuse#POOLED}
+     * instance goes back to the pool. An exception discards the instance.
+     */
+    public void reset() throws Exception;
+}
@@ -0,0 +1,51 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.EventObject;
+
+/**
+ * Optional contract of the actions able to emit their results while still processing their
+ * input, so that the next action of the flow can start working on the first results instead of
+ * waiting for the whole batch. See {@link ActionPipeline}.
+ * <p>
+ * Streaming actions must still honour {@link Action#execute}, which is used when they are not
+ * pipelined, {@link BaseStreamingAction} implements it on top of {@link #process}.
+ * 
+ * @param <T>
+ */
+public interface StreamingAction<T extends EventObject> extends Action<T> {
+
+    /**
+     * Processes the events of the input channel as they arrive, emitting the results to the
+     * output channel. The caller closes the output channel once this method returns, input
+     * events left in the channel are discarded.
+     * 
+     * @param input
+     *            the events to process, {@link EventChannel#take()} returns <code>null</code>
+     *            once the upstream action is done.
+     * @param output
+     *            where the results are emitted.
+     */
+    public void process(EventChannel<T> input, EventChannel<T> output) throws Exception;
+}
@@ -0,0 +1,103 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import it.geosolutions.geobatch.metrics.Counter;
+import it.geosolutions.geobatch.metrics.Timer;
+
+import java.io.File;
+import java.util.EventObject;
+import java.util.Queue;
+
+/**
+ * Wraps an action so that its executions are timed and the size of the files it emits is
+ * counted. Streaming actions stay streaming, only the time they spend processing is measured.
+ * 
+ * @param <T>
+ */
+public class TimedAction<T extends EventObject> implements Action<T> {
+
+    protected final Action<T> action;
+
+    protected final Timer timer;
+
+    private final Counter bytes;
+
+    /**
+     * @param bytes
+     *            counts the bytes of the files emitted by the action, may be <code>null</code>.
+     */
+    public static <T extends EventObject> Action<T> wrap(final Action<T> action, final Timer timer,
+            final Counter bytes) {
+        if (action instanceof StreamingAction<?>)
+            return new Streaming<T>((StreamingAction<T>) action, timer);
+        return new TimedAction<T>(action, timer, bytes);
+    }
+
+    private TimedAction(final Action<T> action, final Timer timer, final Counter bytes) {
+        this.action = action;
+        this.timer = timer;
+        this.bytes = bytes;
+    }
+
+    public Queue<T> execute(Queue<T> events) throws Exception {
+        final long start = System.nanoTime();
+        final Queue<T> results;
+        try {
+            results = action.execute(events);
+        } finally {
+            timer.update(System.nanoTime() - start);
+        }
+        if (bytes != null && results != null)
+            for (T result : results)
+                if (result.getSource() instanceof File)
+                    bytes.inc(((File) result.getSource()).length());
+        return results;
+    }
+
+    public void destroy() {
+        action.destroy();
+    }
+
+    @Override
+    public String toString() {
+        return action.toString();
+    }
+
+    private final static class Streaming<T extends EventObject> extends TimedAction<T> implements
+            StreamingAction<T> {
+
+        private Streaming(final StreamingAction<T> action, final Timer timer) {
+            super(action, timer, null);
+        }
+
+        public void process(EventChannel<T> input, EventChannel<T> output) throws Exception {
+            final long start = System.nanoTime();
+            try {
+                ((StreamingAction<T>) action).process(input, output);
+            } finally {
+                timer.update(System.nanoTime() - start);
+            }
+        }
+    }
+}
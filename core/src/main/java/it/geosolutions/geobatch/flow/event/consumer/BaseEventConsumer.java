@@ -28,12 +28,15 @@ import it.geosolutions.geobatch.catalog.Catalog;
 import it.geosolutions.geobatch.catalog.impl.BaseResource;
 import it.geosolutions.geobatch.configuration.event.consumer.EventConsumerConfiguration;
 import it.geosolutions.geobatch.flow.event.action.Action;
+import it.geosolutions.geobatch.flow.event.action.ActionGraph;
+import it.geosolutions.geobatch.flow.event.action.ActionPipeline;
 
 import java.util.ArrayList;
 import java.util.EventObject;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -60,7 +63,18 @@ public abstract class BaseEventConsumer<EO extends EventObject, ECC extends Even
 
     protected final List<Action<EO>> actions = new ArrayList<Action<EO>>();
 
-	private EventListenerList listeners = new EventListenerList();
+    /**
+     * Dependency graph of the actions, <code>null</code> if they run as a chain.
+     */
+    private ActionGraph actionGraph;
+
+    /**
+     * Runs the independent branches of the action graph, <code>null</code> to run them on the
+     * consumer thread.
+     */
+    private volatile Executor actionExecutor;
+
+	private final EventListenerList listeners = new EventListenerList();
 
     // ----------------------------------------------- PRIVATE ATTRIBUTES
     /**
@@ -114,8 +128,34 @@ public abstract class BaseEventConsumer<EO extends EventObject, ECC extends Even
         // //
         // now changing eventConsumerStatus
         // //
+        final EventConsumerStatus oldStatus = this.eventConsumerStatus;
         this.eventConsumerStatus = eventConsumerStatus;
 
+        if (oldStatus != eventConsumerStatus)
+            fireStatusChanged(oldStatus, eventConsumerStatus);
+    }
+
+    /**
+     * Notifies the registered {@link EventConsumerListener}s about a status change.
+     * 
+     * @param oldStatus
+     *            the previous status, may be <code>null</code> during construction.
+     * @param newStatus
+     *            the current status.
+     */
+    protected void fireStatusChanged(EventConsumerStatus oldStatus, EventConsumerStatus newStatus) {
+        // Guaranteed to return a non-null array
+        final Object[] listenerArray = listeners.getListenerList();
+        for (int i = listenerArray.length - 2; i >= 0; i -= 2) {
+            if (listenerArray[i] == EventConsumerListener.class) {
+                try {
+                    ((EventConsumerListener) listenerArray[i + 1]).statusChanged(oldStatus, newStatus);
+                } catch (RuntimeException e) {
+                    if (LOGGER.isLoggable(Level.WARNING))
+                        LOGGER.log(Level.WARNING, "Listener failure: " + e.getLocalizedMessage(), e);
+                }
+            }
+        }
     }
 
     /*
@@ -147,6 +187,29 @@ public abstract class BaseEventConsumer<EO extends EventObject, ECC extends Even
 			LOGGER.log(Level.FINE, "Applying " + actions.size() + " actions on "
 					+ events.size() + " events.");
 
+        if (actionGraph != null) {
+            try {
+                events = actionGraph.execute(this.actions, events, actionExecutor);
+            } catch (Exception e) {
+                if (LOGGER.isLoggable(Level.INFO))
+                    LOGGER.log(Level.INFO, e.getLocalizedMessage(), e);
+                return false;
+            }
+            return events != null && !events.isEmpty();
+        }
+
+        // streaming actions are pipelined with the ones around them
+        if (ActionPipeline.isStreaming(this.actions)) {
+            try {
+                events = ActionPipeline.execute(this.actions, events, ActionPipeline.DEFAULT_CAPACITY);
+            } catch (Exception e) {
+                if (LOGGER.isLoggable(Level.INFO))
+                    LOGGER.log(Level.INFO, e.getLocalizedMessage(), e);
+                return false;
+            }
+            return events != null && !events.isEmpty();
+        }
+
 		// apply all the actions
         for (Action<EO> action : this.actions) {
             try {
@@ -166,6 +229,21 @@ public abstract class BaseEventConsumer<EO extends EventObject, ECC extends Even
         this.actions.addAll(actions);
     }
 
+    /**
+     * Sets the dependency graph of the actions, which must then be added in the order of the
+     * configurations the graph has been built from.
+     */
+    protected void setActionGraph(final ActionGraph actionGraph) {
+        this.actionGraph = actionGraph;
+    }
+
+    /**
+     * Sets the executor running the independent branches of the action graph, if any.
+     */
+    public void setActionExecutor(final Executor actionExecutor) {
+        this.actionExecutor = actionExecutor;
+    }
+
     public void dispose() {
         eventsQueue.clear();
         actions.clear();
@@ -186,7 +264,7 @@ public abstract class BaseEventConsumer<EO extends EventObject, ECC extends Even
 	    // those that are interested in this event
 	    final int length = listenerArray.length;
 	    for (int i = length - 2; i >= 0; i -= 2) {
-	        if (listenerArray[i].equals(fileListener)) {
+	        if (listenerArray[i + 1].equals(fileListener)) {
 	            return;
 	
 	        }
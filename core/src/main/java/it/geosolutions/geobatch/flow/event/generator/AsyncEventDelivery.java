@@ -0,0 +1,232 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers events from a dedicated thread, in order.
+ * <p>
+ * The delivery thread drains all the queued events at once and hands them to the listeners as
+ * a batch, calling {@link BatchFlowEventListener#eventsGenerated(List)} where available.
+ * Consecutive events are batched together as long as they were generated for the same
+ * listeners.
+ * <p>
+ * The queue is bounded: when it is full the generating thread either waits for room or, in
+ * caller runs mode, delivers the queued events and then its own to the listeners itself, like
+ * the flow mailboxes do. Deliveries never overlap, so that the events reach the listeners in
+ * the order they were generated whichever thread delivers them.
+ */
+public class AsyncEventDelivery<T extends EventObject> implements EventDelivery<T> {
+
+    private final static Logger LOGGER = Logger.getLogger(AsyncEventDelivery.class.toString());
+
+    /**
+     * Maximum number of events delivered in a single batch.
+     */
+    private final static int MAX_BATCH_SIZE = 1024;
+
+    /**
+     * Default number of events waiting for delivery.
+     */
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Milliseconds a generating thread waits for the delivery thread before trying the queue
+     * again, in caller runs mode.
+     */
+    private final static long CALLER_RUNS_WAIT = 10;
+
+    private final static class Delivery<T extends EventObject> {
+        private final T event;
+
+        private final List<FlowEventListener<T>> listeners;
+
+        private Delivery(T event, List<FlowEventListener<T>> listeners) {
+            this.event = event;
+            this.listeners = listeners;
+        }
+    }
+
+    private final BlockingQueue<Delivery<T>> queue;
+
+    private final boolean callerRuns;
+
+    /**
+     * Held while taking events from the queue and delivering them, fair so that a generating
+     * thread waiting for it goes before the next round of the delivery thread.
+     */
+    private final ReentrantLock deliveryLock = new ReentrantLock(true);
+
+    private final Thread worker;
+
+    private volatile boolean disposed;
+
+    /**
+     * @param name
+     *            name of the generator, used to name the delivery thread.
+     */
+    public AsyncEventDelivery(final String name) {
+        this(name, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param name
+     *            name of the generator, used to name the delivery thread.
+     * @param capacity
+     *            maximum number of events waiting for delivery, {@link #DEFAULT_CAPACITY} if
+     *            not positive.
+     * @param callerRuns
+     *            whether the generating thread delivers the events itself when the queue is
+     *            full rather than waiting for room.
+     */
+    public AsyncEventDelivery(final String name, final int capacity, final boolean callerRuns) {
+        this.queue = new ArrayBlockingQueue<Delivery<T>>(capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        this.callerRuns = callerRuns;
+        this.worker = new Thread(new Runnable() {
+            public void run() {
+                deliverLoop();
+            }
+        }, "EventDeliveryThread-" + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public void deliver(final T event, final List<FlowEventListener<T>> listeners) {
+        if (disposed)
+            throw new IllegalStateException("Event delivery disposed");
+        final Delivery<T> delivery = new Delivery<T>(event, listeners);
+        if (queue.offer(delivery))
+            return;
+        if (callerRuns) {
+            // the delivery thread may meanwhile have emptied the queue and be waiting for
+            // events holding the lock, hence try the queue again between the attempts
+            do {
+                try {
+                    if (deliveryLock.tryLock(CALLER_RUNS_WAIT, TimeUnit.MILLISECONDS)) {
+                        try {
+                            // the queued events go first
+                            final List<Delivery<T>> pending = new ArrayList<Delivery<T>>();
+                            queue.drainTo(pending);
+                            deliverPending(pending);
+                            deliverBatch(Collections.singletonList(event), listeners);
+                        } finally {
+                            deliveryLock.unlock();
+                        }
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (LOGGER.isLoggable(Level.WARNING))
+                        LOGGER.warning("Interrupted while waiting to deliver, dropping " + event);
+                    return;
+                }
+            } while (!queue.offer(delivery));
+            return;
+        }
+        try {
+            queue.put(delivery);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.warning("Interrupted while waiting for room in the delivery queue, dropping "
+                        + event);
+        }
+    }
+
+    /**
+     * @return the number of events waiting for delivery.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public void dispose() {
+        disposed = true;
+        worker.interrupt();
+        queue.clear();
+    }
+
+    private void deliverLoop() {
+        final List<Delivery<T>> pending = new ArrayList<Delivery<T>>();
+        while (!disposed) {
+            try {
+                deliveryLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                pending.add(queue.take());
+                queue.drainTo(pending, MAX_BATCH_SIZE - 1);
+                deliverPending(pending);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                deliveryLock.unlock();
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Delivers queued events in order, batching the consecutive ones sharing their listeners.
+     */
+    private void deliverPending(final List<Delivery<T>> pending) {
+        final List<T> batch = new ArrayList<T>();
+        int start = 0;
+        while (start < pending.size()) {
+            final List<FlowEventListener<T>> listeners = pending.get(start).listeners;
+            int end = start;
+            while (end < pending.size() && pending.get(end).listeners == listeners)
+                batch.add(pending.get(end++).event);
+            deliverBatch(batch, listeners);
+            batch.clear();
+            start = end;
+        }
+    }
+
+    private void deliverBatch(final List<T> batch, final List<FlowEventListener<T>> listeners) {
+        for (FlowEventListener<T> listener : listeners) {
+            try {
+                if (listener instanceof BatchFlowEventListener) {
+                    ((BatchFlowEventListener<T>) listener).eventsGenerated(new ArrayList<T>(batch));
+                } else {
+                    for (T event : batch)
+                        listener.eventGenerated(event);
+                }
+            } catch (RuntimeException e) {
+                if (LOGGER.isLoggable(Level.SEVERE))
+                    LOGGER.log(Level.SEVERE, "Unable to deliver " + batch.size() + " events to "
+                            + listener + ": " + e.getLocalizedMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.EventObject;
+import java.util.List;
+
+/**
+ * A {@link FlowEventListener} able to receive several events at once.
+ * <p>
+ * Delivery strategies batching events, like {@link AsyncEventDelivery}, call
+ * {@link #eventsGenerated(List)} with all the events collected since the previous delivery,
+ * in order. Plain {@link FlowEventListener}s get them one at a time.
+ */
+public interface BatchFlowEventListener<T extends EventObject> extends FlowEventListener<T> {
+
+    /**
+     * Called with a batch of events, in the order they have been generated.
+     * 
+     * @param events
+     *            the generated events, never empty.
+     */
+    void eventsGenerated(List<T> events);
+
+}
@@ -0,0 +1,50 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.EventObject;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers events in the generating thread.
+ */
+public class DirectEventDelivery<T extends EventObject> implements EventDelivery<T> {
+
+    private final static Logger LOGGER = Logger.getLogger(DirectEventDelivery.class.toString());
+
+    public void deliver(final T event, final List<FlowEventListener<T>> listeners) {
+        for (FlowEventListener<T> listener : listeners) {
+            try {
+                listener.eventGenerated(event);
+            } catch (RuntimeException e) {
+                if (LOGGER.isLoggable(Level.SEVERE))
+                    LOGGER.log(Level.SEVERE, "Unable to deliver " + event + " to " + listener + ": "
+                            + e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
+    public void dispose() {
+    }
+}
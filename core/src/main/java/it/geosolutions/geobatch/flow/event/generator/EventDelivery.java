@@ -0,0 +1,51 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.EventObject;
+import java.util.List;
+
+/**
+ * Strategy used by {@link EventGenerator}s to hand the generated events to their
+ * {@link FlowEventListener}s.
+ * 
+ * @see EventDeliveryMode
+ */
+public interface EventDelivery<T extends EventObject> {
+
+    /**
+     * Delivers an event to the provided listeners.
+     * 
+     * @param event
+     *            the event to deliver.
+     * @param listeners
+     *            the listeners registered when the event has been generated. Generators should
+     *            pass the same instance as long as their listeners don't change, allowing
+     *            batching strategies to group events.
+     */
+    void deliver(T event, List<FlowEventListener<T>> listeners);
+
+    /**
+     * Releases the resources held by this strategy, pending events may be discarded.
+     */
+    void dispose();
+}
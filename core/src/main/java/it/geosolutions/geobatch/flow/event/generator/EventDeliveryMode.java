@@ -0,0 +1,79 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.EventObject;
+
+/**
+ * The available {@link EventDelivery} strategies.
+ */
+public enum EventDeliveryMode {
+    /**
+     * Listeners are called by the thread generating the event. This is the default, fit for
+     * headless servers where listeners just queue the events.
+     */
+    DIRECT,
+
+    /**
+     * Events are queued and delivered, in order and in batches, by a thread owned by the
+     * generator.
+     */
+    ASYNC,
+
+    /**
+     * Listeners are called by the Swing event dispatching thread, for GUI applications only.
+     */
+    SWING;
+
+    /**
+     * Creates a new strategy for this mode.
+     * 
+     * @param name
+     *            name of the generator, used to name the delivery thread if any.
+     */
+    public <T extends EventObject> EventDelivery<T> createDelivery(final String name) {
+        return createDelivery(name, 0, false);
+    }
+
+    /**
+     * Creates a new strategy for this mode.
+     * 
+     * @param name
+     *            name of the generator, used to name the delivery thread if any.
+     * @param capacity
+     *            maximum number of events queued for delivery, the default if not positive.
+     * @param callerRuns
+     *            whether the generating thread delivers the events itself when the queue is
+     *            full rather than waiting for room.
+     */
+    public <T extends EventObject> EventDelivery<T> createDelivery(final String name,
+            final int capacity, final boolean callerRuns) {
+        switch (this) {
+        case ASYNC:
+            return new AsyncEventDelivery<T>(name, capacity, callerRuns);
+        case SWING:
+            return new SwingEventDelivery<T>();
+        default:
+            return new DirectEventDelivery<T>();
+        }
+    }
+}
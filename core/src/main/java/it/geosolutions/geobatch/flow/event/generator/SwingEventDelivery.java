@@ -0,0 +1,48 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.EventObject;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Delivers events in the Swing event dispatching thread. This is only meant for GUI
+ * applications, since it funnels the events of every generator through a single thread and
+ * starts AWT.
+ */
+public class SwingEventDelivery<T extends EventObject> implements EventDelivery<T> {
+
+    public void deliver(final T event, final List<FlowEventListener<T>> listeners) {
+        for (final FlowEventListener<T> listener : listeners) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    listener.eventGenerated(event);
+                }
+            });
+        }
+    }
+
+    public void dispose() {
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Distribution of values, percentiles are computed over the last {@value #SAMPLES} values.
+ */
+public final class Histogram implements Metric {
+
+    private final static int SAMPLES = 1028;
+
+    private final long[] samples = new long[SAMPLES];
+
+    private long count;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max = Long.MIN_VALUE;
+
+    private double sum;
+
+    public synchronized void update(final long value) {
+        samples[(int) (count % SAMPLES)] = value;
+        count++;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+        sum += value;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public Map<String, Number> getValues() {
+        return getValues(1);
+    }
+
+    /**
+     * @param scale
+     *            divides all the values but the count, e.g. to convert nanoseconds to
+     *            milliseconds.
+     */
+    Map<String, Number> getValues(final double scale) {
+        final long count;
+        final long min;
+        final long max;
+        final double sum;
+        final long[] snapshot;
+        synchronized (this) {
+            count = this.count;
+            min = this.min;
+            max = this.max;
+            sum = this.sum;
+            snapshot = new long[(int) Math.min(count, SAMPLES)];
+            System.arraycopy(samples, 0, snapshot, 0, snapshot.length);
+        }
+        Arrays.sort(snapshot);
+
+        final Map<String, Number> values = new LinkedHashMap<String, Number>();
+        values.put("count", Long.valueOf(count));
+        values.put("min", Double.valueOf(count > 0 ? min / scale : 0));
+        values.put("max", Double.valueOf(count > 0 ? max / scale : 0));
+        values.put("mean", Double.valueOf(count > 0 ? sum / count / scale : 0));
+        values.put("p50", Double.valueOf(percentile(snapshot, 0.5) / scale));
+        values.put("p95", Double.valueOf(percentile(snapshot, 0.95) / scale));
+        values.put("p99", Double.valueOf(percentile(snapshot, 0.99) / scale));
+        return values;
+    }
+
+    private static long percentile(final long[] sorted, final double quantile) {
+        if (sorted.length == 0)
+            return 0;
+        final int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate of events, as an exponentially weighted moving average over the last minute and as a
+ * mean since creation.
+ */
+public final class Meter implements Metric {
+
+    private final static long TICK = 5000000000L;
+
+    private final static double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+
+    /**
+     * Ticks after which the average is reset rather than decayed tick by tick.
+     */
+    private final static long MAX_TICKS = 720;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong uncounted = new AtomicLong();
+
+    private final long start = System.nanoTime();
+
+    private volatile long lastTick = start;
+
+    private double rate;
+
+    private boolean initialized;
+
+    public void mark() {
+        mark(1);
+    }
+
+    public void mark(final long n) {
+        tick();
+        count.addAndGet(n);
+        uncounted.addAndGet(n);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return events per second since creation.
+     */
+    public double getMeanRate() {
+        final long elapsed = System.nanoTime() - start;
+        return elapsed > 0 ? count.get() * 1E9 / elapsed : 0;
+    }
+
+    /**
+     * @return events per second over the last minute, the mean rate during the first seconds.
+     */
+    public double getOneMinuteRate() {
+        tick();
+        synchronized (this) {
+            if (initialized)
+                return rate;
+        }
+        return getMeanRate();
+    }
+
+    public Map<String, Number> getValues() {
+        final Map<String, Number> values = new LinkedHashMap<String, Number>();
+        values.put("count", Long.valueOf(getCount()));
+        values.put("rate", Double.valueOf(getOneMinuteRate()));
+        values.put("meanRate", Double.valueOf(getMeanRate()));
+        return values;
+    }
+
+    private void tick() {
+        final long now = System.nanoTime();
+        if (now - lastTick < TICK)
+            return;
+        synchronized (this) {
+            final long ticks = (now - lastTick) / TICK;
+            if (ticks <= 0)
+                return;
+            lastTick += ticks * TICK;
+            final double instant = uncounted.getAndSet(0) / (TICK / 1E9);
+            if (!initialized) {
+                rate = instant;
+                initialized = true;
+            } else
+                rate += ALPHA * (instant - rate);
+            // idle ticks
+            if (ticks > MAX_TICKS)
+                rate = 0;
+            else
+                for (long i = 1; i < ticks; i++)
+                    rate -= ALPHA * rate;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * In process registry of the {@link Metric}s of the node, metric names are dot separated paths
+ * such as <code>flow.myFlow.action.publish.time</code>.
+ * <p>
+ * The {@link #getDefault() default registry} is also published through JMX as
+ * <code>{@value #OBJECT_NAME}</code>, one attribute per metric value.
+ */
+public final class MetricRegistry {
+
+    private final static Logger LOGGER = Logger.getLogger(MetricRegistry.class.toString());
+
+    public final static String OBJECT_NAME = "it.geosolutions.geobatch:type=Metrics";
+
+    private static MetricRegistry defaultRegistry;
+
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+    /**
+     * @return the registry of the node, registered to the platform MBean server on first access.
+     */
+    public static synchronized MetricRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = new MetricRegistry();
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name))
+                    server.registerMBean(new MetricsMBean(defaultRegistry), name);
+            } catch (Exception e) {
+                if (LOGGER.isLoggable(Level.WARNING))
+                    LOGGER.log(Level.WARNING, "Unable to publish the metrics through JMX: "
+                            + e.getLocalizedMessage(), e);
+            }
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Builds a metric name out of its parts, <code>null</code> parts are skipped and dots in
+     * the parts are replaced so that they do not add levels.
+     */
+    public static String name(final String... parts) {
+        final StringBuilder name = new StringBuilder();
+        for (String part : parts) {
+            if (part == null)
+                continue;
+            if (name.length() > 0)
+                name.append('.');
+            name.append(part.replace('.', '_'));
+        }
+        return name.toString();
+    }
+
+    public Counter counter(final String name) {
+        return (Counter) getOrAdd(name, Counter.class);
+    }
+
+    public Meter meter(final String name) {
+        return (Meter) getOrAdd(name, Meter.class);
+    }
+
+    public Histogram histogram(final String name) {
+        return (Histogram) getOrAdd(name, Histogram.class);
+    }
+
+    public Timer timer(final String name) {
+        return (Timer) getOrAdd(name, Timer.class);
+    }
+
+    /**
+     * Registers a metric, e.g. a {@link Gauge}, replacing any metric of the same name.
+     */
+    public void register(final String name, final Metric metric) {
+        metrics.put(name, metric);
+    }
+
+    /**
+     * @return the metric of the provided name, <code>null</code> if none.
+     */
+    public Metric get(final String name) {
+        return metrics.get(name);
+    }
+
+    public void remove(final String name) {
+        metrics.remove(name);
+    }
+
+    /**
+     * Removes all the metrics whose name starts with the provided path, e.g. the metrics of a
+     * disposed flow.
+     */
+    public void removeAll(final String prefix) {
+        final Iterator<String> it = metrics.keySet().iterator();
+        while (it.hasNext()) {
+            final String name = it.next();
+            if (name.equals(prefix) || name.startsWith(prefix + "."))
+                it.remove();
+        }
+    }
+
+    /**
+     * @return a snapshot of the registered metrics, sorted by name.
+     */
+    public SortedMap<String, Metric> getMetrics() {
+        return new TreeMap<String, Metric>(metrics);
+    }
+
+    private Metric getOrAdd(final String name, final Class<? extends Metric> type) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            try {
+                metric = type.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            final Metric previous = metrics.putIfAbsent(name, metric);
+            if (previous != null)
+                metric = previous;
+        }
+        if (!type.isInstance(metric))
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.getClass().getSimpleName()
+                    + ", not a " + type.getSimpleName());
+        return metric;
+    }
+}
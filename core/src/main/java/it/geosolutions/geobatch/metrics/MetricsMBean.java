@@ -0,0 +1,109 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read only view of a {@link MetricRegistry}, each value of each metric is an attribute named
+ * <code>metric.value</code>, e.g. <code>flow.myFlow.events.rate</code>.
+ */
+final class MetricsMBean implements DynamicMBean {
+
+    private final MetricRegistry registry;
+
+    MetricsMBean(final MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        // the metric name is a prefix of the attribute, try the longest one first
+        int dot = attribute.lastIndexOf('.');
+        while (dot > 0) {
+            final Metric metric = registry.get(attribute.substring(0, dot));
+            if (metric != null) {
+                final Number value = metric.getValues().get(attribute.substring(dot + 1));
+                if (value != null)
+                    return value;
+            }
+            dot = attribute.lastIndexOf('.', dot - 1);
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    public AttributeList getAttributes(final String[] attributes) {
+        final AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as per contract
+            }
+        }
+        return list;
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (Map.Entry<String, Number> value : flatten().entrySet())
+            attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false));
+        return new MBeanInfo(getClass().getName(), "GeoBatch metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[0], null);
+    }
+
+    public Object invoke(final String actionName, final Object[] params, final String[] signature)
+            throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    private Map<String, Number> flatten() {
+        final Map<String, Number> values = new LinkedHashMap<String, Number>();
+        for (Map.Entry<String, Metric> metric : registry.getMetrics().entrySet())
+            for (Map.Entry<String, Number> value : metric.getValue().getValues().entrySet())
+                if (value.getValue() != null)
+                    values.put(metric.getKey() + "." + value.getKey(), value.getValue());
+        return values;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.metrics;
+
+import java.util.Map;
+
+/**
+ * Durations of an operation and the rate it runs at, durations are reported in milliseconds.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * final long start = System.nanoTime();
+ * try {
+ *     ...
+ * } finally {
+ *     timer.update(System.nanoTime() - start);
+ * }
+ * </pre>
+ */
+public final class Timer implements Metric {
+
+    private final Histogram durations = new Histogram();
+
+    private final Meter rate = new Meter();
+
+    /**
+     * @param nanos
+     *            the duration of an operation, in nanoseconds.
+     */
+    public void update(final long nanos) {
+        durations.update(nanos);
+        rate.mark();
+    }
+
+    public long getCount() {
+        return rate.getCount();
+    }
+
+    public Map<String, Number> getValues() {
+        final Map<String, Number> values = durations.getValues(1E6);
+        values.put("rate", Double.valueOf(rate.getOneMinuteRate()));
+        return values;
+    }
+}
@@ -24,6 +24,13 @@
 
 package it.geosolutions.geobatch.utils;
 
+import it.geosolutions.geobatch.utils.io.BufferPool;
+import it.geosolutions.geobatch.utils.io.ChannelCopier;
+import it.geosolutions.geobatch.utils.io.FileDeletionService;
+import it.geosolutions.geobatch.utils.io.FileReadyDetector;
+import it.geosolutions.geobatch.utils.io.LockFileReadyDetector;
+import it.geosolutions.geobatch.utils.io.ZipEngine;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -39,26 +46,18 @@ import java.io.Reader;
 import java.net.URL;
 import java.nio.channels.Channel;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.stream.StreamSource;
@@ -75,252 +74,26 @@ import org.geotools.data.DataUtilities;
  */
 public class IOUtils extends org.apache.commons.io.IOUtils {
 
-    private final static Logger LOGGER = Logger.getLogger(FileCleaner.class.toString());
+    private final static Logger LOGGER = Logger.getLogger(IOUtils.class.toString());
 
     /** Default size of element for {@link FileChannel} based copy method. */
     private static final int DEFAULT_SIZE = 10 * 1024 * 1024;
 
-    /** Background to perform file deletions. */
-    private final static FileCleaner FILE_CLEANER = new FileCleaner();
-
-    private final static Set<String> FILES_PATH = Collections.synchronizedSet(new HashSet<String>());
-    
     public final static String FILE_SEPARATOR = System.getProperty("file.separator");
 
-    private final static Map<String, Integer> FILE_ATTEMPTS_COUNTS = Collections.synchronizedMap(new HashMap<String, Integer>());
-
-    /**
-     * 30 seconds is the default period between two checks.
-     */
-    public static long DEFAULT_PERIOD = 5L;
+    private static final long ATOMIC_WAIT = 5000;
 
-    /**
-     * The default number of attempts is 50
-     */
-    private final static int DEF_MAX_ATTEMPTS = 50;
+    private static final long LOCK_INITIAL_PERIOD = 250;
 
-    private static final long ATOMIC_WAIT = 5000;
+    /** Probes the files for {@link #acquireLockAsync(File, long)}. */
+    private final static FileReadyDetector LOCK_DETECTOR = new LockFileReadyDetector(
+            LOCK_INITIAL_PERIOD, ATOMIC_WAIT, 2);
 
     /**
      * The max time the node will wait for, prior to stop to attempt for acquiring a lock on a
      * <code>File</code>.
      */
     public static final long MAX_WAITING_TIME_FOR_LOCK = 12*60*60 * 1000;//12h
-    static {
-        FILE_CLEANER.setMaxAttempts(100);
-        FILE_CLEANER.setPeriod(30);
-        FILE_CLEANER.setPriority(1);
-        FILE_CLEANER.start();
-    }
-
-    /**
-     * Simple class implementing a periodic Thread that periodically tries to delete the files that
-     * were provided to him.
-     * <p>
-     * It tries to delete each file at most {@link FileCleaner#maxAttempts} number of times. If this
-     * number is exceeded it simply throws the file away notifying the users with a warning message.
-     * 
-     * @author Simone Giannecchini, GeoSolutions.
-     */
-    public final static class FileCleaner extends Thread {
-
-        /**
-         * Maximum number of attempts to delete a given {@link File}.
-         * 
-         * <p>
-         * If the provided number of attempts is exceeded we simply drop warn the user and we remove
-         * the {@link File} from our list.
-         */
-        private int maxAttempts = DEF_MAX_ATTEMPTS;
-
-        /**
-         * Period in seconds between two checks.
-         */
-        private volatile long period = DEFAULT_PERIOD;
-
-        /**
-         * Asks this {@link FileCleaner} to clean up this file.
-         * 
-         * @param fileToDelete
-         *            {@link File} that we want to permanently delete.
-         */
-        public void addFile(final File fileToDelete) {
-            // does it exists
-            if (!fileToDelete.exists())
-                return;
-            synchronized (FILES_PATH) {
-                synchronized (FILE_ATTEMPTS_COUNTS) {
-                    // /////////////////////////////////////////////////////////////////
-                    //
-                    // We add the file to our lists for later check.
-                    //
-                    // /////////////////////////////////////////////////////////////////
-                    if (!FILES_PATH.contains(fileToDelete.getAbsolutePath())) {
-                        FILES_PATH.add(fileToDelete.getAbsolutePath());
-                        FILE_ATTEMPTS_COUNTS.put(fileToDelete.getAbsolutePath(), new Integer(0));
-
-                    }
-                }
-            }
-        }
-
-        /**
-         * Default constructor for a {@link FileCleaner}.
-         */
-        public FileCleaner() {
-            this(DEFAULT_PERIOD, Thread.NORM_PRIORITY - 3, DEF_MAX_ATTEMPTS);
-        }
-
-        /**
-         * Constructor for a {@link FileCleaner}.
-         * 
-         * @param period
-         *            default time period between two cycles.
-         * @param priority
-         *            is the priority for the cleaner thread.
-         * @param maxattempts
-         *            maximum number of time the cleaner thread tries to delete a file.
-         */
-        public FileCleaner(long period, int priority, int maxattempts) {
-            this.period = period;
-            this.setName("FileCleaner");
-            this.setPriority(priority);
-            this.setDaemon(true);
-            this.maxAttempts = maxattempts;
-        }
-
-        /**
-         * This method does the magic:
-         * 
-         * <ol>
-         * <li>iterate over all the files</li>
-         * <li>try to delete it</li>
-         * <li>if successful drop the file references</li>
-         * <li>if not successful increase the attempts count for the file and call the gc. If the
-         * maximum number was exceeded drop the file and warn the user</li>
-         * 
-         */
-        public void run() {
-            while (true) {
-                try {
-                    synchronized (FILES_PATH) {
-                        synchronized (FILE_ATTEMPTS_COUNTS) {
-
-                            final Iterator<String> it = FILES_PATH.iterator();
-                            while (it.hasNext()) {
-
-                                // get next file path and its count
-                                final String sFile = it.next();
-                                if (LOGGER.isLoggable(Level.INFO))
-                                    LOGGER.info("Trying to remove file " + sFile);
-                                int attempts = FILE_ATTEMPTS_COUNTS.get(sFile).intValue();
-                                if (!new File(sFile).exists()) {
-                                    it.remove();
-                                    FILE_ATTEMPTS_COUNTS.remove(sFile);
-                                } else {
-                                    // try to delete it
-                                    if (new File(sFile).delete()) {
-                                        if (LOGGER.isLoggable(Level.INFO))
-                                            LOGGER.info("Successfully removed file " + sFile);
-                                        it.remove();
-                                        FILE_ATTEMPTS_COUNTS.remove(sFile);
-                                    } else {
-                                        if (LOGGER.isLoggable(Level.INFO))
-                                            LOGGER.info("Unable to  remove file " + sFile);
-                                        attempts++;
-                                        if (maxAttempts < attempts) {
-                                            if (LOGGER.isLoggable(Level.INFO))
-                                                LOGGER.info("Dropping file " + sFile);
-                                            it.remove();
-                                            FILE_ATTEMPTS_COUNTS.remove(sFile);
-                                            if (LOGGER.isLoggable(Level.WARNING))
-                                                LOGGER.warning("Unable to delete file " + sFile);
-                                        } else {
-                                            FILE_ATTEMPTS_COUNTS.remove(sFile);
-                                            FILE_ATTEMPTS_COUNTS.put(sFile, new Integer(attempts));
-                                            // might help, see
-                                            // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4715154
-                                            Runtime.getRuntime().gc();
-                                            Runtime.getRuntime().gc();
-                                            Runtime.getRuntime().gc();
-                                            Runtime.getRuntime().gc();
-                                            Runtime.getRuntime().gc();
-                                            Runtime.getRuntime().gc();
-                                            System.runFinalization();
-                                            System.runFinalization();
-                                            System.runFinalization();
-                                            System.runFinalization();
-                                            System.runFinalization();
-                                            System.runFinalization();
-
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    Thread.sleep(period * 1000);
-
-                } catch (Throwable t) {
-                    if (LOGGER.isLoggable(Level.INFO))
-                        LOGGER.log(Level.INFO, t.getLocalizedMessage(), t);
-                }
-            }
-        }
-
-        /**
-         * Retrieves the maximum number of times we try to delete a file before giving up.
-         * 
-         * @return the maximum number of times we try to delete a file before giving up.
-         * 
-         */
-        public int getMaxAttempts() {
-            synchronized (FILES_PATH) {
-                synchronized (FILE_ATTEMPTS_COUNTS) {
-                    return maxAttempts;
-                }
-            }
-
-        }
-
-        /**
-         * Sets the maximum number of times we try to delete a file before giving up.
-         * 
-         * @param maxAttempts
-         *            the maximum number of times we try to delete a file before giving up.
-         * 
-         */
-        public void setMaxAttempts(int maxAttempts) {
-            synchronized (FILES_PATH) {
-                synchronized (FILE_ATTEMPTS_COUNTS) {
-                    this.maxAttempts = maxAttempts;
-                }
-            }
-
-        }
-
-        /**
-         * Retrieves the period in seconds for this {@link FileCleaner} .
-         * 
-         * @return the period in seconds for this {@link FileCleaner} .
-         * 
-         */
-        public long getPeriod() {
-            return period;
-        }
-
-        /**
-         * Sets the period in seconds for this {@link FileCleaner} .
-         * 
-         * @param period
-         *            the new period for this {@link FileCleaner} .
-         * 
-         */
-        public void setPeriod(long period) {
-            this.period = period;
-        }
-
-    }
 
     /**
      * Copies the content of the source channel onto the destination channel.
@@ -341,27 +114,32 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
         if (!source.isOpen() || !destination.isOpen())
             throw new IllegalStateException("Source and destination channels must be open.");
 
-        final java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocateDirect(bufferSize);
-        while (source.read(buffer) != -1) {
-            // prepare the buffer for draining
-            buffer.flip();
+        final java.nio.ByteBuffer buffer = BufferPool.DIRECT.acquire(bufferSize);
+        try {
+            while (source.read(buffer) != -1) {
+                // prepare the buffer for draining
+                buffer.flip();
 
-            // write to destination
-            while (buffer.hasRemaining())
-                destination.write(buffer);
+                // write to destination
+                while (buffer.hasRemaining())
+                    destination.write(buffer);
 
-            // clear
-            buffer.clear();
+                // clear
+                buffer.clear();
 
+            }
+        } finally {
+            BufferPool.DIRECT.release(buffer);
         }
 
     }
 
     /**
-     * Optimize version of copy method for file channels.
+     * Optimize version of copy method for file channels, holding an exclusive lock on the
+     * destination.
      * 
      * @param bufferSize
-     *            size of the temp buffer to use for this copy.
+     *            not used anymore, the transfer is sized on the file size.
      * @param source
      *            the source {@link ReadableByteChannel}.
      * @param destination
@@ -371,36 +149,31 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
      */
     public static void copyFileChannel(int bufferSize, FileChannel source, FileChannel destination)
             throws IOException {
+        copyFileChannel(bufferSize, source, destination, true);
+    }
+
+    /**
+     * Optimize version of copy method for file channels, see
+     * {@link ChannelCopier#copy(FileChannel, FileChannel, boolean)}.
+     * 
+     * @param bufferSize
+     *            not used anymore, the transfer is sized on the file size.
+     * @param source
+     *            the source {@link ReadableByteChannel}.
+     * @param destination
+     *            the destination {@link WritableByteChannel};.
+     * @param lockDestination
+     *            whether to hold an exclusive lock on the destination while copying.
+     * @throws IOException
+     *             in case something bad happens.
+     */
+    public static void copyFileChannel(int bufferSize, FileChannel source, FileChannel destination,
+            boolean lockDestination) throws IOException {
 
         inputNotNull(source, destination);
         if (!source.isOpen() || !destination.isOpen())
             throw new IllegalStateException("Source and destination channels must be open.");
-        FileLock lock = null;
-        try {
-
-            lock = destination.lock();
-            final long sourceSize = source.size();
-            long pos = 0;
-            while (pos < sourceSize) {
-                // read and flip
-                final long remaining = (sourceSize - pos);
-                final int mappedZoneSize = remaining >= bufferSize ? bufferSize : (int) remaining;
-                destination.transferFrom(source, pos, mappedZoneSize);
-                // update zone
-                pos += mappedZoneSize;
-
-            }
-        } finally {
-            if (lock != null) {
-                try {
-                    lock.release();
-                } catch (Throwable t) {
-                    if (LOGGER.isLoggable(Level.INFO))
-                        LOGGER.log(Level.INFO, t.getLocalizedMessage(), t);
-                }
-            }
-
-        }
+        ChannelCopier.copy(source, destination, lockDestination);
     }
 
     /**
@@ -455,6 +228,29 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
      *             in case something bad happens.
      */
     public static void copyFile(File sourceFile, File destinationFile, int size) throws IOException {
+        copyFile(sourceFile, destinationFile, size, true);
+    }
+
+    /**
+     * Copy the input file onto the output file.
+     * 
+     * @param sourceFile
+     *            the {@link File} to copy from.
+     * @param destinationFile
+     *            the {@link File} to copy to.
+     * @param lockDestination
+     *            whether to hold an exclusive lock on the destination while copying, not needed
+     *            when no other process can see the destination yet.
+     * @throws IOException
+     *             in case something bad happens.
+     */
+    public static void copyFile(File sourceFile, File destinationFile, boolean lockDestination)
+            throws IOException {
+        copyFile(sourceFile, destinationFile, DEFAULT_SIZE, lockDestination);
+    }
+
+    private static void copyFile(File sourceFile, File destinationFile, int size,
+            boolean lockDestination) throws IOException {
         inputNotNull(sourceFile, destinationFile);
         if (!sourceFile.exists() || !sourceFile.canRead() || !sourceFile.isFile())
             throw new IllegalStateException("Source is not in a legal state.");
@@ -469,7 +265,10 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
         source = new RandomAccessFile(sourceFile, "r").getChannel();
         destination = new RandomAccessFile(destinationFile, "rw").getChannel();
         try {
-            copyFileChannel(size, source, destination);
+            copyFileChannel(size, source, destination, lockDestination);
+            // drop any leftover of a longer destination
+            if (destination.size() > source.size())
+                destination.truncate(source.size());
         } finally {
             try {
                 if (source != null) {
@@ -580,7 +379,7 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
         if (file.delete())
             return;
 
-        IOUtils.FILE_CLEANER.addFile(file);
+        FileDeletionService.getDefault().delete(file);
 
     }
 
@@ -656,7 +455,7 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
         // we need to call the gc, see
         // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4715154
         if (removeInputFile)
-            FILE_CLEANER.addFile(source);
+            FileDeletionService.getDefault().delete(source);
 
     }
 
@@ -702,9 +501,17 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
      * @throws InterruptedException
      * @throws IOException
      */
+    public static boolean acquireLock(File inputFile) throws InterruptedException, IOException {
+        return acquireLock(inputFile, IOUtils.MAX_WAITING_TIME_FOR_LOCK);
+    }
+
+    /**
+     * @deprecated the caller is not used anymore, use {@link #acquireLock(File)}.
+     */
+    @Deprecated
     public static boolean acquireLock(Object caller, File inputFile) throws InterruptedException,
             IOException {
-        return acquireLock(caller, inputFile, IOUtils.MAX_WAITING_TIME_FOR_LOCK);
+        return acquireLock(inputFile);
     }
 
     /**
@@ -723,7 +530,7 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
      */
     public static void copyStream(InputStream sourceStream, OutputStream destinationStream,
             boolean closeInput, boolean closeOutput) throws IOException {
-        copyStream(sourceStream, destinationStream, DEFAULT_SIZE, closeInput, closeOutput);
+        copyStream(sourceStream, destinationStream, ChannelCopier.DEFAULT_CHUNK, closeInput, closeOutput);
     }
 
     /**
@@ -746,13 +553,8 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
             int size, boolean closeInput, boolean closeOutput) throws IOException {
 
         inputNotNull(sourceStream, destinationStream);
-        byte[] buf = new byte[size];
-        int n = -1;
         try {
-            while (-1 != (n = sourceStream.read(buf))) {
-                destinationStream.write(buf, 0, n);
-                destinationStream.flush();
-            }
+            ChannelCopier.copy(sourceStream, destinationStream, size);
         } finally {
             // closing streams and connections
             try {
@@ -895,35 +697,13 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
 	 */
 	public static File deflate(final File outputDir,
 			final String zipFileBaseName, final File[] files) {
-		// Create a buffer for reading the files
-        byte[] buf = new byte[4096];
-
         final File outZipFile = new File(outputDir, zipFileBaseName + ".zip");
         try {
-            // Create the ZIP file
-            final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(
-                    new FileOutputStream(outZipFile)));
-
-            // Compress the files
-            for (File file : files) {
-                final FileInputStream in = new FileInputStream(file);
-
-                // Add ZIP entry to output stream.
-                out.putNextEntry(new ZipEntry(FilenameUtils.getName(file.getAbsolutePath())));
-
-                // Transfer bytes from the file to the ZIP file
-                int len;
-                while ((len = in.read(buf)) > 0) {
-                    out.write(buf, 0, len);
-                }
-
-                // Complete the entry
-                out.closeEntry();
-                in.close();
-            }
-
-            // Complete the ZIP file
-            out.close();
+            // entries are compressed in parallel, the incompressible ones are stored
+            final ZipEngine engine = new ZipEngine();
+            for (File file : files)
+                engine.addFile(file, FilenameUtils.getName(file.getAbsolutePath()));
+            engine.writeTo(outZipFile);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
             return null;
@@ -946,48 +726,43 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
 		
 		if(outputDir != null && files != null && zipFileBaseName != null){
 			
-			// //////////////////////////////////////////
-			// Create a buffer for reading the files
-			// //////////////////////////////////////////
 	        final File outZipFile = new File(outputDir, zipFileBaseName + ".zip");
-	        ZipOutputStream out = null;
-	        
 	        try {
-	        	
-	        	// /////////////////////////////////
-	            // Create the ZIP output stream
-	        	// /////////////////////////////////
-	        	
-	            out = new ZipOutputStream(new BufferedOutputStream(
-	                    new FileOutputStream(outZipFile)));
-	            
-	            // /////////////////////
-	            // Compress the files
-	            // /////////////////////
-	            
+	            final ZipEngine engine = new ZipEngine();
 	            for (File file : files){
 	            	if(file.isDirectory()){
-	            		zipDirectory(file, file, out);
+	            		addDirectory(engine, file, file);
 	            	}else{
-	            		zipFile(file, out);
+	            		engine.addFile(file, FilenameUtils.getName(file.getAbsolutePath()));
 	            	}      		
 	            } 	            
-
-	            out.close();
-	            out = null;
-	            
+	            engine.writeTo(outZipFile);
 		        return outZipFile;
 	            
 	        }catch(IOException e) {
 	            if (LOGGER.isLoggable(Level.SEVERE))
 	                LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
 	            return null;
-	        }finally{
-	        	if(out != null)out.close();
 	        }
 	        
 		}else throw new IOException("One or more input parameters are null!");
 	}
+
+	/**
+	 * Adds the files of a directory to a {@link ZipEngine}, naming the entries as
+	 * {@link #zipDirectory(File, File, ZipOutputStream)} does.
+	 */
+	private static void addDirectory(final ZipEngine engine, final File directory, final File base) {
+		final File[] files = directory.listFiles();
+		for (int i = 0, n = files.length; i < n; i++) {
+			if (files[i].isDirectory()) {
+				addDirectory(engine, files[i], base);
+			} else {
+				engine.addFile(files[i], base.getName().concat("\\").concat(files[i].getPath().substring(
+						base.getPath().length() + 1)));
+			}
+		}
+	}
 	
 	/**
 	 * This function zip the input directory.
@@ -1121,25 +896,7 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
 
 		try
         {
-			List<File> ret = new ArrayList<File>();
-            ZipInputStream zipinputstream = new ZipInputStream(new FileInputStream(zipFile));
-
-            for(ZipEntry zipentry = zipinputstream.getNextEntry(); zipentry != null; zipentry = zipinputstream.getNextEntry()) {
-                String entryName = zipentry.getName();
-				if(zipentry.isDirectory())
-					continue;
-
-				File outFile = new File(destDir, entryName);
-				ret.add(outFile);
-                FileOutputStream fileoutputstream = new FileOutputStream(outFile);
-
-				org.apache.commons.io.IOUtils.copy(zipinputstream, fileoutputstream);
-                fileoutputstream.close();
-                zipinputstream.closeEntry();
-            }
-
-            zipinputstream.close();
-			return ret;
+			return ZipEngine.unzipFlat(zipFile, destDir);
         }
         catch (Exception e)
         {
@@ -1315,74 +1072,60 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
 	 * available for being parsed.
 	 * 
 	 * <p>
-	 * Specifically this method tries to open up a "rw" channel on the provided input file. If the
-	 * file is still being written this operation fails with an exception, we therefore catch this
-	 * exception and sleep for {@value #ATOMIC_WAIT} seconds as defined in the constant
-	 * {@link #ATOMIC_WAIT}.
+	 * The file is probed by {@link #acquireLockAsync(File, long)} on the shared timer, the calling
+	 * thread just waits for the outcome.
 	 * 
-	 * <p>
-	 * If after having waited for {@link #MAX_WAITING_TIME_FOR_LOCK} (which is read from the
-	 * configuration or set to the default value of {@link #DEFAULT_WAITING_TIME}) we have not yet
-	 * acquired the channel we skip this file but we signal this situation.
-	 * @param caller 
 	 * @param inputFile
 	 * @param maxwait
 	 * @return <code>true</code> if the lock has been successfully acquired. <code>false</code>
 	 *         otherwise
 	 * @throws InterruptedException
+	 *             if interrupted while waiting, the probes are cancelled.
 	 * @throws IOException
 	 */
-	public static boolean acquireLock(Object caller, File inputFile, final long maxwait) throws InterruptedException,
+	public static boolean acquireLock(File inputFile, final long maxwait) throws InterruptedException,
 	        IOException {
-	    // //
-	    //
-	    // Acquire an exclusive lock to wait for long
-	    // writing processes before trying to check on them
-	    //
-	    // //
-	    double sumWait = 0;
-	    while (true) {
-	        FileChannel channel = null;
-	        FileLock lock = null;
-	        try {
-	            // get a rw channel
-	            channel = getOuputChannel(inputFile);
-	
-	            if (channel != null) {
-	                // here we could block
-	                lock = channel.tryLock();
-	                if (lock != null)
-	                    return true;
-	            }
-	        } catch (OverlappingFileLockException e) {
-	            // File is already locked in this thread or virtual machine
-	            LOGGER.info("File is already locked in this thread or virtual machine");
-	        } catch (Exception e) {
-	            LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
-	        } finally {
-	            // release the lock
-	            if (lock != null)
-	                lock.release();
-	            if (channel != null)
-	                channel.close();
-	        }
-	
-	        // Sleep for ATOMIC_WAIT milliseconds prior to retry for acquiring
-	        // the lock
-	        synchronized (caller) {
-	            caller.wait(ATOMIC_WAIT);
-	        }
-	
-	        sumWait += ATOMIC_WAIT;
-	        if (sumWait > maxwait) {
-	            LOGGER.info("Waiting time beyond maximum specified waiting time, exiting...");
-	            // Quitting the loop
-	            break;
-	        }
+	    final Future<Boolean> lock = acquireLockAsync(inputFile, maxwait);
+	    try {
+	        return lock.get().booleanValue();
+	    } catch (InterruptedException e) {
+	        lock.cancel(true);
+	        throw e;
+	    } catch (ExecutionException e) {
+	        final IOException ioe = new IOException(e.getCause().getLocalizedMessage());
+	        ioe.initCause(e.getCause());
+	        throw ioe;
 	    }
-	
-	    // A time greater than MAX_WAITING_TIME_FOR_LOCK has elapsed and no lock has
-	    // been acquired. Thus, I need to return false
-	    return false;
+	}
+
+	/**
+	 * @deprecated the caller is not used anymore, use {@link #acquireLock(File, long)}.
+	 */
+	@Deprecated
+	public static boolean acquireLock(Object caller, File inputFile, final long maxwait)
+	        throws InterruptedException, IOException {
+	    return acquireLock(inputFile, maxwait);
+	}
+
+	/**
+	 * Checks without blocking whether the input file is still being written, trying to acquire
+	 * an exclusive lock on it.
+	 * 
+	 * <p>
+	 * Attempts run on the timer shared by the {@link FileReadyDetector}s, the first right away,
+	 * the following ones backing off from {@value #LOCK_INITIAL_PERIOD} up to
+	 * {@value #ATOMIC_WAIT} milliseconds, until the lock is acquired or <code>maxwait</code>
+	 * milliseconds elapse. A missing file is never created, it just fails the attempts. Cancelling
+	 * the returned {@link Future} stops the attempts.
+	 * 
+	 * @param inputFile
+	 *            the file to lock.
+	 * @param maxwait
+	 *            maximum time in milliseconds to wait for the lock.
+	 * @return a {@link Future} telling whether the lock could be acquired in time.
+	 */
+	public static Future<Boolean> acquireLockAsync(final File inputFile, final long maxwait) {
+	    inputNotNull(inputFile);
+	    return LOCK_DETECTOR.whenReady(inputFile, maxwait, null);
 	}
 }
@@ -0,0 +1,187 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class for the {@link FileReadyDetector}s probing the file periodically.
+ * <p>
+ * The first probe is run right away, the following ones every {@link #getPeriod()}
+ * milliseconds on a timer shared by all the detectors. Probes must be quick and must not block.
+ * <p>
+ * Detectors may back off: after each failed probe the delay is multiplied by
+ * {@link #getBackoffFactor()}, up to {@link #getMaxPeriod()} milliseconds, so that files taking
+ * long to arrive cost fewer and fewer probes.
+ */
+public abstract class AbstractFileReadyDetector implements FileReadyDetector {
+
+    private final static Logger LOGGER = Logger.getLogger(AbstractFileReadyDetector.class.toString());
+
+    public final static long DEFAULT_PERIOD = 1000;
+
+    private final static ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(2,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "FileReadyTimer-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Checks a single file, created for each {@link FileReadyDetector#whenReady} call.
+     */
+    protected interface Probe {
+        /**
+         * @return <code>true</code> if the file is ready.
+         */
+        boolean isReady() throws IOException;
+    }
+
+    private final class Check implements Runnable {
+        private final FileReadyFuture future;
+
+        private final Probe probe;
+
+        private final long deadline;
+
+        /** Delay before the next probe, grows by the backoff factor. */
+        private long delay = period;
+
+        Check(final FileReadyFuture future, final Probe probe, final long maxWait) {
+            this.future = future;
+            this.probe = probe;
+            final long now = System.currentTimeMillis();
+            this.deadline = maxWait > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + maxWait;
+        }
+
+        public void run() {
+            if (future.isDone())
+                return;
+            boolean ready = false;
+            try {
+                ready = probe.isReady();
+            } catch (Throwable e) {
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+            }
+            final long now = System.currentTimeMillis();
+            if (ready)
+                future.complete(true);
+            else if (now >= deadline) {
+                if (LOGGER.isLoggable(Level.INFO))
+                    LOGGER.info("Waiting time beyond maximum specified waiting time for "
+                            + future.getFile());
+                future.complete(false);
+            } else {
+                future.setNext(TIMER.schedule(this, Math.min(delay, deadline - now),
+                        TimeUnit.MILLISECONDS));
+                delay = Math.min(maxPeriod, (long) (delay * backoffFactor));
+            }
+        }
+    }
+
+    private final long period;
+
+    private final long maxPeriod;
+
+    private final double backoffFactor;
+
+    /**
+     * @param period
+     *            time in milliseconds between two probes, {@link #DEFAULT_PERIOD} if not
+     *            positive.
+     */
+    protected AbstractFileReadyDetector(final long period) {
+        this(period, period, 1);
+    }
+
+    /**
+     * @param period
+     *            time in milliseconds before the second probe, {@link #DEFAULT_PERIOD} if not
+     *            positive.
+     * @param maxPeriod
+     *            maximum time in milliseconds between two probes, at least the initial period.
+     * @param backoffFactor
+     *            factor applied to the delay after each failed probe, at least 1.
+     */
+    protected AbstractFileReadyDetector(final long period, final long maxPeriod,
+            final double backoffFactor) {
+        this.period = period > 0 ? period : DEFAULT_PERIOD;
+        this.maxPeriod = Math.max(this.period, maxPeriod);
+        this.backoffFactor = Math.max(1, backoffFactor);
+    }
+
+    /**
+     * @return the time in milliseconds between the first two probes.
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return the maximum time in milliseconds between two probes.
+     */
+    public long getMaxPeriod() {
+        return maxPeriod;
+    }
+
+    /**
+     * @return the factor applied to the delay after each failed probe.
+     */
+    public double getBackoffFactor() {
+        return backoffFactor;
+    }
+
+    public Future<Boolean> whenReady(final File file, final long maxWait,
+            final FileReadyCallback callback) {
+        final FileReadyFuture future = new FileReadyFuture(file, callback);
+        future.setNext(TIMER.schedule(new Check(future, newProbe(file), maxWait), 0,
+                TimeUnit.MILLISECONDS));
+        return future;
+    }
+
+    /**
+     * Creates the probe for a file.
+     */
+    protected abstract Probe newProbe(File file);
+
+    /**
+     * @return the timer shared by the detectors.
+     */
+    static ScheduledExecutorService getTimer() {
+        return TIMER;
+    }
+}
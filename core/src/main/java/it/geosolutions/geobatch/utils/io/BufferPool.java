@@ -0,0 +1,148 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of {@link ByteBuffer}s shared by the copy routines, avoiding to allocate, and for direct
+ * buffers to wait for the collector to free, a new buffer on each copy.
+ * <p>
+ * Buffers are kept in power of two size classes from {@link #MIN_SIZE} to {@link #MAX_SIZE}
+ * bytes, larger requests are served by a fresh buffer which is not pooled. The pool retains at
+ * most a configured amount of bytes, buffers released beyond it are left to the collector.
+ */
+public final class BufferPool {
+
+    public final static int MIN_SIZE = 8 * 1024;
+
+    public final static int MAX_SIZE = 16 * 1024 * 1024;
+
+    private final static int MIN_SHIFT = 13;
+
+    private final static int CLASSES = 24 - MIN_SHIFT + 1;
+
+    /**
+     * Direct buffers, for channel copies.
+     */
+    public final static BufferPool DIRECT = new BufferPool(true, 64 * 1024 * 1024);
+
+    /**
+     * Heap buffers, for stream copies.
+     */
+    public final static BufferPool HEAP = new BufferPool(false, 32 * 1024 * 1024);
+
+    private final boolean direct;
+
+    private final long maxPooledBytes;
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final AtomicLong allocations = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param direct
+     *            whether the pool holds direct buffers.
+     * @param maxPooledBytes
+     *            maximum bytes kept by the pool.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(final boolean direct, final long maxPooledBytes) {
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+        this.classes = new ConcurrentLinkedQueue[CLASSES];
+        for (int i = 0; i < CLASSES; i++)
+            classes[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+
+    /**
+     * Gets a cleared buffer whose capacity is at least the requested size, rounded up to a power
+     * of two. Release it with {@link #release(ByteBuffer)} when done.
+     */
+    public ByteBuffer acquire(final int size) {
+        if (size > MAX_SIZE)
+            return allocate(size);
+        final int sizeClass = sizeClass(size);
+        final ByteBuffer buffer = classes[sizeClass].poll();
+        if (buffer == null)
+            return allocate(1 << (sizeClass + MIN_SHIFT));
+        pooledBytes.addAndGet(-buffer.capacity());
+        hits.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool, the buffer must not be used anymore.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct)
+            return;
+        final int capacity = buffer.capacity();
+        if (capacity < MIN_SIZE || capacity > MAX_SIZE || Integer.bitCount(capacity) != 1)
+            return;
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        classes[sizeClass(capacity)].offer(buffer);
+    }
+
+    /**
+     * @return the bytes currently held by the pool.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return the number of buffers allocated so far.
+     */
+    public long getAllocationsCount() {
+        return allocations.get();
+    }
+
+    /**
+     * @return the number of requests served by a pooled buffer so far.
+     */
+    public long getHitsCount() {
+        return hits.get();
+    }
+
+    private ByteBuffer allocate(final int size) {
+        allocations.incrementAndGet();
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static int sizeClass(final int size) {
+        if (size <= MIN_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copy routines choosing the transfer strategy and the chunk size from the amount of data to
+ * copy and from the kind of channels involved.
+ * <p>
+ * Between files, data smaller than {@link #SMALL_FILE} bytes goes through a single pooled
+ * direct buffer, which is cheaper than setting up a kernel transfer, while larger files are
+ * handed over to {@link FileChannel#transferTo(long, long, WritableByteChannel)} as a whole,
+ * letting the operating system pick the chunks. Other copies use buffers from the
+ * {@link BufferPool}s sized on the expected amount of data, and capped at {@link #SOCKET_CHUNK}
+ * bytes when the destination is not a file, since larger writes only fill the socket buffers.
+ */
+public final class ChannelCopier {
+
+    private final static Logger LOGGER = Logger.getLogger(ChannelCopier.class.toString());
+
+    public final static int SMALL_FILE = 256 * 1024;
+
+    public final static int SOCKET_CHUNK = 256 * 1024;
+
+    /**
+     * Chunk used when the amount of data is unknown.
+     */
+    public final static int DEFAULT_CHUNK = 64 * 1024;
+
+    public final static int MAX_CHUNK = 4 * 1024 * 1024;
+
+    private ChannelCopier() {
+    }
+
+    /**
+     * Chooses the buffer size for a buffered copy.
+     * 
+     * @param expectedSize
+     *            the bytes to copy, not positive if unknown.
+     * @param toFile
+     *            whether the destination is a local file.
+     */
+    public static int chunkSize(final long expectedSize, final boolean toFile) {
+        int chunk;
+        if (expectedSize <= 0)
+            chunk = DEFAULT_CHUNK;
+        else if (expectedSize <= SMALL_FILE)
+            // in one go
+            chunk = (int) expectedSize;
+        else
+            // a few large reads, without pinning huge buffers
+            chunk = (int) Math.min(MAX_CHUNK, Math.max(SMALL_FILE, expectedSize / 16));
+        if (!toFile)
+            chunk = Math.min(chunk, SOCKET_CHUNK);
+        return Math.max(BufferPool.MIN_SIZE, chunk);
+    }
+
+    /**
+     * Copies the whole content of a file channel at the beginning of another one, leaving the
+     * positions of both channels untouched.
+     * 
+     * @param lockDestination
+     *            whether an exclusive lock is held on the destination during the copy, needed
+     *            only if other processes may read the destination concurrently.
+     * @return the number of bytes copied.
+     */
+    public static long copy(final FileChannel source, final FileChannel destination,
+            final boolean lockDestination) throws IOException {
+        final FileLock lock = lockDestination ? destination.lock() : null;
+        try {
+            final long size = source.size();
+            if (size <= SMALL_FILE) {
+                final ByteBuffer buffer = BufferPool.DIRECT.acquire((int) Math.max(1, size));
+                try {
+                    long position = 0;
+                    while (position < size) {
+                        final int read = source.read(buffer, position);
+                        if (read < 0)
+                            break;
+                        buffer.flip();
+                        long written = position;
+                        while (buffer.hasRemaining())
+                            written += destination.write(buffer, written);
+                        buffer.clear();
+                        position += read;
+                    }
+                    return position;
+                } finally {
+                    BufferPool.DIRECT.release(buffer);
+                }
+            }
+
+            final long destinationPosition = destination.position();
+            long position = 0;
+            while (position < size) {
+                // the whole remaining range in a single call, the kernel picks the chunks
+                final long transferred = source.transferTo(position, size - position,
+                        destination.position(position));
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+            }
+            destination.position(destinationPosition);
+            return position;
+        } finally {
+            if (lock != null) {
+                try {
+                    lock.release();
+                } catch (Throwable t) {
+                    if (LOGGER.isLoggable(Level.INFO))
+                        LOGGER.log(Level.INFO, t.getLocalizedMessage(), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a channel until its end, using kernel transfers when either side is a file.
+     * 
+     * @param expectedSize
+     *            the bytes expected, not positive if unknown.
+     * @return the number of bytes copied.
+     */
+    public static long copy(final ReadableByteChannel source,
+            final WritableByteChannel destination, final long expectedSize) throws IOException {
+        if (source instanceof FileChannel) {
+            final FileChannel file = (FileChannel) source;
+            final long start = file.position();
+            long position = start;
+            long transferred;
+            while ((transferred = file.transferTo(position, file.size() - position, destination)) > 0)
+                position += transferred;
+            file.position(position);
+            return position - start;
+        }
+        if (destination instanceof FileChannel) {
+            final FileChannel file = (FileChannel) destination;
+            final long chunk = chunkSize(expectedSize, true);
+            final long start = file.position();
+            long position = start;
+            long transferred;
+            while ((transferred = file.transferFrom(source, position, chunk)) > 0)
+                position += transferred;
+            file.position(position);
+            return position - start;
+        }
+        final ByteBuffer buffer = BufferPool.DIRECT.acquire(chunkSize(expectedSize, false));
+        try {
+            long copied = 0;
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    copied += destination.write(buffer);
+                buffer.clear();
+            }
+            return copied;
+        } finally {
+            BufferPool.DIRECT.release(buffer);
+        }
+    }
+
+    /**
+     * Copies a stream until its end through a pooled buffer, the streams are not closed nor
+     * flushed.
+     * 
+     * @param bufferSize
+     *            size of the buffer, see {@link #chunkSize(long, boolean)}.
+     * @return the number of bytes copied.
+     */
+    public static long copy(final InputStream source, final OutputStream destination,
+            final int bufferSize) throws IOException {
+        final ByteBuffer buffer = BufferPool.HEAP.acquire(bufferSize);
+        try {
+            final byte[] array = buffer.array();
+            long copied = 0;
+            int read;
+            while ((read = source.read(array)) >= 0) {
+                destination.write(array, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+}
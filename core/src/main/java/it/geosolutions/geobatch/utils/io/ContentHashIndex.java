@@ -0,0 +1,273 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of staged files by content hash, shared by all the flows using the same index file, so
+ * that a file landing in several watched directories can be recognized as a duplicate.
+ * <p>
+ * The index is kept in memory and appended to a text file, one
+ * <code>hash size lastModified path</code> line per staged file, later lines overriding earlier
+ * ones. Entries are checked on lookup: an entry whose file has been removed, has changed size or
+ * has been modified is dropped. The file is compacted on load and whenever the stale lines
+ * outnumber the live entries, lines lacking the modification time are dropped as they cannot be
+ * checked.
+ */
+public final class ContentHashIndex {
+
+    private final static Logger LOGGER = Logger.getLogger(ContentHashIndex.class.toString());
+
+    /**
+     * Default name of the index file, in the catalog directory.
+     */
+    public final static String DEFAULT_NAME = "contentIndex.txt";
+
+    public final static String ALGORITHM = "SHA-256";
+
+    private final static int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    private final static Map<File, ContentHashIndex> INSTANCES = new HashMap<File, ContentHashIndex>();
+
+    private final static class Entry {
+        private final long size;
+
+        private final long lastModified;
+
+        private final File file;
+
+        Entry(final long size, final long lastModified, final File file) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.file = file;
+        }
+
+        /**
+         * @return <code>true</code> if the file has been removed or changed since indexed.
+         */
+        boolean isStale() {
+            return !file.isFile() || file.length() != size || file.lastModified() != lastModified;
+        }
+    }
+
+    private final File indexFile;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /** Lines in the index file. */
+    private int lines;
+
+    /**
+     * Loads an index of its own, callers share the indexes through {@link #getInstance(File)}.
+     */
+    ContentHashIndex(final File indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    /**
+     * @return the index stored in the provided file, shared by all the callers.
+     */
+    public static ContentHashIndex getInstance(final File indexFile) {
+        final File key = indexFile.getAbsoluteFile();
+        synchronized (INSTANCES) {
+            ContentHashIndex index = INSTANCES.get(key);
+            if (index == null) {
+                index = new ContentHashIndex(key);
+                INSTANCES.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Computes the {@value #ALGORITHM} hash of a file.
+     * 
+     * @return the hash as an hexadecimal string.
+     */
+    public static String hash(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            final IOException ioe = new IOException(e.getLocalizedMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        final ByteBuffer buffer = BufferPool.DIRECT.acquire(HASH_BUFFER_SIZE);
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+            BufferPool.DIRECT.release(buffer);
+        }
+        final byte[] bytes = digest.digest();
+        final StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16));
+            result.append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Looks for a staged file with the provided content.
+     * 
+     * @return the file or <code>null</code> if none is known or it has changed since.
+     */
+    public synchronized File lookup(final String hash, final long size) {
+        final Entry entry = entries.get(hash);
+        if (entry == null)
+            return null;
+        if (entry.isStale()) {
+            entries.remove(hash);
+            return null;
+        }
+        return entry.size == size ? entry.file : null;
+    }
+
+    /**
+     * Records a staged file.
+     */
+    public synchronized void put(final String hash, final File file) {
+        final File absolute = file.getAbsoluteFile();
+        final Entry entry = new Entry(absolute.length(), absolute.lastModified(), absolute);
+        entries.put(hash, entry);
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile, true), "UTF-8");
+            try {
+                write(writer, hash, entry);
+            } finally {
+                writer.close();
+            }
+            lines++;
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Unable to update the content index " + indexFile + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+        if (lines > 2 * entries.size() + 1000)
+            compact();
+    }
+
+    /**
+     * @return the number of indexed files, stale ones included.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void load() {
+        if (!indexFile.isFile())
+            return;
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(indexFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split("\t", 4);
+                    if (fields.length < 4)
+                        continue;
+                    try {
+                        entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long
+                                .parseLong(fields[2]), new File(fields[3])));
+                    } catch (NumberFormatException e) {
+                        // damaged line, skip it
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Unable to read the content index " + indexFile + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+        compact();
+    }
+
+    /**
+     * Drops the stale entries and rewrites the index file.
+     */
+    private void compact() {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isStale())
+                it.remove();
+        }
+        final File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            try {
+                for (Map.Entry<String, Entry> entry : entries.entrySet())
+                    write(writer, entry.getKey(), entry.getValue());
+            } finally {
+                writer.close();
+            }
+            if (!indexFile.delete() && indexFile.exists() || !temp.renameTo(indexFile))
+                throw new IOException("Unable to replace " + indexFile);
+            lines = entries.size();
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Unable to compact the content index " + indexFile + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+    }
+
+    private static void write(final Writer writer, final String hash, final Entry entry)
+            throws IOException {
+        writer.write(hash);
+        writer.write('\t');
+        writer.write(Long.toString(entry.size));
+        writer.write('\t');
+        writer.write(Long.toString(entry.lastModified));
+        writer.write('\t');
+        writer.write(entry.file.getPath());
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes in background the files which could not be deleted right away, usually because some
+ * stream on them has not been closed yet or, on Windows, because they are mapped in memory.
+ * <p>
+ * Callers never block: files are handed over through a lock free queue to a single daemon
+ * thread, which keeps them in a delay queue and retries each one with an exponential backoff,
+ * from {@link #getInitialDelay()} up to {@link #getMaxDelay()} milliseconds, giving up after
+ * {@link #getMaxAttempts()} attempts. Files already pending are not queued twice.
+ */
+public final class FileDeletionService {
+
+    private final static Logger LOGGER = Logger.getLogger(FileDeletionService.class.toString());
+
+    public final static long DEFAULT_INITIAL_DELAY = 1000;
+
+    public final static long DEFAULT_MAX_DELAY = 5 * 60 * 1000;
+
+    public final static int DEFAULT_MAX_ATTEMPTS = 20;
+
+    private final static FileDeletionService DEFAULT = new FileDeletionService(
+            DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS);
+
+    /**
+     * A file waiting for its next deletion attempt.
+     */
+    private final static class PendingDeletion implements Delayed {
+        private final File file;
+
+        private int attempts;
+
+        private long delay;
+
+        private long due;
+
+        PendingDeletion(final File file, final long delay) {
+            this.file = file;
+            this.delay = delay;
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(final Delayed o) {
+            final long diff = due - ((PendingDeletion) o).due;
+            return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+        }
+    }
+
+    private final long initialDelay;
+
+    private final long maxDelay;
+
+    private final int maxAttempts;
+
+    /** Files handed over by the callers, not yet seen by the worker. */
+    private final ConcurrentLinkedQueue<PendingDeletion> incoming = new ConcurrentLinkedQueue<PendingDeletion>();
+
+    /** Absolute paths of the pending files, to avoid queuing a file twice. */
+    private final ConcurrentMap<String, PendingDeletion> pending = new ConcurrentHashMap<String, PendingDeletion>();
+
+    /** Files waiting for their next attempt, accessed by the worker only. */
+    private final PriorityQueue<PendingDeletion> delayed = new PriorityQueue<PendingDeletion>();
+
+    private final AtomicLong deletedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong attemptsCount = new AtomicLong();
+
+    private final Thread worker;
+
+    /**
+     * @param initialDelay
+     *            milliseconds before the first attempt.
+     * @param maxDelay
+     *            maximum milliseconds between two attempts.
+     * @param maxAttempts
+     *            attempts before giving up on a file.
+     */
+    public FileDeletionService(final long initialDelay, final long maxDelay, final int maxAttempts) {
+        if (initialDelay <= 0 || maxDelay < initialDelay || maxAttempts <= 0)
+            throw new IllegalArgumentException("Invalid delays or attempts: " + initialDelay + ", "
+                    + maxDelay + ", " + maxAttempts);
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "FileDeletionService");
+        this.worker.setDaemon(true);
+        this.worker.setPriority(Thread.MIN_PRIORITY);
+        this.worker.start();
+    }
+
+    /**
+     * @return the service shared by the whole node.
+     */
+    public static FileDeletionService getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Schedules a file for deletion, the first attempt happens after
+     * {@link #getInitialDelay()} milliseconds.
+     * 
+     * @return <code>false</code> if the file does not exist or is already pending.
+     */
+    public boolean delete(final File file) {
+        if (file == null)
+            throw new NullPointerException("Null file");
+        if (!file.exists())
+            return false;
+        final PendingDeletion deletion = new PendingDeletion(file, initialDelay);
+        if (pending.putIfAbsent(file.getAbsolutePath(), deletion) != null)
+            return false;
+        incoming.offer(deletion);
+        LockSupport.unpark(worker);
+        return true;
+    }
+
+    /**
+     * @return the number of files waiting to be deleted.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of files deleted so far.
+     */
+    public long getDeletedCount() {
+        return deletedCount.get();
+    }
+
+    /**
+     * @return the number of files given up after {@link #getMaxAttempts()} attempts so far.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the number of deletion attempts made so far.
+     */
+    public long getAttemptsCount() {
+        return attemptsCount.get();
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    private void work() {
+        while (true) {
+            try {
+                PendingDeletion deletion;
+                while ((deletion = incoming.poll()) != null)
+                    delayed.offer(deletion);
+
+                deletion = delayed.peek();
+                if (deletion == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                final long wait = deletion.getDelay(TimeUnit.NANOSECONDS);
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                    continue;
+                }
+                delayed.poll();
+                attempt(deletion);
+            } catch (Throwable t) {
+                if (LOGGER.isLoggable(Level.INFO))
+                    LOGGER.log(Level.INFO, t.getLocalizedMessage(), t);
+            }
+        }
+    }
+
+    private void attempt(final PendingDeletion deletion) {
+        final File file = deletion.file;
+        attemptsCount.incrementAndGet();
+        if (!file.exists() || file.delete()) {
+            pending.remove(file.getAbsolutePath());
+            deletedCount.incrementAndGet();
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Successfully removed file " + file);
+            return;
+        }
+        if (++deletion.attempts >= maxAttempts) {
+            pending.remove(file.getAbsolutePath());
+            failedCount.incrementAndGet();
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.warning("Unable to delete file " + file + " after " + deletion.attempts
+                        + " attempts, dropping it");
+            return;
+        }
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.fine("Unable to remove file " + file + ", attempt " + deletion.attempts);
+        deletion.delay = Math.min(deletion.delay * 2, maxDelay);
+        deletion.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deletion.delay);
+        delayed.offer(deletion);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+
+/**
+ * Receives the outcome of a {@link FileReadyDetector} check, on the thread of the shared timer;
+ * implementations should not block.
+ */
+public interface FileReadyCallback {
+
+    /**
+     * @param file
+     *            the checked file.
+     * @param ready
+     *            <code>true</code> if the file is ready, <code>false</code> if the maximum
+     *            waiting time elapsed.
+     */
+    public void fileReady(File file, boolean ready);
+}
@@ -0,0 +1,50 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+/**
+ * Tells when a file is ready to be processed, i.e. when whoever is producing it is done writing.
+ * <p>
+ * Detection is asynchronous: retries are scheduled on a shared timer, no thread is blocked while
+ * waiting unless the caller chooses to wait on the returned {@link Future}.
+ */
+public interface FileReadyDetector {
+
+    /**
+     * Starts checking the provided file.
+     * 
+     * @param file
+     *            the file to check.
+     * @param maxWait
+     *            maximum time in milliseconds to wait for the file to become ready.
+     * @param callback
+     *            notified once the outcome is known, may be <code>null</code>.
+     * @return a future whose value is <code>true</code> if the file is ready, <code>false</code>
+     *         if it did not become ready within <code>maxWait</code>; cancelling it stops the
+     *         checks.
+     */
+    public Future<Boolean> whenReady(File file, long maxWait, FileReadyCallback callback);
+}
@@ -0,0 +1,154 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link Future} returned by the {@link FileReadyDetector}s, completed by the checks running
+ * on the shared timer.
+ */
+final class FileReadyFuture implements Future<Boolean> {
+
+    private final static Logger LOGGER = Logger.getLogger(FileReadyFuture.class.toString());
+
+    private final File file;
+
+    private final FileReadyCallback callback;
+
+    private Boolean result;
+
+    private boolean cancelled;
+
+    /** The next scheduled check, if any. */
+    private ScheduledFuture<?> next;
+
+    /** Run once the future has been cancelled, if any. */
+    private Runnable onCancel;
+
+    FileReadyFuture(final File file, final FileReadyCallback callback) {
+        this.file = file;
+        this.callback = callback;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the outcome and notifies the callback, only the first call has effect.
+     * 
+     * @return <code>true</code> if this call completed the future.
+     */
+    boolean complete(final boolean ready) {
+        synchronized (this) {
+            if (isDone())
+                return false;
+            result = Boolean.valueOf(ready);
+            if (next != null)
+                next.cancel(false);
+            next = null;
+            notifyAll();
+        }
+        if (callback != null) {
+            try {
+                callback.fileReady(file, ready);
+            } catch (Throwable e) {
+                if (LOGGER.isLoggable(Level.SEVERE))
+                    LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the next scheduled check so that it can be cancelled.
+     */
+    synchronized void setNext(final ScheduledFuture<?> next) {
+        if (isDone())
+            next.cancel(false);
+        else
+            this.next = next;
+    }
+
+    /**
+     * Sets the action releasing what the detector keeps for this future once cancelled.
+     */
+    synchronized void setOnCancel(final Runnable onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final Runnable release;
+        synchronized (this) {
+            if (isDone())
+                return false;
+            cancelled = true;
+            if (next != null)
+                next.cancel(false);
+            next = null;
+            release = onCancel;
+            notifyAll();
+        }
+        if (release != null)
+            release.run();
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return cancelled || result != null;
+    }
+
+    public synchronized Boolean get() throws InterruptedException {
+        while (!isDone())
+            wait();
+        if (cancelled)
+            throw new CancellationException("Check of " + file + " cancelled");
+        return result;
+    }
+
+    public synchronized Boolean get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!isDone()) {
+            final long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                throw new TimeoutException("Check of " + file + " still running");
+            wait(wait);
+        }
+        if (cancelled)
+            throw new CancellationException("Check of " + file + " cancelled");
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+/**
+ * The available {@link FileReadyDetector}s.
+ */
+public enum FileReadyStrategy {
+    /**
+     * Ready once an exclusive lock can be acquired, see {@link LockFileReadyDetector}.
+     */
+    LOCK,
+
+    /**
+     * Ready once size and modification time stay unchanged for a while, see
+     * {@link QuiescenceFileReadyDetector}.
+     */
+    QUIESCENCE,
+
+    /**
+     * Ready once a marker file shows up, see {@link MarkerFileReadyDetector}.
+     */
+    MARKER,
+
+    /**
+     * Ready unless named as a temporary file, see {@link RenameFileReadyDetector}.
+     */
+    RENAME,
+
+    /**
+     * Ready once reported closed, e.g. by the FTP server, see {@link NotifiedFileReadyDetector}.
+     */
+    NOTIFIED;
+
+    /**
+     * Creates a detector for this strategy.
+     * 
+     * @param window
+     *            the time between two probes or, for {@link #QUIESCENCE}, the time the file has
+     *            to stay unchanged; the default one if not positive.
+     * @param pattern
+     *            the marker suffix for {@link #MARKER}, the temporary files wildcard for
+     *            {@link #RENAME}, ignored otherwise; the default one if <code>null</code>.
+     */
+    public FileReadyDetector createDetector(final long window, final String pattern) {
+        switch (this) {
+        case QUIESCENCE:
+            return new QuiescenceFileReadyDetector(window);
+        case MARKER:
+            return new MarkerFileReadyDetector(pattern, window);
+        case RENAME:
+            return new RenameFileReadyDetector(pattern);
+        case NOTIFIED:
+            return new NotifiedFileReadyDetector();
+        default:
+            return new LockFileReadyDetector(window);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import it.geosolutions.geobatch.utils.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves and duplicates input files avoiding to copy their content whenever the file system
+ * allows it.
+ * <p>
+ * {@link #move(File, File)} renames the file, which is atomic and costs nothing when source and
+ * destination live on the same file system, and only falls back to a channel copy plus delete
+ * across devices. {@link #duplicate(File, File)} tries, in order, a copy-on-write reflink (on
+ * Linux and only if enabled through the {@link #REFLINK_KEY} system property since it spawns a
+ * <code>cp</code> process), a hard link (on a Java 7 runtime) and finally a channel copy.
+ * {@link #copy(File, File)} never links, for copies which must survive any change of their
+ * original such as backups.
+ * <p>
+ * Hard links share their content: a hard linked duplicate would change along with its original
+ * if the latter were modified in place, hence only read-only files are hard linked.
+ */
+public final class FileStager {
+
+    private final static Logger LOGGER = Logger.getLogger(FileStager.class.toString());
+
+    /**
+     * System property enabling reflinks for {@link #DEFAULT}.
+     */
+    public final static String REFLINK_KEY = "it.geosolutions.geobatch.staging.reflink";
+
+    /**
+     * How a file has been staged.
+     */
+    public enum StagingMethod {
+        RENAME, REFLINK, HARD_LINK, COPY
+    }
+
+    /**
+     * Shared instance, reflinks are enabled by the {@link #REFLINK_KEY} system property.
+     */
+    public final static FileStager DEFAULT = new FileStager(Boolean.getBoolean(REFLINK_KEY));
+
+    /**
+     * File.toPath(), Files.createLink(Path, Path) and Files.getFileStore(Path), null before
+     * Java 7.
+     */
+    private final static Method TO_PATH;
+
+    private final static Method CREATE_LINK;
+
+    private final static Method GET_FILE_STORE;
+    static {
+        Method toPath = null;
+        Method createLink = null;
+        Method getFileStore = null;
+        try {
+            toPath = File.class.getMethod("toPath");
+            final Class<?> pathClass = Class.forName("java.nio.file.Path");
+            final Class<?> filesClass = Class.forName("java.nio.file.Files");
+            createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+            getFileStore = filesClass.getMethod("getFileStore", pathClass);
+        } catch (Exception e) {
+            if (LOGGER.isLoggable(Level.INFO))
+                LOGGER.info("Hard links not available: " + e.getLocalizedMessage());
+            toPath = null;
+            createLink = null;
+            getFileStore = null;
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+        GET_FILE_STORE = getFileStore;
+    }
+
+    private final boolean reflinks;
+
+    /**
+     * Source and destination file stores between which reflinks or hard links failed, not
+     * tried again. File stores are only looked up once a failure has been recorded.
+     */
+    private final Set<List<Object>> noReflinks = Collections.synchronizedSet(new HashSet<List<Object>>());
+
+    private final Set<List<Object>> noHardLinks = Collections.synchronizedSet(new HashSet<List<Object>>());
+
+    /**
+     * @param reflinks
+     *            whether copy-on-write reflinks should be tried, on Linux only.
+     */
+    public FileStager(final boolean reflinks) {
+        this.reflinks = reflinks && System.getProperty("os.name").toLowerCase().contains("linux");
+    }
+
+    /**
+     * Moves a file, replacing the destination if any.
+     * 
+     * @return how the file has been moved.
+     */
+    public StagingMethod move(final File source, final File destination) throws IOException {
+        checkSource(source);
+        if (destination.exists() && !destination.delete())
+            throw new IOException("Unable to replace " + destination);
+        if (source.renameTo(destination))
+            return StagingMethod.RENAME;
+
+        // most likely a different device
+        IOUtils.copyFile(source, destination, false);
+        if (!source.delete())
+            IOUtils.deleteFile(source);
+        return StagingMethod.COPY;
+    }
+
+    /**
+     * Duplicates a file, replacing the destination if any. The duplicate is hard linked to the
+     * source only if the latter is read-only.
+     * 
+     * @return how the file has been duplicated.
+     */
+    public StagingMethod duplicate(final File source, final File destination) throws IOException {
+        return duplicate(source, destination, !source.canWrite());
+    }
+
+    /**
+     * Copies a file, replacing the destination if any. The copy never shares its content with
+     * the source, a copy-on-write reflink being the only shortcut.
+     * 
+     * @return how the file has been copied.
+     */
+    public StagingMethod copy(final File source, final File destination) throws IOException {
+        return duplicate(source, destination, false);
+    }
+
+    private StagingMethod duplicate(final File source, final File destination,
+            final boolean hardLinks) throws IOException {
+        checkSource(source);
+        if (destination.exists() && !destination.delete())
+            throw new IOException("Unable to replace " + destination);
+        final File directory = destination.getAbsoluteFile().getParentFile();
+        List<Object> stores = null;
+        if (reflinks) {
+            if (!noReflinks.isEmpty())
+                stores = storesOf(source, directory);
+            if (stores == null || !noReflinks.contains(stores)) {
+                if (reflink(source, destination))
+                    return StagingMethod.REFLINK;
+                if (stores == null)
+                    stores = storesOf(source, directory);
+                if (stores != null)
+                    noReflinks.add(stores);
+            }
+        }
+        if (hardLinks && CREATE_LINK != null) {
+            if (stores == null && !noHardLinks.isEmpty())
+                stores = storesOf(source, directory);
+            if (stores == null || !noHardLinks.contains(stores)) {
+                if (hardLink(source, destination))
+                    return StagingMethod.HARD_LINK;
+                if (stores == null)
+                    stores = storesOf(source, directory);
+                if (stores != null)
+                    noHardLinks.add(stores);
+            }
+        }
+        IOUtils.copyFile(source, destination, false);
+        return StagingMethod.COPY;
+    }
+
+    /**
+     * @return the file stores of the source file and of the destination directory,
+     *         <code>null</code> if unknown.
+     */
+    private static List<Object> storesOf(final File source, final File directory) {
+        if (GET_FILE_STORE == null || directory == null)
+            return null;
+        try {
+            return Arrays.asList(GET_FILE_STORE.invoke(null, TO_PATH.invoke(source)),
+                    GET_FILE_STORE.invoke(null, TO_PATH.invoke(directory)));
+        } catch (InvocationTargetException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Unable to find the file stores of " + source + " and " + directory
+                        + ": " + e.getCause().getLocalizedMessage());
+        } catch (IllegalAccessException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+        }
+        return null;
+    }
+
+    private static void checkSource(final File source) throws IOException {
+        if (!source.isFile() || !source.canRead())
+            throw new IOException("Unable to stage " + source);
+    }
+
+    private static boolean hardLink(final File source, final File destination) {
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(destination), TO_PATH.invoke(source));
+            return true;
+        } catch (InvocationTargetException e) {
+            // different device, unsupported file system, ...
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Unable to link " + source + " to " + destination + ": "
+                        + e.getCause().getLocalizedMessage());
+        } catch (IllegalAccessException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+        }
+        return false;
+    }
+
+    private static boolean reflink(final File source, final File destination) {
+        try {
+            final Process process = new ProcessBuilder("cp", "--reflink=always", "--",
+                    source.getAbsolutePath(), destination.getAbsolutePath()).redirectErrorStream(
+                    true).start();
+            final InputStream output = process.getInputStream();
+            try {
+                while (output.read() >= 0)
+                    ;
+            } finally {
+                output.close();
+            }
+            if (process.waitFor() == 0)
+                return true;
+            // leave no partial copy around
+            destination.delete();
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Considers a file ready as soon as an exclusive lock can be acquired on it, the historical
+ * GeoBatch behaviour.
+ * <p>
+ * Each probe opens a read/write channel on the file, therefore this only works on writable
+ * files and only detects writers which lock the file themselves, on most operating systems. A
+ * missing file is not ready and is never created by the probes.
+ */
+public class LockFileReadyDetector extends AbstractFileReadyDetector {
+
+    public LockFileReadyDetector() {
+        this(DEFAULT_PERIOD);
+    }
+
+    /**
+     * @param period
+     *            time in milliseconds between two attempts.
+     */
+    public LockFileReadyDetector(final long period) {
+        super(period);
+    }
+
+    /**
+     * @param period
+     *            time in milliseconds before the second attempt.
+     * @param maxPeriod
+     *            maximum time in milliseconds between two attempts.
+     * @param backoffFactor
+     *            factor applied to the delay after each failed attempt.
+     */
+    public LockFileReadyDetector(final long period, final long maxPeriod,
+            final double backoffFactor) {
+        super(period, maxPeriod, backoffFactor);
+    }
+
+    protected Probe newProbe(final File file) {
+        return new Probe() {
+            public boolean isReady() throws IOException {
+                // opening a missing file for writing would create it
+                if (!file.isFile())
+                    return false;
+                final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+                try {
+                    final FileLock lock = channel.tryLock();
+                    if (lock == null)
+                        return false;
+                    lock.release();
+                    return true;
+                } catch (OverlappingFileLockException e) {
+                    // locked by this virtual machine
+                    return false;
+                } finally {
+                    channel.close();
+                }
+            }
+        };
+    }
+}
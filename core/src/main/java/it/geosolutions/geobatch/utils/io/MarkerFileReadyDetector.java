@@ -0,0 +1,76 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+
+/**
+ * Considers a file ready once its marker file exists, the marker being a file with the same
+ * name plus a suffix, e.g. <code>granule.tif.done</code> for <code>granule.tif</code>, written
+ * by the producer when done. Marker files themselves are always ready.
+ */
+public class MarkerFileReadyDetector extends AbstractFileReadyDetector {
+
+    public final static String DEFAULT_SUFFIX = ".done";
+
+    private final String suffix;
+
+    public MarkerFileReadyDetector() {
+        this(DEFAULT_SUFFIX, DEFAULT_PERIOD);
+    }
+
+    /**
+     * @param suffix
+     *            the marker suffix, {@link #DEFAULT_SUFFIX} if <code>null</code> or empty.
+     * @param period
+     *            time in milliseconds between two checks.
+     */
+    public MarkerFileReadyDetector(final String suffix, final long period) {
+        super(period);
+        this.suffix = suffix != null && suffix.length() > 0 ? suffix : DEFAULT_SUFFIX;
+    }
+
+    /**
+     * @return the marker of the provided file.
+     */
+    public File getMarker(final File file) {
+        return new File(file.getPath() + suffix);
+    }
+
+    /**
+     * @return <code>true</code> if the provided file is a marker.
+     */
+    public boolean isMarker(final File file) {
+        return file.getName().endsWith(suffix);
+    }
+
+    protected Probe newProbe(final File file) {
+        final File marker = getMarker(file);
+        final boolean isMarker = isMarker(file);
+        return new Probe() {
+            public boolean isReady() {
+                return isMarker || marker.exists();
+            }
+        };
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Considers a file ready once whoever wrote it, typically the embedded FTP server at the end of
+ * an upload, reported it closed through {@link #fileClosed(File)}.
+ * <p>
+ * Notifications are shared by all the instances and remembered, up to {@link #MAX_REMEMBERED}
+ * of them and for {@link #REMEMBER_TIME} milliseconds, so that files closed before anybody asked
+ * about them are ready right away, unless modified after the notification.
+ */
+public class NotifiedFileReadyDetector implements FileReadyDetector {
+
+    public final static int MAX_REMEMBERED = 10000;
+
+    public final static long REMEMBER_TIME = 60 * 60 * 1000;
+
+    /** Close time of the recently closed files, by absolute path, oldest first. */
+    private final static LinkedHashMap<String, Long> CLOSED = new LinkedHashMap<String, Long>();
+
+    /** Pending checks, by absolute path. */
+    private final static Map<String, List<FileReadyFuture>> PENDING = new HashMap<String, List<FileReadyFuture>>();
+
+    private final static Object LOCK = new Object();
+
+    /**
+     * Reports that the provided file has been completely written.
+     */
+    public static void fileClosed(final File file) {
+        final String path = file.getAbsolutePath();
+        final List<FileReadyFuture> pending;
+        synchronized (LOCK) {
+            pending = PENDING.remove(path);
+            final long now = System.currentTimeMillis();
+            CLOSED.remove(path);
+            CLOSED.put(path, Long.valueOf(now));
+            expire(now);
+        }
+        if (pending != null)
+            for (FileReadyFuture future : pending)
+                future.complete(true);
+    }
+
+    public Future<Boolean> whenReady(final File file, final long maxWait,
+            final FileReadyCallback callback) {
+        final String path = file.getAbsolutePath();
+        final FileReadyFuture future = new FileReadyFuture(file, callback);
+        synchronized (LOCK) {
+            expire(System.currentTimeMillis());
+            final Long closed = CLOSED.get(path);
+            if (closed == null || closed.longValue() < file.lastModified()) {
+                List<FileReadyFuture> pending = PENDING.get(path);
+                if (pending == null) {
+                    pending = new LinkedList<FileReadyFuture>();
+                    PENDING.put(path, pending);
+                }
+                pending.add(future);
+                future.setOnCancel(new Runnable() {
+                    public void run() {
+                        forget(path, future);
+                    }
+                });
+                future.setNext(AbstractFileReadyDetector.getTimer().schedule(new Runnable() {
+                    public void run() {
+                        timeout(path, future);
+                    }
+                }, maxWait, TimeUnit.MILLISECONDS));
+                return future;
+            }
+        }
+        future.complete(true);
+        return future;
+    }
+
+    private static void timeout(final String path, final FileReadyFuture future) {
+        forget(path, future);
+        future.complete(false);
+    }
+
+    /**
+     * Stops waiting for the notification on behalf of the provided future.
+     */
+    private static void forget(final String path, final FileReadyFuture future) {
+        synchronized (LOCK) {
+            final List<FileReadyFuture> pending = PENDING.get(path);
+            if (pending != null) {
+                pending.remove(future);
+                if (pending.isEmpty())
+                    PENDING.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Forgets the notifications nobody asked about, to be called holding the lock.
+     */
+    private static void expire(final long now) {
+        final Iterator<Long> it = CLOSED.values().iterator();
+        while (it.hasNext()) {
+            final long closed = it.next().longValue();
+            if (CLOSED.size() <= MAX_REMEMBERED && now - closed <= REMEMBER_TIME)
+                break;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+
+/**
+ * Considers a file ready once its size and modification time did not change for a given
+ * window of time, without opening it.
+ */
+public class QuiescenceFileReadyDetector extends AbstractFileReadyDetector {
+
+    public final static long DEFAULT_WINDOW = 5000;
+
+    private final long window;
+
+    public QuiescenceFileReadyDetector() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window
+     *            time in milliseconds the file has to stay unchanged, {@link #DEFAULT_WINDOW}
+     *            if not positive.
+     */
+    public QuiescenceFileReadyDetector(final long window) {
+        super(Math.max(1, (window > 0 ? window : DEFAULT_WINDOW) / 4));
+        this.window = window > 0 ? window : DEFAULT_WINDOW;
+    }
+
+    /**
+     * @return the time in milliseconds the file has to stay unchanged.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    protected Probe newProbe(final File file) {
+        return new Probe() {
+            private long size = -1;
+
+            private long lastModified = -1;
+
+            private long stableSince;
+
+            public boolean isReady() {
+                final long now = System.currentTimeMillis();
+                if (!file.exists()) {
+                    size = lastModified = -1;
+                    return false;
+                }
+                final long newSize = file.length();
+                final long newLastModified = file.lastModified();
+                if (newSize != size || newLastModified != lastModified) {
+                    size = newSize;
+                    lastModified = newLastModified;
+                    stableSince = now;
+                    return false;
+                }
+                return now - stableSince >= window;
+            }
+        };
+    }
+}
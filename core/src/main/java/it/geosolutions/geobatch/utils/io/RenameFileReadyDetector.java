@@ -0,0 +1,69 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
+
+/**
+ * For producers writing to a temporary name and renaming the file into place when done: a file
+ * is ready right away unless its name matches the temporary files wildcard, in which case it
+ * will never be, under that name.
+ */
+public class RenameFileReadyDetector implements FileReadyDetector {
+
+    public final static String DEFAULT_TEMPORARY_WILDCARD = "*.part";
+
+    private final String temporaryWildcard;
+
+    public RenameFileReadyDetector() {
+        this(DEFAULT_TEMPORARY_WILDCARD);
+    }
+
+    /**
+     * @param temporaryWildcard
+     *            wildcard matching the names of the files being written,
+     *            {@link #DEFAULT_TEMPORARY_WILDCARD} if <code>null</code> or empty.
+     */
+    public RenameFileReadyDetector(final String temporaryWildcard) {
+        this.temporaryWildcard = temporaryWildcard != null && temporaryWildcard.length() > 0 ? temporaryWildcard
+                : DEFAULT_TEMPORARY_WILDCARD;
+    }
+
+    /**
+     * @return <code>true</code> if the provided file is still being written.
+     */
+    public boolean isTemporary(final File file) {
+        return FilenameUtils.wildcardMatch(file.getName(), temporaryWildcard, IOCase.INSENSITIVE);
+    }
+
+    public Future<Boolean> whenReady(final File file, final long maxWait,
+            final FileReadyCallback callback) {
+        final FileReadyFuture future = new FileReadyFuture(file, callback);
+        future.complete(file.exists() && !isTemporary(file));
+        return future;
+    }
+}
@@ -0,0 +1,728 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Builds zip archives compressing the entries in parallel and streaming the result to any
+ * {@link WritableByteChannel}, a file as well as a socket, without intermediate copies of the
+ * whole archive.
+ * <p>
+ * Entries are deflated on a shared pool, each into its own spool (kept in memory up to
+ * {@link #SPOOL_THRESHOLD} bytes, in a temporary file above), while the calling thread appends
+ * the completed entries to the archive in the order they have been added. Only a few entries
+ * ahead of the one being written are prepared at any time, bounding the spool space.
+ * <p>
+ * {@link Mode#STORE} entries are not compressed at all and their content is transferred
+ * straight from the file to the archive, {@link Mode#AUTO} deflates a sample of each file and
+ * stores the ones which do not compress, e.g. LZW or JPEG compressed rasters. ZIP64 extensions
+ * are written as soon as an entry, the archive or the number of entries exceed the classic zip
+ * limits.
+ */
+public final class ZipEngine {
+
+    private final static Logger LOGGER = Logger.getLogger(ZipEngine.class.toString());
+
+    /**
+     * How entries are written.
+     */
+    public enum Mode {
+        DEFLATE, STORE, AUTO
+    }
+
+    /**
+     * Bytes of compressed data kept in memory before spooling an entry to a temporary file.
+     */
+    public final static int SPOOL_THRESHOLD = 1024 * 1024;
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Sample deflated by {@link Mode#AUTO}, which stores the entry if the sample shrinks by less
+     * than {@link #AUTO_MIN_SAVING} percent.
+     */
+    private final static int SAMPLE_SIZE = 64 * 1024;
+
+    private final static int AUTO_MIN_SAVING = 10;
+
+    private final static long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+    private final static int ZIP64_ENTRIES_LIMIT = 0xFFFF;
+
+    private final static int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private final static ExecutorService POOL = Executors.newFixedThreadPool(THREADS,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "ZipEngine-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * A file to be added to the archive.
+     */
+    private final static class Source {
+        private final File file;
+
+        private final String name;
+
+        private final Mode mode;
+
+        Source(final File file, final String name, final Mode mode) {
+            this.file = file;
+            this.name = name;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * A prepared entry, with the data needed by the local and central headers.
+     */
+    private final static class Prepared {
+        private final Source source;
+
+        private final byte[] name;
+
+        private final int time;
+
+        private int method;
+
+        private long crc;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long offset;
+
+        private Spool spool;
+
+        Prepared(final Source source) throws UnsupportedEncodingException {
+            this.source = source;
+            this.name = source.name.getBytes("UTF-8");
+            this.time = dosTime(source.file.lastModified());
+        }
+
+        boolean isZip64() {
+            return size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT || offset >= ZIP64_LIMIT;
+        }
+
+        void release() {
+            if (spool != null) {
+                spool.release();
+                spool = null;
+            }
+        }
+    }
+
+    /**
+     * Compressed data of an entry, in memory up to {@link ZipEngine#SPOOL_THRESHOLD} bytes then
+     * in a temporary file.
+     */
+    private final static class Spool extends OutputStream {
+        private final File directory;
+
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int count;
+
+        private File file;
+
+        private OutputStream stream;
+
+        private long size;
+
+        Spool(final File directory) {
+            this.directory = directory;
+        }
+
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (stream == null && count + len > SPOOL_THRESHOLD) {
+                file = File.createTempFile("zipspool", ".tmp", directory);
+                stream = new FileOutputStream(file);
+                stream.write(buffer, 0, count);
+                buffer = null;
+            }
+            if (stream != null)
+                stream.write(b, off, len);
+            else {
+                if (count + len > buffer.length) {
+                    final byte[] grown = new byte[Math.min(SPOOL_THRESHOLD, Math.max(
+                            buffer.length * 2, count + len))];
+                    System.arraycopy(buffer, 0, grown, 0, count);
+                    buffer = grown;
+                }
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+            size += len;
+        }
+
+        public void close() throws IOException {
+            if (stream != null)
+                stream.close();
+        }
+
+        long size() {
+            return size;
+        }
+
+        void writeTo(final Output out) throws IOException {
+            if (file == null) {
+                out.write(ByteBuffer.wrap(buffer, 0, count));
+                return;
+            }
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                out.transferFrom(in.getChannel(), size);
+            } finally {
+                in.close();
+            }
+        }
+
+        void release() {
+            buffer = null;
+            if (file != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    if (LOGGER.isLoggable(Level.FINE))
+                        LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+                }
+                if (!file.delete())
+                    file.deleteOnExit();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * The archive being written, keeping track of the current offset.
+     */
+    private final static class Output {
+        private final WritableByteChannel channel;
+
+        private long position;
+
+        Output(final WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(final ByteBuffer data) throws IOException {
+            while (data.hasRemaining())
+                position += channel.write(data);
+        }
+
+        void transferFrom(final FileChannel source, final long count) throws IOException {
+            long transferred = 0;
+            while (transferred < count) {
+                final long written = source.transferTo(transferred, count - transferred, channel);
+                if (written <= 0 && source.size() <= transferred)
+                    throw new IOException("Unexpected end of file after " + transferred + " bytes");
+                transferred += written;
+            }
+            position += transferred;
+        }
+    }
+
+    private final List<Source> sources = new ArrayList<Source>();
+
+    private final Mode mode;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private File spoolDirectory;
+
+    /**
+     * Creates an engine using {@link Mode#AUTO}.
+     */
+    public ZipEngine() {
+        this(Mode.AUTO);
+    }
+
+    /**
+     * @param mode
+     *            the default mode for the entries.
+     */
+    public ZipEngine(final Mode mode) {
+        if (mode == null)
+            throw new NullPointerException("Null mode");
+        this.mode = mode;
+    }
+
+    /**
+     * @param level
+     *            the {@link Deflater} compression level.
+     */
+    public void setLevel(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * @param spoolDirectory
+     *            where entries larger than {@link #SPOOL_THRESHOLD} are spooled, the default
+     *            temporary directory if <code>null</code>.
+     */
+    public void setSpoolDirectory(final File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * Adds a file named after its own name, using the engine mode.
+     */
+    public void addFile(final File file) {
+        addFile(file, file.getName(), mode);
+    }
+
+    /**
+     * Adds a file using the engine mode.
+     */
+    public void addFile(final File file, final String name) {
+        addFile(file, name, mode);
+    }
+
+    /**
+     * Adds a file.
+     * 
+     * @param file
+     *            the file to add.
+     * @param name
+     *            the name of the entry.
+     * @param mode
+     *            how the entry is written.
+     */
+    public void addFile(final File file, final String name, final Mode mode) {
+        if (file == null || name == null || mode == null)
+            throw new NullPointerException("One or more input parameters are null!");
+        if (!file.isFile())
+            throw new IllegalArgumentException("Not a file: " + file);
+        sources.add(new Source(file, name, mode));
+    }
+
+    /**
+     * @return the number of entries added so far.
+     */
+    public int size() {
+        return sources.size();
+    }
+
+    /**
+     * Writes the archive to a file.
+     * 
+     * @return the size of the archive.
+     */
+    public long writeTo(final File zipFile) throws IOException {
+        final FileOutputStream out = new FileOutputStream(zipFile);
+        try {
+            return writeTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the archive to a channel, which is not closed.
+     * 
+     * @return the number of bytes written.
+     */
+    public long writeTo(final WritableByteChannel channel) throws IOException {
+        final Output out = new Output(channel);
+        final List<Future<Prepared>> futures = new ArrayList<Future<Prepared>>(sources.size());
+        final List<Prepared> written = new ArrayList<Prepared>(sources.size());
+        final int window = THREADS * 2;
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                while (futures.size() < sources.size() && futures.size() <= i + window)
+                    futures.add(POOL.submit(new Preparation(sources.get(futures.size()))));
+
+                final Prepared entry = get(futures.get(i));
+                futures.set(i, null);
+                try {
+                    writeEntry(out, entry);
+                } finally {
+                    entry.release();
+                }
+                written.add(entry);
+            }
+            writeCentralDirectory(out, written);
+            return out.position;
+        } finally {
+            // on failure release the entries already being prepared
+            for (Future<Prepared> future : futures) {
+                if (future == null)
+                    continue;
+                try {
+                    future.get().release();
+                } catch (Exception e) {
+                    if (LOGGER.isLoggable(Level.FINE))
+                        LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static Prepared get(final Future<Prepared> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while zipping");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            final IOException ioe = new IOException(cause.getLocalizedMessage());
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Computes checksum and sizes of an entry, deflating it into a spool if needed.
+     */
+    private final class Preparation implements Callable<Prepared> {
+        private final Source source;
+
+        Preparation(final Source source) {
+            this.source = source;
+        }
+
+        public Prepared call() throws IOException {
+            final Prepared entry = new Prepared(source);
+            boolean prepared = false;
+            try {
+                Mode entryMode = source.mode;
+                if (entryMode == Mode.AUTO)
+                    entryMode = isCompressible(source.file) ? Mode.DEFLATE : Mode.STORE;
+                if (entryMode == Mode.DEFLATE) {
+                    deflate(entry);
+                    // incompressible after all
+                    if (entry.compressedSize < entry.size || source.mode == Mode.DEFLATE) {
+                        prepared = true;
+                        return entry;
+                    }
+                    entry.release();
+                }
+                store(entry);
+                prepared = true;
+                return entry;
+            } finally {
+                // the entry never reaches the writer, drop its spool
+                if (!prepared)
+                    entry.release();
+            }
+        }
+
+        private void store(final Prepared entry) throws IOException {
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            final InputStream in = new FileInputStream(entry.source.file);
+            try {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            } finally {
+                in.close();
+            }
+            entry.method = ZipEntry.STORED;
+            entry.crc = crc.getValue();
+            entry.size = entry.compressedSize = size;
+        }
+
+        private void deflate(final Prepared entry) throws IOException {
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            final Deflater deflater = new Deflater(level, true);
+            final Spool spool = new Spool(spoolDirectory);
+            entry.spool = spool;
+            final InputStream in = new FileInputStream(entry.source.file);
+            try {
+                final DeflaterOutputStream out = new DeflaterOutputStream(spool, deflater, BUFFER_SIZE);
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+                out.close();
+            } finally {
+                in.close();
+                deflater.end();
+            }
+            entry.method = ZipEntry.DEFLATED;
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = spool.size();
+        }
+
+        private boolean isCompressible(final File file) throws IOException {
+            final byte[] sample = new byte[SAMPLE_SIZE];
+            int length = 0;
+            final InputStream in = new FileInputStream(file);
+            try {
+                int read;
+                while (length < sample.length
+                        && (read = in.read(sample, length, sample.length - length)) >= 0)
+                    length += read;
+            } finally {
+                in.close();
+            }
+            if (length == 0)
+                return false;
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(sample, 0, length);
+                deflater.finish();
+                final byte[] output = new byte[BUFFER_SIZE];
+                while (!deflater.finished())
+                    deflater.deflate(output);
+                return deflater.getTotalOut() * 100L < length * (100L - AUTO_MIN_SAVING);
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static void writeEntry(final Output out, final Prepared entry) throws IOException {
+        entry.offset = out.position;
+        final boolean zip64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+        final ByteBuffer header = newBuffer(30 + entry.name.length + (zip64 ? 20 : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) versionNeeded(entry, zip64));
+        header.putShort((short) 0x0800);
+        header.putShort((short) entry.method);
+        header.putInt(entry.time);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        header.flip();
+        out.write(header);
+
+        final long start = out.position;
+        if (entry.spool != null)
+            entry.spool.writeTo(out);
+        else {
+            final FileInputStream in = new FileInputStream(entry.source.file);
+            try {
+                final FileChannel channel = in.getChannel();
+                if (channel.size() != entry.size)
+                    throw new IOException(entry.source.file + " changed while being zipped");
+                out.transferFrom(channel, entry.size);
+            } finally {
+                in.close();
+            }
+        }
+        if (out.position - start != entry.compressedSize)
+            throw new IOException("Unexpected size for entry " + entry.source.name);
+    }
+
+    private static void writeCentralDirectory(final Output out, final List<Prepared> entries)
+            throws IOException {
+        final long start = out.position;
+        for (Prepared entry : entries) {
+            final boolean zip64 = entry.isZip64();
+            final int extra = zip64 ? 4 + (entry.size >= ZIP64_LIMIT ? 8 : 0)
+                    + (entry.compressedSize >= ZIP64_LIMIT ? 8 : 0)
+                    + (entry.offset >= ZIP64_LIMIT ? 8 : 0) : 0;
+            final ByteBuffer header = newBuffer(46 + entry.name.length + extra);
+            header.putInt(0x02014b50);
+            header.putShort((short) 45);
+            header.putShort((short) versionNeeded(entry, zip64));
+            header.putShort((short) 0x0800);
+            header.putShort((short) entry.method);
+            header.putInt(entry.time);
+            header.putInt((int) entry.crc);
+            header.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT));
+            header.putInt((int) Math.min(entry.size, ZIP64_LIMIT));
+            header.putShort((short) entry.name.length);
+            header.putShort((short) extra);
+            header.putShort((short) 0); // comment
+            header.putShort((short) 0); // disk
+            header.putShort((short) 0); // internal attributes
+            header.putInt(0); // external attributes
+            header.putInt((int) Math.min(entry.offset, ZIP64_LIMIT));
+            header.put(entry.name);
+            if (zip64) {
+                header.putShort((short) 0x0001);
+                header.putShort((short) (extra - 4));
+                if (entry.size >= ZIP64_LIMIT)
+                    header.putLong(entry.size);
+                if (entry.compressedSize >= ZIP64_LIMIT)
+                    header.putLong(entry.compressedSize);
+                if (entry.offset >= ZIP64_LIMIT)
+                    header.putLong(entry.offset);
+            }
+            header.flip();
+            out.write(header);
+        }
+        final long end = out.position;
+        final long size = end - start;
+        final int count = entries.size();
+
+        final boolean zip64 = count >= ZIP64_ENTRIES_LIMIT || size >= ZIP64_LIMIT
+                || start >= ZIP64_LIMIT;
+        final ByteBuffer trailer = newBuffer((zip64 ? 56 + 20 : 0) + 22);
+        if (zip64) {
+            // zip64 end of central directory record and locator
+            trailer.putInt(0x06064b50);
+            trailer.putLong(44);
+            trailer.putShort((short) 45);
+            trailer.putShort((short) 45);
+            trailer.putInt(0);
+            trailer.putInt(0);
+            trailer.putLong(count);
+            trailer.putLong(count);
+            trailer.putLong(size);
+            trailer.putLong(start);
+            trailer.putInt(0x07064b50);
+            trailer.putInt(0);
+            trailer.putLong(end);
+            trailer.putInt(1);
+        }
+        trailer.putInt(0x06054b50);
+        trailer.putShort((short) 0);
+        trailer.putShort((short) 0);
+        trailer.putShort((short) Math.min(count, ZIP64_ENTRIES_LIMIT));
+        trailer.putShort((short) Math.min(count, ZIP64_ENTRIES_LIMIT));
+        trailer.putInt((int) Math.min(size, ZIP64_LIMIT));
+        trailer.putInt((int) Math.min(start, ZIP64_LIMIT));
+        trailer.putShort((short) 0);
+        trailer.flip();
+        out.write(trailer);
+    }
+
+    private static int versionNeeded(final Prepared entry, final boolean zip64) {
+        if (zip64)
+            return 45;
+        return entry.method == ZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private static ByteBuffer newBuffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int dosTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Extracts all the files of an archive in a single directory, ignoring the hierarchy of the
+     * entries, through channels.
+     * 
+     * @return the extracted files.
+     */
+    public static List<File> unzipFlat(final File zipFile, final File destDir) throws IOException {
+        final List<File> result = new ArrayList<File>();
+        final ZipFile archive = new ZipFile(zipFile);
+        try {
+            final Enumeration<? extends ZipEntry> entries = archive.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory())
+                    continue;
+                final File outFile = new File(destDir, FilenameUtils.getName(entry.getName()));
+                final ReadableByteChannel in = Channels.newChannel(archive.getInputStream(entry));
+                try {
+                    final FileOutputStream out = new FileOutputStream(outFile);
+                    try {
+                        final FileChannel channel = out.getChannel();
+                        long position = 0;
+                        long transferred;
+                        while ((transferred = channel.transferFrom(in, position, SPOOL_THRESHOLD)) > 0)
+                            position += transferred;
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+                result.add(outFile);
+            }
+        } finally {
+            archive.close();
+        }
+        return result;
+    }
+}
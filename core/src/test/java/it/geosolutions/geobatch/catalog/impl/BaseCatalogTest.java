@@ -0,0 +1,150 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.catalog.impl;
+
+import it.geosolutions.geobatch.catalog.Resource;
+import it.geosolutions.geobatch.catalog.event.CatalogAddEvent;
+import it.geosolutions.geobatch.catalog.event.CatalogListener;
+import it.geosolutions.geobatch.catalog.event.CatalogModifyEvent;
+import it.geosolutions.geobatch.catalog.event.CatalogRemoveEvent;
+import it.geosolutions.geobatch.configuration.flow.FlowConfiguration;
+import it.geosolutions.geobatch.flow.FlowManager;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that the readers of the catalog always see a consistent snapshot of its resources.
+ */
+public class BaseCatalogTest {
+
+    private static BaseService service(final String id, final String name) {
+        return new BaseService(id, name, id, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FlowManager<EventObject, FlowConfiguration> flowManager(final String id) {
+        return (FlowManager<EventObject, FlowConfiguration>) Proxy.newProxyInstance(
+                BaseCatalogTest.class.getClassLoader(), new Class<?>[] { FlowManager.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getId") || method.getName().equals("getName"))
+                            return id;
+                        if (method.getName().equals("getWorkingDirectory"))
+                            return new File(id);
+                        if (method.getName().equals("hashCode"))
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        if (method.getName().equals("equals"))
+                            return Boolean.valueOf(proxy == args[0]);
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void testSnapshotIsolation() {
+        final BaseCatalog catalog = new BaseCatalog();
+        final BaseService first = service("first", "first");
+        catalog.add(first);
+        final List<BaseService> before = catalog.getResources(BaseService.class);
+        Assert.assertEquals(1, before.size());
+
+        catalog.add(service("second", "second"));
+        // a list already handed out does not change
+        Assert.assertEquals(1, before.size());
+        Assert.assertEquals(2, catalog.getResources(BaseService.class).size());
+        try {
+            before.add(first);
+            Assert.fail("Modifiable snapshot");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRemoveKeepsSnapshots() {
+        final BaseCatalog catalog = new BaseCatalog();
+        final FlowManager<EventObject, FlowConfiguration> flow = flowManager("flow");
+        catalog.add(flow);
+        final List<FlowManager> before = catalog.getResources(FlowManager.class);
+        Assert.assertSame(flow, catalog.getResource("flow", FlowManager.class));
+
+        catalog.remove(flow);
+        Assert.assertEquals(1, before.size());
+        Assert.assertEquals(0, catalog.getResources(FlowManager.class).size());
+        Assert.assertNull(catalog.getResource("flow", FlowManager.class));
+        // removing twice is harmless
+        catalog.remove(flow);
+    }
+
+    @Test
+    public void testLookups() {
+        final BaseCatalog catalog = new BaseCatalog();
+        final BaseService first = service("id", "name");
+        catalog.add(first);
+        catalog.add(service("id", "other"));
+        final BaseService other = service("otherId", "name");
+        catalog.add(other);
+
+        // the first added wins
+        Assert.assertSame(first, catalog.getResource("id", BaseService.class));
+        Assert.assertSame(first, catalog.getResourceByName("name", BaseService.class));
+        Assert.assertSame(other, catalog.getResource("otherId", Resource.class));
+        Assert.assertNull(catalog.getResource("missing", BaseService.class));
+        Assert.assertEquals(3, catalog.getResources(Resource.class).size());
+        Assert.assertEquals(0, catalog.getResources(FlowManager.class).size());
+    }
+
+    @Test
+    public void testListenersSeeTheChange() {
+        final BaseCatalog catalog = new BaseCatalog();
+        final List<String> seen = new ArrayList<String>();
+        catalog.addListener(new CatalogListener() {
+            public <T, C extends CatalogAddEvent<T>> void handleAddEvent(C event) {
+                final Resource resource = (Resource) event.getSource();
+                seen.add("add " + (catalog.getResource(resource.getId(), Resource.class) == resource));
+            }
+
+            public <T, C extends CatalogRemoveEvent<T>> void handleRemoveEvent(C event) {
+                final Resource resource = (Resource) event.getSource();
+                seen.add("remove " + (catalog.getResource(resource.getId(), Resource.class) == null));
+            }
+
+            public <T, C extends CatalogModifyEvent<T>> void handleModifyEvent(C event) {
+            }
+        });
+        final FlowManager<EventObject, FlowConfiguration> flow = flowManager("flow");
+        catalog.add(flow);
+        catalog.remove(flow);
+        Assert.assertEquals("[add true, remove true]", seen.toString());
+    }
+}
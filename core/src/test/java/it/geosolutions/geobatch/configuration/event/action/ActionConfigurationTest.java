@@ -0,0 +1,76 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.configuration.event.action;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that the settings of the base class survive a clone.
+ */
+public class ActionConfigurationTest {
+
+    private final static class TestConfiguration extends ActionConfiguration {
+        private TestConfiguration(String id, String name, String description, boolean dirty) {
+            super(id, name, description, dirty);
+        }
+
+        @Override
+        public TestConfiguration clone() throws CloneNotSupportedException {
+            final TestConfiguration configuration = new TestConfiguration(getId(), getName(),
+                    getDescription(), isDirty());
+            copyTo(configuration);
+            return configuration;
+        }
+    }
+
+    @Test
+    public void testCloneKeepsBaseSettings() throws Exception {
+        final TestConfiguration configuration = new TestConfiguration("a2", "name", "description", false);
+        configuration.setWorkload(ActionWorkload.IO);
+        configuration.setDependsOn(Arrays.asList("a0", "a1"));
+        configuration.setFailurePolicy(ActionFailurePolicy.CONTINUE);
+        configuration.setDirty(false);
+
+        final ActionConfiguration clone = configuration.clone();
+        Assert.assertEquals(ActionWorkload.IO, clone.getWorkload());
+        Assert.assertEquals(Arrays.asList("a0", "a1"), clone.getDependsOn());
+        Assert.assertEquals(ActionFailurePolicy.CONTINUE, clone.getFailurePolicy());
+        Assert.assertFalse(clone.isDirty());
+
+        // the clone does not share the dependencies
+        clone.getDependsOn().add("a3");
+        Assert.assertEquals(2, configuration.getDependsOn().size());
+    }
+
+    @Test
+    public void testCloneKeepsDefaults() throws Exception {
+        final ActionConfiguration clone = new TestConfiguration("a1", "name", "description", false).clone();
+        Assert.assertNull(clone.getWorkload());
+        Assert.assertNull(clone.getDependsOn());
+        Assert.assertNull(clone.getFailurePolicy());
+    }
+}
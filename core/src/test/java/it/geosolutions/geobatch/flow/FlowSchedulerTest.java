@@ -0,0 +1,217 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the fair sharing of the workers and the concurrency limits of the flows.
+ */
+public class FlowSchedulerTest {
+
+    private FlowScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new FlowScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.dispose();
+    }
+
+    /**
+     * Occupies the only worker so that the tasks queued afterwards are all waiting.
+     */
+    private CountDownLatch block(final FlowScheduler.Share share) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        share.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    private Runnable record(final List<String> order, final String flowId, final CountDownLatch done) {
+        return new Runnable() {
+            public void run() {
+                order.add(flowId);
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        scheduler.setThreads(1);
+        final FlowScheduler.Share gateShare = scheduler.register("gate", 1, 0, 0);
+        final FlowScheduler.Share a = scheduler.register("a", 2, 0, 0);
+        final FlowScheduler.Share b = scheduler.register("b", 1, 0, 0);
+        final CountDownLatch gate = block(gateShare);
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(12);
+        for (int i = 0; i < 6; i++) {
+            a.execute(record(order, "a", done));
+            b.execute(record(order, "b", done));
+        }
+        gate.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // the first 6 tasks share the worker 2 to 1, then only b is left
+        int countA = 0;
+        for (String flowId : order.subList(0, 6))
+            if (flowId.equals("a"))
+                countA++;
+        Assert.assertEquals(4, countA);
+        Assert.assertEquals(6, a.getCompletedCount());
+        Assert.assertEquals(6, b.getCompletedCount());
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        scheduler.setThreads(1);
+        final FlowScheduler.Share gateShare = scheduler.register("gate", 1, 0, 0);
+        final FlowScheduler.Share low = scheduler.register("low", 10, 0, 0);
+        final FlowScheduler.Share high = scheduler.register("high", 1, 1, 0);
+        final CountDownLatch gate = block(gateShare);
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 3; i++) {
+            low.execute(record(order, "low", done));
+            high.execute(record(order, "high", done));
+        }
+        gate.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals("[high, high, high, low, low, low]", order.toString());
+    }
+
+    /**
+     * Runs tasks holding their worker until released, tracking the peak concurrency.
+     */
+    private final static class Holder implements Runnable {
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final AtomicInteger peak = new AtomicInteger();
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final CountDownLatch done;
+
+        private Holder(final int tasks) {
+            done = new CountDownLatch(tasks);
+        }
+
+        public void run() {
+            final int now = running.incrementAndGet();
+            synchronized (peak) {
+                if (now > peak.get())
+                    peak.set(now);
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+                done.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultCap() throws Exception {
+        scheduler.setThreads(4);
+        final FlowScheduler.Share slow = scheduler.register("slow", 1, 0, 0);
+        final FlowScheduler.Share other = scheduler.register("other", 1, 0, 0);
+        Assert.assertEquals(2, slow.getMaxConcurrency());
+
+        final Holder holder = new Holder(6);
+        for (int i = 0; i < 6; i++)
+            slow.execute(holder);
+
+        // the slow flow holds only half of the workers, the other still gets served
+        final CountDownLatch served = new CountDownLatch(1);
+        other.execute(new Runnable() {
+            public void run() {
+                served.countDown();
+            }
+        });
+        Assert.assertTrue(served.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, slow.getRunningCount());
+        Assert.assertEquals(4, slow.getQueuedCount());
+
+        holder.release.countDown();
+        Assert.assertTrue(holder.done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, holder.peak.get());
+    }
+
+    @Test
+    public void testExplicitCap() throws Exception {
+        scheduler.setThreads(4);
+        scheduler.setShareConcurrency(3);
+        final FlowScheduler.Share limited = scheduler.register("limited", 1, 0, 1);
+        final FlowScheduler.Share shared = scheduler.register("shared", 1, 0, 0);
+        Assert.assertEquals(1, limited.getMaxConcurrency());
+        Assert.assertEquals(3, shared.getMaxConcurrency());
+
+        final Holder one = new Holder(3);
+        final Holder three = new Holder(5);
+        for (int i = 0; i < 3; i++)
+            limited.execute(one);
+        for (int i = 0; i < 5; i++)
+            shared.execute(three);
+        Thread.sleep(200);
+        Assert.assertEquals(1, limited.getRunningCount());
+        Assert.assertEquals(3, shared.getRunningCount());
+
+        one.release.countDown();
+        three.release.countDown();
+        Assert.assertTrue(one.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(three.done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, one.peak.get());
+        Assert.assertEquals(3, three.peak.get());
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+import it.geosolutions.geobatch.configuration.event.action.ActionFailurePolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the validation of the action dependencies and the execution of the action graphs.
+ */
+public class ActionGraphTest {
+
+    private final static class TestConfiguration extends ActionConfiguration {
+        private TestConfiguration(final String id, final ActionFailurePolicy failurePolicy,
+                final String... dependsOn) {
+            super(id, id, id, false);
+            setDependsOn(dependsOn != null ? new ArrayList<String>(Arrays.asList(dependsOn)) : null);
+            setFailurePolicy(failurePolicy);
+        }
+
+        @Override
+        public TestConfiguration clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException();
+        }
+    }
+
+    /**
+     * Hands over its input followed by an event carrying its own id.
+     */
+    private final class TestAction implements Action<EventObject> {
+        private final String id;
+
+        private final Exception failure;
+
+        private final CyclicBarrier barrier;
+
+        private TestAction(final String id, final Exception failure, final CyclicBarrier barrier) {
+            this.id = id;
+            this.failure = failure;
+            this.barrier = barrier;
+        }
+
+        public Queue<EventObject> execute(final Queue<EventObject> events) throws Exception {
+            executed.add(id);
+            if (barrier != null)
+                barrier.await(10, TimeUnit.SECONDS);
+            if (failure != null)
+                throw failure;
+            final Queue<EventObject> results = new LinkedList<EventObject>(events);
+            results.add(new EventObject(id));
+            return results;
+        }
+
+        public void destroy() {
+        }
+    }
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testChain() throws Exception {
+        final List<ActionConfiguration> configurations = Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null, (String[]) null),
+                new TestConfiguration("b", null, (String[]) null),
+                new TestConfiguration("c", null, (String[]) null));
+        Assert.assertFalse(ActionGraph.isGraph(configurations));
+        final ActionGraph graph = new ActionGraph(configurations);
+        Assert.assertEquals(3, graph.size());
+
+        final Queue<EventObject> results = graph.execute(actions("a", "b", "c"), input(), executor);
+        Assert.assertEquals(Arrays.asList("in", "a", "b", "c"), sources(results));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), executed);
+    }
+
+    @Test
+    public void testFanOutFanIn() throws Exception {
+        final List<ActionConfiguration> configurations = Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null),
+                new TestConfiguration("b", null, "a"),
+                new TestConfiguration("c", null, "a"),
+                new TestConfiguration("d", null, "b", "c"));
+        Assert.assertTrue(ActionGraph.isGraph(configurations));
+        final ActionGraph graph = new ActionGraph(configurations);
+
+        // b and c only get past the barrier if they run at the same time
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final List<Action<EventObject>> actions = new ArrayList<Action<EventObject>>();
+        actions.add(new TestAction("a", null, null));
+        actions.add(new TestAction("b", null, barrier));
+        actions.add(new TestAction("c", null, barrier));
+        actions.add(new TestAction("d", null, null));
+
+        final Queue<EventObject> results = graph.execute(actions, input(), executor);
+        // the events handed over by both b and c are delivered once, in edge order
+        Assert.assertEquals(Arrays.asList("in", "a", "b", "c", "d"), sources(results));
+        Assert.assertEquals(4, executed.size());
+        Assert.assertEquals("a", executed.get(0));
+        Assert.assertEquals("d", executed.get(3));
+    }
+
+    @Test
+    public void testIndependentLeaves() throws Exception {
+        final ActionGraph graph = new ActionGraph(Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null),
+                new TestConfiguration("b", null)));
+        final Queue<EventObject> results = graph.execute(actions("a", "b"), input(), null);
+        Assert.assertEquals(Arrays.asList("in", "a", "b"), sources(results));
+    }
+
+    @Test
+    public void testNullActionHandsOverItsInput() throws Exception {
+        final ActionGraph graph = new ActionGraph(Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null),
+                new TestConfiguration("b", null, "a"),
+                new TestConfiguration("c", null, "b")));
+        final Queue<EventObject> results = graph.execute(actions("a", null, "c"), input(), executor);
+        Assert.assertEquals(Arrays.asList("in", "a", "c"), sources(results));
+    }
+
+    @Test
+    public void testCycleRejected() {
+        try {
+            new ActionGraph(Arrays.<ActionConfiguration> asList(
+                    new TestConfiguration("a", null),
+                    new TestConfiguration("b", null, "a", "d"),
+                    new TestConfiguration("c", null, "b"),
+                    new TestConfiguration("d", null, "c")));
+            Assert.fail("Cycle accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("cycle"));
+        }
+    }
+
+    @Test
+    public void testUnknownIdRejected() {
+        try {
+            new ActionGraph(Arrays.<ActionConfiguration> asList(
+                    new TestConfiguration("a", null),
+                    new TestConfiguration("b", null, "x")));
+            Assert.fail("Unknown dependency accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("x"));
+        }
+    }
+
+    @Test
+    public void testDuplicateIdRejected() {
+        try {
+            new ActionGraph(Arrays.<ActionConfiguration> asList(
+                    new TestConfiguration("a", null),
+                    new TestConfiguration("a", null, "a")));
+            Assert.fail("Duplicated id accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Duplicated"));
+        }
+    }
+
+    @Test
+    public void testFailPolicy() throws Exception {
+        failure(ActionFailurePolicy.FAIL);
+    }
+
+    @Test
+    public void testDefaultPolicyFails() throws Exception {
+        failure(null);
+    }
+
+    @Test
+    public void testContinuePolicy() throws Exception {
+        final Exception failure = new Exception("b failed");
+        final ActionGraph graph = new ActionGraph(Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null),
+                new TestConfiguration("b", ActionFailurePolicy.CONTINUE, "a"),
+                new TestConfiguration("c", null, "a"),
+                new TestConfiguration("d", null, "b"),
+                new TestConfiguration("e", null, "d")));
+        final List<Action<EventObject>> actions = actions("a", null, "c", "d", "e");
+        actions.set(1, new TestAction("b", failure, null));
+
+        // the branch of b is skipped, the independent one is delivered
+        final Queue<EventObject> results = graph.execute(actions, input(), executor);
+        Assert.assertEquals(Arrays.asList("in", "a", "c"), sources(results));
+        Assert.assertFalse(executed.contains("d"));
+        Assert.assertFalse(executed.contains("e"));
+        Assert.assertTrue(executed.contains("c"));
+    }
+
+    @Test
+    public void testEmptyResultSkipsDependents() throws Exception {
+        final ActionGraph graph = new ActionGraph(Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null),
+                new TestConfiguration("b", null, "a")));
+        final List<Action<EventObject>> actions = actions(null, "b");
+        actions.set(0, new Action<EventObject>() {
+            public Queue<EventObject> execute(Queue<EventObject> events) {
+                return new LinkedList<EventObject>();
+            }
+
+            public void destroy() {
+            }
+        });
+        Assert.assertTrue(graph.execute(actions, input(), executor).isEmpty());
+        Assert.assertTrue(executed.isEmpty());
+    }
+
+    private void failure(final ActionFailurePolicy policy) throws Exception {
+        final Exception failure = new Exception("b failed");
+        final ActionGraph graph = new ActionGraph(Arrays.<ActionConfiguration> asList(
+                new TestConfiguration("a", null),
+                new TestConfiguration("b", policy, "a"),
+                new TestConfiguration("c", null, "b"),
+                new TestConfiguration("d", null, "c")));
+        final List<Action<EventObject>> actions = actions("a", null, "c", "d");
+        actions.set(1, new TestAction("b", failure, null));
+        try {
+            graph.execute(actions, input(), executor);
+            Assert.fail("Failure not reported");
+        } catch (Exception e) {
+            Assert.assertSame(failure, e);
+        }
+        Assert.assertEquals(Arrays.asList("a", "b"), executed);
+    }
+
+    private List<Action<EventObject>> actions(final String... ids) {
+        final List<Action<EventObject>> actions = new ArrayList<Action<EventObject>>();
+        for (String id : ids)
+            actions.add(id != null ? new TestAction(id, null, null) : null);
+        return actions;
+    }
+
+    private static Queue<EventObject> input() {
+        final Queue<EventObject> events = new LinkedList<EventObject>();
+        events.add(new EventObject("in"));
+        return events;
+    }
+
+    private static List<Object> sources(final Queue<EventObject> events) {
+        final List<Object> sources = new ArrayList<Object>();
+        for (EventObject event : events)
+            sources.add(event.getSource());
+        return sources;
+    }
+}
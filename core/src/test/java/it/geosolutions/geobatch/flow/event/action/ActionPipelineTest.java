@@ -0,0 +1,232 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EventObject;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks the ordering, failure propagation and cancellation of the pipeline stages.
+ */
+public class ActionPipelineTest {
+
+    /**
+     * Forwards its input, appending its own id to the source of every event.
+     */
+    private static class Suffix implements StreamingAction<EventObject> {
+        private final String id;
+
+        private Suffix(final String id) {
+            this.id = id;
+        }
+
+        public void process(EventChannel<EventObject> input, EventChannel<EventObject> output)
+                throws Exception {
+            EventObject event;
+            while ((event = input.take()) != null)
+                output.put(emit(event));
+        }
+
+        EventObject emit(final EventObject event) throws Exception {
+            return new EventObject(event.getSource() + id);
+        }
+
+        public Queue<EventObject> execute(Queue<EventObject> events) throws Exception {
+            final Queue<EventObject> results = new LinkedList<EventObject>();
+            for (EventObject event : events)
+                results.add(emit(event));
+            return results;
+        }
+
+        public void destroy() {
+        }
+    }
+
+    /**
+     * Plain action appending an event carrying its id.
+     */
+    private final static class Append implements Action<EventObject> {
+        private final String id;
+
+        private Append(final String id) {
+            this.id = id;
+        }
+
+        public Queue<EventObject> execute(Queue<EventObject> events) throws Exception {
+            final Queue<EventObject> results = new LinkedList<EventObject>(events);
+            results.add(new EventObject(id));
+            return results;
+        }
+
+        public void destroy() {
+        }
+    }
+
+    private static Queue<EventObject> input(final String... sources) {
+        final Queue<EventObject> events = new LinkedList<EventObject>();
+        for (String source : sources)
+            events.add(new EventObject(source));
+        return events;
+    }
+
+    private static List<Object> sources(final Queue<EventObject> events) {
+        final List<Object> sources = new ArrayList<Object>();
+        for (EventObject event : events)
+            sources.add(event.getSource());
+        return sources;
+    }
+
+    private static void awaitThreads() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (ActionPipeline.getAvailableThreads() < ActionPipeline.getThreads()
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(ActionPipeline.getThreads(), ActionPipeline.getAvailableThreads());
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        final List<Action<EventObject>> actions = new ArrayList<Action<EventObject>>();
+        actions.add(new Suffix("a"));
+        actions.add(new Append("x"));
+        actions.add(new Suffix("b"));
+        Assert.assertTrue(ActionPipeline.isStreaming(actions));
+
+        final Queue<EventObject> results = ActionPipeline.execute(actions, input("1", "2", "3"), 1);
+        Assert.assertEquals(Arrays.asList("1ab", "2ab", "3ab", "xb"), sources(results));
+        awaitThreads();
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        // the first stage only completes once the second one got its first event
+        final CountDownLatch first = new CountDownLatch(1);
+        final List<Action<EventObject>> actions = new ArrayList<Action<EventObject>>();
+        actions.add(new Suffix("a") {
+            @Override
+            EventObject emit(final EventObject event) throws Exception {
+                if (event.getSource().equals("2"))
+                    Assert.assertTrue(first.await(10, TimeUnit.SECONDS));
+                return super.emit(event);
+            }
+        });
+        actions.add(new Suffix("b") {
+            @Override
+            EventObject emit(final EventObject event) throws Exception {
+                first.countDown();
+                return super.emit(event);
+            }
+        });
+
+        final Queue<EventObject> results = ActionPipeline.execute(actions, input("1", "2"), 1);
+        Assert.assertEquals(Arrays.asList("1ab", "2ab"), sources(results));
+        awaitThreads();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final Exception failure = new Exception("failed");
+        final List<Action<EventObject>> actions = new ArrayList<Action<EventObject>>();
+        actions.add(new Suffix("a"));
+        actions.add(new Suffix("b") {
+            @Override
+            EventObject emit(final EventObject event) throws Exception {
+                throw failure;
+            }
+        });
+        actions.add(new Suffix("c"));
+        try {
+            ActionPipeline.execute(actions, input("1", "2", "3"), 1);
+            Assert.fail("Failure not propagated");
+        } catch (Exception e) {
+            Assert.assertSame(failure, e);
+        }
+        awaitThreads();
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final List<Action<EventObject>> actions = new ArrayList<Action<EventObject>>();
+        actions.add(new Suffix("a") {
+            @Override
+            public void process(EventChannel<EventObject> input, EventChannel<EventObject> output) {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                // lingers after the cancellation
+                try {
+                    finish.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // test failed
+                }
+            }
+        });
+        // returns at once, leaving the caller waiting for the first stage
+        actions.add(new Suffix("b") {
+            @Override
+            public void process(EventChannel<EventObject> input, EventChannel<EventObject> output) {
+            }
+        });
+
+        final AtomicReference<Exception> thrown = new AtomicReference<Exception>();
+        final Thread caller = new Thread() {
+            public void run() {
+                try {
+                    ActionPipeline.execute(actions, input("1"), 1);
+                } catch (Exception e) {
+                    thrown.set(e);
+                }
+            }
+        };
+        caller.start();
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        caller.interrupt();
+        caller.join(10000);
+        Assert.assertTrue(thrown.get() instanceof InterruptedException);
+        Assert.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+
+        // the cancelled stage still holds its thread until it returns
+        Thread.sleep(100);
+        Assert.assertEquals(ActionPipeline.getThreads() - 1, ActionPipeline.getAvailableThreads());
+        finish.countDown();
+        awaitThreads();
+    }
+}
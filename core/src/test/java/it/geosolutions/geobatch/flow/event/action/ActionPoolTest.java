@@ -0,0 +1,177 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import it.geosolutions.geobatch.catalog.impl.BaseService;
+import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+
+import java.util.EventObject;
+import java.util.Queue;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks the reuse of the shareable and pooled actions and the limit on the idle ones.
+ */
+public class ActionPoolTest {
+
+    private final static class TestConfiguration extends ActionConfiguration {
+        private final ActionReuse reuse;
+
+        private TestConfiguration(final String id, final ActionReuse reuse) {
+            super(id, id, id, false);
+            this.reuse = reuse;
+        }
+
+        @Override
+        public TestConfiguration clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException();
+        }
+    }
+
+    private final static class TestAction implements ReusableAction<EventObject> {
+        private final ActionReuse reuse;
+
+        private boolean failReset;
+
+        private int resets;
+
+        private boolean destroyed;
+
+        private TestAction(final ActionReuse reuse) {
+            this.reuse = reuse;
+        }
+
+        public ActionReuse getReuse() {
+            return reuse;
+        }
+
+        public void reset() throws Exception {
+            if (failReset)
+                throw new Exception("dirty");
+            resets++;
+        }
+
+        public Queue<EventObject> execute(Queue<EventObject> events) throws Exception {
+            return events;
+        }
+
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    private final static class TestService extends BaseService implements
+            ActionService<EventObject, TestConfiguration> {
+        public Action<EventObject> createAction(final TestConfiguration configuration) {
+            return new TestAction(configuration.reuse);
+        }
+
+        public boolean canCreateAction(final TestConfiguration configuration) {
+            return true;
+        }
+    }
+
+    private final TestService service = new TestService();
+
+    @Test
+    public void testShareable() {
+        final ActionPool<EventObject> pool = new ActionPool<EventObject>(2);
+        final TestConfiguration configuration = new TestConfiguration("shared", ActionReuse.SHAREABLE);
+        final Action<EventObject> first = pool.borrow(service, configuration);
+        final Action<EventObject> second = pool.borrow(service, configuration);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(1, pool.getReusedCount());
+
+        pool.giveBack(first);
+        Assert.assertFalse(((TestAction) first).destroyed);
+        pool.dispose();
+        Assert.assertTrue(((TestAction) first).destroyed);
+    }
+
+    @Test
+    public void testPooled() {
+        final ActionPool<EventObject> pool = new ActionPool<EventObject>(2);
+        final TestConfiguration configuration = new TestConfiguration("pooled", ActionReuse.POOLED);
+        final TestAction first = (TestAction) pool.borrow(service, configuration);
+        // lent to a consumer at a time
+        final TestAction second = (TestAction) pool.borrow(service, configuration);
+        Assert.assertNotSame(first, second);
+
+        pool.giveBack(first);
+        Assert.assertEquals(1, first.resets);
+        Assert.assertSame(first, pool.borrow(service, configuration));
+        Assert.assertEquals(2, pool.getCreatedCount());
+        Assert.assertEquals(1, pool.getReusedCount());
+
+        // a pooled action which cannot be reset is discarded
+        first.failReset = true;
+        pool.giveBack(first);
+        Assert.assertTrue(first.destroyed);
+        Assert.assertNotSame(first, pool.borrow(service, configuration));
+    }
+
+    @Test
+    public void testMaxIdle() {
+        final ActionPool<EventObject> pool = new ActionPool<EventObject>(2);
+        final TestConfiguration configuration = new TestConfiguration("pooled", ActionReuse.POOLED);
+        final TestAction[] actions = new TestAction[3];
+        for (int i = 0; i < actions.length; i++)
+            actions[i] = (TestAction) pool.borrow(service, configuration);
+        for (TestAction action : actions)
+            pool.giveBack(action);
+        // only two are kept idle, the last one given back is destroyed
+        Assert.assertFalse(actions[0].destroyed);
+        Assert.assertFalse(actions[1].destroyed);
+        Assert.assertTrue(actions[2].destroyed);
+
+        pool.dispose();
+        Assert.assertTrue(actions[0].destroyed);
+        Assert.assertTrue(actions[1].destroyed);
+    }
+
+    @Test
+    public void testNotReusable() {
+        final ActionPool<EventObject> pool = new ActionPool<EventObject>(2);
+        final TestConfiguration configuration = new TestConfiguration("plain", ActionReuse.NONE);
+        final TestAction first = (TestAction) pool.borrow(service, configuration);
+        pool.giveBack(first);
+        Assert.assertNotSame(first, pool.borrow(service, configuration));
+        Assert.assertEquals(0, first.resets);
+        Assert.assertEquals(2, pool.getCreatedCount());
+        Assert.assertEquals(0, pool.getReusedCount());
+    }
+
+    @Test
+    public void testGiveBackAfterDispose() {
+        final ActionPool<EventObject> pool = new ActionPool<EventObject>(2);
+        final TestConfiguration configuration = new TestConfiguration("pooled", ActionReuse.POOLED);
+        final TestAction action = (TestAction) pool.borrow(service, configuration);
+        pool.dispose();
+        pool.giveBack(action);
+        Assert.assertTrue(action.destroyed);
+    }
+}
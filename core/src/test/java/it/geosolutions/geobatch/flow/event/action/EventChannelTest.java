@@ -0,0 +1,127 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.action;
+
+import java.util.EventObject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks the blocking, closing and aborting of the channels between pipeline stages.
+ */
+public class EventChannelTest {
+
+    @Test
+    public void testCloseDrains() throws Exception {
+        final EventChannel<EventObject> channel = new EventChannel<EventObject>(10);
+        channel.put(new EventObject("a"));
+        channel.put(new EventObject("b"));
+        channel.close();
+        Assert.assertEquals("a", channel.take().getSource());
+        Assert.assertEquals("b", channel.take().getSource());
+        Assert.assertNull(channel.take());
+        try {
+            channel.put(new EventObject("c"));
+            Assert.fail("Put on a closed channel");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFullChannelBlocks() throws Exception {
+        final EventChannel<EventObject> channel = new EventChannel<EventObject>(1);
+        channel.put(new EventObject("a"));
+        final CountDownLatch put = new CountDownLatch(1);
+        final Thread producer = new Thread() {
+            public void run() {
+                try {
+                    channel.put(new EventObject("b"));
+                    put.countDown();
+                } catch (InterruptedException e) {
+                    // test failed
+                }
+            }
+        };
+        producer.start();
+        Assert.assertFalse(put.await(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("a", channel.take().getSource());
+        Assert.assertTrue(put.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("b", channel.take().getSource());
+        producer.join();
+    }
+
+    @Test
+    public void testAbortReleasesBothSides() throws Exception {
+        final EventChannel<EventObject> full = new EventChannel<EventObject>(1);
+        full.put(new EventObject("a"));
+        final EventChannel<EventObject> empty = new EventChannel<EventObject>(1);
+        final CountDownLatch released = new CountDownLatch(2);
+        final Thread producer = new Thread() {
+            public void run() {
+                try {
+                    full.put(new EventObject("b"));
+                } catch (IllegalStateException e) {
+                    released.countDown();
+                } catch (InterruptedException e) {
+                    // test failed
+                }
+            }
+        };
+        final Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    if (empty.take() == null)
+                        released.countDown();
+                } catch (InterruptedException e) {
+                    // test failed
+                }
+            }
+        };
+        producer.start();
+        consumer.start();
+        Thread.sleep(100);
+        full.abort();
+        empty.abort();
+        Assert.assertTrue(released.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(full.isAborted());
+        Assert.assertEquals(0, full.size());
+        Assert.assertNull(full.take());
+    }
+
+    @Test
+    public void testInterruptedTake() throws Exception {
+        final EventChannel<EventObject> channel = new EventChannel<EventObject>(1);
+        Thread.currentThread().interrupt();
+        try {
+            channel.take();
+            Assert.fail("Not interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the events reach the listeners in order whichever thread delivers them.
+ */
+public class AsyncEventDeliveryTest {
+
+    private AsyncEventDelivery<EventObject> delivery;
+
+    @After
+    public void tearDown() {
+        if (delivery != null)
+            delivery.dispose();
+    }
+
+    /**
+     * Records the events, blocking on the first one until released.
+     */
+    private final static class Recorder implements FlowEventListener<EventObject> {
+        private final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public void eventGenerated(final EventObject event) {
+            if (received.isEmpty()) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            received.add(event.getSource());
+        }
+    }
+
+    private void generate(final boolean callerRuns, final int count) throws Exception {
+        delivery = new AsyncEventDelivery<EventObject>("test", 2, callerRuns);
+        final Recorder recorder = new Recorder();
+        final List<FlowEventListener<EventObject>> listeners = new ArrayList<FlowEventListener<EventObject>>();
+        listeners.add(recorder);
+
+        final Thread generator = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < count; i++)
+                    delivery.deliver(new EventObject(Integer.valueOf(i)), listeners);
+            }
+        });
+        delivery.deliver(new EventObject(Integer.valueOf(-1)), listeners);
+        Assert.assertTrue(recorder.blocked.await(5, TimeUnit.SECONDS));
+        generator.start();
+        // let the generator fill the queue
+        Thread.sleep(200);
+        recorder.release.countDown();
+        generator.join(5000);
+        Assert.assertFalse(generator.isAlive());
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (recorder.received.size() < count + 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        final List<Object> expected = new ArrayList<Object>();
+        for (int i = -1; i < count; i++)
+            expected.add(Integer.valueOf(i));
+        Assert.assertEquals(expected, new ArrayList<Object>(recorder.received));
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        generate(false, 50);
+    }
+
+    @Test
+    public void testCallerRunsOrder() throws Exception {
+        generate(true, 50);
+    }
+}
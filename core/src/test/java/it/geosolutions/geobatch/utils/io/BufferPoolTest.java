@@ -0,0 +1,102 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks the size classes of the buffer pool and the bound on the pooled bytes.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        final BufferPool pool = new BufferPool(false, 64 * 1024 * 1024);
+        Assert.assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).capacity());
+        Assert.assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).capacity());
+        Assert.assertEquals(2 * BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE + 1).capacity());
+        Assert.assertEquals(1024 * 1024, pool.acquire(1000 * 1000).capacity());
+        Assert.assertEquals(BufferPool.MAX_SIZE, pool.acquire(BufferPool.MAX_SIZE).capacity());
+        // beyond the largest class, exact and never pooled
+        final ByteBuffer large = pool.acquire(BufferPool.MAX_SIZE + 1);
+        Assert.assertEquals(BufferPool.MAX_SIZE + 1, large.capacity());
+        pool.release(large);
+        Assert.assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testReuse() {
+        final BufferPool pool = new BufferPool(true, 64 * 1024 * 1024);
+        final ByteBuffer buffer = pool.acquire(100 * 1024);
+        Assert.assertTrue(buffer.isDirect());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        Assert.assertEquals(buffer.capacity(), pool.getPooledBytes());
+
+        // same class, same buffer, cleared
+        final ByteBuffer again = pool.acquire(70 * 1024);
+        Assert.assertSame(buffer, again);
+        Assert.assertEquals(0, again.position());
+        Assert.assertEquals(again.capacity(), again.limit());
+        Assert.assertEquals(0, pool.getPooledBytes());
+        Assert.assertEquals(1, pool.getAllocationsCount());
+        Assert.assertEquals(1, pool.getHitsCount());
+
+        // another class does not get it
+        pool.release(again);
+        Assert.assertNotSame(again, pool.acquire(300 * 1024));
+        Assert.assertEquals(2, pool.getAllocationsCount());
+    }
+
+    @Test
+    public void testForeignBuffers() {
+        final BufferPool pool = new BufferPool(false, 64 * 1024 * 1024);
+        // wrong kind, too small or not a power of two
+        pool.release(ByteBuffer.allocateDirect(BufferPool.MIN_SIZE));
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocate(BufferPool.MIN_SIZE + 1));
+        pool.release(null);
+        Assert.assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testMaxPooledBytes() {
+        final BufferPool pool = new BufferPool(false, 2 * BufferPool.MIN_SIZE);
+        final ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = pool.acquire(BufferPool.MIN_SIZE);
+        for (ByteBuffer buffer : buffers)
+            pool.release(buffer);
+        Assert.assertEquals(2 * BufferPool.MIN_SIZE, pool.getPooledBytes());
+        pool.acquire(BufferPool.MIN_SIZE);
+        pool.acquire(BufferPool.MIN_SIZE);
+        Assert.assertEquals(0, pool.getPooledBytes());
+        pool.acquire(BufferPool.MIN_SIZE);
+        Assert.assertEquals(2, pool.getHitsCount());
+        Assert.assertEquals(4, pool.getAllocationsCount());
+    }
+}
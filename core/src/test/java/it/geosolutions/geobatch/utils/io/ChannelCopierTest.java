@@ -0,0 +1,125 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the chunk sizes and the copies on both sides of the small file threshold.
+ */
+public class ChannelCopierTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("copier");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testChunkSize() {
+        Assert.assertEquals(ChannelCopier.DEFAULT_CHUNK, ChannelCopier.chunkSize(0, true));
+        Assert.assertEquals(BufferPool.MIN_SIZE, ChannelCopier.chunkSize(10, true));
+        Assert.assertEquals(100 * 1024, ChannelCopier.chunkSize(100 * 1024, true));
+        Assert.assertEquals(ChannelCopier.SMALL_FILE, ChannelCopier.chunkSize(ChannelCopier.SMALL_FILE + 1, true));
+        Assert.assertEquals(1024 * 1024, ChannelCopier.chunkSize(16 * 1024 * 1024, true));
+        Assert.assertEquals(ChannelCopier.MAX_CHUNK, ChannelCopier.chunkSize(1024L * 1024 * 1024, true));
+        // capped when the destination is not a file
+        Assert.assertEquals(ChannelCopier.SOCKET_CHUNK, ChannelCopier.chunkSize(1024L * 1024 * 1024, false));
+    }
+
+    private byte[] content(final int size) {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private void copyFile(final int size) throws IOException {
+        final byte[] content = content(size);
+        final File source = new File(directory, "source" + size);
+        FileUtils.writeByteArrayToFile(source, content);
+        final File destination = new File(directory, "destination" + size);
+
+        final RandomAccessFile in = new RandomAccessFile(source, "r");
+        final RandomAccessFile out = new RandomAccessFile(destination, "rw");
+        try {
+            final FileChannel sourceChannel = in.getChannel();
+            final FileChannel destinationChannel = out.getChannel();
+            Assert.assertEquals(size, ChannelCopier.copy(sourceChannel, destinationChannel, false));
+            // positions untouched
+            Assert.assertEquals(0, sourceChannel.position());
+            Assert.assertEquals(0, destinationChannel.position());
+        } finally {
+            in.close();
+            out.close();
+        }
+        Assert.assertTrue(Arrays.equals(content, FileUtils.readFileToByteArray(destination)));
+    }
+
+    @Test
+    public void testFileCopies() throws IOException {
+        copyFile(0);
+        copyFile(1000);
+        copyFile(ChannelCopier.SMALL_FILE);
+        copyFile(ChannelCopier.SMALL_FILE + 1);
+        copyFile(3 * 1024 * 1024 + 17);
+    }
+
+    @Test
+    public void testChannelCopy() throws IOException {
+        final byte[] content = content(ChannelCopier.SMALL_FILE * 2 + 5);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(content.length, ChannelCopier.copy(Channels.newChannel(new ByteArrayInputStream(
+                content)), Channels.newChannel(out), content.length));
+        Assert.assertTrue(Arrays.equals(content, out.toByteArray()));
+    }
+
+    @Test
+    public void testStreamCopy() throws IOException {
+        final byte[] content = content(100 * 1024 + 3);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(content.length, ChannelCopier.copy(new ByteArrayInputStream(content), out,
+                ChannelCopier.chunkSize(content.length, false)));
+        Assert.assertTrue(Arrays.equals(content, out.toByteArray()));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the content index never returns a file changed since it was indexed.
+ */
+public class ContentHashIndexTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("contentIndex");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        final File file = new File(directory, name);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        final ContentHashIndex index = ContentHashIndex.getInstance(new File(directory, "index.txt"));
+        final File file = write("a.txt", "content");
+        final String hash = ContentHashIndex.hash(file);
+        index.put(hash, file);
+
+        Assert.assertEquals(file.getAbsoluteFile(), index.lookup(hash, file.length()));
+        Assert.assertNull(index.lookup(hash, file.length() + 1));
+        Assert.assertNull(index.lookup(ContentHashIndex.hash(write("b.txt", "other")), 5));
+    }
+
+    @Test
+    public void testRewrittenSameSize() throws IOException {
+        final ContentHashIndex index = ContentHashIndex.getInstance(new File(directory, "index.txt"));
+        final File file = write("a.txt", "content");
+        final String hash = ContentHashIndex.hash(file);
+        index.put(hash, file);
+
+        write("a.txt", "CONTENT");
+        file.setLastModified(file.lastModified() + 2000);
+        Assert.assertNull(index.lookup(hash, file.length()));
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        final File indexFile = new File(directory, "reload.txt");
+        final File kept = write("kept.txt", "kept");
+        final File changed = write("changed.txt", "changed");
+        final String keptHash = ContentHashIndex.hash(kept);
+        final String changedHash = ContentHashIndex.hash(changed);
+        ContentHashIndex index = ContentHashIndex.getInstance(indexFile);
+        index.put(keptHash, kept);
+        index.put(changedHash, changed);
+        changed.setLastModified(changed.lastModified() - 2000);
+
+        // a line of the old format, without modification time, cannot be checked
+        FileUtils.writeStringToFile(indexFile, FileUtils.readFileToString(indexFile, "UTF-8")
+                + "0123\t4\t" + kept.getAbsolutePath() + "\n", "UTF-8");
+
+        index = new ContentHashIndex(indexFile.getAbsoluteFile());
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(kept.getAbsoluteFile(), index.lookup(keptHash, kept.length()));
+        Assert.assertNull(index.lookup(changedHash, changed.length()));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import it.geosolutions.geobatch.utils.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the file and stream copy routines against the fixed size, locked and allocating
+ * copies they replaced, on small, medium and large files. Only run with the <code>stress</code>
+ * profile.
+ * <p>
+ * The size in megabytes of the large file is read from the
+ * <code>it.geosolutions.geobatch.copy.stress.large</code> system property, 512 by default, set
+ * it to a few thousands to measure multi-GB copies. Files are created in
+ * <code>java.io.tmpdir</code>, point it to the device to be measured.
+ */
+public class CopyStressTest {
+
+    private final static Logger LOGGER = Logger.getLogger(CopyStressTest.class.toString());
+
+    private final static int LEGACY_CHUNK = 10 * 1024 * 1024;
+
+    private final static int LEGACY_STREAM_BUFFER = 10 * 1024 * 1024;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = TestDirectory.create("copystress");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testSmallFiles() throws Exception {
+        run("small", 16 * 1024, 1000);
+    }
+
+    @Test
+    public void testMediumFiles() throws Exception {
+        run("medium", 8 * 1024 * 1024, 20);
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        final long size = Long.getLong("it.geosolutions.geobatch.copy.stress.large", 512).longValue() * 1024 * 1024;
+        run("large", size, 1);
+    }
+
+    private void run(final String name, final long size, final int count) throws IOException {
+        final File[] sources = new File[count];
+        for (int i = 0; i < count; i++)
+            sources[i] = create(new File(directory, name + i + ".src"), size);
+
+        // warm up both paths and the page cache
+        legacyCopy(sources[0], new File(directory, "warmup.legacy"));
+        IOUtils.copyFile(sources[0], new File(directory, "warmup.new"), false);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            legacyCopy(sources[i], new File(directory, name + i + ".legacy"));
+        final long legacyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            IOUtils.copyFile(sources[i], new File(directory, name + i + ".new"), false);
+        final long newTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            legacyStream(sources[i], new File(directory, name + i + ".legacystream"));
+        final long legacyStreamTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            IOUtils.copyStream(new FileInputStream(sources[i]), new FileOutputStream(new File(
+                    directory, name + i + ".stream")), true, true);
+        final long streamTime = System.nanoTime() - start;
+
+        LOGGER.info("Copy of " + count + " " + name + " files of " + size + " bytes, locked "
+                + "chunked transfer: " + legacyTime / 1000000 + "ms, adaptive copy: " + newTime
+                / 1000000 + "ms, legacy stream copy: " + legacyStreamTime / 1000000
+                + "ms, pooled stream copy: " + streamTime / 1000000 + "ms");
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(size, new File(directory, name + i + ".new").length());
+            Assert.assertEquals(size, new File(directory, name + i + ".stream").length());
+            Assert.assertTrue(FileUtils.contentEquals(sources[i], new File(directory, name + i + ".new")));
+        }
+    }
+
+    private static File create(final File file, final long size) throws IOException {
+        final byte[] block = new byte[1024 * 1024];
+        new Random(size).nextBytes(block);
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            long written = 0;
+            while (written < size) {
+                final int length = (int) Math.min(block.length, size - written);
+                out.write(block, 0, length);
+                written += length;
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * The file copy formerly performed by {@link IOUtils#copyFileChannel}.
+     */
+    private static void legacyCopy(final File sourceFile, final File destinationFile)
+            throws IOException {
+        final FileChannel source = new RandomAccessFile(sourceFile, "r").getChannel();
+        final FileChannel destination = new RandomAccessFile(destinationFile, "rw").getChannel();
+        try {
+            final FileLock lock = destination.lock();
+            try {
+                final long sourceSize = source.size();
+                long pos = 0;
+                while (pos < sourceSize) {
+                    final long remaining = sourceSize - pos;
+                    final int zone = remaining >= LEGACY_CHUNK ? LEGACY_CHUNK : (int) remaining;
+                    destination.transferFrom(source, pos, zone);
+                    pos += zone;
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            source.close();
+            destination.close();
+        }
+    }
+
+    /**
+     * The stream copy formerly performed by {@link IOUtils#copyStream}.
+     */
+    private static void legacyStream(final File sourceFile, final File destinationFile)
+            throws IOException {
+        final InputStream in = new FileInputStream(sourceFile);
+        final OutputStream out = new FileOutputStream(destinationFile);
+        try {
+            final byte[] buf = new byte[LEGACY_STREAM_BUFFER];
+            int n;
+            while (-1 != (n = in.read(buf))) {
+                out.write(buf, 0, n);
+                out.flush();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the deferred deletions, their retries and the attempts limit.
+ */
+public class FileDeletionServiceTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("deletion");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    /**
+     * @return a directory which cannot be deleted as long as it holds its child.
+     */
+    private File busy(final String name) throws IOException {
+        final File busy = new File(directory, name);
+        busy.mkdir();
+        FileUtils.writeStringToFile(new File(busy, "child"), "child", "UTF-8");
+        return busy;
+    }
+
+    /**
+     * Waits for the provided number of files to be deleted or given up.
+     */
+    private static void await(final FileDeletionService service, final int done)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (service.getDeletedCount() + service.getFailedCount() < done
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(done, service.getDeletedCount() + service.getFailedCount());
+        Assert.assertEquals(0, service.getPendingCount());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        final FileDeletionService service = new FileDeletionService(10, 100, 5);
+        final File file = new File(directory, "file");
+        FileUtils.writeStringToFile(file, "content", "UTF-8");
+
+        Assert.assertTrue(service.delete(file));
+        // already pending
+        Assert.assertFalse(service.delete(file));
+        Assert.assertFalse(service.delete(new File(directory, "missing")));
+        await(service, 1);
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(1, service.getDeletedCount());
+        Assert.assertEquals(1, service.getAttemptsCount());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        final FileDeletionService service = new FileDeletionService(10, 20, 1000);
+        final File busy = busy("busy");
+        Assert.assertTrue(service.delete(busy));
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (service.getAttemptsCount() < 3 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertTrue(service.getAttemptsCount() >= 3);
+        Assert.assertEquals(1, service.getPendingCount());
+        Assert.assertTrue(busy.exists());
+
+        // released, the next attempt succeeds
+        new File(busy, "child").delete();
+        await(service, 1);
+        Assert.assertFalse(busy.exists());
+        Assert.assertEquals(1, service.getDeletedCount());
+        Assert.assertEquals(0, service.getFailedCount());
+    }
+
+    @Test
+    public void testGiveUp() throws Exception {
+        final FileDeletionService service = new FileDeletionService(10, 20, 3);
+        final File busy = busy("busy");
+        Assert.assertTrue(service.delete(busy));
+        await(service, 1);
+        Assert.assertTrue(busy.exists());
+        Assert.assertEquals(3, service.getAttemptsCount());
+        Assert.assertEquals(1, service.getFailedCount());
+        Assert.assertEquals(0, service.getDeletedCount());
+        // can be scheduled again
+        Assert.assertTrue(service.delete(busy));
+    }
+
+    @Test
+    public void testInvalidDelays() {
+        try {
+            new FileDeletionService(100, 10, 3);
+            Assert.fail("Maximum delay lower than the initial one");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the outcome, timeout and cancellation of the periodic file ready checks.
+ */
+public class FileReadyDetectorTest {
+
+    /**
+     * Ready once told so, counting its probes.
+     */
+    private final static class TestDetector extends AbstractFileReadyDetector {
+        private final AtomicBoolean ready = new AtomicBoolean();
+
+        private final AtomicInteger probes = new AtomicInteger();
+
+        private TestDetector(final long period) {
+            super(period);
+        }
+
+        private TestDetector(final long period, final long maxPeriod, final double backoffFactor) {
+            super(period, maxPeriod, backoffFactor);
+        }
+
+        protected Probe newProbe(final File file) {
+            return new Probe() {
+                public boolean isReady() {
+                    probes.incrementAndGet();
+                    return ready.get();
+                }
+            };
+        }
+    }
+
+    /**
+     * Records the outcomes, the callback runs after the future completes.
+     */
+    private final static class Outcomes implements FileReadyCallback {
+        private final List<Boolean> outcomes = new ArrayList<Boolean>();
+
+        public synchronized void fileReady(final File file, final boolean ready) {
+            outcomes.add(Boolean.valueOf(ready));
+            notifyAll();
+        }
+
+        synchronized String await(final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (outcomes.size() < count && System.currentTimeMillis() < deadline)
+                wait(100);
+            return outcomes.toString();
+        }
+    }
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("ready");
+        file = new File(directory, "file");
+        FileUtils.writeStringToFile(file, "content", "UTF-8");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testReady() throws Exception {
+        final TestDetector detector = new TestDetector(10);
+        final Outcomes outcomes = new Outcomes();
+        final Future<Boolean> future = detector.whenReady(file, 10000, outcomes);
+        Thread.sleep(50);
+        Assert.assertFalse(future.isDone());
+        detector.ready.set(true);
+        Assert.assertEquals(Boolean.TRUE, future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("[true]", outcomes.await(1));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final TestDetector detector = new TestDetector(10);
+        final Outcomes outcomes = new Outcomes();
+        final Future<Boolean> future = detector.whenReady(file, 100, outcomes);
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail("Completed before the maximum wait");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        Assert.assertEquals(Boolean.FALSE, future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("[false]", outcomes.await(1));
+
+        // no more probes once completed
+        final int probes = detector.probes.get();
+        Thread.sleep(100);
+        Assert.assertEquals(probes, detector.probes.get());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final TestDetector detector = new TestDetector(10);
+        final Outcomes outcomes = new Outcomes();
+        final Future<Boolean> future = detector.whenReady(file, 10000, outcomes);
+        Thread.sleep(50);
+        Assert.assertTrue(future.cancel(false));
+        Assert.assertTrue(future.isCancelled());
+        Assert.assertFalse(future.cancel(false));
+        try {
+            future.get();
+            Assert.fail("Cancelled check completed");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        final int probes = detector.probes.get();
+        detector.ready.set(true);
+        Thread.sleep(100);
+        Assert.assertEquals(probes, detector.probes.get());
+        Assert.assertEquals("[]", outcomes.await(0));
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        // probes at 0, 20, 220, 2220... milliseconds
+        final TestDetector detector = new TestDetector(20, 10000, 10);
+        Assert.assertEquals(20, detector.getPeriod());
+        Assert.assertEquals(10000, detector.getMaxPeriod());
+        final Future<Boolean> future = detector.whenReady(file, 10000, null);
+        Thread.sleep(1000);
+        Assert.assertEquals(3, detector.probes.get());
+
+        // seen by the next probe
+        detector.ready.set(true);
+        Assert.assertEquals(Boolean.TRUE, future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, detector.probes.get());
+    }
+
+    @Test
+    public void testQuiescence() throws Exception {
+        final QuiescenceFileReadyDetector detector = new QuiescenceFileReadyDetector(200);
+        final long start = System.currentTimeMillis();
+        Assert.assertEquals(Boolean.TRUE, detector.whenReady(file, 10000, null).get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+
+        // a missing file never settles
+        Assert.assertEquals(Boolean.FALSE, detector.whenReady(new File(directory, "missing"), 300,
+                null).get(5, TimeUnit.SECONDS));
+    }
+}
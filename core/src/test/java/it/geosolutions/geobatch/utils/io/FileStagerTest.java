@@ -0,0 +1,97 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that only read-only files get hard linked.
+ */
+public class FileStagerTest {
+
+    private File directory;
+
+    private final FileStager stager = new FileStager(false);
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("stager");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        final File file = new File(directory, name);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    @Test
+    public void testMove() throws IOException {
+        final File source = write("source.txt", "content");
+        final File destination = new File(directory, "destination.txt");
+        Assert.assertEquals(FileStager.StagingMethod.RENAME, stager.move(source, destination));
+        Assert.assertFalse(source.exists());
+        Assert.assertEquals("content", FileUtils.readFileToString(destination, "UTF-8"));
+    }
+
+    @Test
+    public void testDuplicateWritable() throws IOException {
+        final File source = write("source.txt", "content");
+        final File destination = write("destination.txt", "old");
+        Assert.assertEquals(FileStager.StagingMethod.COPY, stager.duplicate(source, destination));
+
+        write("source.txt", "changed");
+        Assert.assertEquals("content", FileUtils.readFileToString(destination, "UTF-8"));
+    }
+
+    @Test
+    public void testCopyReadOnly() throws IOException {
+        final File source = write("source.txt", "content");
+        source.setReadOnly();
+        final File destination = new File(directory, "destination.txt");
+        Assert.assertEquals(FileStager.StagingMethod.COPY, stager.copy(source, destination));
+        Assert.assertEquals("content", FileUtils.readFileToString(destination, "UTF-8"));
+
+        // a read-only file cannot change in place, a duplicate may share its content
+        final FileStager.StagingMethod method = stager.duplicate(source, new File(directory,
+                "duplicate.txt"));
+        if (source.canWrite())
+            // privileged user
+            Assert.assertEquals(FileStager.StagingMethod.COPY, method);
+        else
+            Assert.assertTrue(method == FileStager.StagingMethod.HARD_LINK
+                    || method == FileStager.StagingMethod.COPY);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import it.geosolutions.geobatch.utils.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the lock based readiness of the files and the asynchronous lock acquisition.
+ */
+public class LockFileReadyDetectorTest {
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("lock");
+        file = new File(directory, "file");
+        FileUtils.writeStringToFile(file, "content", "UTF-8");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testUnlocked() throws Exception {
+        final LockFileReadyDetector detector = new LockFileReadyDetector(10);
+        Assert.assertEquals(Boolean.TRUE, detector.whenReady(file, 1000, null).get(5,
+                TimeUnit.SECONDS));
+        Assert.assertTrue(IOUtils.acquireLock(file, 1000));
+    }
+
+    @Test
+    public void testLocked() throws Exception {
+        final LockFileReadyDetector detector = new LockFileReadyDetector(10);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileLock lock = raf.getChannel().lock();
+            Assert.assertEquals(Boolean.FALSE, detector.whenReady(file, 100, null).get(5,
+                    TimeUnit.SECONDS));
+
+            final Future<Boolean> future = detector.whenReady(file, 10000, null);
+            Thread.sleep(50);
+            Assert.assertFalse(future.isDone());
+            lock.release();
+            Assert.assertEquals(Boolean.TRUE, future.get(5, TimeUnit.SECONDS));
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        final File missing = new File(directory, "missing");
+        final LockFileReadyDetector detector = new LockFileReadyDetector(10);
+        Assert.assertEquals(Boolean.FALSE, detector.whenReady(missing, 100, null).get(5,
+                TimeUnit.SECONDS));
+        Assert.assertFalse(IOUtils.acquireLock(missing, 100));
+        Assert.assertFalse(missing.exists());
+
+        // a directory is not a file either
+        Assert.assertEquals(Boolean.FALSE, detector.whenReady(directory, 100, null).get(5,
+                TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().lock();
+            final Future<Boolean> future = IOUtils.acquireLockAsync(file, 10000);
+            Thread.sleep(50);
+            Assert.assertTrue(future.cancel(false));
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("Cancelled attempts completed");
+            } catch (CancellationException e) {
+                // expected
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
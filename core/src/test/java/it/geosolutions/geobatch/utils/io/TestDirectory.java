@@ -0,0 +1,61 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Scratch directories of the tests, shared with the other modules through the test jar.
+ */
+public final class TestDirectory {
+
+    private TestDirectory() {
+    }
+
+    /**
+     * Creates a new empty directory in the temporary directory.
+     * 
+     * @param prefix
+     *            prefix of the directory name.
+     * @return the created directory.
+     * @throws IOException
+     *             if the directory could not be created.
+     */
+    public static File create(final String prefix) throws IOException {
+        final File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Unable to create the directory " + directory);
+        return directory;
+    }
+
+    /**
+     * Deletes a directory created by {@link #create(String)} with all its content, if any.
+     */
+    public static void delete(final File directory) throws IOException {
+        if (directory != null)
+            FileUtils.deleteDirectory(directory);
+    }
+}
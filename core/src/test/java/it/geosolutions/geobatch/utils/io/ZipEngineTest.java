@@ -0,0 +1,224 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.utils.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes archives with the {@link ZipEngine} and reads them back through {@link ZipFile}.
+ */
+public class ZipEngineTest {
+
+    private File directory;
+
+    /** Content of the test files, by entry name. */
+    private final Map<String, File> files = new LinkedHashMap<String, File>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = TestDirectory.create("zipengine");
+
+        final Random random = new Random(17);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 200 * 1024)
+            text.append("line ").append(random.nextInt(100)).append(" of a compressible file\n");
+        files.put("text.txt", write("text.txt", text.toString().getBytes("US-ASCII")));
+
+        final byte[] noise = new byte[100 * 1024];
+        random.nextBytes(noise);
+        files.put("noise.bin", write("noise.bin", noise));
+
+        // above the spool threshold, deflated through a temporary file
+        final byte[] large = new byte[ZipEngine.SPOOL_THRESHOLD * 3];
+        for (int i = 0; i < large.length; i++)
+            large[i] = (byte) (i % 251 < 200 ? 'a' : random.nextInt());
+        files.put("dir/large.raw", write("large.raw", large));
+
+        files.put("empty", write("empty", new byte[0]));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        final ZipFile zip = write(ZipEngine.Mode.DEFLATE);
+        try {
+            check(zip);
+            for (String name : files.keySet())
+                Assert.assertEquals(name, ZipEntry.DEFLATED, zip.getEntry(name).getMethod());
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testStore() throws Exception {
+        final ZipFile zip = write(ZipEngine.Mode.STORE);
+        try {
+            check(zip);
+            for (String name : files.keySet()) {
+                final ZipEntry entry = zip.getEntry(name);
+                Assert.assertEquals(name, ZipEntry.STORED, entry.getMethod());
+                Assert.assertEquals(name, entry.getSize(), entry.getCompressedSize());
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testAuto() throws Exception {
+        final ZipFile zip = write(ZipEngine.Mode.AUTO);
+        try {
+            check(zip);
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("text.txt").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("dir/large.raw").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("noise.bin").getMethod());
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testEntryModes() throws Exception {
+        final ZipEngine engine = new ZipEngine(ZipEngine.Mode.DEFLATE);
+        engine.addFile(files.get("text.txt"), "text.txt", ZipEngine.Mode.STORE);
+        engine.addFile(files.get("noise.bin"), "noise.bin");
+        final File archive = new File(directory, "modes.zip");
+        Assert.assertEquals(engine.writeTo(archive), archive.length());
+
+        final ZipFile zip = new ZipFile(archive);
+        try {
+            Assert.assertEquals(2, zip.size());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("text.txt").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("noise.bin").getMethod());
+            compare(zip, "text.txt", files.get("text.txt"));
+            compare(zip, "noise.bin", files.get("noise.bin"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * More entries than the classic end of central directory can count, forcing the ZIP64 end
+     * records without writing gigabytes.
+     */
+    @Test
+    public void testZip64Entries() throws Exception {
+        final int count = 0xFFFF + 10;
+        final File text = write("small.txt", "a small entry".getBytes("US-ASCII"));
+        final ZipEngine engine = new ZipEngine(ZipEngine.Mode.AUTO);
+        for (int i = 0; i < count; i++)
+            engine.addFile(text, "entry" + i + ".txt");
+        final File archive = new File(directory, "zip64.zip");
+        Assert.assertEquals(engine.writeTo(archive), archive.length());
+
+        // zip64 end of central directory locator right before the classic end record
+        final RandomAccessFile raf = new RandomAccessFile(archive, "r");
+        try {
+            raf.seek(archive.length() - 22 - 20);
+            Assert.assertEquals(0x07064b50, Integer.reverseBytes(raf.readInt()));
+        } finally {
+            raf.close();
+        }
+
+        final ZipFile zip = new ZipFile(archive);
+        try {
+            Assert.assertEquals(count, zip.size());
+            int read = 0;
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                Assert.assertEquals("entry" + read + ".txt", entry.getName());
+                read++;
+            }
+            Assert.assertEquals(count, read);
+            compare(zip, "entry0.txt", text);
+            compare(zip, "entry" + (count - 1) + ".txt", text);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private ZipFile write(final ZipEngine.Mode mode) throws IOException {
+        final ZipEngine engine = new ZipEngine(mode);
+        engine.setSpoolDirectory(directory);
+        for (Map.Entry<String, File> file : files.entrySet())
+            engine.addFile(file.getValue(), file.getKey());
+        Assert.assertEquals(files.size(), engine.size());
+        final File archive = new File(directory, mode + ".zip");
+        Assert.assertEquals(engine.writeTo(archive), archive.length());
+        return new ZipFile(archive);
+    }
+
+    private void check(final ZipFile zip) throws IOException {
+        Assert.assertEquals(files.size(), zip.size());
+        for (Map.Entry<String, File> file : files.entrySet())
+            compare(zip, file.getKey(), file.getValue());
+    }
+
+    private static void compare(final ZipFile zip, final String name, final File file)
+            throws IOException {
+        final ZipEntry entry = zip.getEntry(name);
+        Assert.assertNotNull(name, entry);
+        Assert.assertEquals(name, file.length(), entry.getSize());
+        final InputStream in = zip.getInputStream(entry);
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) >= 0;)
+                content.write(buffer, 0, read);
+            Assert.assertTrue(name, Arrays.equals(FileUtils.readFileToByteArray(file),
+                    content.toByteArray()));
+        } finally {
+            in.close();
+        }
+    }
+
+    private File write(final String name, final byte[] content) throws IOException {
+        final File file = new File(directory, name);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+}
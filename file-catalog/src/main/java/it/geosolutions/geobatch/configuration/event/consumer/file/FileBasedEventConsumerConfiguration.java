@@ -27,7 +27,12 @@ package it.geosolutions.geobatch.configuration.event.consumer.file;
 import it.geosolutions.geobatch.catalog.impl.BaseConfiguration;
 import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
 import it.geosolutions.geobatch.configuration.event.consumer.EventConsumerConfiguration;
+import it.geosolutions.geobatch.flow.event.action.ActionGraph;
 import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRule;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRuleSet;
+import it.geosolutions.geobatch.utils.IOUtils;
+import it.geosolutions.geobatch.utils.io.FileReadyDetector;
+import it.geosolutions.geobatch.utils.io.FileReadyStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -65,11 +70,21 @@ public class FileBasedEventConsumerConfiguration extends BaseConfiguration imple
      */
     private ArrayList<? extends ActionConfiguration> actions;
 
+    /**
+     * Dependency graph of the actions, lazily built and shared by all the consumers.
+     */
+    private transient volatile ActionGraph actionGraph;
+
     /**
      * List of rules defining the consumer behavior.
      */
     private ArrayList<FileEventRule> rules;
 
+    /**
+     * Compiled view of the rules, lazily built and shared by all the consumers.
+     */
+    private transient volatile FileEventRuleSet ruleSet;
+
     /**
      * The configuring directory. This is the directory where the consumer will store the input
      * data.
@@ -81,6 +96,38 @@ public class FileBasedEventConsumerConfiguration extends BaseConfiguration imple
      */
     private boolean performBackup;
 
+    /**
+     * How the consumer tells that an input file has been completely written, LOCK if not set.
+     */
+    private FileReadyStrategy fileReadyStrategy;
+
+    /**
+     * Time in milliseconds between two readiness checks or, for QUIESCENCE, the time an input
+     * file has to stay unchanged. The strategy default if not set.
+     */
+    private long fileReadyWindow;
+
+    /**
+     * Marker suffix for MARKER, temporary files wildcard for RENAME.
+     */
+    private String fileReadyPattern;
+
+    /**
+     * Maximum time in milliseconds to wait for an input file to be ready,
+     * {@link IOUtils#MAX_WAITING_TIME_FOR_LOCK} if not set.
+     */
+    private long fileReadyMaxWait;
+
+    /**
+     * How input files already staged by any flow are handled, no content hashing if not set.
+     */
+    private DeduplicationPolicy deduplication;
+
+    /**
+     * Detector built out of the above settings, shared by the consumers.
+     */
+    private transient volatile FileReadyDetector fileReadyDetector;
+
     /**
      * Getter for the consumer actions.
      * 
@@ -97,6 +144,27 @@ public class FileBasedEventConsumerConfiguration extends BaseConfiguration imple
      */
     public void setActions(List<? extends ActionConfiguration> actions) {
         this.actions = new ArrayList<ActionConfiguration>(actions);
+        this.actionGraph = null;
+    }
+
+    /**
+     * Getter for the dependency graph of the consumer actions.
+     * <p>
+     * The graph is built on first access and cached until {@link #setActions(List)} is called
+     * again.
+     * 
+     * @return the action graph or <code>null</code> if no action declares its dependencies and
+     *         the actions run as a plain chain.
+     * @throws IllegalArgumentException
+     *             if the dependencies refer to unknown actions or form a cycle.
+     */
+    public ActionGraph getActionGraph() {
+        ActionGraph result = actionGraph;
+        if (result == null && ActionGraph.isGraph(actions)) {
+            result = new ActionGraph(actions);
+            actionGraph = result;
+        }
+        return result;
     }
 
     /**
@@ -115,6 +183,25 @@ public class FileBasedEventConsumerConfiguration extends BaseConfiguration imple
      */
     public void setRules(List<FileEventRule> rules) {
         this.rules = new ArrayList<FileEventRule>(rules);
+        this.ruleSet = null;
+    }
+
+    /**
+     * Getter for the compiled consumer rules.
+     * <p>
+     * The rule set is compiled on first access and cached until {@link #setRules(List)} is
+     * called again, changes made directly to the {@link FileEventRule} instances are not
+     * reflected.
+     * 
+     * @return the compiled rules
+     */
+    public FileEventRuleSet getRuleSet() {
+        FileEventRuleSet result = ruleSet;
+        if (result == null) {
+            result = new FileEventRuleSet(rules);
+            ruleSet = result;
+        }
+        return result;
     }
 
     /**
@@ -152,6 +239,67 @@ public class FileBasedEventConsumerConfiguration extends BaseConfiguration imple
     public void setPerformBackup(boolean performBackup) {
         this.performBackup = performBackup;
     }
+
+    public FileReadyStrategy getFileReadyStrategy() {
+        return fileReadyStrategy;
+    }
+
+    public void setFileReadyStrategy(FileReadyStrategy fileReadyStrategy) {
+        this.fileReadyStrategy = fileReadyStrategy;
+        this.fileReadyDetector = null;
+    }
+
+    public long getFileReadyWindow() {
+        return fileReadyWindow;
+    }
+
+    public void setFileReadyWindow(long fileReadyWindow) {
+        this.fileReadyWindow = fileReadyWindow;
+        this.fileReadyDetector = null;
+    }
+
+    public String getFileReadyPattern() {
+        return fileReadyPattern;
+    }
+
+    public void setFileReadyPattern(String fileReadyPattern) {
+        this.fileReadyPattern = fileReadyPattern;
+        this.fileReadyDetector = null;
+    }
+
+    /**
+     * @return the maximum time in milliseconds to wait for an input file to be ready.
+     */
+    public long getFileReadyMaxWait() {
+        return fileReadyMaxWait > 0 ? fileReadyMaxWait : IOUtils.MAX_WAITING_TIME_FOR_LOCK;
+    }
+
+    public void setFileReadyMaxWait(long fileReadyMaxWait) {
+        this.fileReadyMaxWait = fileReadyMaxWait;
+    }
+
+    public DeduplicationPolicy getDeduplication() {
+        return deduplication;
+    }
+
+    public void setDeduplication(DeduplicationPolicy deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * @return the detector telling when an input file is ready, built on first access out of
+     *         the file ready settings.
+     */
+    public FileReadyDetector getFileReadyDetector() {
+        FileReadyDetector result = fileReadyDetector;
+        if (result == null) {
+            final FileReadyStrategy strategy = fileReadyStrategy != null ? fileReadyStrategy
+                    : FileReadyStrategy.LOCK;
+            result = strategy.createDetector(fileReadyWindow, fileReadyPattern);
+            fileReadyDetector = result;
+        }
+        return result;
+    }
     
     
 
@@ -162,6 +310,11 @@ public class FileBasedEventConsumerConfiguration extends BaseConfiguration imple
 		final FileBasedEventConsumerConfiguration object = new FileBasedEventConsumerConfiguration(super.getId(),super.getName(),super.getDescription(),super.isDirty());
 		object.setPerformBackup(performBackup);
 		object.setWorkingDirectory(workingDirectory);
+		object.setFileReadyStrategy(fileReadyStrategy);
+		object.setFileReadyWindow(fileReadyWindow);
+		object.setFileReadyPattern(fileReadyPattern);
+		object.setFileReadyMaxWait(fileReadyMaxWait);
+		object.setDeduplication(deduplication);
 		
 		//clone its elements
 		final ArrayList<FileEventRule> clonedRules=new ArrayList<FileEventRule>(rules.size());
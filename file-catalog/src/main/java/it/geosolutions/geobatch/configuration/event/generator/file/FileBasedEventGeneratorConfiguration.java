@@ -28,6 +28,7 @@ import it.geosolutions.filesystemmonitor.OsType;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
 import it.geosolutions.geobatch.catalog.Configuration;
 import it.geosolutions.geobatch.configuration.event.generator.EventGeneratorConfiguration;
+import it.geosolutions.geobatch.flow.event.generator.EventDeliveryMode;
 
 /**
  * <p>
@@ -66,6 +67,16 @@ public class FileBasedEventGeneratorConfiguration extends EventGeneratorConfigur
      */
     private String wildCard;
 
+    /**
+     * How the generated events are delivered to the flow, DIRECT if not set.
+     */
+    private EventDeliveryMode eventDelivery;
+
+    /**
+     * Whether the sub directories of the watched directory are watched as well.
+     */
+    private boolean watchSubdirectories=false;
+
     /**
      * Default Constructor.
      */
@@ -207,4 +218,40 @@ public class FileBasedEventGeneratorConfiguration extends EventGeneratorConfigur
         this.keepFiles = keepFiles;
     }
 
+    /**
+     * Getter for the event delivery mode.
+     *
+     * @return eventDelivery
+     */
+    public EventDeliveryMode getEventDelivery() {
+        return eventDelivery;
+    }
+
+    /**
+     * Setter for the event delivery mode.
+     *
+     * @param eventDelivery
+     */
+    public void setEventDelivery(EventDeliveryMode eventDelivery) {
+        this.eventDelivery = eventDelivery;
+    }
+
+    /**
+     * Getter for the watch sub directories flag.
+     *
+     * @return watchSubdirectories
+     */
+    public boolean isWatchSubdirectories() {
+        return watchSubdirectories;
+    }
+
+    /**
+     * Setter for the watch sub directories flag.
+     *
+     * @param watchSubdirectories
+     */
+    public void setWatchSubdirectories(boolean watchSubdirectories) {
+        this.watchSubdirectories = watchSubdirectories;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.geobatch.configuration.flow.file;
+
+/**
+ * What a flow does when its event mailbox is full.
+ */
+public enum EventMailBoxPolicy {
+    /**
+     * The thread delivering the event, usually the file system watcher, waits for room in the
+     * mailbox.
+     */
+    BLOCK,
+
+    /**
+     * Events are appended to an on disk spill file in the flow working directory and read back,
+     * in order, as soon as the mailbox drains.
+     */
+    SPILL,
+
+    /**
+     * The thread delivering the event dispatches the queued events and its own one, in order.
+     */
+    CALLER_RUNS
+}
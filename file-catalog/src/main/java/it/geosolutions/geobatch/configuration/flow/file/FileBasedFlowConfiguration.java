@@ -58,6 +58,84 @@ public class FileBasedFlowConfiguration extends BaseFlowConfiguration implements
      */
     private boolean autorun = false;
 
+    /**
+     * consumerTimeToLive: maximum time in milliseconds a consumer waits for its next event
+     * before being expired. Zero or negative values mean no expiration.
+     */
+    private long consumerTimeToLive;
+
+    /**
+     * dispatcherThreads: number of dispatcher lanes events are partitioned on, by file base
+     * name, keeping on the same lane the files whose base names start one with the other.
+     * Values lower than 2 mean a single dispatcher thread.
+     */
+    private int dispatcherThreads;
+
+    /**
+     * eventMailBoxSize: maximum number of events each dispatcher keeps in memory. Zero or
+     * negative values mean the default, 10000.
+     */
+    private int eventMailBoxSize;
+
+    /**
+     * eventMailBoxPolicy: what to do when a dispatcher mailbox is full, BLOCK if not set.
+     */
+    private EventMailBoxPolicy eventMailBoxPolicy;
+
+    /**
+     * maxRuns: maximum number of run directories kept in the consumer working directory. Zero
+     * or negative values mean no limit.
+     */
+    private int maxRuns;
+
+    /**
+     * maxRunsSize: maximum size in bytes of the run directories kept in the consumer working
+     * directory. Zero or negative values mean no limit.
+     */
+    private long maxRunsSize;
+
+    /**
+     * maxRunAge: time in milliseconds after which an unused run directory is evicted. Zero or
+     * negative values mean no limit.
+     */
+    private long maxRunAge;
+
+    /**
+     * eventJournal: whether the accepted events are journaled in the flow working directory,
+     * so that the pending ones are dispatched again after a restart.
+     */
+    private boolean eventJournal;
+
+    /**
+     * eventJournalSyncPeriod: maximum time in milliseconds between two syncs of the event
+     * journal to disk. Zero or negative values mean the default, 1000.
+     */
+    private long eventJournalSyncPeriod;
+
+    /**
+     * schedulerWeight: share of the node wide scheduler workers this flow gets compared to the
+     * flows with the same priority. Values lower than 1 mean 1.
+     */
+    private int schedulerWeight;
+
+    /**
+     * schedulerPriority: flows with higher priority are always served first by the node wide
+     * scheduler. Defaults to 0.
+     */
+    private int schedulerPriority;
+
+    /**
+     * maxConcurrentConsumers: maximum number of consumers of this flow run at the same time by
+     * the node wide scheduler. Zero or negative values mean no limit.
+     */
+    private int maxConcurrentConsumers;
+
+    /**
+     * maxIdleActions: maximum number of idle instances of each pooled action kept warm for the
+     * next consumers. Zero or negative values mean the default, the maximum pool size.
+     */
+    private int maxIdleActions;
+
     /**
      * Default Constructor.
      */
@@ -131,4 +209,235 @@ public class FileBasedFlowConfiguration extends BaseFlowConfiguration implements
 	public void setAutorun(boolean autorun) {
 		this.autorun = autorun;
 	}
+
+    /**
+     * Getter for the consumerTimeToLive, in milliseconds.
+     */
+    public long getConsumerTimeToLive() {
+        return consumerTimeToLive;
+    }
+
+    /**
+     * Setter for the consumerTimeToLive.
+     * 
+     * @param consumerTimeToLive
+     *            time in milliseconds, zero or negative values disable expiration.
+     */
+    public void setConsumerTimeToLive(long consumerTimeToLive) {
+        this.consumerTimeToLive = consumerTimeToLive;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the dispatcherThreads.
+     */
+    public int getDispatcherThreads() {
+        return dispatcherThreads;
+    }
+
+    /**
+     * Setter for the dispatcherThreads.
+     * 
+     * @param dispatcherThreads
+     *            number of dispatcher lanes, values lower than 2 mean a single lane.
+     */
+    public void setDispatcherThreads(int dispatcherThreads) {
+        this.dispatcherThreads = dispatcherThreads;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the eventMailBoxSize.
+     */
+    public int getEventMailBoxSize() {
+        return eventMailBoxSize;
+    }
+
+    /**
+     * Setter for the eventMailBoxSize.
+     * 
+     * @param eventMailBoxSize
+     *            events kept in memory by each dispatcher, zero or negative for the default.
+     */
+    public void setEventMailBoxSize(int eventMailBoxSize) {
+        this.eventMailBoxSize = eventMailBoxSize;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the eventMailBoxPolicy.
+     */
+    public EventMailBoxPolicy getEventMailBoxPolicy() {
+        return eventMailBoxPolicy;
+    }
+
+    /**
+     * Setter for the eventMailBoxPolicy.
+     * 
+     * @param eventMailBoxPolicy
+     */
+    public void setEventMailBoxPolicy(EventMailBoxPolicy eventMailBoxPolicy) {
+        this.eventMailBoxPolicy = eventMailBoxPolicy;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the maxRuns.
+     */
+    public int getMaxRuns() {
+        return maxRuns;
+    }
+
+    /**
+     * Setter for the maxRuns.
+     * 
+     * @param maxRuns
+     *            number of run directories, zero or negative for no limit.
+     */
+    public void setMaxRuns(int maxRuns) {
+        this.maxRuns = maxRuns;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the maxRunsSize, in bytes.
+     */
+    public long getMaxRunsSize() {
+        return maxRunsSize;
+    }
+
+    /**
+     * Setter for the maxRunsSize.
+     * 
+     * @param maxRunsSize
+     *            size in bytes, zero or negative for no limit.
+     */
+    public void setMaxRunsSize(long maxRunsSize) {
+        this.maxRunsSize = maxRunsSize;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the maxRunAge, in milliseconds.
+     */
+    public long getMaxRunAge() {
+        return maxRunAge;
+    }
+
+    /**
+     * Setter for the maxRunAge.
+     * 
+     * @param maxRunAge
+     *            time in milliseconds, zero or negative for no limit.
+     */
+    public void setMaxRunAge(long maxRunAge) {
+        this.maxRunAge = maxRunAge;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the eventJournal.
+     */
+    public boolean isEventJournal() {
+        return eventJournal;
+    }
+
+    /**
+     * Setter for the eventJournal.
+     * 
+     * @param eventJournal
+     */
+    public void setEventJournal(boolean eventJournal) {
+        this.eventJournal = eventJournal;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the eventJournalSyncPeriod, in milliseconds.
+     */
+    public long getEventJournalSyncPeriod() {
+        return eventJournalSyncPeriod;
+    }
+
+    /**
+     * Setter for the eventJournalSyncPeriod.
+     * 
+     * @param eventJournalSyncPeriod
+     *            time in milliseconds, zero or negative for the default.
+     */
+    public void setEventJournalSyncPeriod(long eventJournalSyncPeriod) {
+        this.eventJournalSyncPeriod = eventJournalSyncPeriod;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the schedulerWeight.
+     */
+    public int getSchedulerWeight() {
+        return schedulerWeight;
+    }
+
+    /**
+     * Setter for the schedulerWeight.
+     * 
+     * @param schedulerWeight
+     *            relative share, values lower than 1 mean 1.
+     */
+    public void setSchedulerWeight(int schedulerWeight) {
+        this.schedulerWeight = schedulerWeight;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the schedulerPriority.
+     */
+    public int getSchedulerPriority() {
+        return schedulerPriority;
+    }
+
+    /**
+     * Setter for the schedulerPriority.
+     * 
+     * @param schedulerPriority
+     */
+    public void setSchedulerPriority(int schedulerPriority) {
+        this.schedulerPriority = schedulerPriority;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the maxConcurrentConsumers.
+     */
+    public int getMaxConcurrentConsumers() {
+        return maxConcurrentConsumers;
+    }
+
+    /**
+     * Setter for the maxConcurrentConsumers.
+     * 
+     * @param maxConcurrentConsumers
+     *            zero or negative for no limit.
+     */
+    public void setMaxConcurrentConsumers(int maxConcurrentConsumers) {
+        this.maxConcurrentConsumers = maxConcurrentConsumers;
+        setDirty(true);
+    }
+
+    /**
+     * Getter for the maxIdleActions.
+     */
+    public int getMaxIdleActions() {
+        return maxIdleActions;
+    }
+
+    /**
+     * Setter for the maxIdleActions.
+     * 
+     * @param maxIdleActions
+     *            zero or negative for the default.
+     */
+    public void setMaxIdleActions(int maxIdleActions) {
+        this.maxIdleActions = maxIdleActions;
+        setDirty(true);
+    }
 }
@@ -29,29 +29,46 @@ import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
 import it.geosolutions.geobatch.catalog.Catalog;
 import it.geosolutions.geobatch.catalog.file.FileBaseCatalog;
 import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+import it.geosolutions.geobatch.configuration.event.consumer.file.DeduplicationPolicy;
 import it.geosolutions.geobatch.configuration.event.consumer.file.FileBasedEventConsumerConfiguration;
+import it.geosolutions.geobatch.flow.FlowScheduler;
 import it.geosolutions.geobatch.flow.event.action.Action;
+import it.geosolutions.geobatch.flow.event.action.ActionPool;
 import it.geosolutions.geobatch.flow.event.action.ActionService;
+import it.geosolutions.geobatch.flow.event.action.TimedAction;
 import it.geosolutions.geobatch.flow.event.consumer.BaseEventConsumer;
 import it.geosolutions.geobatch.flow.event.consumer.EventConsumer;
-import it.geosolutions.geobatch.flow.event.consumer.EventConsumerListener;
 import it.geosolutions.geobatch.flow.event.consumer.EventConsumerStatus;
+import it.geosolutions.geobatch.flow.file.RunDirectoryManager;
 import it.geosolutions.geobatch.global.CatalogHolder;
+import it.geosolutions.geobatch.metrics.Counter;
+import it.geosolutions.geobatch.metrics.MetricRegistry;
 import it.geosolutions.geobatch.utils.IOUtils;
+import it.geosolutions.geobatch.utils.io.ContentHashIndex;
+import it.geosolutions.geobatch.utils.io.FileReadyCallback;
+import it.geosolutions.geobatch.utils.io.FileReadyDetector;
+import it.geosolutions.geobatch.utils.io.FileStager;
 
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -66,6 +83,145 @@ public class FileBasedEventConsumer extends
         EventConsumer<FileSystemMonitorEvent, FileBasedEventConsumerConfiguration> {
     
 	private final static TimeZone tz = TimeZone.getTimeZone("UTC");
+
+    /**
+     * System property setting the number of threads staging input files, shared by all the
+     * consumers.
+     */
+    public final static String STAGING_THREADS_KEY = "it.geosolutions.geobatch.staging.threads";
+
+    private final static ExecutorService STAGING_POOL;
+    static {
+        final int threads = Math.max(1, Integer.getInteger(STAGING_THREADS_KEY, 4).intValue());
+        STAGING_POOL = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "FileStaging-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stages an input file into the run directory, and backs it up, once the
+     * {@link FileReadyDetector} reports about it.
+     */
+    private final static class StagingTask implements Callable<File>, FileReadyCallback {
+        private final File source;
+
+        private final File runDirectory;
+
+        private final File backup;
+
+        /** The content index, <code>null</code> if deduplication is disabled. */
+        private final ContentHashIndex contentIndex;
+
+        private final DeduplicationPolicy deduplication;
+
+        /** Counts the staged bytes, <code>null</code> if metrics are disabled. */
+        private final Counter stagedBytes;
+
+        private final FutureTask<File> result = new FutureTask<File>(this);
+
+        private volatile boolean ready;
+
+        private volatile Future<Boolean> readiness;
+
+        /** Whether the file was staged out of an already staged copy. */
+        private volatile boolean duplicate;
+
+        StagingTask(final File source, final File runDirectory, final File backup,
+                final ContentHashIndex contentIndex, final DeduplicationPolicy deduplication,
+                final Counter stagedBytes) {
+            this.source = source;
+            this.runDirectory = runDirectory;
+            this.backup = backup;
+            this.contentIndex = contentIndex;
+            this.deduplication = deduplication;
+            this.stagedBytes = stagedBytes;
+        }
+
+        /**
+         * Stops waiting for the file and drops the staging, unless already running.
+         */
+        void cancel() {
+            result.cancel(false);
+            final Future<Boolean> readiness = this.readiness;
+            if (readiness != null)
+                readiness.cancel(true);
+        }
+
+        public void fileReady(final File file, final boolean ready) {
+            this.ready = ready;
+            STAGING_POOL.execute(result);
+        }
+
+        public File call() throws IOException {
+            final String fileName = source.getName();
+            final File destDataFile = new File(runDirectory, fileName);
+            if (ready) {
+                String hash = null;
+                File existing = null;
+                if (contentIndex != null) {
+                    hash = ContentHashIndex.hash(source);
+                    if (deduplication != DeduplicationPolicy.PROCESS)
+                        existing = contentIndex.lookup(hash, source.length());
+                }
+                if (existing != null && !existing.equals(destDataFile.getAbsoluteFile())) {
+                    // duplicate the copy already staged and drop the source
+                    final FileStager.StagingMethod method = FileStager.DEFAULT.duplicate(existing, destDataFile);
+                    if (!source.delete())
+                        IOUtils.deleteFile(source);
+                    duplicate = true;
+                    if (LOGGER.isLoggable(Level.INFO))
+                        LOGGER.info("FileBasedEventConsumer [" + Thread.currentThread().getName()
+                                + "]: accepted file " + source + " as a duplicate of " + existing
+                                + " (" + method + ")");
+                } else {
+                    // rename when possible, copy across devices only
+                    final FileStager.StagingMethod method = FileStager.DEFAULT.move(source, destDataFile);
+                    if (hash != null)
+                        contentIndex.put(hash, destDataFile);
+                    if (stagedBytes != null)
+                        stagedBytes.inc(destDataFile.length());
+                    if (LOGGER.isLoggable(Level.INFO))
+                        LOGGER.info("FileBasedEventConsumer [" + Thread.currentThread().getName()
+                                + "]: accepted file " + source + " (" + method + ")");
+                }
+            } else {
+                if (LOGGER.isLoggable(Level.SEVERE))
+                    LOGGER.severe("FileBasedEventConsumer [" + Thread.currentThread().getName()
+                            + "]: file not ready " + source);
+                // TODO: file not ready: what else?
+                destDataFile.createNewFile();
+            }
+
+            // Backing up files and delete sources.
+            if (backup != null) {
+                try {
+                    if (ready) {
+                        final File destFile = new File(backup, fileName);
+                        if (destFile.exists())
+                            throw new IOException("Back up file already existent!");
+                        // the source is gone, copy the staged file which the actions may change
+                        FileStager.DEFAULT.copy(destDataFile, destFile);
+                    } else if (LOGGER.isLoggable(Level.SEVERE))
+                        LOGGER.severe(Thread.currentThread().getName() + " - File not ready " + source);
+                } catch (IOException e) {
+                    if (LOGGER.isLoggable(Level.SEVERE))
+                        LOGGER.log(Level.SEVERE, "FileBasedEventConsumer ["
+                                + Thread.currentThread().getName() + "]:"
+                                + " could not backup file " + fileName
+                                + " due to the following IO error: " + e.getLocalizedMessage(), e);
+                }
+            } else if (!ready)
+                // schedule for removal
+                IOUtils.deleteFile(source);
+            return destDataFile;
+        }
+    }
 	
     /**
      * Common file prefix (unless the rule specify another one)
@@ -78,14 +234,14 @@ public class FileBasedEventConsumer extends
     private long numInputFiles = 0;
 
     /**
-     * Storing mandatory rules and the times they will occur.
+     * Compiled rules, shared with the other consumers of the same configuration.
      */
-    private final List<FileEventRule> mandatoryRules = new ArrayList<FileEventRule>();
+    private FileEventRuleSet ruleSet;
 
     /**
-     * Storing optional rules and the times they will occur.
+     * Times each rule of the {@link #ruleSet} has been matched so far.
      */
-    private final List<FileEventRule> optionalRules = new ArrayList<FileEventRule>();
+    private int[] occurrences;
 
     /**
      *
@@ -96,6 +252,30 @@ public class FileBasedEventConsumer extends
 
     private volatile boolean canceled;
 
+    /**
+     * Input files being staged by the current run, cancelled along with the consumer.
+     */
+    private volatile List<StagingTask> stagings;
+
+    /**
+     * Index of the staged files content, <code>null</code> if deduplication is disabled.
+     */
+    private ContentHashIndex contentIndex;
+
+    /**
+     * Keeps the run directories within the flow quotas, <code>null</code> if none is set.
+     */
+    private volatile RunDirectoryManager runs;
+
+    /**
+     * Warm actions of the flow, <code>null</code> if the actions are created with the consumer.
+     */
+    private final ActionPool<FileSystemMonitorEvent> actionPool;
+
+    private volatile MetricRegistry metrics;
+
+    private volatile String metricsFlow;
+
     // ----------------------------------------------- PUBLIC CONSTRUCTORS
 
     /**
@@ -107,11 +287,26 @@ public class FileBasedEventConsumer extends
 
     public FileBasedEventConsumer(Catalog catalog, FileBasedEventConsumerConfiguration configuration)
             throws InterruptedException, IOException {
+        this(catalog, configuration, null);
+    }
+
+    /**
+     * @param actionPool
+     *            the pool of the flow actions, when set the actions are borrowed when the
+     *            consumer starts running and given back when it is done, instead of being
+     *            created along with the consumer. May be <code>null</code>.
+     */
+    public FileBasedEventConsumer(Catalog catalog, FileBasedEventConsumerConfiguration configuration,
+            ActionPool<FileSystemMonitorEvent> actionPool) throws InterruptedException, IOException {
         super(catalog);
+        this.actionPool = actionPool;
         final File catalogFile= new File(((FileBaseCatalog) CatalogHolder.getCatalog()).getBaseDirectory());
         final File workingDir = IOUtils.findLocation(configuration.getWorkingDirectory(), catalogFile);
         if (workingDir != null) {
             if (workingDir.exists() && workingDir.isDirectory() & workingDir.canRead()) {
+                if (configuration.getDeduplication() != null)
+                    contentIndex = ContentHashIndex.getInstance(new File(catalogFile,
+                            ContentHashIndex.DEFAULT_NAME));
                 initialize(configuration, workingDir);
                 return;
             }
@@ -158,33 +353,27 @@ public class FileBasedEventConsumer extends
     private boolean checkRuleConsistency(final FileSystemMonitorNotifications eventType,
             final String prefix, final String fileName, final boolean mandatory) {
 
-        int occurrencies;
-
-        final List<FileEventRule> rules = (mandatory?this.mandatoryRules:this.optionalRules);
-        for (FileEventRule rule :rules) {
+        final int[] rules = (mandatory?ruleSet.getMandatoryRules():ruleSet.getOptionalRules());
+        for (int rule :rules) {
 
             // check event type
-            final List<FileSystemMonitorNotifications> eventTypes = rule.getAcceptableNotifications();
-		    if (!checkEvent(eventType, eventTypes))
+		    if (!ruleSet.accepts(rule, eventType))
 		        return false;
 		    
 		    //check occurencies for this file in case we have multiple occurrencies
-		    occurrencies = rule.getActualOccurrencies();
-		    final int originalOccurrences = rule.getOriginalOccurrencies();
-		    final Pattern p = Pattern.compile(rule.getRegex());
-		    if (p.matcher(fileName).matches()) {
+		    if (ruleSet.matches(rule, fileName)) {
 			    //we cannot exceed the number of needed occurrences!
-			    if(occurrencies>originalOccurrences)
+			    if(occurrences[rule]>ruleSet.getOriginalOccurrences(rule))
 			    	return false;
 			    
 		        if (this.commonPrefixRegex == null) {
 		            this.commonPrefixRegex = prefix;
-		            rule.setActualOccurrencies(occurrencies+ 1);
+		            occurrences[rule]++;
 		            if(mandatory)
 		            	this.numInputFiles--;
 		            return true;
 		        } else if (prefix.startsWith(this.commonPrefixRegex)) {
-		        	rule.setActualOccurrencies(occurrencies + 1);
+		        	occurrences[rule]++;
 		        	if(mandatory)
 		            	this.numInputFiles--;
 		            return true;
@@ -197,18 +386,6 @@ public class FileBasedEventConsumer extends
         return false;
     }
 
-    private static boolean checkEvent(FileSystemMonitorNotifications eventType,
-            List<FileSystemMonitorNotifications> eventTypes) {
-        if (eventTypes == null)
-            return true;
-        for (FileSystemMonitorNotifications notification : eventTypes) {
-            if (notification.equals(eventType))
-                return true;
-
-        }
-        return false;
-    }
-
 //    /**
 //     * Helper method to check for optional rules consistency.
 //     * 
@@ -264,44 +441,76 @@ public class FileBasedEventConsumer extends
         this.configuration = configuration;
         this.workingDir = workingDir;
         this.commonPrefixRegex = null;
-        this.mandatoryRules.clear();
-        this.optionalRules.clear();
         this.canceled = false;
 
         // ////////////////////////////////////////////////////////////////////
         // RULES
         // ////////////////////////////////////////////////////////////////////
 
-        numInputFiles = 0;
-        for (FileEventRule rule : configuration.getRules()) {
-            if (!rule.isOptional()) {
-                this.mandatoryRules.add(rule);
-                numInputFiles += rule.getOriginalOccurrencies();
-            } else {
-                this.optionalRules.add(rule);
-            }
-        }
+        this.ruleSet = configuration.getRuleSet();
+        this.occurrences = new int[ruleSet.size()];
+        numInputFiles = ruleSet.getMandatoryOccurrences();
 
         // ////////////////////////////////////////////////////////////////////
         // ACTIONS
         // ////////////////////////////////////////////////////////////////////
+        super.setActionGraph(configuration.getActionGraph());
+        // pooled actions are only borrowed when running
+        if (actionPool != null)
+            return;
+        final List<Action<FileSystemMonitorEvent>> actions = createActions(configuration, null);
+        super.addActions(actions);
+
+		if(actions.isEmpty())
+			if(LOGGER.isLoggable(Level.INFO))
+				LOGGER.info(getClass().getSimpleName() + " initialized with "
+						+ ruleSet.getMandatoryRulesCount() + " mandatory rules, "
+						+ ruleSet.getOptionalRulesCount() + " optional rules, "
+						+ actions.size() + " actions");
+    }
+
+    /**
+     * Creates, or borrows from the action pool, the actions of the provided configuration.
+     * 
+     * @param borrowed
+     *            collects the actions borrowed from the pool, to be given back, may be
+     *            <code>null</code> if there is no pool.
+     */
+    private List<Action<FileSystemMonitorEvent>> createActions(FileBasedEventConsumerConfiguration configuration,
+            List<Action<FileSystemMonitorEvent>> borrowed) {
         final List<Action<FileSystemMonitorEvent>> actions = new ArrayList<Action<FileSystemMonitorEvent>>();
-        for (ActionConfiguration actionConfig : configuration.getActions()) {
+        final FlowScheduler scheduler = FlowScheduler.lookup(getCatalog());
+        final List<? extends ActionConfiguration> configurations = configuration.getActions();
+        for (int position = 0; position < configurations.size(); position++) {
+            final ActionConfiguration actionConfig = configurations.get(position);
             final String serviceID = actionConfig.getServiceID();
             final ActionService<FileSystemMonitorEvent, ActionConfiguration> actionService = getCatalog().getResource(serviceID, ActionService.class);
             if (actionService != null) {
-                Action<FileSystemMonitorEvent> action = actionService.createAction(actionConfig);
+                Action<FileSystemMonitorEvent> action;
+                if (actionPool != null) {
+                    action = actionPool.borrow(actionService, actionConfig);
+                    borrowed.add(action);
+                } else
+                    action = actionService.createAction(actionConfig);
+                // heavy actions share the node wide permits
+                if (scheduler != null && action != null && actionConfig.getWorkload() != null)
+                    action = scheduler.throttle(action, actionConfig.getWorkload());
+                if (metrics != null && action != null) {
+                    // ids are not unique across the flow configurations, the position is
+                    final String index = String.valueOf(position);
+                    final String name = actionConfig.getId() != null ? actionConfig.getId() : serviceID;
+                    action = TimedAction.wrap(action,
+                            metrics.timer(MetricRegistry.name("flow", metricsFlow, "action", index, name, "time")),
+                            metrics.counter(MetricRegistry.name("flow", metricsFlow, "action", index, name,
+                                    "bytesEmitted")));
+                }
                 actions.add(action);
+            } else if (configuration.getActionGraph() != null) {
+                // keep the positions of the graph, the action hands its input over
+                actions.add(null);
             }
         }
-        super.addActions(actions);
-
-		if(actions.isEmpty())
-			if(LOGGER.isLoggable(Level.INFO))
-				LOGGER.info(getClass().getSimpleName() + " initialized with "
-						+ mandatoryRules.size() + " mandatory rules, "
-						+ optionalRules.size() + " optional rules, "
-						+ actions.size() + " actions");
+        return actions;
     }
 
     /**
@@ -309,6 +518,10 @@ public class FileBasedEventConsumer extends
      */
     public void run() {
         this.canceled = false;
+        final RunDirectoryManager runs = this.runs;
+        File runDirectory = null;
+        final MetricRegistry metrics = this.metrics;
+        final long start = System.nanoTime();
 
         try {
 
@@ -322,6 +535,10 @@ public class FileBasedEventConsumer extends
             if ((currentRunDirectory == null) || !currentRunDirectory.exists()|| !currentRunDirectory.isDirectory()) {
                 throw new IllegalStateException("Could not create consumer data directories!");
             }
+            if (runs != null) {
+                runs.register(currentRunDirectory);
+                runDirectory = currentRunDirectory;
+            }
 
             File backup = null;
             if (this.configuration.isPerformBackup()) {
@@ -331,79 +548,77 @@ public class FileBasedEventConsumer extends
                 }
             }
 
-            final Queue<FileSystemMonitorEvent> preprocessedEventsQueue = new LinkedList<FileSystemMonitorEvent>();
-            for (FileSystemMonitorEvent ev : this.eventsQueue) {
-                LOGGER.info(new StringBuilder("FileBasedEventConsumer [")
-						.append(Thread.currentThread().getName())
-						.append("]: new element retrieved from the MailBox.")
-						.toString());
-
-                // get info for the input file event
-                final String filePath = ev.getSource().toString();
-                final File sourceDataFile = new File(filePath);
-                final String fileName = FilenameUtils.getName(filePath);
-
-                final File destDataFile = new File(currentRunDirectory, fileName);
-                destDataFile.createNewFile();
-//                LOGGER.info(new StringBuilder("FileBasedEventConsumer [")
-//						.append(Thread.currentThread().getName())
-//						.append("]: trying to lock file ")
-//						.append(sourceDataFile.getAbsolutePath()).toString());
-
-                if (IOUtils.acquireLock(this, sourceDataFile)) {
-                    IOUtils.copyFile(sourceDataFile, destDataFile);
-					LOGGER.info(new StringBuilder("FileBasedEventConsumer [")
-							.append(Thread.currentThread().getName())
-							.append("]: accepted file " )
-							.append(sourceDataFile).toString());
-                } else {
-					LOGGER.severe(new StringBuilder("FileBasedEventConsumer [")
-							.append(Thread.currentThread().getName())
-							.append("]: could not lock file " )
-							.append(sourceDataFile).toString());
-
-					// TODO: lock not aquired: what else?
-				}
-
-                //
-                preprocessedEventsQueue.offer(new FileSystemMonitorEvent(destDataFile, FileSystemMonitorNotifications.FILE_ADDED));
+            // wait for all the input files at once, checks are scheduled on a shared timer and
+            // each file is staged on the I/O pool as soon as it is ready
+            final FileReadyDetector readyDetector = configuration.getFileReadyDetector();
+            final long readyMaxWait = configuration.getFileReadyMaxWait();
+            final Counter stagedBytes = metrics != null ? metrics.counter(MetricRegistry.name("flow",
+                    metricsFlow, "bytesStaged")) : null;
+            final List<StagingTask> stagings = new ArrayList<StagingTask>(this.eventsQueue.size());
+            for (FileSystemMonitorEvent ev : this.eventsQueue)
+                stagings.add(new StagingTask(ev.getSource(), currentRunDirectory, backup,
+                        contentIndex, configuration.getDeduplication(), stagedBytes));
+            this.stagings = stagings;
+            for (StagingTask staging : stagings) {
+                if (canceled)
+                    break;
+                staging.readiness = readyDetector.whenReady(staging.source, readyMaxWait, staging);
+            }
+            // a cancel() racing with the loop above may have missed some checks
+            if (canceled)
+                cancelStagings();
+            final long stagingStart = System.nanoTime();
 
-                // Backing up files and delete sources.
-                if (this.configuration.isPerformBackup()) {
-                    LOGGER.info("FileBasedEventConsumer " + Thread.currentThread().getName()
-                            + " --- Performing BackUp of input files");
+            // collect the staged files in the original order
+            final Queue<FileSystemMonitorEvent> preprocessedEventsQueue = new LinkedList<FileSystemMonitorEvent>();
+            final List<String> failures = new ArrayList<String>();
+            try {
+                for (StagingTask staging : stagings) {
                     try {
-                        if (IOUtils.acquireLock(this, sourceDataFile)) {
-
-                            File destFile = new File(backup, fileName);
-                            if (destFile.exists())
-                                throw new IOException("Back up file already existent!");
-
-                            IOUtils.moveFileTo(sourceDataFile, backup, true);
-
-                        } else{
-							if (LOGGER.isLoggable(Level.SEVERE))
-								LOGGER.severe( Thread.currentThread().getName() + " - Can't lock file " + sourceDataFile);
-						}
-                    } catch (IOException e) {
-                        if (LOGGER.isLoggable(Level.SEVERE))
-                            LOGGER.log(Level.SEVERE, "FileBasedEventConsumer ["
-                                    + Thread.currentThread().getName() + "]:" 
-									+ " could not backup file " + fileName
-									+ " due to the following IO error: "
-                                    + e.getLocalizedMessage(), e);
-                    } catch (InterruptedException e) {
+                        preprocessedEventsQueue.offer(new FileSystemMonitorEvent(staging.result.get(),
+                                FileSystemMonitorNotifications.FILE_ADDED));
+                    } catch (ExecutionException e) {
+                        final Throwable cause = e.getCause();
                         if (LOGGER.isLoggable(Level.SEVERE))
                             LOGGER.log(Level.SEVERE, "FileBasedEventConsumer ["
-                                    + Thread.currentThread().getName() + "]:" 
-									+ " could not backup file " + fileName
-									+ " due to the following IO error: "
-                                    + e.getLocalizedMessage(), e);
+                                    + Thread.currentThread().getName() + "]: could not stage file "
+                                    + staging.source + " due to the following error: "
+                                    + cause.getLocalizedMessage(), cause);
+                        failures.add(staging.source.getName());
+                    } catch (CancellationException e) {
+                        failures.add(staging.source.getName());
                     }
-                } else
-                    // schedule for removal
-                    IOUtils.deleteFile(sourceDataFile);
-
+                }
+            } catch (InterruptedException e) {
+                cancelStagings();
+                throw e;
+            } finally {
+                this.stagings = null;
+                if (metrics != null)
+                    metrics.timer(MetricRegistry.name("flow", metricsFlow, "consumer", "staging"))
+                            .update(System.nanoTime() - stagingStart);
+            }
+            if (canceled) {
+                if (LOGGER.isLoggable(Level.INFO))
+                    LOGGER.info("FileBasedEventConsumer [" + Thread.currentThread().getName()
+                            + "]: cancelled while staging the input files");
+                this.setStatus(EventConsumerStatus.FAILED);
+                return;
+            }
+            if (!failures.isEmpty())
+                throw new IOException("Unable to stage " + failures);
+
+            if (configuration.getDeduplication() == DeduplicationPolicy.SKIP && !stagings.isEmpty()) {
+                boolean duplicates = true;
+                for (StagingTask staging : stagings)
+                    duplicates &= staging.duplicate;
+                if (duplicates) {
+                    if (LOGGER.isLoggable(Level.INFO))
+                        LOGGER.info("FileBasedEventConsumer [" + Thread.currentThread().getName()
+                                + "]: all the input files have already been staged, skipping the actions");
+                    this.setStatus(EventConsumerStatus.COMPLETED);
+                    return;
+                }
             }
 
             // //
@@ -411,17 +626,26 @@ public class FileBasedEventConsumer extends
             // done due to some error, set eventConsumerStatus to Finished or
             // Failure.
             // //
-            LOGGER.info(new StringBuilder("FileBasedEventConsumer [")
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine(new StringBuilder("FileBasedEventConsumer [")
 					.append(Thread.currentThread().getName()).append("]: new element processed.")
                     .toString());
             // //
             // if the processing has been done successfully,
             // produce the DTOs.
             // //
-            if (this.applyActions(preprocessedEventsQueue))
-                this.setStatus(EventConsumerStatus.COMPLETED);
-            else
-                this.setStatus(EventConsumerStatus.FAILED);
+            final List<Action<FileSystemMonitorEvent>> borrowed = new ArrayList<Action<FileSystemMonitorEvent>>();
+            try {
+                if (actionPool != null)
+                    super.addActions(createActions(configuration, borrowed));
+                if (this.applyActions(preprocessedEventsQueue))
+                    this.setStatus(EventConsumerStatus.COMPLETED);
+                else
+                    this.setStatus(EventConsumerStatus.FAILED);
+            } finally {
+                for (Action<FileSystemMonitorEvent> action : borrowed)
+                    actionPool.giveBack(action);
+            }
 
         } catch (IOException e) {
             if (LOGGER.isLoggable(Level.SEVERE))
@@ -436,7 +660,18 @@ public class FileBasedEventConsumer extends
                         + " due to the following IO error: " + e.getLocalizedMessage(), e);
             this.setStatus(EventConsumerStatus.FAILED);
         } finally {
-            LOGGER.info(Thread.currentThread().getName() + " DONE!");
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine(Thread.currentThread().getName() + " DONE!");
+            if (metrics != null) {
+                metrics.timer(MetricRegistry.name("flow", metricsFlow, "consumer", "time")).update(
+                        System.nanoTime() - start);
+                metrics.counter(MetricRegistry.name("flow", metricsFlow, "consumer",
+                        getStatus() == EventConsumerStatus.COMPLETED ? "completed" : "failed")).inc();
+            }
+            if (runDirectory != null) {
+                runs.release(runDirectory);
+                runs.evict(System.currentTimeMillis());
+            }
             this.dispose();
         }
     }
@@ -453,10 +688,42 @@ public class FileBasedEventConsumer extends
         return workingDir;
     }
 
+    /**
+     * Sets the manager tracking the run directories of this consumer, runs are registered when
+     * created and released, making them evictable, when done.
+     * 
+     * @param runs
+     *            the manager, <code>null</code> to not track the runs.
+     */
+    public void setRunDirectoryManager(RunDirectoryManager runs) {
+        this.runs = runs;
+    }
+
+    /**
+     * Sets the registry where the run, staging and action timings of this consumer are
+     * recorded, under <code>flow.&lt;flowId&gt;</code>. Actions are only timed when borrowed
+     * from the action pool, under <code>flow.&lt;flowId&gt;.action.&lt;position&gt;.&lt;id&gt;</code>.
+     * 
+     * @param metrics
+     *            the registry, <code>null</code> to not record anything.
+     */
+    public void setMetrics(MetricRegistry metrics, String flowId) {
+        this.metricsFlow = flowId;
+        this.metrics = metrics;
+    }
+
     public FileBasedEventConsumerConfiguration getConfiguration() {
         return configuration;
     }
 
+    /**
+     * @return the common file prefix captured on the first consumed event, <code>null</code>
+     *         if no event has been consumed yet.
+     */
+    public String getCommonPrefix() {
+        return commonPrefixRegex;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -469,8 +736,8 @@ public class FileBasedEventConsumer extends
         this.numInputFiles = 0;
         this.configuration = null;
         this.commonPrefixRegex = null;
-        this.mandatoryRules.clear();
-        this.optionalRules.clear();
+        this.ruleSet = null;
+        this.occurrences = null;
 
     }
 
@@ -493,15 +760,31 @@ public class FileBasedEventConsumer extends
         return true;
     }
 
+    /**
+     * Asks this consumer to cancel its execution. A consumer which is still collecting events
+     * is moved to {@link EventConsumerStatus#FAILED} and will not accept any further event, a
+     * running one stops waiting for its input files.
+     */
     public void cancel() {
         this.canceled = true;
+        cancelStagings();
 
+        final EventConsumerStatus status = getStatus();
+        if (status == EventConsumerStatus.IDLE || status == EventConsumerStatus.WAITING)
+            setStatus(EventConsumerStatus.FAILED);
     }
 
     public boolean isCanceled() {
         return canceled;
     }
 
+    private void cancelStagings() {
+        final List<StagingTask> stagings = this.stagings;
+        if (stagings != null)
+            for (StagingTask staging : stagings)
+                staging.cancel();
+    }
+
     @Override
     protected void setStatus(EventConsumerStatus eventConsumerStatus) {
         super.setStatus(eventConsumerStatus);
@@ -523,14 +806,4 @@ public class FileBasedEventConsumer extends
 				+ "]";
 	}
 
-	public void addListener(EventConsumerListener eventConsumerListener) {
-		// TODO Auto-generated method stub
-		
-	}
-
-	public void removeListener(EventConsumerListener eventConsumerListener) {
-		// TODO Auto-generated method stub
-		
-	}
-
 }
@@ -0,0 +1,187 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.event.consumer.file;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, compiled view of a list of {@link FileEventRule}s.
+ * <p>
+ * The rule set is built once per consumer configuration and shared by all the consumers
+ * created from it. Rules are addressed by their position in the original list, so that each
+ * consumer can keep its own occurrence counters in a plain <code>int[]</code> of
+ * {@link #size()} elements, the mandatory rules being listed first in
+ * {@link #getMandatoryRules()} and the optional ones in {@link #getOptionalRules()}.
+ */
+public final class FileEventRuleSet {
+
+    private final Pattern[] patterns;
+
+    private final String[] regexes;
+
+    private final int[] originalOccurrences;
+
+    /**
+     * Acceptable notifications for each rule, <code>null</code> elements accept everything.
+     */
+    private final EnumSet<FileSystemMonitorNotifications>[] notifications;
+
+    private final int[] mandatoryRules;
+
+    private final int[] optionalRules;
+
+    private final int mandatoryOccurrences;
+
+    /**
+     * Compiles the provided rules.
+     *
+     * @param rules
+     *            the rules to compile, in order.
+     * @throws IllegalArgumentException
+     *             if a rule has no regex.
+     */
+    @SuppressWarnings("unchecked")
+    public FileEventRuleSet(final List<FileEventRule> rules) {
+        final int size = rules != null ? rules.size() : 0;
+        this.patterns = new Pattern[size];
+        this.regexes = new String[size];
+        this.originalOccurrences = new int[size];
+        this.notifications = new EnumSet[size];
+
+        int mandatory = 0;
+        int occurrences = 0;
+        for (int i = 0; i < size; i++) {
+            final FileEventRule rule = rules.get(i);
+            if (rule.getRegex() == null)
+                throw new IllegalArgumentException("Rule " + rule + " has no regex");
+            regexes[i] = rule.getRegex();
+            patterns[i] = Pattern.compile(rule.getRegex());
+            originalOccurrences[i] = rule.getOriginalOccurrencies();
+            final List<FileSystemMonitorNotifications> acceptable = rule.getAcceptableNotifications();
+            if (acceptable != null) {
+                notifications[i] = acceptable.isEmpty() ? EnumSet.noneOf(FileSystemMonitorNotifications.class)
+                        : EnumSet.copyOf(acceptable);
+            }
+            if (!rule.isOptional()) {
+                mandatory++;
+                occurrences += rule.getOriginalOccurrencies();
+            }
+        }
+
+        this.mandatoryRules = new int[mandatory];
+        this.optionalRules = new int[size - mandatory];
+        for (int i = 0, m = 0, o = 0; i < size; i++) {
+            if (!rules.get(i).isOptional())
+                mandatoryRules[m++] = i;
+            else
+                optionalRules[o++] = i;
+        }
+        this.mandatoryOccurrences = occurrences;
+    }
+
+    /**
+     * @return the number of rules, i.e. the size of the occurrence counters array.
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * @return the indexes of the mandatory rules. Do not modify.
+     */
+    int[] getMandatoryRules() {
+        return mandatoryRules;
+    }
+
+    /**
+     * @return the indexes of the optional rules. Do not modify.
+     */
+    int[] getOptionalRules() {
+        return optionalRules;
+    }
+
+    /**
+     * @return the number of files needed to fulfill all the mandatory rules.
+     */
+    public int getMandatoryOccurrences() {
+        return mandatoryOccurrences;
+    }
+
+    /**
+     * @return the number of mandatory rules.
+     */
+    public int getMandatoryRulesCount() {
+        return mandatoryRules.length;
+    }
+
+    /**
+     * @return the number of optional rules.
+     */
+    public int getOptionalRulesCount() {
+        return optionalRules.length;
+    }
+
+    /**
+     * @return the number of occurrences the rule at the provided index expects.
+     */
+    public int getOriginalOccurrences(final int rule) {
+        return originalOccurrences[rule];
+    }
+
+    /**
+     * @return the regex of the rule at the provided index.
+     */
+    public String getRegex(final int rule) {
+        return regexes[rule];
+    }
+
+    /**
+     * Tells whether the rule at the provided index accepts the provided notification.
+     */
+    public boolean accepts(final int rule, final FileSystemMonitorNotifications notification) {
+        final EnumSet<FileSystemMonitorNotifications> acceptable = notifications[rule];
+        return acceptable == null || acceptable.contains(notification);
+    }
+
+    /**
+     * Tells whether the rule at the provided index matches the provided file name.
+     */
+    public boolean matches(final int rule, final String fileName) {
+        return patterns[rule].matcher(fileName).matches();
+    }
+
+    /**
+     * Tells whether any of the rules matches the provided file name.
+     */
+    public boolean matchesAny(final String fileName) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(fileName).matches())
+                return true;
+        }
+        return false;
+    }
+}
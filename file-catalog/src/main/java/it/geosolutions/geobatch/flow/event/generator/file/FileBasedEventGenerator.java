@@ -32,6 +32,8 @@ import it.geosolutions.filesystemmonitor.monitor.impl.BaseFileSystemMonitor;
 import it.geosolutions.geobatch.catalog.file.FileBaseCatalog;
 import it.geosolutions.geobatch.configuration.event.generator.file.FileBasedEventGeneratorConfiguration;
 import it.geosolutions.geobatch.flow.event.generator.BaseEventGenerator;
+import it.geosolutions.geobatch.flow.event.generator.EventDelivery;
+import it.geosolutions.geobatch.flow.event.generator.EventDeliveryMode;
 import it.geosolutions.geobatch.flow.event.generator.EventGenerator;
 import it.geosolutions.geobatch.flow.event.generator.FlowEventListener;
 import it.geosolutions.geobatch.global.CatalogHolder;
@@ -39,13 +41,18 @@ import it.geosolutions.geobatch.utils.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EventObject;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.swing.SwingUtilities;
 import javax.swing.event.EventListenerList;
 
 
@@ -122,6 +129,11 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
      * @uml.property name="keepFiles"
      */
     private boolean keepFiles;
+
+    /**
+     * Files the next {@link #start()} must not clean up, see {@link #retainFiles(Collection)}.
+     */
+    private final Set<File> retainedFiles = new HashSet<File>();
     /**
      * 
      */
@@ -133,6 +145,19 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
      */
     private String wildCard;
     private EventListenerList listeners = new EventListenerList();
+
+    /**
+     * Snapshot of the registered listeners, rebuilt when they change.
+     */
+    private volatile List<FlowEventListener<T>> listenersSnapshot = Collections.emptyList();
+
+    /**
+     * How events are handed to the listeners.
+     */
+    private volatile EventDelivery<T> delivery;
+
+    private EventDeliveryMode deliveryMode;
+
     private EventListener fsListener;
 
     // ----------------------------------------------- PUBLIC CONSTRUCTORS
@@ -197,7 +222,7 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
     public FileBasedEventGenerator(final OsType osType,
             final FileSystemMonitorNotifications eventType, final File dir, final String wildcard, final boolean keepFiles){
 
-        initialize(osType, eventType, dir, wildcard, keepFiles);
+        initialize(osType, eventType, dir, wildcard, keepFiles, false, EventDeliveryMode.DIRECT);
     }
 
     /**
@@ -206,6 +231,7 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
      * @param dir
      * @param wildcard
      * @param keepFiles 
+     * @param watchSubdirectories
      * @throws NotSupportedException
      */
     private void initialize(
@@ -213,9 +239,13 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
     		final FileSystemMonitorNotifications eventType,
             final File dir, 
             final String wildcard, 
-            final boolean keepFiles) {
+            final boolean keepFiles,
+            final boolean watchSubdirectories,
+            final EventDeliveryMode deliveryMode) {
         // add myself as listener
         fsListener = new EventListener();
+        this.deliveryMode = deliveryMode;
+        this.delivery = deliveryMode.createDelivery(dir != null ? dir.getName() : null);
 
         this.watchDirectory = dir;
         this.wildCard = wildcard;
@@ -229,6 +259,8 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
     		params.put(FileSystemMonitorSPI.SOURCE, dir);
     		if (this.wildCard != null)
     			params.put(FileSystemMonitorSPI.WILDCARD, wildCard);	
+    		if (watchSubdirectories)
+    			params.put(FileSystemMonitorSPI.SUBDIRS, Boolean.TRUE);
             this.fsMonitor = (BaseFileSystemMonitor) FSMSPIFinder.getMonitor(params,osType);
             this.fsMonitor.addListener(fsListener);
         }
@@ -248,7 +280,10 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
         }
         boolean keepFiles = configuration.getKeepFiles();
         String wildCard = configuration.getWildCard();
-        initialize(osType, eventType, notifyDir, wildCard, keepFiles);
+        final EventDeliveryMode deliveryMode = configuration.getEventDelivery() != null ? configuration.getEventDelivery()
+                : EventDeliveryMode.DIRECT;
+        initialize(osType, eventType, notifyDir, wildCard, keepFiles,
+                configuration.isWatchSubdirectories(), deliveryMode);
     }
 
     /**
@@ -359,6 +394,7 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
     public synchronized void dispose() {
         fsMonitor.removeListener(fsListener);
         fsMonitor.dispose();
+        delivery.dispose();
     }
 
     /**
@@ -378,14 +414,63 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
             if (LOGGER.isLoggable(Level.INFO)) {
                 LOGGER.info("Cleaning up " + watchDirectory.getAbsolutePath().toString());
             }
-            IOUtils.emptyDirectory(watchDirectory, true, false);
+            if (retainedFiles.isEmpty())
+                IOUtils.emptyDirectory(watchDirectory, true, false);
+            else
+                emptyDirectory(watchDirectory);
         } else if (LOGGER.isLoggable(Level.INFO)) {
             LOGGER.info("Keep existing files in " + watchDirectory.getAbsolutePath().toString());
         }
 
+        retainedFiles.clear();
         fsMonitor.start();
     }
 
+    /**
+     * Keeps the provided files, i.e. the ones of events still to be processed, when the watched
+     * directory is cleaned up by the next {@link #start()}.
+     */
+    public synchronized void retainFiles(Collection<File> files) {
+        for (File file : files)
+            retainedFiles.add(file.getAbsoluteFile());
+    }
+
+    /**
+     * Bounds the events queued for delivery, if the delivery mode queues them, to the ones the
+     * flow consuming the events is able to hold. To be called before {@link #start()}.
+     * 
+     * @param capacity
+     *            maximum number of events queued for delivery.
+     * @param callerRuns
+     *            whether the monitor thread delivers the events itself when the queue is full
+     *            rather than waiting for room.
+     */
+    public synchronized void boundDelivery(final int capacity, final boolean callerRuns) {
+        if (deliveryMode != EventDeliveryMode.ASYNC)
+            return;
+        delivery.dispose();
+        delivery = deliveryMode.createDelivery(watchDirectory.getName(), capacity, callerRuns);
+    }
+
+    /**
+     * Empties a directory except for the retained files and the directories holding them.
+     */
+    private void emptyDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (retainedFiles.contains(file.getAbsoluteFile()))
+                continue;
+            if (file.isDirectory()) {
+                emptyDirectory(file);
+                // fails if a retained file is inside
+                file.delete();
+            } else if (!file.delete() && LOGGER.isLoggable(Level.WARNING))
+                LOGGER.warning("Unable to clean up " + file);
+        }
+    }
+
     /**
      * 
      * @see it.geosolutions.filesystemmonitor.monitor.Monitor#pause()
@@ -409,13 +494,14 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
         // those that are interested in this event
         final int length = listenerArray.length;
         for (int i = length - 2; i >= 0; i -= 2) {
-            if (listenerArray[i].equals(fileListener)) {
+            if (listenerArray[i + 1].equals(fileListener)) {
                 return;
 
             }
         }
 
         listeners.add(FlowEventListener.class, fileListener);
+        updateListenersSnapshot();
     }
 
     /**
@@ -426,37 +512,32 @@ public class FileBasedEventGenerator<T extends EventObject> extends BaseEventGen
      */
     public synchronized void removeListener(FlowEventListener<T> fileListener) {
         listeners.remove(FlowEventListener.class, fileListener);
+        updateListenersSnapshot();
+    }
 
+    @SuppressWarnings("unchecked")
+    private void updateListenersSnapshot() {
+        // Guaranteed to return a non-null array
+        final Object[] listenersArray = listeners.getListenerList();
+        final List<FlowEventListener<T>> snapshot = new ArrayList<FlowEventListener<T>>();
+        // keep the last to first notification order
+        for (int i = listenersArray.length - 2; i >= 0; i -= 2) {
+            if (listenersArray[i] == FlowEventListener.class)
+                snapshot.add((FlowEventListener<T>) listenersArray[i + 1]);
+        }
+        this.listenersSnapshot = Collections.unmodifiableList(snapshot);
     }
 
     /**
-     * Sending an event by putting it inside the Swing dispatching thred. This might be useless in
-     * command line app but it is important in GUi apps. I might change this though.
+     * Sending an event to the listeners through the configured {@link EventDelivery}.
      * 
      * @param file
      */
+    @SuppressWarnings("unchecked")
     private void sendEvent(final FileSystemMonitorEvent fe) {
-        // Guaranteed to return a non-null array
-        final Object[] listenersArray = listeners.getListenerList();
-        // Process the listeners last to first, notifying
-        // those that are interested in this event
-        final int length = listenersArray.length;
-        for (int i = length - 2; i >= 0; i -= 2) {
-            final int index = i + 1;
-            if (listenersArray[i] == FlowEventListener.class) {
-                // Lazily create the event inside the dispatching thread in
-                // order to avoid problems if we run this inside a GUI app.
-                SwingUtilities.invokeLater(new Runnable() {
-
-                    @SuppressWarnings("unchecked")
-                    public void run() {
-                        ((FlowEventListener<FileSystemMonitorEvent>) listenersArray[index]).eventGenerated(fe);
-                    }
-                });
-
-            }
-        }
-
+        final List<FlowEventListener<T>> listeners = this.listenersSnapshot;
+        if (!listeners.isEmpty())
+            delivery.deliver((T) fe, listeners);
     }
 
     /**
@@ -0,0 +1,231 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.geobatch.flow.event.consumer.file.FileBasedEventConsumer;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRuleSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing index for the waiting {@link FileBasedEventConsumer}s of a flow.
+ * <p>
+ * A consumer only accepts files whose base name starts with the common prefix it captured on
+ * its first event, therefore consumers are bucketed by that prefix and the candidates for an
+ * incoming file are found by probing every leading substring of its base name, instead of
+ * asking each waiting consumer in turn. Insertion order is preserved across buckets so that
+ * the oldest consumer still gets the first chance to consume an event.
+ * <p>
+ * The index also keeps the compiled rules of the flow, allowing the dispatcher to
+ * discard files no rule can ever match without touching any consumer.
+ * <p>
+ * This class is not thread safe, it is meant to be used by the dispatcher thread only.
+ */
+final class EventConsumerIndex {
+
+    private final static class Entry {
+        private final long sequence;
+
+        private final FileBasedEventConsumer consumer;
+
+        private Entry(final long sequence, final FileBasedEventConsumer consumer) {
+            this.sequence = sequence;
+            this.consumer = consumer;
+        }
+    }
+
+    private final static Comparator<Entry> SEQUENCE_ORDER = new Comparator<Entry>() {
+        public int compare(Entry o1, Entry o2) {
+            return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Waiting consumers bucketed by their common prefix, in insertion order.
+     */
+    private final Map<String, List<Entry>> consumersByPrefix = new HashMap<String, List<Entry>>();
+
+    /**
+     * Compiled flow rules, <code>null</code> means accept everything.
+     */
+    private final FileEventRuleSet rules;
+
+    /**
+     * Router of the flow lanes to notify of the indexed prefixes, <code>null</code> if the flow
+     * has a single lane.
+     */
+    private final EventLaneRouter router;
+
+    private long sequence = 0;
+
+    private int size = 0;
+
+    /**
+     * @param rules
+     *            the compiled rules of the flow consumer configuration, used to pre filter
+     *            incoming files. May be <code>null</code>.
+     */
+    EventConsumerIndex(final FileEventRuleSet rules) {
+        this(rules, null);
+    }
+
+    /**
+     * @param rules
+     *            the compiled rules of the flow consumer configuration, used to pre filter
+     *            incoming files. May be <code>null</code>.
+     * @param router
+     *            the router of the flow lanes, notified of the prefixes of the indexed
+     *            consumers. May be <code>null</code>.
+     */
+    EventConsumerIndex(final FileEventRuleSet rules, final EventLaneRouter router) {
+        this.rules = rules;
+        this.router = router;
+    }
+
+    /**
+     * Tells whether at least one of the flow rules matches the provided file name, i.e. whether
+     * it makes sense to look for a consumer for it at all.
+     *
+     * @param fileName
+     *            the name of the file, without path.
+     */
+    boolean isRoutable(final String fileName) {
+        return rules == null || rules.matchesAny(fileName);
+    }
+
+    /**
+     * Adds a consumer which already captured its common prefix.
+     */
+    void add(final FileBasedEventConsumer consumer) {
+        final String prefix = keyOf(consumer);
+        List<Entry> bucket = consumersByPrefix.get(prefix);
+        if (bucket == null) {
+            bucket = new LinkedList<Entry>();
+            consumersByPrefix.put(prefix, bucket);
+        }
+        bucket.add(new Entry(sequence++, consumer));
+        size++;
+        if (router != null)
+            router.consumerAdded(prefix);
+    }
+
+    /**
+     * Removes the provided consumer from the index.
+     *
+     * @return <code>true</code> if the consumer was indexed.
+     */
+    boolean remove(final FileBasedEventConsumer consumer) {
+        final String prefix = keyOf(consumer);
+        final List<Entry> bucket = consumersByPrefix.get(prefix);
+        if (bucket == null)
+            return false;
+        final Iterator<Entry> it = bucket.iterator();
+        while (it.hasNext()) {
+            if (it.next().consumer == consumer) {
+                it.remove();
+                size--;
+                if (bucket.isEmpty())
+                    consumersByPrefix.remove(prefix);
+                if (router != null)
+                    router.consumerRemoved(prefix);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the consumers which may accept a file with the provided base name, oldest first.
+     *
+     * @param filePrefix
+     *            the base name of the incoming file.
+     */
+    List<FileBasedEventConsumer> candidates(final String filePrefix) {
+        if (size == 0)
+            return Collections.emptyList();
+
+        List<Entry> single = null;
+        List<Entry> merged = null;
+        final int length = filePrefix.length();
+        for (int i = 0; i <= length; i++) {
+            final List<Entry> bucket = consumersByPrefix.get(filePrefix.substring(0, i));
+            if (bucket == null)
+                continue;
+            if (single == null) {
+                single = bucket;
+            } else {
+                if (merged == null) {
+                    merged = new ArrayList<Entry>(single);
+                }
+                merged.addAll(bucket);
+            }
+        }
+        if (single == null)
+            return Collections.emptyList();
+
+        final List<Entry> entries;
+        if (merged != null) {
+            Collections.sort(merged, SEQUENCE_ORDER);
+            entries = merged;
+        } else
+            entries = single;
+
+        final List<FileBasedEventConsumer> result = new ArrayList<FileBasedEventConsumer>(entries.size());
+        for (Entry entry : entries)
+            result.add(entry.consumer);
+        return result;
+    }
+
+    /**
+     * @return all the indexed consumers, oldest first.
+     */
+    List<FileBasedEventConsumer> getConsumers() {
+        final List<Entry> entries = new ArrayList<Entry>(size);
+        for (List<Entry> bucket : consumersByPrefix.values())
+            entries.addAll(bucket);
+        Collections.sort(entries, SEQUENCE_ORDER);
+        final List<FileBasedEventConsumer> result = new ArrayList<FileBasedEventConsumer>(entries.size());
+        for (Entry entry : entries)
+            result.add(entry.consumer);
+        return result;
+    }
+
+    /**
+     * @return the number of indexed consumers.
+     */
+    int size() {
+        return size;
+    }
+
+    private static String keyOf(final FileBasedEventConsumer consumer) {
+        final String prefix = consumer.getCommonPrefix();
+        return prefix != null ? prefix : "";
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.geobatch.flow.event.consumer.EventConsumerStatus;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileBasedEventConsumer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the consumers waiting for events in an {@link EventConsumerIndex}.
+ * <p>
+ * Consumers leave the index as soon as they are no more able to accept events, i.e. when they
+ * reach a terminal state (<code>EXECUTING</code>, <code>COMPLETED</code> or
+ * <code>FAILED</code>), while consumers left <code>WAITING</code> for longer than the
+ * configured time to live since their last accepted event are expired: they are canceled,
+ * which moves them to <code>FAILED</code> notifying their
+ * {@link it.geosolutions.geobatch.flow.event.consumer.EventConsumerListener}s, and disposed.
+ * <p>
+ * Index updates must happen on the dispatcher thread, {@link #getConsumers()} can be called
+ * from any thread.
+ */
+final class EventConsumerLifecycleManager {
+
+    private final static Logger LOGGER = Logger.getLogger(EventConsumerLifecycleManager.class.toString());
+
+    /**
+     * Sweep period used when no time to live is set, terminal consumers are usually removed
+     * eagerly, this only catches the ones changing status outside of the dispatcher.
+     */
+    private final static long DEFAULT_SWEEP_PERIOD = 60000;
+
+    private final static long MIN_SWEEP_PERIOD = 1000;
+
+    private final EventConsumerIndex index;
+
+    private final long timeToLive;
+
+    /**
+     * Last activity time of the tracked consumers, least recently active first.
+     */
+    private final LinkedHashMap<FileBasedEventConsumer, Long> lastActivity = new LinkedHashMap<FileBasedEventConsumer, Long>(
+            16, 0.75f, true);
+
+    /**
+     * @param index
+     *            the index holding the waiting consumers.
+     * @param timeToLive
+     *            maximum time in milliseconds a consumer can wait for its next event, a value
+     *            less or equal to zero disables expiration.
+     */
+    EventConsumerLifecycleManager(final EventConsumerIndex index, final long timeToLive) {
+        this.index = index;
+        this.timeToLive = timeToLive > 0 ? timeToLive : 0;
+    }
+
+    /**
+     * @return the index managed by this instance.
+     */
+    EventConsumerIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return how often {@link #sweep(long)} should be called, in milliseconds.
+     */
+    long getSweepPeriod() {
+        if (timeToLive == 0)
+            return DEFAULT_SWEEP_PERIOD;
+        return Math.max(MIN_SWEEP_PERIOD, Math.min(timeToLive / 2, DEFAULT_SWEEP_PERIOD));
+    }
+
+    /**
+     * Starts tracking a consumer which accepted its first event, consumers already in a terminal
+     * state are ignored.
+     */
+    void register(final FileBasedEventConsumer consumer) {
+        if (!isWaiting(consumer))
+            return;
+        index.add(consumer);
+        synchronized (lastActivity) {
+            lastActivity.put(consumer, Long.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Notifies that a tracked consumer accepted an event, consumers which are no more waiting
+     * are released.
+     */
+    void consumed(final FileBasedEventConsumer consumer) {
+        if (!isWaiting(consumer)) {
+            release(consumer);
+            return;
+        }
+        synchronized (lastActivity) {
+            lastActivity.put(consumer, Long.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Stops tracking a consumer.
+     */
+    void release(final FileBasedEventConsumer consumer) {
+        index.remove(consumer);
+        synchronized (lastActivity) {
+            lastActivity.remove(consumer);
+        }
+    }
+
+    /**
+     * Releases terminated consumers and expires the ones waiting for too long.
+     *
+     * @param now
+     *            current time in milliseconds.
+     * @return the number of consumers which have been expired.
+     */
+    int sweep(final long now) {
+        final List<FileBasedEventConsumer> terminated = new ArrayList<FileBasedEventConsumer>();
+        final List<FileBasedEventConsumer> expired = new ArrayList<FileBasedEventConsumer>();
+        synchronized (lastActivity) {
+            final Iterator<Map.Entry<FileBasedEventConsumer, Long>> it = lastActivity.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<FileBasedEventConsumer, Long> entry = it.next();
+                final FileBasedEventConsumer consumer = entry.getKey();
+                if (!isWaiting(consumer)) {
+                    terminated.add(consumer);
+                    it.remove();
+                } else if (timeToLive > 0 && now - entry.getValue().longValue() > timeToLive) {
+                    expired.add(consumer);
+                    it.remove();
+                }
+            }
+        }
+
+        for (FileBasedEventConsumer consumer : terminated)
+            index.remove(consumer);
+
+        for (FileBasedEventConsumer consumer : expired) {
+            // remove first, the prefix is lost on dispose
+            index.remove(consumer);
+            if (LOGGER.isLoggable(Level.INFO))
+                LOGGER.info("Expiring " + consumer + " after " + timeToLive + "ms without events");
+            consumer.cancel();
+            consumer.dispose();
+        }
+        return expired.size();
+    }
+
+    /**
+     * @return the tracked consumers, least recently active first.
+     */
+    List<FileBasedEventConsumer> getConsumers() {
+        synchronized (lastActivity) {
+            return new ArrayList<FileBasedEventConsumer>(lastActivity.keySet());
+        }
+    }
+
+    private static boolean isWaiting(final FileBasedEventConsumer consumer) {
+        final EventConsumerStatus status = consumer.getStatus();
+        return status == EventConsumerStatus.IDLE || status == EventConsumerStatus.WAITING;
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of the events of a flow, so that the events accepted and not yet
+ * processed survive a restart.
+ * <p>
+ * The journal records the accepted events, the consumer each event has been assigned to, the
+ * events no consumer could serve and the consumers which reached a terminal state. Events of
+ * a terminated consumer are done, even if it failed: a restart resumes the pending work, it
+ * does not retry failures. On startup {@link #recover()} returns the pending events, in order,
+ * so that they can be dispatched again.
+ * <p>
+ * Records are appended to a memory mapped file, each one made of its length, its payload and a
+ * CRC32 of the payload, replay stops at the first incomplete or damaged record. Since the
+ * mapping lives in the page cache a JVM crash loses nothing, the mapping is forced to disk at
+ * most once every sync period to cover operating system crashes. The file is rewritten with the
+ * pending events only when the stale records outnumber them.
+ */
+final class EventJournal {
+
+    private final static Logger LOGGER = Logger.getLogger(EventJournal.class.toString());
+
+    private final static byte ACCEPTED = 1;
+
+    private final static byte ASSIGNED = 2;
+
+    private final static byte DONE = 3;
+
+    private final static byte DROPPED = 4;
+
+    /**
+     * Size of each mapped region of the journal file.
+     */
+    private final static int REGION_SIZE = 1024 * 1024;
+
+    private final static class Entry {
+        private final FileSystemMonitorNotifications notification;
+
+        private String consumer;
+
+        Entry(final FileSystemMonitorNotifications notification) {
+            this.notification = notification;
+        }
+    }
+
+    private final File file;
+
+    private final long syncPeriod;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Pending events by absolute path, in acceptance order.
+     */
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Paths assigned to each running consumer.
+     */
+    private final Map<String, List<String>> assignments = new HashMap<String, List<String>>();
+
+    private RandomAccessFile raf;
+
+    private MappedByteBuffer region;
+
+    /**
+     * Position in the file of the first byte of the mapped region.
+     */
+    private long regionStart;
+
+    private long records;
+
+    private long lastSync;
+
+    private long consumerSequence;
+
+    private boolean recovered;
+
+    /**
+     * Opens a journal, replaying the records it already holds.
+     * 
+     * @param file
+     *            the journal file, created if missing.
+     * @param syncPeriod
+     *            maximum time in milliseconds between two forces of the mapping to disk.
+     */
+    EventJournal(final File file, final long syncPeriod) throws IOException {
+        this.file = file;
+        this.syncPeriod = syncPeriod;
+        this.raf = new RandomAccessFile(file, "rw");
+        final long end = replay();
+        map(end);
+        if (LOGGER.isLoggable(Level.INFO))
+            LOGGER.info("Event journal " + file + " opened with " + pending.size() + " pending events");
+    }
+
+    /**
+     * Returns the events accepted and not done before the journal was opened, the ones whose
+     * file has gone are skipped. Only the first call returns the events, which are expected to
+     * be accepted again: until then they stay pending, unassigned, so that a crash in between
+     * recovers them once more.
+     */
+    synchronized List<FileSystemMonitorEvent> recover() {
+        final List<FileSystemMonitorEvent> events = new ArrayList<FileSystemMonitorEvent>();
+        if (recovered)
+            return events;
+        recovered = true;
+        final Iterator<Map.Entry<String, Entry>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Entry> entry = it.next();
+            final File source = new File(entry.getKey());
+            final FileSystemMonitorNotifications notification = entry.getValue().notification;
+            if ((notification == FileSystemMonitorNotifications.FILE_ADDED
+                    || notification == FileSystemMonitorNotifications.FILE_MODIFIED) && !source.exists()) {
+                if (LOGGER.isLoggable(Level.WARNING))
+                    LOGGER.warning("Not recovering " + notification + " of " + source
+                            + ", the file has gone");
+                it.remove();
+                continue;
+            }
+            // the consumers of the previous run are gone
+            entry.getValue().consumer = null;
+            events.add(new FileSystemMonitorEvent(source, notification));
+        }
+        assignments.clear();
+        // the compacted journal holds the recovered events only
+        compact();
+        return events;
+    }
+
+    /**
+     * @return the files of the events to recover, without forgetting them.
+     */
+    synchronized List<File> getPendingFiles() {
+        final List<File> files = new ArrayList<File>(pending.size());
+        if (!recovered)
+            for (String path : pending.keySet())
+                files.add(new File(path));
+        return files;
+    }
+
+    /**
+     * @return a new consumer identifier, unique within this journal.
+     */
+    synchronized String nextConsumerId() {
+        return Long.toString(System.currentTimeMillis(), 36) + "-" + (consumerSequence++);
+    }
+
+    /**
+     * Records an event accepted by the flow.
+     */
+    synchronized void accepted(final FileSystemMonitorEvent event) {
+        final String path = event.getSource().getAbsolutePath();
+        // re-inserting moves the event at the end
+        pending.remove(path);
+        pending.put(path, new Entry(event.getNotification()));
+        append(ACCEPTED, path, event.getNotification().name());
+    }
+
+    /**
+     * Records an event consumed by a consumer.
+     */
+    synchronized void assigned(final FileSystemMonitorEvent event, final String consumer) {
+        final String path = event.getSource().getAbsolutePath();
+        final Entry entry = pending.get(path);
+        if (entry == null)
+            return;
+        entry.consumer = consumer;
+        List<String> paths = assignments.get(consumer);
+        if (paths == null) {
+            paths = new ArrayList<String>();
+            assignments.put(consumer, paths);
+        }
+        paths.add(path);
+        append(ASSIGNED, path, consumer);
+    }
+
+    /**
+     * Records an event no consumer could serve.
+     */
+    synchronized void dropped(final FileSystemMonitorEvent event) {
+        final String path = event.getSource().getAbsolutePath();
+        if (pending.remove(path) != null)
+            append(DROPPED, path, null);
+    }
+
+    /**
+     * Records a consumer which reached a terminal state, its events are done.
+     */
+    synchronized void done(final String consumer) {
+        if (release(consumer))
+            append(DONE, consumer, null);
+    }
+
+    /**
+     * @return the number of pending events.
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Forces the journal to disk and releases the file.
+     */
+    synchronized void close() {
+        if (raf == null)
+            return;
+        region.force();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+        }
+        raf = null;
+        region = null;
+    }
+
+    private boolean release(final String consumer) {
+        final List<String> paths = assignments.remove(consumer);
+        if (paths == null)
+            return false;
+        for (String path : paths) {
+            final Entry entry = pending.get(path);
+            if (entry != null && consumer.equals(entry.consumer))
+                pending.remove(path);
+        }
+        return true;
+    }
+
+    /**
+     * Reads back the records of the journal file.
+     * 
+     * @return the position of the end of the last valid record.
+     */
+    private long replay() throws IOException {
+        final FileChannel channel = raf.getChannel();
+        final long size = channel.size();
+        if (size == 0)
+            return 0;
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        while (buffer.remaining() >= 4) {
+            final int start = buffer.position();
+            final int length = buffer.getInt();
+            if (length <= 0 || length + 4 > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            final byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                if (LOGGER.isLoggable(Level.WARNING))
+                    LOGGER.warning("Damaged record at " + start + " in " + file + ", dropping the tail");
+                buffer.position(start);
+                break;
+            }
+            apply(ByteBuffer.wrap(payload));
+            records++;
+        }
+        return buffer.position();
+    }
+
+    private void apply(final ByteBuffer payload) throws UnsupportedEncodingException {
+        final byte type = payload.get();
+        final String first = readString(payload);
+        final String second = payload.hasRemaining() ? readString(payload) : null;
+        switch (type) {
+        case ACCEPTED:
+            pending.remove(first);
+            try {
+                pending.put(first, new Entry(FileSystemMonitorNotifications.valueOf(second)));
+            } catch (IllegalArgumentException e) {
+                // unknown notification, skip it
+            }
+            break;
+        case ASSIGNED:
+            final Entry entry = pending.get(first);
+            if (entry != null) {
+                entry.consumer = second;
+                List<String> paths = assignments.get(second);
+                if (paths == null) {
+                    paths = new ArrayList<String>();
+                    assignments.put(second, paths);
+                }
+                paths.add(first);
+            }
+            break;
+        case DONE:
+            release(first);
+            break;
+        case DROPPED:
+            pending.remove(first);
+            break;
+        }
+    }
+
+    private void append(final byte type, final String first, final String second) {
+        if (raf == null)
+            return;
+        try {
+            final byte[] record = encode(type, first, second);
+            if (region.remaining() < record.length) {
+                // the memory state already holds this record, so does the rewritten journal
+                if (records > 2 * pending.size() + 1000 && compact())
+                    return;
+                if (raf == null)
+                    return;
+                // not compacted, keep appending to the current journal
+                if (region.remaining() < record.length)
+                    map(regionStart + region.position());
+            }
+            region.put(record);
+            records++;
+
+            final long now = System.currentTimeMillis();
+            if (now - lastSync >= syncPeriod) {
+                region.force();
+                lastSync = now;
+            }
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.SEVERE))
+                LOGGER.log(Level.SEVERE, "Unable to write to the event journal " + file + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * @return the record made of length, payload and CRC32 of the payload.
+     */
+    private byte[] encode(final byte type, final String first, final String second)
+            throws UnsupportedEncodingException {
+        final byte[] firstBytes = first.getBytes("UTF-8");
+        final byte[] secondBytes = second != null ? second.getBytes("UTF-8") : null;
+        final int length = 1 + 4 + firstBytes.length + (secondBytes != null ? 4 + secondBytes.length : 0);
+        final ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+        record.putInt(length);
+        record.put(type);
+        record.putInt(firstBytes.length);
+        record.put(firstBytes);
+        if (secondBytes != null) {
+            record.putInt(secondBytes.length);
+            record.put(secondBytes);
+        }
+        crc.reset();
+        crc.update(record.array(), 4, length);
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Maps a new region of the journal file starting at the provided position.
+     */
+    private void map(final long position) throws IOException {
+        if (region != null)
+            region.force();
+        regionStart = position;
+        region = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE);
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Rewrites the journal file with the pending events only, then maps it again.
+     * <p>
+     * If the journal file cannot be replaced, e.g. because the platform does not delete a file
+     * which is still mapped, the current journal file is kept and mapped again at the end of
+     * its records: it lacks none of the records written so far.
+     * 
+     * @return <code>true</code> if the journal file has been rewritten and holds the whole
+     *         memory state.
+     */
+    private boolean compact() {
+        if (raf == null)
+            return false;
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        long compactedRecords = 0;
+        try {
+            region.force();
+            final RandomAccessFile out = new RandomAccessFile(temp, "rw");
+            try {
+                out.setLength(0);
+                for (Map.Entry<String, Entry> entry : pending.entrySet()) {
+                    out.write(encode(ACCEPTED, entry.getKey(), entry.getValue().notification.name()));
+                    compactedRecords++;
+                    if (entry.getValue().consumer != null) {
+                        out.write(encode(ASSIGNED, entry.getKey(), entry.getValue().consumer));
+                        compactedRecords++;
+                    }
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.SEVERE))
+                LOGGER.log(Level.SEVERE, "Unable to compact the event journal " + file + ": "
+                        + e.getLocalizedMessage(), e);
+            temp.delete();
+            return false;
+        }
+
+        // release the journal file to replace it
+        final long end = regionStart + region.position();
+        region = null;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+        }
+        raf = null;
+        boolean replaced = (file.delete() || !file.exists()) && temp.renameTo(file);
+        if (!replaced) {
+            if (!file.exists()) {
+                // the current journal is gone, the compacted one is the only copy left
+                replaced = temp.renameTo(file);
+            } else {
+                temp.delete();
+            }
+            if (LOGGER.isLoggable(Level.SEVERE))
+                LOGGER.severe("Unable to replace the event journal " + file + " with " + temp
+                        + (replaced ? ", replaced at the second attempt" : ", keeping it"));
+        }
+
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (replaced) {
+                records = compactedRecords;
+                map(raf.length());
+            } else {
+                // a journal file lost by the failed replacement starts over
+                map(raf.length() >= end ? end : 0);
+            }
+            return replaced;
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.SEVERE))
+                LOGGER.log(Level.SEVERE, "Unable to reopen the event journal " + file
+                        + ", journaling is disabled: " + e.getLocalizedMessage(), e);
+            raf = null;
+            region = null;
+            return false;
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) throws UnsupportedEncodingException {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Assigns the events of a flow to its dispatcher lanes.
+ * <p>
+ * A consumer accepts the files whose base name starts with the common prefix it captured on
+ * its first event, i.e. with the base name of that event. Files which may end up in the same
+ * consumer must therefore be dispatched by the same lane: a base name is routed to the lane of
+ * any live base name it starts with or which starts with it, only unrelated base names are
+ * spread among the lanes by hash.
+ * <p>
+ * A base name is live while events with that base name are being dispatched or consumers with
+ * that common prefix are waiting for events: the dispatcher notifies the end of each dispatch
+ * through {@link #dispatched(String)} and the {@link EventConsumerIndex} the consumers it
+ * indexes and removes.
+ * <p>
+ * This class is thread safe.
+ */
+final class EventLaneRouter {
+
+    private final static class Route {
+        private final int lane;
+
+        /**
+         * Number of events with this base name routed and not yet dispatched.
+         */
+        private int pending;
+
+        /**
+         * Number of waiting consumers with this common prefix.
+         */
+        private int consumers;
+
+        private Route(final int lane) {
+            this.lane = lane;
+        }
+    }
+
+    private final SortedMap<String, Route> routes = new TreeMap<String, Route>();
+
+    private final int lanes;
+
+    /**
+     * @param lanes
+     *            the number of dispatcher lanes.
+     */
+    EventLaneRouter(final int lanes) {
+        if (lanes < 1)
+            throw new IllegalArgumentException("Invalid number of lanes: " + lanes);
+        this.lanes = lanes;
+    }
+
+    /**
+     * Routes an event, which is pending until {@link #dispatched(String)} is called.
+     *
+     * @param baseName
+     *            the base name of the event file.
+     * @return the lane dispatching the event.
+     */
+    synchronized int route(final String baseName) {
+        Route route = routes.get(baseName);
+        if (route == null) {
+            route = new Route(laneOf(baseName));
+            routes.put(baseName, route);
+        }
+        route.pending++;
+        return route.lane;
+    }
+
+    /**
+     * Notifies that an event routed through {@link #route(String)} has been dispatched.
+     */
+    synchronized void dispatched(final String baseName) {
+        final Route route = routes.get(baseName);
+        if (route == null)
+            return;
+        route.pending--;
+        purge(baseName, route);
+    }
+
+    /**
+     * Notifies that a consumer with the provided common prefix is waiting for events.
+     */
+    synchronized void consumerAdded(final String prefix) {
+        Route route = routes.get(prefix);
+        if (route == null) {
+            route = new Route(laneOf(prefix));
+            routes.put(prefix, route);
+        }
+        route.consumers++;
+    }
+
+    /**
+     * Notifies that a consumer with the provided common prefix is no more waiting for events.
+     */
+    synchronized void consumerRemoved(final String prefix) {
+        final Route route = routes.get(prefix);
+        if (route == null)
+            return;
+        route.consumers--;
+        purge(prefix, route);
+    }
+
+    /**
+     * @return the number of live base names.
+     */
+    synchronized int size() {
+        return routes.size();
+    }
+
+    /**
+     * Selects the lane of a base name which is not live yet.
+     */
+    private int laneOf(final String baseName) {
+        // the consumers of the base names it starts with may accept it
+        for (int i = 0; i < baseName.length(); i++) {
+            final Route route = routes.get(baseName.substring(0, i));
+            if (route != null)
+                return route.lane;
+        }
+        // and its consumers may accept the base names starting with it
+        final SortedMap<String, Route> tail = routes.tailMap(baseName);
+        if (!tail.isEmpty() && tail.firstKey().startsWith(baseName))
+            return tail.get(tail.firstKey()).lane;
+        return (baseName.hashCode() & 0x7fffffff) % lanes;
+    }
+
+    private void purge(final String baseName, final Route route) {
+        if (route.pending <= 0 && route.consumers <= 0)
+            routes.remove(baseName);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.geobatch.configuration.flow.file.EventMailBoxPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded mailbox of a dispatcher lane.
+ * <p>
+ * When the mailbox is full the {@link EventMailBoxPolicy} decides what happens: the producer
+ * either blocks, spills the event to a file or, with {@link EventMailBoxPolicy#CALLER_RUNS},
+ * gets <code>false</code> back from {@link #put(FileSystemMonitorEvent)} and is in charge of
+ * dispatching the event itself.
+ * <p>
+ * Spilled events keep their order: as long as the spill file holds events, new events are
+ * appended to it and the dispatcher moves them back to memory as soon as the queue drains. When
+ * an event cannot be spilled the producer waits for the spilled events to be moved back before
+ * blocking on the queue. Only file and notification are spilled, events read back get a new
+ * timestamp.
+ */
+final class EventMailBox {
+
+    private final static Logger LOGGER = Logger.getLogger(EventMailBox.class.toString());
+
+    private final BlockingQueue<FileSystemMonitorEvent> queue;
+
+    private final EventMailBoxPolicy policy;
+
+    private final File spillFile;
+
+    /**
+     * Guards the spill file and its positions.
+     */
+    private final Object spillLock = new Object();
+
+    private RandomAccessFile spill;
+
+    private long readPosition;
+
+    private long writePosition;
+
+    /**
+     * Number of events currently in the spill file.
+     */
+    private volatile int pending;
+
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            maximum number of events kept in memory.
+     * @param policy
+     *            what to do when the mailbox is full.
+     * @param spillFile
+     *            the file used by the {@link EventMailBoxPolicy#SPILL} policy, created on
+     *            demand.
+     */
+    EventMailBox(final int capacity, final EventMailBoxPolicy policy, final File spillFile) {
+        this.queue = new ArrayBlockingQueue<FileSystemMonitorEvent>(capacity);
+        this.policy = policy;
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * Delivers an event to this mailbox.
+     *
+     * @return <code>false</code> if the event has not been accepted because the mailbox is full
+     *         and the policy is {@link EventMailBoxPolicy#CALLER_RUNS}.
+     * @throws InterruptedException
+     *             if interrupted while waiting for room in the mailbox.
+     */
+    boolean put(final FileSystemMonitorEvent event) throws InterruptedException {
+        switch (policy) {
+        case CALLER_RUNS:
+            return queue.offer(event);
+        case SPILL:
+            synchronized (spillLock) {
+                if (pending == 0 && queue.offer(event))
+                    return true;
+                try {
+                    spill(event);
+                    return true;
+                } catch (IOException e) {
+                    if (LOGGER.isLoggable(Level.SEVERE))
+                        LOGGER.log(Level.SEVERE, "Unable to spill " + event + " to " + spillFile
+                                + ", blocking: " + e.getLocalizedMessage(), e);
+                }
+                // the spilled events go first
+                while (pending > 0)
+                    spillLock.wait();
+            }
+            // fall back to blocking, outside the spill lock
+            queue.put(event);
+            return true;
+        default:
+            queue.put(event);
+            return true;
+        }
+    }
+
+    /**
+     * Retrieves the next event, waiting up to the provided time if none is available.
+     *
+     * @return the next event or <code>null</code> if the timeout elapsed.
+     */
+    FileSystemMonitorEvent poll(final long timeout) throws InterruptedException {
+        FileSystemMonitorEvent event = poll();
+        if (event == null)
+            event = queue.poll(timeout, TimeUnit.MILLISECONDS);
+        return event;
+    }
+
+    /**
+     * Retrieves the next event without waiting.
+     *
+     * @return the next event or <code>null</code> if the mailbox is empty.
+     */
+    FileSystemMonitorEvent poll() {
+        final FileSystemMonitorEvent event = queue.poll();
+        if (event != null || pending == 0)
+            return event;
+        refill();
+        return queue.poll();
+    }
+
+    /**
+     * @return the number of events waiting in memory and on disk.
+     */
+    int getDepth() {
+        return queue.size() + pending;
+    }
+
+    /**
+     * @return the number of events spilled to disk so far.
+     */
+    long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * Releases the spill file, spilled events not yet dispatched are lost.
+     */
+    void close() {
+        synchronized (spillLock) {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    if (LOGGER.isLoggable(Level.FINE))
+                        LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+                }
+                spill = null;
+                if (pending > 0 && LOGGER.isLoggable(Level.WARNING))
+                    LOGGER.warning("Discarding " + pending + " spilled events in " + spillFile);
+                pending = 0;
+                readPosition = writePosition = 0;
+                spillFile.delete();
+                spillLock.notifyAll();
+            }
+        }
+    }
+
+    private void spill(final FileSystemMonitorEvent event) throws IOException {
+        if (spill == null)
+            spill = new RandomAccessFile(spillFile, "rw");
+        spill.seek(writePosition);
+        spill.writeUTF(event.getSource().getAbsolutePath());
+        spill.writeUTF(event.getNotification().name());
+        writePosition = spill.getFilePointer();
+        pending++;
+        spilledCount.incrementAndGet();
+    }
+
+    /**
+     * Moves as many spilled events as possible back to the queue.
+     */
+    private void refill() {
+        synchronized (spillLock) {
+            try {
+                while (pending > 0 && queue.remainingCapacity() > 0) {
+                    spill.seek(readPosition);
+                    final File file = new File(spill.readUTF());
+                    final FileSystemMonitorNotifications notification = FileSystemMonitorNotifications.valueOf(spill.readUTF());
+                    readPosition = spill.getFilePointer();
+                    pending--;
+                    queue.offer(new FileSystemMonitorEvent(file, notification));
+                }
+                if (pending == 0) {
+                    spill.setLength(0);
+                    readPosition = writePosition = 0;
+                }
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.SEVERE))
+                    LOGGER.log(Level.SEVERE, "Unable to read spilled events from " + spillFile + ", "
+                            + pending + " events are lost: " + e.getLocalizedMessage(), e);
+                pending = 0;
+                readPosition = writePosition = 0;
+            }
+            // wake the producers which could not spill
+            if (pending == 0)
+                spillLock.notifyAll();
+        }
+    }
+}
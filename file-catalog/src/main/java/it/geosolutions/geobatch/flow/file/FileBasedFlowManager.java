@@ -31,33 +31,46 @@ import it.geosolutions.geobatch.catalog.impl.BasePersistentResource;
 import it.geosolutions.geobatch.configuration.event.consumer.EventConsumerConfiguration;
 import it.geosolutions.geobatch.configuration.event.consumer.file.FileBasedEventConsumerConfiguration;
 import it.geosolutions.geobatch.configuration.event.generator.EventGeneratorConfiguration;
+import it.geosolutions.geobatch.configuration.flow.file.EventMailBoxPolicy;
 import it.geosolutions.geobatch.configuration.flow.file.FileBasedFlowConfiguration;
 import it.geosolutions.geobatch.flow.FlowManager;
-import it.geosolutions.geobatch.flow.event.consumer.BaseEventConsumer;
+import it.geosolutions.geobatch.flow.FlowScheduler;
+import it.geosolutions.geobatch.flow.event.action.ActionGraph;
+import it.geosolutions.geobatch.flow.event.action.ActionPool;
 import it.geosolutions.geobatch.flow.event.consumer.EventConsumer;
+import it.geosolutions.geobatch.flow.event.consumer.EventConsumerListener;
 import it.geosolutions.geobatch.flow.event.consumer.EventConsumerStatus;
 import it.geosolutions.geobatch.flow.event.consumer.file.FileBasedEventConsumer;
 import it.geosolutions.geobatch.flow.event.generator.EventGenerator;
 import it.geosolutions.geobatch.flow.event.generator.EventGeneratorService;
-import it.geosolutions.geobatch.flow.event.generator.FlowEventListener;
+import it.geosolutions.geobatch.flow.event.generator.BatchFlowEventListener;
 import it.geosolutions.geobatch.flow.event.generator.file.FileBasedEventGenerator;
 import it.geosolutions.geobatch.global.CatalogHolder;
+import it.geosolutions.geobatch.metrics.Gauge;
+import it.geosolutions.geobatch.metrics.Meter;
+import it.geosolutions.geobatch.metrics.MetricRegistry;
 import it.geosolutions.geobatch.utils.IOUtils;
+import it.geosolutions.geobatch.utils.io.FileDeletionService;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EventObject;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.FilenameUtils;
+
 /**
  * @author Alessio Fabiani, GeoSolutions
  * 
@@ -65,7 +78,7 @@ import java.util.logging.Logger;
 public class FileBasedFlowManager
 		extends BasePersistentResource<FileBasedFlowConfiguration>
         implements	FlowManager<FileSystemMonitorEvent, FileBasedFlowConfiguration>,
-					FlowEventListener<FileSystemMonitorEvent>,
+					BatchFlowEventListener<FileSystemMonitorEvent>,
 					Runnable {
 
 	/** Default Logger **/
@@ -80,12 +93,67 @@ public class FileBasedFlowManager
      */
     private final class EventDispatcher extends Thread {
 
+        /**
+         * The MailBox of this lane
+         */
+        private final EventMailBox eventMailBox;
+
+        /**
+         * Serializes the dispatching between this thread and the callers running it because of a
+         * full mailbox.
+         */
+        private final Object dispatchLock = new Object();
+
+        /**
+         * Waiting consumers, indexed by common prefix.
+         */
+        private final EventConsumerIndex eventConsumers;
+
+        /**
+         * Evicts and expires the consumers of the index.
+         */
+        private final EventConsumerLifecycleManager lifecycle;
+
+        /**
+         * Router of the lanes, <code>null</code> for a single lane.
+         */
+        private final EventLaneRouter router;
+
         // ----------------------------------------------- PUBLIC METHODS
         /**
          * Default Constructor
          */
         public EventDispatcher() {
-            super(new StringBuilder("EventDispatcherThread-").append(FileBasedFlowManager.this.getId()).toString());
+            this(0, new StringBuilder("EventDispatcherThread-").append(FileBasedFlowManager.this.getId()).toString(), null);
+        }
+
+        /**
+         * Constructor for one of the lanes of a partitioned dispatcher.
+         * 
+         * @param lane
+         *            the index of the lane.
+         * @param router
+         *            the router of the lanes.
+         */
+        public EventDispatcher(int lane, EventLaneRouter router) {
+            this(lane, new StringBuilder("EventDispatcherThread-").append(FileBasedFlowManager.this.getId())
+                    .append("-").append(lane).toString(), router);
+        }
+
+        private EventDispatcher(int lane, String name, EventLaneRouter router) {
+            super(name);
+            this.router = router;
+            final FileBasedFlowConfiguration flowConfiguration = FileBasedFlowManager.this.getConfiguration();
+            final FileBasedEventConsumerConfiguration consumerConfiguration =
+                    (FileBasedEventConsumerConfiguration) flowConfiguration.getEventConsumerConfiguration();
+            this.eventConsumers = new EventConsumerIndex(consumerConfiguration != null ? consumerConfiguration.getRuleSet() : null,
+                    router);
+            this.lifecycle = new EventConsumerLifecycleManager(eventConsumers,
+                    flowConfiguration.getConsumerTimeToLive());
+            final int mailBoxSize = flowConfiguration.getEventMailBoxSize() > 0 ? flowConfiguration.getEventMailBoxSize() : 10000;
+            this.eventMailBox = new EventMailBox(mailBoxSize, mailBoxPolicy,
+                    new File(workingDirectory, new StringBuilder(FileBasedFlowManager.this.getId())
+                            .append("-").append(lane).append(".mailbox").toString()));
             setDaemon(true);// shut me down when parent shutdown
             // reset interrupted flag
             interrupted();
@@ -101,6 +169,23 @@ public class FileBasedFlowManager
 
         }
 
+        /**
+         * Delivers an event to this lane, dispatching it in the calling thread when the mailbox
+         * is full and the policy is {@link EventMailBoxPolicy#CALLER_RUNS}.
+         */
+        public void deliver(FileSystemMonitorEvent event) throws InterruptedException {
+            if (eventMailBox.put(event))
+                return;
+
+            synchronized (dispatchLock) {
+                // dispatch what is already queued first, to keep the ordering
+                FileSystemMonitorEvent queued;
+                while ((queued = eventMailBox.poll()) != null)
+                    dispatch(queued);
+                dispatch(event);
+            }
+        }
+
         // ----------------------------------------------- UTILITY METHODS
 
         /**
@@ -111,97 +196,171 @@ public class FileBasedFlowManager
                 if (LOGGER.isLoggable(Level.INFO))
                     LOGGER.info("FileMonitorEventDispatcher is ready to dispatch Events.");
 
+                final long sweepPeriod = lifecycle.getSweepPeriod();
+                long nextSweep = System.currentTimeMillis() + sweepPeriod;
                 while (!isInterrupted()) {
 
                     // //
-                    // waiting for a new event
+                    // waiting for a new event, periodically cleaning up the consumers
                     // //
                 	final FileSystemMonitorEvent event;
                 	try{
-                		event = FileBasedFlowManager.this.eventMailBox.take();
+                		event = eventMailBox.poll(Math.max(1, nextSweep - System.currentTimeMillis()));
                 	}catch (InterruptedException e) {
                 		this.interrupt();
                 		return;
 					}
 
-					if(LOGGER.isLoggable(Level.FINE))
-						LOGGER.fine("FileMonitorEventDispatcher: processing incoming event " + event);
+                    synchronized (dispatchLock) {
+                        final long now = System.currentTimeMillis();
+                        if (now >= nextSweep) {
+                            lifecycle.sweep(now);
+                            evictRuns();
+                            nextSweep = now + sweepPeriod;
+                        }
+                        if (event != null)
+                            dispatch(event);
+                    }
+                }
+            } catch (InterruptedException e) { // may be thrown by the "stop" button on web interface
+                LOGGER.log(Level.SEVERE,  e.getLocalizedMessage(), e);
+            } finally {
+                eventMailBox.close();
+            }
+
+        }
+
+        /**
+         * Dispatches an event routed to this lane. Must be called holding the
+         * {@link #dispatchLock}.
+         */
+        private void dispatch(final FileSystemMonitorEvent event) throws InterruptedException {
+            try {
+                route(event);
+            } finally {
+                if (router != null)
+                    router.dispatched(FilenameUtils.getBaseName(event.getSource().getName()));
+            }
+        }
+
+        /**
+         * Routes an event to a waiting consumer or to a brand new one. Must be called holding the
+         * {@link #dispatchLock}.
+         */
+        private void route(final FileSystemMonitorEvent event) throws InterruptedException {
+			if(LOGGER.isLoggable(Level.FINE))
+				LOGGER.fine("FileMonitorEventDispatcher: processing incoming event " + event);
+
+            final EventJournal journal = FileBasedFlowManager.this.journal;
+            final String fileName = FilenameUtils.getName(event.getSource().getAbsolutePath());
+            if (!eventConsumers.isRoutable(fileName)) {
+                LOGGER.warning("!!! No rule of flow " + FileBasedFlowManager.this.getId() + " matches " + event);
+                if (journal != null)
+                    journal.dropped(event);
+                return;
+            }
+
+            // //
+            // is there any BaseEventConsumer waiting for this particular event?
+            // only the consumers whose common prefix is a prefix of the file are asked.
+            // //
+            boolean eventServed = false;
+            final String filePrefix = FilenameUtils.getBaseName(fileName);
+            for (FileBasedEventConsumer consumer : eventConsumers.candidates(filePrefix)) {
+
+				if(LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Checking consumer " + consumer +" for " + event);
 
+                if (consumer.consume(event)) {
+                    if (journal != null)
+                        journal.assigned(event, consumer.getId());
                     // //
-                    // is there any BaseEventConsumer waiting for this particular event?
+                    // we have found an Event BaseEventConsumer waiting for this event, if
+                    // we have changed state we remove it from the index
                     // //
-                    boolean eventServed = false;
-                    final Iterator<BaseEventConsumer<FileSystemMonitorEvent, FileBasedEventConsumerConfiguration>> it =
-							FileBasedFlowManager.this.eventConsumers.iterator();
-                    while (it.hasNext()) {
-                        final BaseEventConsumer<FileSystemMonitorEvent, FileBasedEventConsumerConfiguration> consumer = it.next();
-
+                    if (consumer.getStatus() == EventConsumerStatus.EXECUTING) {
 						if(LOGGER.isLoggable(Level.FINE))
-							LOGGER.fine("Checking consumer " + consumer +" for " + event);
-
-                        if (consumer.consume(event)) {
-                            // //
-                            // we have found an Event BaseEventConsumer waiting for this event, if
-                            // we have changed state we remove it from the list
-                            // //
-                            if (consumer.getStatus() == EventConsumerStatus.EXECUTING) {
-								if(LOGGER.isLoggable(Level.FINE))
-									LOGGER.fine(event + " was the last needed event for " + consumer);
-                                
-                               
-                                // are we executing? If yes, let's trigger a thread!
-                                FileBasedFlowManager.this.executor.execute(consumer);
-                                
-							} else
-								if(LOGGER.isLoggable(Level.FINE))
-									LOGGER.fine(event + " was consumed by " + consumer);
-                            
-                            //event served
-                            eventServed = true;
-                            break;
-                        }
-                    }
+							LOGGER.fine(event + " was the last needed event for " + consumer);
+                        
+                        lifecycle.release(consumer);
+
+                        // are we executing? If yes, let's trigger a thread!
+                        executeConsumer(consumer);
+                        
+					} else {
+						if(LOGGER.isLoggable(Level.FINE))
+							LOGGER.fine(event + " was consumed by " + consumer);
+						lifecycle.consumed(consumer);
+					}
+                    
+                    //event served
+                    eventServed = true;
+                    break;
+                }
+            }
 
-					if(LOGGER.isLoggable(Level.FINE))
-						LOGGER.fine("FileMonitorEventDispatcher: " + event + (eventServed?"":" not") + " served");
+			if(LOGGER.isLoggable(Level.FINE))
+				LOGGER.fine("FileMonitorEventDispatcher: " + event + (eventServed?"":" not") + " served");
 
-                    if (!eventServed) {
-                        // //
-                        // if no EventConsumer is found, we need to create a new one
-                        // //
-						final FileBasedEventConsumerConfiguration configuration =
-								((FileBasedEventConsumerConfiguration) FileBasedFlowManager.this.getConfiguration().getEventConsumerConfiguration()).clone();
-                        final FileBasedEventConsumer brandNewConsumer =
-								new FileBasedEventConsumer( getCatalog(), configuration);
-
-                        if (brandNewConsumer.consume(event)) {
-                            // //
-                            // We just created a brand new BaseEventConsumer which can handle this event.
-                            // If it needs some other events to complete, we'll put it in the EventConsumers
-							// waiting list.
-                            // //
-                            if ( brandNewConsumer.getStatus() != EventConsumerStatus.EXECUTING) {
-								if(LOGGER.isLoggable(Level.FINE))
-									LOGGER.fine(brandNewConsumer + " created on event " + event);
-								FileBasedFlowManager.this.eventConsumers.add(brandNewConsumer);
-							}
-							else
-								if(LOGGER.isLoggable(Level.FINE))
-									LOGGER.fine(event + " was the only needed event for " + brandNewConsumer);
-
-                            eventServed = true;
-                        } else
-							LOGGER.warning("!!! No consumer could serve " + event + " (neither "+brandNewConsumer+" could)");
-                    }
+            if (!eventServed) {
+                // //
+                // if no EventConsumer is found, we need to create a new one
+                // //
+                // the configuration is shared, consumers only read it and keep their
+                // state (occurrences, events) on their own
+				final FileBasedEventConsumerConfiguration configuration =
+						(FileBasedEventConsumerConfiguration) FileBasedFlowManager.this.getConfiguration().getEventConsumerConfiguration();
+                final FileBasedEventConsumer brandNewConsumer;
+                try {
+                    brandNewConsumer = new FileBasedEventConsumer( getCatalog(), configuration, actionPool);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Unable to create a consumer for " + event + ": " + e.getLocalizedMessage(), e);
+                    if (journal != null)
+                        journal.dropped(event);
+                    return;
+                }
+                for (EventConsumerListener listener : consumerListeners)
+                    brandNewConsumer.addListener(listener);
+                brandNewConsumer.setRunDirectoryManager(runs);
+                brandNewConsumer.setActionExecutor(executor);
+                brandNewConsumer.setMetrics(MetricRegistry.getDefault(), FileBasedFlowManager.this.getId());
+                if (journal != null) {
+                    final String consumerId = journal.nextConsumerId();
+                    brandNewConsumer.setId(consumerId);
+                    brandNewConsumer.addListener(new EventConsumerListener() {
+                        public void statusChanged(EventConsumerStatus oldStatus, EventConsumerStatus newStatus) {
+                            if (newStatus == EventConsumerStatus.COMPLETED || newStatus == EventConsumerStatus.FAILED)
+                                journal.done(consumerId);
+                        }
+                    });
                 }
-            } catch (InterruptedException e) { // may be thrown by the "stop" button on web interface
-                LOGGER.log(Level.SEVERE,  e.getLocalizedMessage(), e);
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE,  e.getLocalizedMessage(), e);
-            } catch (CloneNotSupportedException e) {
-                LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
-			}
 
+                if (brandNewConsumer.consume(event)) {
+                    if (journal != null)
+                        journal.assigned(event, brandNewConsumer.getId());
+                    // //
+                    // We just created a brand new BaseEventConsumer which can handle this event.
+                    // If it needs some other events to complete, we'll put it in the EventConsumers
+					// waiting list.
+                    // //
+                    if ( brandNewConsumer.getStatus() != EventConsumerStatus.EXECUTING) {
+						if(LOGGER.isLoggable(Level.FINE))
+							LOGGER.fine(brandNewConsumer + " created on event " + event);
+						lifecycle.register(brandNewConsumer);
+					}
+					else {
+						if(LOGGER.isLoggable(Level.FINE))
+							LOGGER.fine(event + " was the only needed event for " + brandNewConsumer);
+						executeConsumer(brandNewConsumer);
+					}
+
+                    eventServed = true;
+                } else {
+					LOGGER.warning("!!! No consumer could serve " + event + " (neither "+brandNewConsumer+" could)");
+                    if (journal != null)
+                        journal.dropped(event);
+                }
+            }
         }
     }
 
@@ -228,24 +387,69 @@ public class FileBasedFlowManager
     private boolean termination;
 
     /**
-     * The MailBox
+     * The FileMonitorEventDispatcher lanes, events are partitioned among them by file base name
      */
-    private final BlockingQueue<FileSystemMonitorEvent> eventMailBox = new LinkedBlockingQueue<FileSystemMonitorEvent>();
+    private volatile EventDispatcher[] dispatchers;
 
     /**
-     * The FileMonitorEventDispatcher
+     * EventGenerator
      */
-    private EventDispatcher dispatcher;
+    private EventGenerator eventGenerator;
 
     /**
-     * EventGenerator
+     * Listeners attached to every consumer created by this flow.
      */
-    private EventGenerator eventGenerator;
+    private final List<EventConsumerListener> consumerListeners = new CopyOnWriteArrayList<EventConsumerListener>();
 
-    private final List<BaseEventConsumer<FileSystemMonitorEvent, FileBasedEventConsumerConfiguration>> eventConsumers = new ArrayList<BaseEventConsumer<FileSystemMonitorEvent, FileBasedEventConsumerConfiguration>>();
-    
 	private ThreadPoolExecutor executor;
 
+    /**
+     * What to do when a dispatcher mailbox is full
+     */
+    private EventMailBoxPolicy mailBoxPolicy;
+
+    /**
+     * Number of events and consumers this flow keeps waiting before applying the mailbox policy
+     */
+    private int workQueueSize;
+
+    /**
+     * Number of consumer executions rejected by the saturated executor or scheduler share
+     */
+    private final AtomicLong rejectedExecutions = new AtomicLong();
+
+    /**
+     * Keeps the run directories of the consumers within the configured quotas, <code>null</code>
+     * if no quota is set.
+     */
+    private volatile RunDirectoryManager runs;
+
+    /**
+     * Whether a run eviction is queued or running.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Journal of the pending events, <code>null</code> if journaling is disabled.
+     */
+    private volatile EventJournal journal;
+
+    /**
+     * Share of the node wide scheduler running the consumers, <code>null</code> if no
+     * scheduler is registered in the catalog and the consumers run on the flow executor.
+     */
+    private volatile FlowScheduler.Share share;
+
+    /**
+     * Warm actions shared by the consumers of this flow.
+     */
+    private volatile ActionPool<FileSystemMonitorEvent> actionPool;
+
+    /**
+     * Rate of the events generated for this flow, <code>null</code> until initialized.
+     */
+    private volatile Meter eventRate;
+
     /**
      * @param configuration
      * @throws IOException
@@ -283,8 +487,71 @@ public class FileBasedFlowManager
        final int corePoolSize=configuration.getCorePoolSize()>0?configuration.getCorePoolSize():10;
        final int maximumPoolSize=configuration.getMaximumPoolSize()>0?configuration.getMaximumPoolSize():30;
        final long keepAlive =configuration.getKeepAliveTime()>0?configuration.getKeepAliveTime():15000;
+       this.workQueueSize = queueSize;
        final BlockingQueue<Runnable> queue = new ArrayBlockingQueue(queueSize);
-       this.executor= new ThreadPoolExecutor(corePoolSize,maximumPoolSize,keepAlive,TimeUnit.MILLISECONDS,queue);
+       this.mailBoxPolicy = configuration.getEventMailBoxPolicy() != null ? configuration.getEventMailBoxPolicy() : EventMailBoxPolicy.BLOCK;
+       this.executor= new ThreadPoolExecutor(corePoolSize,maximumPoolSize,keepAlive,TimeUnit.MILLISECONDS,queue,
+               new RejectedExecutionHandler() {
+                   public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                       rejectedExecutions.incrementAndGet();
+                       // the consumer waiting for an action graph branch runs it itself
+                       if (ActionGraph.isBranch(r))
+                           throw new RejectedExecutionException("Executor of flow " + getId() + " is saturated");
+                       if (executor.isShutdown())
+                           throw new RejectedExecutionException("Executor of flow " + getId() + " is shut down");
+                       if (mailBoxPolicy == EventMailBoxPolicy.CALLER_RUNS) {
+                           r.run();
+                           return;
+                       }
+                       // wait for a worker, pushing back on the mailbox
+                       try {
+                           executor.getQueue().put(r);
+                       } catch (InterruptedException e) {
+                           Thread.currentThread().interrupt();
+                           throw new RejectedExecutionException(e);
+                       }
+                   }
+               });
+
+       final FileBasedEventConsumerConfiguration consumerConfiguration =
+               (FileBasedEventConsumerConfiguration) configuration.getEventConsumerConfiguration();
+       // fail early on broken action dependencies
+       if (consumerConfiguration != null)
+           consumerConfiguration.getActionGraph();
+
+       this.runs = null;
+       if (configuration.getMaxRuns() > 0 || configuration.getMaxRunsSize() > 0 || configuration.getMaxRunAge() > 0) {
+           final File runsDirectory = consumerConfiguration != null ? IOUtils.findLocation(
+                   consumerConfiguration.getWorkingDirectory(), new File(baseDir)) : null;
+           if (runsDirectory != null && runsDirectory.isDirectory()) {
+               this.runs = RunDirectoryManager.getInstance(runsDirectory);
+               this.runs.setQuotas(configuration.getMaxRuns(), configuration.getMaxRunsSize(),
+                       configuration.getMaxRunAge());
+           } else if (LOGGER.isLoggable(Level.WARNING))
+               LOGGER.warning("Run quotas of flow " + getId() + " ignored, invalid consumer working dir");
+       }
+
+       if (this.journal != null) {
+           this.journal.close();
+           this.journal = null;
+       }
+       if (configuration.isEventJournal()) {
+           final long syncPeriod = configuration.getEventJournalSyncPeriod() > 0 ? configuration.getEventJournalSyncPeriod() : 1000;
+           this.journal = new EventJournal(new File(workingDirectory, getId() + ".journal"), syncPeriod);
+       }
+
+       if (this.actionPool != null)
+           this.actionPool.dispose();
+       this.actionPool = new ActionPool<FileSystemMonitorEvent>(configuration.getMaxIdleActions() > 0 ? configuration
+               .getMaxIdleActions() : maximumPoolSize);
+
+       final FlowScheduler scheduler = FlowScheduler.lookup(CatalogHolder.getCatalog());
+       if (scheduler != null)
+           this.share = scheduler.register(getId() != null ? getId() : configuration.getId(),
+                   configuration.getSchedulerWeight(), configuration.getSchedulerPriority(),
+                   configuration.getMaxConcurrentConsumers(), queueSize);
+
+       registerMetrics(MetricRegistry.getDefault());
 
        if(this.autorun) {
            if (LOGGER.isLoggable(Level.INFO))
@@ -318,10 +585,21 @@ public class FileBasedFlowManager
         do {
             if (termination) {
                 if (initialized) {
-                    dispatcher.shutdown();
+                    for (EventDispatcher dispatcher : dispatchers)
+                        dispatcher.shutdown();
                     eventGenerator.dispose();
                     initialized = false;
                 }
+                if (journal != null)
+                    journal.close();
+                if (share != null) {
+                    for (Runnable discarded : share.close())
+                        ((FileBasedEventConsumer) discarded).cancel();
+                    share = null;
+                }
+                if (actionPool != null)
+                    actionPool.dispose();
+                MetricRegistry.getDefault().removeAll(MetricRegistry.name("flow", getId()));
 
                 paused = true;
 
@@ -352,8 +630,18 @@ public class FileBasedFlowManager
                 // Initialize objects
                 // //
 
-                this.dispatcher = new EventDispatcher();
-                dispatcher.start();
+                final int lanes = getConfiguration().getDispatcherThreads() > 1 ? getConfiguration().getDispatcherThreads() : 1;
+                final EventDispatcher[] dispatchers = new EventDispatcher[lanes];
+                final EventLaneRouter router = lanes > 1 ? new EventLaneRouter(lanes) : null;
+                if (lanes == 1) {
+                    dispatchers[0] = new EventDispatcher();
+                } else {
+                    for (int i = 0; i < lanes; i++)
+                        dispatchers[i] = new EventDispatcher(i, router);
+                }
+                for (EventDispatcher dispatcher : dispatchers)
+                    dispatcher.start();
+                this.dispatchers = dispatchers;
                 initialized = true;
             }
 
@@ -376,8 +664,17 @@ public class FileBasedFlowManager
                                 	LOGGER.info("EventGeneratorCreationCreated!");
                                 	eventGenerator.addListener(this);
                                 	LOGGER.info("EventGeneratorCreationAdded!");
+                                	// the files of the journaled events must survive the start up clean up
+                                	final EventJournal journal = this.journal;
+                                	if (journal != null && eventGenerator instanceof FileBasedEventGenerator)
+                                		((FileBasedEventGenerator) eventGenerator).retainFiles(journal.getPendingFiles());
+                                	if (eventGenerator instanceof FileBasedEventGenerator)
+                                		((FileBasedEventGenerator) eventGenerator).boundDelivery(workQueueSize,
+                                				mailBoxPolicy == EventMailBoxPolicy.CALLER_RUNS);
                                 	eventGenerator.start();
                                 	LOGGER.info("EventGeneratorCreationStarted!");
+                                	if (journal != null)
+                                		recover(journal);
                                 } else {
                                 	throw new RuntimeException("Error on EventGenerator creations");
                                 }
@@ -503,14 +800,256 @@ public class FileBasedFlowManager
     }
 
     public void eventGenerated(FileSystemMonitorEvent event) {
+        final EventDispatcher[] dispatchers = this.dispatchers;
+        if (dispatchers == null)
+            throw new IllegalStateException("Flow " + getId() + " is not initialized");
+        final EventJournal journal = this.journal;
+        if (journal != null)
+            journal.accepted(event);
+        final Meter eventRate = this.eventRate;
+        if (eventRate != null)
+            eventRate.mark();
+        final EventDispatcher lane = laneOf(dispatchers, event);
         try {
-            this.eventMailBox.put(event);
+            lane.deliver(event);
         } catch (InterruptedException e) {
+            if (lane.router != null)
+                lane.router.dispatched(FilenameUtils.getBaseName(event.getSource().getName()));
             throw new RuntimeException(e);
         }
 
     }
 
+    public void eventsGenerated(List<FileSystemMonitorEvent> events) {
+        for (FileSystemMonitorEvent event : events)
+            eventGenerated(event);
+    }
+
+    /**
+     * Dispatches again the events journaled before the last shutdown and not processed.
+     */
+    private void recover(final EventJournal journal) {
+        final List<FileSystemMonitorEvent> events = journal.recover();
+        if (events.isEmpty())
+            return;
+        if (LOGGER.isLoggable(Level.INFO))
+            LOGGER.info("Flow " + getId() + " recovering " + events.size() + " journaled events");
+        for (FileSystemMonitorEvent event : events)
+            eventGenerated(event);
+    }
+
+    /**
+     * @return the number of journaled events not processed yet, zero if journaling is disabled.
+     */
+    public int getJournaledEventsCount() {
+        final EventJournal journal = this.journal;
+        return journal != null ? journal.size() : 0;
+    }
+
+    /**
+     * @return the pool of the actions of this flow, <code>null</code> if not initialized.
+     */
+    public ActionPool<FileSystemMonitorEvent> getActionPool() {
+        return actionPool;
+    }
+
+    /**
+     * Hands a consumer which collected all its events to the node wide scheduler, if any, or
+     * to the executor. A saturated executor or share never fails the dispatcher: the consumer
+     * is run by the calling thread with the {@link EventMailBoxPolicy#CALLER_RUNS} policy,
+     * otherwise the caller waits for room, see also the rejection handler in
+     * {@link #initialize}.
+     */
+    private void executeConsumer(final FileBasedEventConsumer consumer) {
+        try {
+            final FlowScheduler.Share share = this.share;
+            if (share == null) {
+                executor.execute(consumer);
+            } else if (!share.offer(consumer)) {
+                rejectedExecutions.incrementAndGet();
+                if (mailBoxPolicy == EventMailBoxPolicy.CALLER_RUNS)
+                    consumer.run();
+                else
+                    share.execute(consumer);
+            }
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Unable to execute " + consumer + ": " + e.getLocalizedMessage(), e);
+            consumer.cancel();
+        }
+    }
+
+    /**
+     * Evicts the run directories exceeding the quotas on the executor, the dispatcher never
+     * waits for a directory to be deleted: the eviction is postponed to the next sweep if
+     * the executor is saturated or a previous eviction is still running.
+     */
+    private void evictRuns() {
+        final RunDirectoryManager runs = this.runs;
+        if (runs == null || executor.getQueue().remainingCapacity() == 0
+                || !evicting.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        runs.evict(System.currentTimeMillis());
+                    } finally {
+                        evicting.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            evicting.set(false);
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Run eviction postponed: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * @return the run directories manager of this flow, <code>null</code> if no quota is set.
+     */
+    public RunDirectoryManager getRunDirectoryManager() {
+        return runs;
+    }
+
+    /**
+     * @return the number of events waiting to be dispatched, in memory and spilled to disk.
+     */
+    public int getEventMailBoxDepth() {
+        final EventDispatcher[] dispatchers = this.dispatchers;
+        int depth = 0;
+        if (dispatchers != null)
+            for (EventDispatcher dispatcher : dispatchers)
+                depth += dispatcher.eventMailBox.getDepth();
+        return depth;
+    }
+
+    /**
+     * @return the number of events spilled to disk by the running dispatchers.
+     */
+    public long getSpilledEventsCount() {
+        final EventDispatcher[] dispatchers = this.dispatchers;
+        long count = 0;
+        if (dispatchers != null)
+            for (EventDispatcher dispatcher : dispatchers)
+                count += dispatcher.eventMailBox.getSpilledCount();
+        return count;
+    }
+
+    /**
+     * @return the number of consumer executions rejected by the saturated executor or
+     *         scheduler share.
+     */
+    public long getRejectedExecutionsCount() {
+        return rejectedExecutions.get();
+    }
+
+    /**
+     * Publishes the event rate and the queue gauges of this flow under
+     * <code>flow.&lt;flowId&gt;</code>, the consumers add their own timings.
+     */
+    private void registerMetrics(final MetricRegistry metrics) {
+        final String flow = getId();
+        this.eventRate = metrics.meter(MetricRegistry.name("flow", flow, "events"));
+        metrics.register(MetricRegistry.name("flow", flow, "mailbox", "depth"), new Gauge() {
+            public Number getValue() {
+                return Integer.valueOf(getEventMailBoxDepth());
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "mailbox", "spilled"), new Gauge() {
+            public Number getValue() {
+                return Long.valueOf(getSpilledEventsCount());
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "executor", "queue"), new Gauge() {
+            public Number getValue() {
+                // consumers waiting for a worker, of the executor or of the scheduler share
+                final FlowScheduler.Share share = FileBasedFlowManager.this.share;
+                return Integer.valueOf(executor.getQueue().size() + (share != null ? share.getQueuedCount() : 0));
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "executor", "active"), new Gauge() {
+            public Number getValue() {
+                return Integer.valueOf(executor.getActiveCount());
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "executor", "threads"), new Gauge() {
+            public Number getValue() {
+                return Integer.valueOf(executor.getPoolSize());
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "executor", "rejected"), new Gauge() {
+            public Number getValue() {
+                return Long.valueOf(getRejectedExecutionsCount());
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "scheduler", "queued"), new Gauge() {
+            public Number getValue() {
+                final FlowScheduler.Share share = FileBasedFlowManager.this.share;
+                return Integer.valueOf(share != null ? share.getQueuedCount() : 0);
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "scheduler", "running"), new Gauge() {
+            public Number getValue() {
+                final FlowScheduler.Share share = FileBasedFlowManager.this.share;
+                return Integer.valueOf(share != null ? share.getRunningCount() : 0);
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "journal", "size"), new Gauge() {
+            public Number getValue() {
+                return Integer.valueOf(getJournaledEventsCount());
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "runs", "count"), new Gauge() {
+            public Number getValue() {
+                final RunDirectoryManager runs = FileBasedFlowManager.this.runs;
+                return Integer.valueOf(runs != null ? runs.getCount() : 0);
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "runs", "size"), new Gauge() {
+            public Number getValue() {
+                final RunDirectoryManager runs = FileBasedFlowManager.this.runs;
+                return Long.valueOf(runs != null ? runs.getSize() : 0);
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "actions", "created"), new Gauge() {
+            public Number getValue() {
+                final ActionPool<FileSystemMonitorEvent> pool = actionPool;
+                return Long.valueOf(pool != null ? pool.getCreatedCount() : 0);
+            }
+        });
+        metrics.register(MetricRegistry.name("flow", flow, "actions", "reused"), new Gauge() {
+            public Number getValue() {
+                final ActionPool<FileSystemMonitorEvent> pool = actionPool;
+                return Long.valueOf(pool != null ? pool.getReusedCount() : 0);
+            }
+        });
+        // the deletion service is shared by all the flows, its gauges outlive any of them
+        metrics.register(MetricRegistry.name("deletions", "pending"), new Gauge() {
+            public Number getValue() {
+                return Integer.valueOf(FileDeletionService.getDefault().getPendingCount());
+            }
+        });
+        metrics.register(MetricRegistry.name("deletions", "failed"), new Gauge() {
+            public Number getValue() {
+                return Long.valueOf(FileDeletionService.getDefault().getFailedCount());
+            }
+        });
+    }
+
+    /**
+     * Selects the dispatcher lane for the provided event. Events are partitioned by file base
+     * name, the files whose base names start one with the other, which may be consumed
+     * together, are dispatched in order by the same lane, see {@link EventLaneRouter}.
+     */
+    private EventDispatcher laneOf(final EventDispatcher[] dispatchers, final FileSystemMonitorEvent event) {
+        // the router of the very lanes, which may be replaced by a restart
+        final EventLaneRouter router = dispatchers[0].router;
+        if (router == null)
+            return dispatchers[0];
+        return dispatchers[router.route(FilenameUtils.getBaseName(event.getSource().getName()))];
+    }
+
     public synchronized void setConfiguration(FileBasedFlowConfiguration configuration) {
         super.setConfiguration(configuration);
         try {
@@ -543,9 +1082,32 @@ public class FileBasedFlowManager
 		this.autorun = autorun;
 	}
 
+	/**
+	 * @return the consumers currently waiting for events, least recently active first.
+	 */
+	@SuppressWarnings("unchecked")
 	public <EC extends EventConsumerConfiguration> List<EventConsumer<FileSystemMonitorEvent, EC>> getEventConsumers() {
-		// TODO Auto-generated method stub
-		return null;
+		final List<EventConsumer<FileSystemMonitorEvent, EC>> result = new ArrayList<EventConsumer<FileSystemMonitorEvent, EC>>();
+		final EventDispatcher[] dispatchers = this.dispatchers;
+		if (dispatchers != null) {
+			for (EventDispatcher dispatcher : dispatchers)
+				for (FileBasedEventConsumer consumer : dispatcher.lifecycle.getConsumers())
+					result.add((EventConsumer<FileSystemMonitorEvent, EC>) (EventConsumer<FileSystemMonitorEvent, ?>) consumer);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a listener which will be attached to every consumer created from now on, in order
+	 * to be notified of their status changes, expiration included.
+	 */
+	public void addEventConsumerListener(EventConsumerListener listener) {
+		if (!consumerListeners.contains(listener))
+			consumerListeners.add(listener);
+	}
+
+	public void removeEventConsumerListener(EventConsumerListener listener) {
+		consumerListeners.remove(listener);
 	}
 
 
@@ -0,0 +1,414 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.geobatch.utils.io.FileDeletionService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the run directories a consumer creates in its working directory within a count, size
+ * and age quota, evicting the least recently used ones first.
+ * <p>
+ * Runs are registered when created and stay protected until released, protected runs count
+ * against the quotas but are never evicted. The size of a run is measured once, when it is
+ * released.
+ * <p>
+ * The runs are kept in memory and appended to an index file in the working directory, so that
+ * a cleanup pass never lists the tree. The working directory is only scanned when the index
+ * file does not exist yet, to pick up the runs left by previous versions. The file is compacted
+ * on load and whenever the stale lines outnumber the live runs.
+ * <p>
+ * Flows sharing a working directory share the same instance and the last configured quotas.
+ */
+public final class RunDirectoryManager {
+
+    private final static Logger LOGGER = Logger.getLogger(RunDirectoryManager.class.toString());
+
+    /**
+     * Name of the index file, in the working directory.
+     */
+    public final static String INDEX_NAME = ".runs";
+
+    /**
+     * Names of the run directories, see the consumer date format.
+     */
+    private final static Pattern RUN_NAME = Pattern.compile("\\d{8}T\\d{9}.*");
+
+    private final static Map<File, RunDirectoryManager> INSTANCES = new HashMap<File, RunDirectoryManager>();
+
+    private final static class Run {
+        private final String name;
+
+        private long size;
+
+        private long lastAccess;
+
+        private boolean protect;
+
+        Run(final String name, final long size, final long lastAccess, final boolean protect) {
+            this.name = name;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.protect = protect;
+        }
+    }
+
+    private final static Comparator<Run> ACCESS_ORDER = new Comparator<Run>() {
+        public int compare(Run o1, Run o2) {
+            return o1.lastAccess < o2.lastAccess ? -1 : (o1.lastAccess == o2.lastAccess ? 0 : 1);
+        }
+    };
+
+    private final File directory;
+
+    private final File indexFile;
+
+    /**
+     * Runs by name, least recently used first.
+     */
+    private final LinkedHashMap<String, Run> runs = new LinkedHashMap<String, Run>(16, 0.75f, true);
+
+    private long size;
+
+    private int lines;
+
+    private long evictedCount;
+
+    private int maxCount;
+
+    private long maxSize;
+
+    private long maxAge;
+
+    /**
+     * Package private for the tests, see {@link #getInstance(File)}.
+     */
+    RunDirectoryManager(final File directory) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_NAME);
+        if (indexFile.isFile())
+            load();
+        else
+            scan();
+    }
+
+    /**
+     * @return the manager of the runs in the provided working directory, shared by all the
+     *         callers.
+     */
+    public static RunDirectoryManager getInstance(final File directory) {
+        final File key = directory.getAbsoluteFile();
+        synchronized (INSTANCES) {
+            RunDirectoryManager manager = INSTANCES.get(key);
+            if (manager == null) {
+                manager = new RunDirectoryManager(key);
+                INSTANCES.put(key, manager);
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * Sets the quotas, zero or negative values disable the corresponding check.
+     * 
+     * @param maxCount
+     *            maximum number of runs.
+     * @param maxSize
+     *            maximum size of all the runs, in bytes.
+     * @param maxAge
+     *            maximum time in milliseconds since a run was last used.
+     */
+    public synchronized void setQuotas(final int maxCount, final long maxSize, final long maxAge) {
+        this.maxCount = maxCount > 0 ? maxCount : 0;
+        this.maxSize = maxSize > 0 ? maxSize : 0;
+        this.maxAge = maxAge > 0 ? maxAge : 0;
+    }
+
+    /**
+     * Starts tracking a run which is about to be filled, it is protected until
+     * {@link #release(File)} is called.
+     */
+    public synchronized void register(final File run) {
+        final long now = System.currentTimeMillis();
+        final Run entry = new Run(run.getName(), 0, now, true);
+        final Run previous = runs.put(entry.name, entry);
+        if (previous != null)
+            size -= previous.size;
+        append("R\t" + entry.name + "\t" + now);
+    }
+
+    /**
+     * Measures a run which is done and makes it evictable.
+     */
+    public void release(final File run) {
+        final long runSize = sizeOf(run);
+        synchronized (this) {
+            final Run entry = runs.get(run.getName());
+            if (entry == null)
+                return;
+            size += runSize - entry.size;
+            entry.size = runSize;
+            entry.protect = false;
+            entry.lastAccess = System.currentTimeMillis();
+            append(entry);
+        }
+    }
+
+    /**
+     * Marks a run as recently used, moving it to the end of the eviction order.
+     */
+    public synchronized void touch(final File run) {
+        final Run entry = runs.get(run.getName());
+        if (entry == null)
+            return;
+        entry.lastAccess = System.currentTimeMillis();
+        if (!entry.protect)
+            append(entry);
+    }
+
+    /**
+     * Evicts the unprotected runs older than the age quota, then the least recently used ones
+     * until the count and size quotas are met. The directories are deleted on the calling
+     * thread, files which cannot be deleted are handed to the {@link FileDeletionService}.
+     * 
+     * @param now
+     *            current time in milliseconds.
+     * @return the number of evicted runs.
+     */
+    public int evict(final long now) {
+        final List<String> evicted = new ArrayList<String>();
+        synchronized (this) {
+            if (maxCount == 0 && maxSize == 0 && maxAge == 0)
+                return 0;
+            int count = runs.size();
+            final Iterator<Run> it = runs.values().iterator();
+            while (it.hasNext()) {
+                final Run entry = it.next();
+                if (entry.protect)
+                    continue;
+                final boolean expired = maxAge > 0 && now - entry.lastAccess > maxAge;
+                final boolean overQuota = (maxCount > 0 && count > maxCount) || (maxSize > 0 && size > maxSize);
+                // the remaining runs are more recent
+                if (!expired && !overQuota)
+                    break;
+                it.remove();
+                count--;
+                size -= entry.size;
+                evicted.add(entry.name);
+                append("E\t" + entry.name);
+            }
+            evictedCount += evicted.size();
+            if (lines > 2 * runs.size() + 1000)
+                compact();
+        }
+
+        for (String name : evicted) {
+            if (LOGGER.isLoggable(Level.INFO))
+                LOGGER.info("Evicting run " + name + " from " + directory);
+            delete(new File(directory, name));
+        }
+        return evicted.size();
+    }
+
+    /**
+     * @return the number of tracked runs.
+     */
+    public synchronized int getCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return the size of the released runs, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of runs evicted so far.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Reads back the index, runs left protected by a previous execution are measured and
+     * released.
+     */
+    private void load() {
+        final Map<String, Run> loaded = new HashMap<String, Run>();
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(indexFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split("\t");
+                    try {
+                        if (fields[0].equals("R") && fields.length == 3)
+                            loaded.put(fields[1], new Run(fields[1], 0, Long.parseLong(fields[2]), true));
+                        else if (fields[0].equals("C") && fields.length == 4)
+                            loaded.put(fields[1], new Run(fields[1], Long.parseLong(fields[2]),
+                                    Long.parseLong(fields[3]), false));
+                        else if (fields[0].equals("E") && fields.length == 2)
+                            loaded.remove(fields[1]);
+                    } catch (NumberFormatException e) {
+                        // damaged line, skip it
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Unable to read the run index " + indexFile + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+
+        final List<Run> entries = new ArrayList<Run>(loaded.values());
+        Collections.sort(entries, ACCESS_ORDER);
+        for (Run entry : entries) {
+            final File run = new File(directory, entry.name);
+            if (!run.isDirectory())
+                continue;
+            if (entry.protect) {
+                entry.size = sizeOf(run);
+                entry.protect = false;
+            }
+            runs.put(entry.name, entry);
+            size += entry.size;
+        }
+        compact();
+    }
+
+    /**
+     * Builds the index from the run directories found in the working directory.
+     */
+    private void scan() {
+        final File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        final List<Run> entries = new ArrayList<Run>();
+        for (File file : files)
+            if (file.isDirectory() && RUN_NAME.matcher(file.getName()).matches())
+                entries.add(new Run(file.getName(), sizeOf(file), file.lastModified(), false));
+        Collections.sort(entries, ACCESS_ORDER);
+        for (Run entry : entries) {
+            runs.put(entry.name, entry);
+            size += entry.size;
+        }
+        compact();
+    }
+
+    /**
+     * Rewrites the index file with the tracked runs only.
+     */
+    private void compact() {
+        final File temp = new File(directory, INDEX_NAME + ".tmp");
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            try {
+                for (Run entry : runs.values())
+                    writer.write(line(entry));
+            } finally {
+                writer.close();
+            }
+            if (!indexFile.delete() && indexFile.exists() || !temp.renameTo(indexFile))
+                throw new IOException("Unable to replace " + indexFile);
+            lines = runs.size();
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Unable to compact the run index " + indexFile + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+    }
+
+    private void append(final Run entry) {
+        final String line = line(entry);
+        append(line.substring(0, line.length() - 1));
+    }
+
+    private void append(final String line) {
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile, true), "UTF-8");
+            try {
+                writer.write(line);
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+            lines++;
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Unable to update the run index " + indexFile + ": "
+                        + e.getLocalizedMessage(), e);
+        }
+    }
+
+    private static String line(final Run entry) {
+        if (entry.protect)
+            return "R\t" + entry.name + "\t" + entry.lastAccess + "\n";
+        return "C\t" + entry.name + "\t" + entry.size + "\t" + entry.lastAccess + "\n";
+    }
+
+    private static long sizeOf(final File file) {
+        if (!file.isDirectory())
+            return file.length();
+        final File[] files = file.listFiles();
+        long size = 0;
+        if (files != null)
+            for (File child : files)
+                size += sizeOf(child);
+        return size;
+    }
+
+    private static void delete(final File file) {
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files != null)
+                for (File child : files)
+                    delete(child);
+        }
+        if (!file.delete() && file.exists())
+            FileDeletionService.getDefault().delete(file);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.geobatch.catalog.Catalog;
+import it.geosolutions.geobatch.catalog.file.FileBaseCatalog;
+import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+import it.geosolutions.geobatch.configuration.event.consumer.file.FileBasedEventConsumerConfiguration;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileBasedEventConsumer;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRule;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRuleSet;
+import it.geosolutions.geobatch.global.CatalogHolder;
+import it.geosolutions.geobatch.utils.io.TestDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventConsumerIndexTest {
+
+    private abstract static class TestCatalogHolder extends CatalogHolder {
+        private static void set(final Catalog catalog) {
+            setCatalog(catalog);
+        }
+    }
+
+    private File directory;
+
+    private Catalog catalog;
+
+    private Catalog previous;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("index");
+        catalog = (Catalog) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FileBaseCatalog.class }, new InvocationHandler() {
+                    // an empty catalog in the temporary directory
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getBaseDirectory"))
+                            return directory.getAbsolutePath();
+                        return method.getReturnType() == List.class ? Collections.emptyList() : null;
+                    }
+                });
+        previous = CatalogHolder.getCatalog();
+        TestCatalogHolder.set(catalog);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestCatalogHolder.set(previous);
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        final EventConsumerIndex index = new EventConsumerIndex(null);
+        Assert.assertTrue(index.candidates("abc").isEmpty());
+
+        final FileBasedEventConsumer abc = consumer("abc");
+        final FileBasedEventConsumer ab = consumer("ab");
+        final FileBasedEventConsumer xyz = consumer("xyz");
+        final FileBasedEventConsumer abc2 = consumer("abc");
+        index.add(abc);
+        index.add(ab);
+        index.add(xyz);
+        index.add(abc2);
+        Assert.assertEquals(4, index.size());
+
+        // every consumer whose prefix starts the name, oldest first
+        Assert.assertEquals(Arrays.asList(abc, ab, abc2), index.candidates("abcdef"));
+        Assert.assertEquals(Arrays.asList(abc, ab, abc2), index.candidates("abc"));
+        Assert.assertEquals(Collections.singletonList(ab), index.candidates("ab"));
+        Assert.assertEquals(Collections.singletonList(xyz), index.candidates("xyz_1"));
+        Assert.assertTrue(index.candidates("a").isEmpty());
+        Assert.assertTrue(index.candidates("other").isEmpty());
+
+        // a consumer without prefix yet is a candidate for any file
+        final FileBasedEventConsumer fresh = consumer(null);
+        index.add(fresh);
+        Assert.assertEquals(Arrays.asList(abc, ab, abc2, fresh), index.candidates("abcdef"));
+        Assert.assertEquals(Collections.singletonList(fresh), index.candidates("other"));
+        Assert.assertEquals(Arrays.asList(abc, ab, xyz, abc2, fresh), index.getConsumers());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final EventLaneRouter router = new EventLaneRouter(4);
+        final EventConsumerIndex index = new EventConsumerIndex(null, router);
+        final FileBasedEventConsumer abc = consumer("abc");
+        final FileBasedEventConsumer abc2 = consumer("abc");
+        final FileBasedEventConsumer ab = consumer("ab");
+        index.add(abc);
+        index.add(abc2);
+        index.add(ab);
+        Assert.assertEquals(2, router.size());
+
+        Assert.assertTrue(index.remove(abc));
+        Assert.assertFalse(index.remove(abc));
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(Arrays.asList(abc2, ab), index.candidates("abcdef"));
+
+        Assert.assertTrue(index.remove(abc2));
+        Assert.assertEquals(Collections.singletonList(ab), index.candidates("abcdef"));
+        Assert.assertEquals(1, router.size());
+
+        Assert.assertTrue(index.remove(ab));
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.candidates("abcdef").isEmpty());
+        Assert.assertTrue(index.getConsumers().isEmpty());
+        Assert.assertEquals(0, router.size());
+
+        // never indexed
+        Assert.assertFalse(index.remove(consumer("xyz")));
+    }
+
+    @Test
+    public void testRoutable() {
+        Assert.assertTrue(new EventConsumerIndex(null).isRoutable("anything.txt"));
+        final FileEventRule rule = new FileEventRule();
+        rule.setRegex(".*\\.tif");
+        final EventConsumerIndex index = new EventConsumerIndex(new FileEventRuleSet(
+                Collections.singletonList(rule)));
+        Assert.assertTrue(index.isRoutable("granule.tif"));
+        Assert.assertFalse(index.isRoutable("granule.txt"));
+    }
+
+    /**
+     * @return a consumer waiting for more files, after capturing the provided prefix.
+     */
+    private FileBasedEventConsumer consumer(final String prefix) throws Exception {
+        final FileEventRule rule = new FileEventRule();
+        rule.setRegex(".*");
+        rule.setOriginalOccurrencies(2);
+        final List<FileEventRule> rules = Collections.singletonList(rule);
+        final FileBasedEventConsumerConfiguration configuration = new FileBasedEventConsumerConfiguration();
+        configuration.setRules(rules);
+        configuration.setActions(new ArrayList<ActionConfiguration>());
+        configuration.setWorkingDirectory(directory.getAbsolutePath());
+        final FileBasedEventConsumer consumer = new FileBasedEventConsumer(catalog, configuration);
+        if (prefix != null) {
+            Assert.assertTrue(consumer.consume(new FileSystemMonitorEvent(new File(directory, prefix + ".tif"),
+                    FileSystemMonitorNotifications.FILE_ADDED)));
+            Assert.assertEquals(prefix, consumer.getCommonPrefix());
+        }
+        return consumer;
+    }
+}
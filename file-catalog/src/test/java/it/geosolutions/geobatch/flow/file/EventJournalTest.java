@@ -0,0 +1,225 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.geobatch.utils.io.TestDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventJournalTest {
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("journal");
+        file = new File(directory, "flow.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        EventJournal journal = new EventJournal(file, 0);
+        journal.accepted(event("a"));
+        journal.accepted(event("b"));
+        journal.accepted(event("c"));
+        journal.dropped(event("d"));
+        final String consumer = journal.nextConsumerId();
+        journal.assigned(event("a"), consumer);
+        journal.assigned(event("b"), consumer);
+        journal.done(consumer);
+        journal.assigned(event("c"), journal.nextConsumerId());
+        journal.close();
+
+        journal = new EventJournal(file, 0);
+        Assert.assertEquals(1, journal.size());
+        final List<FileSystemMonitorEvent> events = journal.recover();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(event("c").getSource(), events.get(0).getSource());
+        Assert.assertEquals(FileSystemMonitorNotifications.FILE_REMOVED, events.get(0).getNotification());
+        // recovered events are returned once but stay pending until accepted again
+        Assert.assertEquals(0, journal.recover().size());
+        Assert.assertEquals(1, journal.size());
+        journal.close();
+
+        // a crash before they are accepted again recovers them once more
+        journal = new EventJournal(file, 0);
+        Assert.assertEquals(1, journal.recover().size());
+        journal.accepted(event("c"));
+        final String recovering = journal.nextConsumerId();
+        journal.assigned(event("c"), recovering);
+        journal.done(recovering);
+        journal.close();
+
+        journal = new EventJournal(file, 0);
+        Assert.assertEquals(0, journal.size());
+        journal.close();
+    }
+
+    @Test
+    public void testReplayStopsAtTornRecord() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0);
+        journal.accepted(event("a"));
+        journal.accepted(event("b"));
+        journal.close();
+
+        // a record half written by a crash, its CRC is missing
+        final long[] records = records();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(records[1] - 4);
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        assertPending("a");
+    }
+
+    @Test
+    public void testReplayStopsAtDamagedRecord() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0);
+        journal.accepted(event("a"));
+        journal.accepted(event("b"));
+        journal.accepted(event("c"));
+        journal.close();
+
+        // flip a byte of the payload of the second record, the third one is dropped as well
+        final long[] records = records();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(records[0] + 5);
+            final int value = raf.read();
+            raf.seek(records[0] + 5);
+            raf.write(value ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        assertPending("a");
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0);
+        final String[] names = fill(journal);
+        journal.close();
+
+        // the journal holds the pending events only, followed by the mapped region
+        Assert.assertTrue(file.length() < 2 * 1024 * 1024);
+        Assert.assertFalse(new File(directory, file.getName() + ".tmp").exists());
+        assertPending(names);
+    }
+
+    @Test
+    public void testFailedCompactionKeepsRecords() throws IOException {
+        // the compacted journal cannot be written
+        new File(directory, file.getName() + ".tmp").mkdir();
+
+        final EventJournal journal = new EventJournal(file, 0);
+        final String[] names = fill(journal);
+        journal.close();
+
+        assertPending(names);
+    }
+
+    /**
+     * Appends most of a mapped region of stale records, then the pending events overflowing
+     * it, so that one of them triggers the compaction.
+     * 
+     * @return the names of the pending events.
+     */
+    private String[] fill(final EventJournal journal) {
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            name.append('x');
+        for (int i = 0; i < 2000; i++) {
+            final FileSystemMonitorEvent event = event(name.toString() + i);
+            journal.accepted(event);
+            journal.dropped(event);
+        }
+        final String[] names = new String[1000];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = name.toString() + "pending" + i;
+            journal.accepted(event(names[i]));
+        }
+        return names;
+    }
+
+    private void assertPending(final String... names) throws IOException {
+        final EventJournal journal = new EventJournal(file, 0);
+        try {
+            final List<FileSystemMonitorEvent> events = journal.recover();
+            Assert.assertEquals(names.length, events.size());
+            for (int i = 0; i < names.length; i++)
+                Assert.assertEquals(event(names[i]).getSource(), events.get(i).getSource());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * @return the end positions of the records of the journal file.
+     */
+    private long[] records() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long[] ends = new long[0];
+            long position = 0;
+            while (position + 4 <= raf.length()) {
+                raf.seek(position);
+                final int length = raf.readInt();
+                if (length <= 0)
+                    break;
+                position += 4 + length + 4;
+                final long[] grown = new long[ends.length + 1];
+                System.arraycopy(ends, 0, grown, 0, ends.length);
+                grown[ends.length] = position;
+                ends = grown;
+            }
+            return ends;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private FileSystemMonitorEvent event(final String name) {
+        // removals are recovered whether the file exists or not
+        return new FileSystemMonitorEvent(new File(directory, name), FileSystemMonitorNotifications.FILE_REMOVED);
+    }
+}
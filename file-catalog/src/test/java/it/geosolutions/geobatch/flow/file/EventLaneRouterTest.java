@@ -0,0 +1,76 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that the files which may be consumed together are routed to the same lane.
+ */
+public class EventLaneRouterTest {
+
+    private final static int LANES = 8;
+
+    @Test
+    public void testRelatedBaseNamesShareTheLane() {
+        final EventLaneRouter router = new EventLaneRouter(LANES);
+        // foo.tif, then foo.tif.aux.xml
+        final int lane = router.route("foo");
+        for (int i = 0; i < 100; i++)
+            Assert.assertEquals(lane, router.route("foo.tif" + i));
+        // a shorter name is routed with the longer ones it prefixes
+        final EventLaneRouter other = new EventLaneRouter(LANES);
+        final int series = other.route("img_0001");
+        Assert.assertEquals(series, other.route("img"));
+    }
+
+    @Test
+    public void testUnrelatedBaseNamesAreSpread() {
+        final EventLaneRouter router = new EventLaneRouter(LANES);
+        final boolean[] used = new boolean[LANES];
+        for (int i = 0; i < 1000; i++)
+            used[router.route("granule_" + i + "x")] = true;
+        for (int i = 0; i < LANES; i++)
+            Assert.assertTrue("Lane " + i + " is never used", used[i]);
+    }
+
+    @Test
+    public void testRoutesLiveWhileDispatchingOrWaiting() {
+        final EventLaneRouter router = new EventLaneRouter(LANES);
+        router.route("foo");
+        router.consumerAdded("foo");
+        router.dispatched("foo");
+        Assert.assertEquals(1, router.size());
+        router.route("foo.tif");
+        router.dispatched("foo.tif");
+        Assert.assertEquals(1, router.size());
+        router.consumerRemoved("foo");
+        Assert.assertEquals(0, router.size());
+        // unknown names are ignored
+        router.dispatched("bar");
+        router.consumerRemoved("bar");
+        Assert.assertEquals(0, router.size());
+    }
+}
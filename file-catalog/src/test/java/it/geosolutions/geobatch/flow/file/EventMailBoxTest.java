@@ -0,0 +1,180 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.geobatch.configuration.flow.file.EventMailBoxPolicy;
+import it.geosolutions.geobatch.utils.io.TestDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventMailBoxTest {
+
+    private File directory;
+
+    private File spillFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("mailbox");
+        spillFile = new File(directory, "lane0.spill");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testSpillKeepsOrder() throws Exception {
+        final EventMailBox mailBox = new EventMailBox(3, EventMailBoxPolicy.SPILL, spillFile);
+        for (int i = 0; i < 10; i++)
+            Assert.assertTrue(mailBox.put(event("e" + i, i % 2 == 0)));
+        Assert.assertEquals(10, mailBox.getDepth());
+        Assert.assertEquals(7, mailBox.getSpilledCount());
+        Assert.assertTrue(spillFile.isFile());
+
+        // events put while the spill file holds events queue behind them
+        for (int i = 0; i < 5; i++)
+            check(mailBox.poll(), "e" + i, i % 2 == 0);
+        Assert.assertTrue(mailBox.put(event("e10", true)));
+        Assert.assertEquals(8, mailBox.getSpilledCount());
+        for (int i = 5; i <= 10; i++)
+            check(mailBox.poll(), "e" + i, i % 2 == 0);
+        Assert.assertNull(mailBox.poll());
+        Assert.assertEquals(0, mailBox.getDepth());
+
+        // the spill file is truncated once drained, events go to memory again
+        Assert.assertEquals(0, spillFile.length());
+        Assert.assertTrue(mailBox.put(event("e11", true)));
+        Assert.assertEquals(8, mailBox.getSpilledCount());
+        check(mailBox.poll(10), "e11", true);
+        mailBox.close();
+    }
+
+    @Test
+    public void testCloseDiscardsSpilledEvents() throws Exception {
+        final EventMailBox mailBox = new EventMailBox(1, EventMailBoxPolicy.SPILL, spillFile);
+        for (int i = 0; i < 4; i++)
+            mailBox.put(event("e" + i, true));
+        Assert.assertEquals(4, mailBox.getDepth());
+        mailBox.close();
+        Assert.assertFalse(spillFile.exists());
+        Assert.assertEquals(1, mailBox.getDepth());
+        check(mailBox.poll(), "e0", true);
+        Assert.assertNull(mailBox.poll());
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        final EventMailBox mailBox = new EventMailBox(2, EventMailBoxPolicy.CALLER_RUNS, spillFile);
+        Assert.assertTrue(mailBox.put(event("e0", true)));
+        Assert.assertTrue(mailBox.put(event("e1", true)));
+        Assert.assertFalse(mailBox.put(event("e2", true)));
+        Assert.assertEquals(2, mailBox.getDepth());
+        Assert.assertEquals(0, mailBox.getSpilledCount());
+        Assert.assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final EventMailBox mailBox = new EventMailBox(1, EventMailBoxPolicy.BLOCK, spillFile);
+        mailBox.put(event("e0", true));
+        final CountDownLatch put = new CountDownLatch(1);
+        final Thread producer = new Thread() {
+            public void run() {
+                try {
+                    mailBox.put(event("e1", true));
+                    put.countDown();
+                } catch (InterruptedException e) {
+                    // test failed
+                }
+            }
+        };
+        producer.start();
+        Assert.assertFalse(put.await(200, TimeUnit.MILLISECONDS));
+        check(mailBox.poll(), "e0", true);
+        Assert.assertTrue(put.await(10, TimeUnit.SECONDS));
+        check(mailBox.poll(10), "e1", true);
+        producer.join();
+    }
+
+    @Test
+    public void testSpillFailureKeepsOrder() throws Exception {
+        final EventMailBox mailBox = new EventMailBox(2, EventMailBoxPolicy.SPILL, spillFile);
+        for (int i = 0; i < 4; i++)
+            mailBox.put(event("e" + i, true));
+        Assert.assertEquals(2, mailBox.getSpilledCount());
+
+        // the spilled events can still be read back but no more can be written
+        final Field spill = EventMailBox.class.getDeclaredField("spill");
+        spill.setAccessible(true);
+        ((RandomAccessFile) spill.get(mailBox)).close();
+        spill.set(mailBox, new RandomAccessFile(spillFile, "r"));
+
+        final CountDownLatch put = new CountDownLatch(1);
+        final Thread producer = new Thread() {
+            public void run() {
+                try {
+                    mailBox.put(event("e4", true));
+                    put.countDown();
+                } catch (InterruptedException e) {
+                    // test failed
+                }
+            }
+        };
+        producer.start();
+        // waits for the spilled events rather than jumping ahead of them
+        Assert.assertFalse(put.await(200, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 5; i++)
+            check(mailBox.poll(10000), "e" + i, true);
+        Assert.assertTrue(put.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(mailBox.poll());
+        producer.join();
+        mailBox.close();
+    }
+
+    private FileSystemMonitorEvent event(final String name, final boolean created) {
+        return new FileSystemMonitorEvent(new File(directory, name),
+                created ? FileSystemMonitorNotifications.FILE_ADDED : FileSystemMonitorNotifications.FILE_MODIFIED);
+    }
+
+    private void check(final FileSystemMonitorEvent event, final String name, final boolean created) {
+        Assert.assertNotNull(name, event);
+        Assert.assertEquals(new File(directory, name), event.getSource());
+        Assert.assertEquals(created ? FileSystemMonitorNotifications.FILE_ADDED : FileSystemMonitorNotifications.FILE_MODIFIED,
+                event.getNotification());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.flow.file;
+
+import it.geosolutions.geobatch.utils.io.TestDirectory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RunDirectoryManagerTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestDirectory.create("runs");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDirectory.delete(directory);
+    }
+
+    @Test
+    public void testEvictionOrder() throws Exception {
+        final RunDirectoryManager manager = new RunDirectoryManager(directory);
+        final File r1 = run(manager, "20240101T000000001", 10);
+        final File r2 = run(manager, "20240101T000000002", 10);
+        final File r3 = run(manager, "20240101T000000003", 10);
+        Assert.assertEquals(3, manager.getCount());
+        Assert.assertEquals(30, manager.getSize());
+
+        // no quota, nothing evicted
+        Assert.assertEquals(0, manager.evict(System.currentTimeMillis()));
+
+        // least recently used first
+        manager.touch(r1);
+        manager.setQuotas(2, 0, 0);
+        Assert.assertEquals(1, manager.evict(System.currentTimeMillis()));
+        Assert.assertFalse(r2.exists());
+        Assert.assertTrue(r1.isDirectory());
+        Assert.assertTrue(r3.isDirectory());
+
+        // protected runs count against the quota but stay
+        final File r4 = new File(directory, "20240101T000000004");
+        r4.mkdir();
+        manager.register(r4);
+        Assert.assertEquals(1, manager.evict(System.currentTimeMillis()));
+        Assert.assertFalse(r3.exists());
+        manager.setQuotas(1, 0, 0);
+        Assert.assertEquals(1, manager.evict(System.currentTimeMillis()));
+        Assert.assertFalse(r1.exists());
+        Assert.assertTrue(r4.isDirectory());
+        Assert.assertEquals(1, manager.getCount());
+        Assert.assertEquals(0, manager.getSize());
+        Assert.assertEquals(3, manager.getEvictedCount());
+    }
+
+    @Test
+    public void testSizeAndAgeQuotas() throws Exception {
+        final RunDirectoryManager manager = new RunDirectoryManager(directory);
+        final File r1 = run(manager, "20240101T000000001", 100);
+        final File r2 = run(manager, "20240101T000000002", 200);
+        final File r3 = run(manager, "20240101T000000003", 300);
+        Assert.assertEquals(600, manager.getSize());
+
+        manager.setQuotas(0, 500, 0);
+        Assert.assertEquals(1, manager.evict(System.currentTimeMillis()));
+        Assert.assertFalse(r1.exists());
+        Assert.assertEquals(500, manager.getSize());
+
+        manager.setQuotas(0, 0, 60000);
+        Assert.assertEquals(0, manager.evict(System.currentTimeMillis()));
+        Assert.assertEquals(2, manager.evict(System.currentTimeMillis() + 120000));
+        Assert.assertFalse(r2.exists());
+        Assert.assertFalse(r3.exists());
+        Assert.assertEquals(0, manager.getCount());
+    }
+
+    @Test
+    public void testIndexReload() throws Exception {
+        RunDirectoryManager manager = new RunDirectoryManager(directory);
+        final File r1 = run(manager, "20240101T000000001", 10);
+        run(manager, "20240101T000000002", 20);
+        final File r3 = run(manager, "20240101T000000003", 30);
+        manager.setQuotas(2, 0, 0);
+        Assert.assertEquals(1, manager.evict(System.currentTimeMillis()));
+        // left protected by a crash, measured on reload
+        final File r4 = new File(directory, "20240101T000000004");
+        r4.mkdir();
+        manager.register(r4);
+        FileUtils.writeByteArrayToFile(new File(r4, "data"), new byte[40]);
+        // removed behind the back of the manager
+        FileUtils.deleteDirectory(r3);
+        // damaged and unknown lines are skipped
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory,
+                RunDirectoryManager.INDEX_NAME), true), "UTF-8");
+        try {
+            writer.write("C\tbroken\tsize\t0\n\ngarbage\n");
+        } finally {
+            writer.close();
+        }
+
+        manager = new RunDirectoryManager(directory);
+        Assert.assertEquals(2, manager.getCount());
+        Assert.assertEquals(60, manager.getSize());
+        Assert.assertFalse(r1.exists());
+        // the index has been compacted
+        Assert.assertEquals(2, FileUtils.readLines(new File(directory, RunDirectoryManager.INDEX_NAME),
+                "UTF-8").size());
+
+        // the reloaded runs keep their order and are all evictable
+        manager.setQuotas(1, 0, 0);
+        Assert.assertEquals(1, manager.evict(System.currentTimeMillis()));
+        Assert.assertTrue(r4.isDirectory());
+        Assert.assertEquals(40, manager.getSize());
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        final File r1 = directory(new File(directory, "20240101T000000001"), 10, 3000);
+        final File r2 = directory(new File(directory, "20240101T000000002_tif"), 20, 1000);
+        final File r3 = directory(new File(directory, "20240101T000000003"), 30, 2000);
+        final File other = directory(new File(directory, "config"), 40, 0);
+
+        final RunDirectoryManager manager = new RunDirectoryManager(directory);
+        Assert.assertEquals(3, manager.getCount());
+        Assert.assertEquals(60, manager.getSize());
+        Assert.assertTrue(new File(directory, RunDirectoryManager.INDEX_NAME).isFile());
+
+        // ordered by modification time
+        manager.setQuotas(1, 0, 0);
+        Assert.assertEquals(2, manager.evict(System.currentTimeMillis()));
+        Assert.assertFalse(r1.exists());
+        Assert.assertFalse(r3.exists());
+        Assert.assertTrue(r2.isDirectory());
+        Assert.assertTrue(other.isDirectory());
+
+        // the index is used from now on
+        directory(new File(directory, "20240101T000000005"), 50, 0);
+        Assert.assertEquals(1, new RunDirectoryManager(directory).getCount());
+    }
+
+    private File run(final RunDirectoryManager manager, final String name, final int size)
+            throws IOException, InterruptedException {
+        final File run = new File(directory, name);
+        run.mkdir();
+        manager.register(run);
+        FileUtils.writeByteArrayToFile(new File(run, "data"), new byte[size]);
+        manager.release(run);
+        // distinct access times
+        Thread.sleep(5);
+        return run;
+    }
+
+    private static File directory(final File directory, final int size, final long age)
+            throws IOException {
+        directory.mkdir();
+        FileUtils.writeByteArrayToFile(new File(directory, "data"), new byte[size]);
+        directory.setLastModified(System.currentTimeMillis() - age);
+        return directory;
+    }
+}
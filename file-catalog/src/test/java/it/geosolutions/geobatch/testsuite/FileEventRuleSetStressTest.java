@@ -0,0 +1,139 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.testsuite;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.geobatch.configuration.event.action.ActionConfiguration;
+import it.geosolutions.geobatch.configuration.event.consumer.file.FileBasedEventConsumerConfiguration;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRule;
+import it.geosolutions.geobatch.flow.event.consumer.file.FileEventRuleSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the rule matching throughput of the dispatcher hot path, comparing the compiled
+ * {@link FileEventRuleSet} against compiling each rule and cloning the rule list on every
+ * event. Only run with the <code>stress</code> profile.
+ */
+public class FileEventRuleSetStressTest {
+
+    private final static Logger LOGGER = Logger.getLogger(FileEventRuleSetStressTest.class.toString());
+
+    private final static int EVENTS = 200000;
+
+    private final static int WARMUP = 20000;
+
+    private final static String[] EXTENSIONS = { "shp", "shx", "dbf", "prj", "xml", "txt" };
+
+    private FileBasedEventConsumerConfiguration configuration;
+
+    private String[] fileNames;
+
+    @Before
+    public void setUp() throws Exception {
+        final List<FileEventRule> rules = new ArrayList<FileEventRule>();
+        for (int i = 0; i < 4; i++) {
+            final FileEventRule rule = new FileEventRule();
+            rule.setRegex(".*\\." + EXTENSIONS[i]);
+            rule.setOriginalOccurrencies(1);
+            rule.setOptional(false);
+            rule.setAcceptableNotifications(Arrays.asList(FileSystemMonitorNotifications.FILE_ADDED));
+            rules.add(rule);
+        }
+        configuration = new FileBasedEventConsumerConfiguration();
+        configuration.setRules(rules);
+        configuration.setActions(new ArrayList<ActionConfiguration>());
+
+        fileNames = new String[EVENTS];
+        for (int i = 0; i < EVENTS; i++)
+            fileNames[i] = "granule_" + (i / EXTENSIONS.length) + "." + EXTENSIONS[i % EXTENSIONS.length];
+    }
+
+    @Test
+    public void testRuleMatching() throws Exception {
+        // warm up both paths
+        legacy(WARMUP);
+        compiled(WARMUP);
+
+        long start = System.nanoTime();
+        final int legacyMatches = legacy(EVENTS);
+        final long legacyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final int compiledMatches = compiled(EVENTS);
+        final long compiledTime = System.nanoTime() - start;
+
+        LOGGER.info("Rule matching, per event compile+clone: " + eventsPerSecond(legacyTime)
+                + " events/s, compiled rule set: " + eventsPerSecond(compiledTime) + " events/s");
+
+        Assert.assertEquals(legacyMatches, compiledMatches);
+    }
+
+    private int legacy(final int events) throws CloneNotSupportedException {
+        int matches = 0;
+        for (int i = 0; i < events; i++) {
+            final List<FileEventRule> rules = configuration.clone().getRules();
+            for (FileEventRule rule : rules) {
+                if (!rule.getAcceptableNotifications().contains(FileSystemMonitorNotifications.FILE_ADDED))
+                    continue;
+                if (Pattern.compile(rule.getRegex()).matcher(fileNames[i]).matches()) {
+                    rule.setActualOccurrencies(rule.getActualOccurrencies() + 1);
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private int compiled(final int events) {
+        int matches = 0;
+        final FileEventRuleSet ruleSet = configuration.getRuleSet();
+        for (int i = 0; i < events; i++) {
+            final int[] occurrences = new int[ruleSet.size()];
+            for (int rule = 0; rule < ruleSet.size(); rule++) {
+                if (!ruleSet.accepts(rule, FileSystemMonitorNotifications.FILE_ADDED))
+                    continue;
+                if (ruleSet.matches(rule, fileNames[i])) {
+                    occurrences[rule]++;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static long eventsPerSecond(final long nanos) {
+        return nanos > 0 ? (long) (EVENTS * 1E9 / nanos) : EVENTS;
+    }
+}
@@ -146,6 +146,7 @@ public class CTDActionConfiguration extends ActionConfiguration implements Confi
 		configuration.setConfigId(configId);
 		configuration.setServiceID(getServiceID());
 		configuration.setWorkingDirectory(workingDirectory);
+		copyTo(configuration);
 		return configuration;
     }
 
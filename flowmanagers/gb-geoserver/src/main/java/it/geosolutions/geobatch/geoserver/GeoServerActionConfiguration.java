@@ -218,6 +218,7 @@ public class GeoServerActionConfiguration extends ActionConfiguration implements
 		configuration.setWmsPath(wmsPath);
 		configuration.setWorkingDirectory(workingDirectory);
 		
+		copyTo(configuration);
 		return configuration;
 	}
 
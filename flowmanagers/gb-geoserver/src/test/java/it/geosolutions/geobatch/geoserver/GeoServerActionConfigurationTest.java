@@ -0,0 +1,52 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.geoserver;
+
+import it.geosolutions.geobatch.configuration.event.action.ActionFailurePolicy;
+import it.geosolutions.geobatch.configuration.event.action.ActionWorkload;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class GeoServerActionConfigurationTest {
+
+    @Test
+    public void testClone() throws Exception {
+        final GeoServerActionConfiguration configuration = new GeoServerActionConfiguration("a1",
+                "name", "description", false);
+        configuration.setGeoserverURL("http://localhost:8080/geoserver");
+        configuration.setWorkload(ActionWorkload.IO);
+        configuration.setDependsOn(Arrays.asList("a0"));
+        configuration.setFailurePolicy(ActionFailurePolicy.CONTINUE);
+
+        final GeoServerActionConfiguration clone = configuration.clone();
+        Assert.assertEquals("a1", clone.getId());
+        Assert.assertEquals("http://localhost:8080/geoserver", clone.getGeoserverURL());
+        Assert.assertEquals(ActionWorkload.IO, clone.getWorkload());
+        Assert.assertEquals(Arrays.asList("a0"), clone.getDependsOn());
+        Assert.assertEquals(ActionFailurePolicy.CONTINUE, clone.getFailurePolicy());
+    }
+}
@@ -175,6 +175,7 @@ public class GlidersActionConfiguration extends ActionConfiguration implements C
 		configuration.setWorkingDirectory(workingDirectory);
 		configuration.setDbTableName(dbTableName);
 		configuration.setSimplyTollerance(simplyTollerance);
+		copyTo(configuration);
 		return configuration;
     }
 
@@ -276,6 +276,7 @@ public class ComposerConfiguration extends BaseImageProcessingConfiguration impl
         configuration.setMaxPoolSize(getMaxPoolSize());
         configuration.setMaxWaitingTime(getMaxWaitingTime());
         configuration.setGeowebcacheWatchingDir(geowebcacheWatchingDir);
+        copyTo(configuration);
         return configuration;
     }
 
@@ -143,6 +143,7 @@ public class FormatConverterConfiguration extends BaseImageProcessingConfigurati
 		configuration.setTileH(getTileH());
 		configuration.setTileW(getTileW());
 		configuration.setWorkingDirectory(getWorkingDirectory());
+		copyTo(configuration);
 		return configuration;
 	}
 }
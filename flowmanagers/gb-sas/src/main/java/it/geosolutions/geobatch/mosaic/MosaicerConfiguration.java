@@ -142,6 +142,7 @@ public class MosaicerConfiguration extends BaseImageProcessingConfiguration impl
         configuration.setMaxPoolSize(getMaxPoolSize());
         configuration.setLogarithmBase(logarithmBase);
         configuration.setLogarithmMultiplier(logarithmMultiplier);
+        copyTo(configuration);
         return configuration;
     }
 
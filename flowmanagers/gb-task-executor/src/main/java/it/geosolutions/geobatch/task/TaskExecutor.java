@@ -24,8 +24,9 @@ package it.geosolutions.geobatch.task;
 
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
 import it.geosolutions.geobatch.catalog.file.FileBaseCatalog;
-import it.geosolutions.geobatch.flow.event.action.Action;
+import it.geosolutions.geobatch.flow.event.action.ActionReuse;
 import it.geosolutions.geobatch.flow.event.action.BaseAction;
+import it.geosolutions.geobatch.flow.event.action.ReusableAction;
 import it.geosolutions.geobatch.global.CatalogHolder;
 import it.geosolutions.geobatch.utils.IOUtils;
 
@@ -58,12 +59,18 @@ import org.apache.tools.ant.types.Environment.Variable;
  * 
  * @author Daniele Romagnoli, GeoSolutions S.a.S.
  */
-public class TaskExecutor extends BaseAction<FileSystemMonitorEvent> implements Action<FileSystemMonitorEvent> {
+public class TaskExecutor extends BaseAction<FileSystemMonitorEvent> implements ReusableAction<FileSystemMonitorEvent> {
 
 	private final static Logger LOGGER = Logger.getLogger(TaskExecutor.class.toString());
 	
     private TaskExecutorConfiguration configuration;
 
+    private Templates templates;
+
+    private File templatesFile;
+
+    private long templatesLastModified;
+
 	public TaskExecutor(final TaskExecutorConfiguration configuration) throws IOException {
     	this.configuration = configuration;
     }
@@ -95,13 +102,12 @@ public class TaskExecutor extends BaseAction<FileSystemMonitorEvent> implements
 		
 		//Setup an XML source from the input XML file
 		final Source xmlSource = new StreamSource(inputFile);
-		InputStream is = null;
 		try {
-			is = new FileInputStream(xslFile);
-	        if (is != null){
+			final Templates transformation = getTemplates(xslFile);
+	        if (transformation != null){
 	        	
 	        	//XML parsing to setup a command line
-				final String argument = buildArgument(xmlSource, is);
+				final String argument = buildArgument(xmlSource, transformation);
 				   
 				final Project project = new Project();
 				project.init();
@@ -165,22 +171,49 @@ public class TaskExecutor extends BaseAction<FileSystemMonitorEvent> implements
 		} catch (BuildException e) {
 			if (LOGGER.isLoggable(Level.FINE))
 				LOGGER.fine(e.getLocalizedMessage());
-		}finally{
-			try{
-				if (is!=null)
-					is.close();
-			}catch (Throwable t){
+		}
+		return events;
+	}
+
+	/**
+	 * The executor keeps no state between executions, a single instance serves all the
+	 * consumers of a flow.
+	 */
+	public ActionReuse getReuse() {
+		return ActionReuse.SHAREABLE;
+	}
+
+	public void reset() {
+	}
+
+	/**
+	 * Returns the compiled XSL, compiling it again only when the file changes. Templates are
+	 * thread safe, each execution gets its own transformer.
+	 */
+	private synchronized Templates getTemplates(final File xslFile) throws IOException, TransformerException {
+		final long lastModified = xslFile.lastModified();
+		if (templates == null || !xslFile.equals(templatesFile) || lastModified != templatesLastModified) {
+			InputStream is = null;
+			try {
+				is = new FileInputStream(xslFile);
+				templates = TransformerFactory.newInstance().newTemplates(new StreamSource(is));
+				templatesFile = xslFile;
+				templatesLastModified = lastModified;
+			} finally {
+				try {
+					if (is != null)
+						is.close();
+				} catch (Throwable t) {
 					//eat me
+				}
 			}
 		}
-		return events;
+		return templates;
 	}
 
-	private String buildArgument(final Source xmlSource, final InputStream is) throws TransformerException {
+	private String buildArgument(final Source xmlSource, final Templates transformation) throws TransformerException {
 		//XML parsing to setup a command line
-		final TransformerFactory f = TransformerFactory.newInstance();
 		final StringWriter result = new StringWriter();
-		final Templates transformation = f.newTemplates(new StreamSource(is));
 		final Transformer transformer = transformation.newTransformer();
 		transformer.transform(xmlSource, new StreamResult(result));
 		final String argument = result.toString();
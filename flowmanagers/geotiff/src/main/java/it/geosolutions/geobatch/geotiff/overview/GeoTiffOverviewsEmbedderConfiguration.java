@@ -226,6 +226,7 @@ public class GeoTiffOverviewsEmbedderConfiguration extends ActionConfiguration i
 		configuration.setServiceID(serviceID);
 		configuration.setLogNotification(logNotification);
 		
+		copyTo(configuration);
 		return configuration;
 	}
 }
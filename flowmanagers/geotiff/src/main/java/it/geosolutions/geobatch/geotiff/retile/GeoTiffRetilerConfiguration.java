@@ -148,6 +148,7 @@ public class GeoTiffRetilerConfiguration extends ActionConfiguration implements
 		configuration.setTileH(tileH);
 		configuration.setTileW(tileW);
 		configuration.setWorkingDirectory(workingDirectory);
-		return null;
+		copyTo(configuration);
+		return configuration;
 	}
 }
@@ -188,6 +188,7 @@ public class GeoWebCacheActionConfiguration extends ActionConfiguration implemen
 		configuration.setGwcPassword(gwcPassword);		
 		configuration.setGwcUser(gwcUser);
 
+		copyTo(configuration);
 		return configuration;
     }
 }
@@ -119,6 +119,7 @@ public class ImageMosaicActionConfiguration extends GeoServerActionConfiguration
 		configuration.setTimeRegex(getTimeRegex());
 		configuration.setElevationRegex(getElevationRegex());
 		
+		copyTo(configuration);
 		return configuration;
 	}
 
@@ -149,6 +149,7 @@ public class MetocActionConfiguration extends ActionConfiguration implements Con
 		configuration.setMetocHarvesterXMLTemplatePath(metocHarvesterXMLTemplatePath);
 		configuration.setPackComponents(packComponents);
 		
+		copyTo(configuration);
 		return configuration;
 	}
 
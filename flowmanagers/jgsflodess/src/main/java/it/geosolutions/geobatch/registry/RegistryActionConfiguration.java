@@ -290,6 +290,7 @@ public class RegistryActionConfiguration extends ActionConfiguration implements
 		configuration.setMetocDictionaryPath(metocDictionaryPath);
 		configuration.setMetocHarvesterXMLTemplatePath(metocHarvesterXMLTemplatePath);
 		
+		copyTo(configuration);
 		return configuration;
 	}
 
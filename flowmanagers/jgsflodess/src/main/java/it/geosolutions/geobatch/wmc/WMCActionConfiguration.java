@@ -118,6 +118,7 @@ public class WMCActionConfiguration extends ActionConfiguration implements Confi
 	        configuration.setBaseLayerTitle(baseLayerTitle);
 	        configuration.setBaseLayerURL(baseLayerURL);
 	        configuration.setOutputDirectory(outputDirectory);
+	        copyTo(configuration);
 	        return configuration;
 	    }
 
@@ -3,7 +3,10 @@ package it.geosolutions.filesystemmonitor;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitor;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
@@ -14,7 +17,18 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.OrderComparator;
+import org.springframework.core.Ordered;
 
+/**
+ * Looks up the {@link FileSystemMonitorSPI} beans in the application context.
+ * <p>
+ * When more than one implementation is available for the requested {@link OsType}, the one with
+ * the highest precedence wins, as defined by {@link Ordered}; implementations not implementing
+ * it come last.
+ * 
+ * @author Simone Giannecchini, GeoSolutions
+ */
 class FSSPIRegistry implements ApplicationContextAware,InitializingBean{
 
 	public static final OsType SUGGESTED_OS_TYPE;
@@ -47,20 +61,25 @@ class FSSPIRegistry implements ApplicationContextAware,InitializingBean{
 				LOGGER.severe("Underlying applicationContext is null!");
 			return null;
 		}
-		FileSystemMonitorSPI monitorSPI = null;
+		final List<FileSystemMonitorSPI> candidates = new ArrayList<FileSystemMonitorSPI>();
 		final Map beans = applicationContext.getBeansOfType(FileSystemMonitorSPI.class);
 		final Set beanSet = beans.entrySet();
 		for(final Iterator it=beanSet.iterator();it.hasNext();){
 			final Map.Entry entry=(Entry) it.next();
-			monitorSPI = (FileSystemMonitorSPI) entry.getValue();
-			if (monitorSPI!=null&&monitorSPI.isAvailable()&&monitorSPI.canWatch(osType)) {
-				break;
+			final FileSystemMonitorSPI spi = (FileSystemMonitorSPI) entry.getValue();
+			if (spi!=null&&spi.isAvailable()&&spi.canWatch(osType)) {
+				candidates.add(spi);
 			}
 		}
-		if (monitorSPI != null) 
-			return monitorSPI.createInstance(config);
-		
-		return null;
+		if (candidates.isEmpty())
+			return null;
+
+		// pick the implementation with the highest precedence
+		Collections.sort(candidates, new OrderComparator());
+		final FileSystemMonitorSPI monitorSPI = candidates.get(0);
+		if(LOGGER.isLoggable(Level.FINE))
+			LOGGER.fine("Using "+monitorSPI.getClass().getName()+" out of "+candidates.size()+" available FileSystemMonitorSPI");
+		return monitorSPI.createInstance(config);
 
 		
 	}
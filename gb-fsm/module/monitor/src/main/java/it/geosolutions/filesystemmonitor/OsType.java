@@ -6,5 +6,10 @@ package it.geosolutions.filesystemmonitor;
  *
  */
 public enum OsType {
-    OS_UNDEFINED ,OS_WINDOWS , OS_LINUX ;
+    OS_UNDEFINED ,OS_WINDOWS , OS_LINUX ,
+    /**
+     * Any operating system, asking for the monitor built on the Java 7 WatchService rather
+     * than the native one. Falls back to polling where the WatchService is not available.
+     */
+    OS_NIO2 ;
 }
\ No newline at end of file
@@ -17,6 +17,8 @@ public interface FileSystemMonitorSPI {
 
 	public final static String SOURCE="source";
 	public final static String WILDCARD="wildcard";
+	/** Boolean telling whether sub directories are watched as well, when supported. */
+	public final static String SUBDIRS="subdirs";
 
 	/**
 	 * Tells me if a certain implementation of this interface is able to run on
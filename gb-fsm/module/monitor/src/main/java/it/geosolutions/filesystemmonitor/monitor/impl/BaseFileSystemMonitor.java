@@ -8,15 +8,16 @@ import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorListener;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
 import it.geosolutions.geobatch.utils.IOUtils;
+import it.geosolutions.geobatch.utils.io.FileReadyCallback;
+import it.geosolutions.geobatch.utils.io.FileReadyDetector;
+import it.geosolutions.geobatch.utils.io.LockFileReadyDetector;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.swing.SwingUtilities;
 import javax.swing.event.EventListenerList;
 
 
@@ -27,13 +28,10 @@ import javax.swing.event.EventListenerList;
 public abstract class BaseFileSystemMonitor implements
 		FileSystemMonitor {
 
-	public final static ExecutorService threadPool=Executors.newCachedThreadPool();
-
-
 	/** Default Logger **/
 	private final static Logger LOGGER = Logger.getLogger(BaseFileSystemMonitor.class.toString());
 	
-	private class EventManager implements Runnable{
+	private class EventManager implements Runnable, FileReadyCallback{
 		 private FileSystemMonitorEvent event;
 
 		// ----------------------------------------------- PUBLIC METHODS
@@ -44,57 +42,44 @@ public abstract class BaseFileSystemMonitor implements
             this.event=fe;
             
             
-            //handle the event
-            threadPool.execute(this);
+            //handle the event once the file is ready, if we have to wait for it, in the delivery
+            //thread; in the delivery thread or in the current thread otherwise, to keep events
+            //ordered
+            if(readyDetector!=null)
+            	readyDetector.whenReady(fe.getSource(), lockWaitThreshold, this);
+            else if(asyncDelivery)
+            	deliver(this);
+            else
+            	run();
+        }
+
+        public void fileReady(File file, boolean ready) {
+        	//never deliver on the timer thread of the detector, which is shared by all the monitors
+        	if(ready)
+        		deliver(this);
+        	else
+        		LOGGER.severe("Discarding event for "+file+", not ready after "+lockWaitThreshold+"ms");
         }
 
 
         // ----------------------------------------------- UTILITY METHODS
 
         /**
-         * Sending an event by putting it inside the Swing dispatching thred. This
-         * might be useless in command line app but it is important in GUi apps. I
-         * might change this though.
+         * Sending an event to the listeners, in the current thread. Listeners decide how to
+         * dispatch it further.
          * 
          * @param file
          */
         private void handleEvent() {
-        	//deal with locking of input files
-        	if(lockInputFiles)
-        	{
-        		final File source=event.getSource();
-        		try {
-					IOUtils.acquireLock(this, source,lockWaitThreshold);
-				} catch (InterruptedException e) {
-					LOGGER.log(Level.SEVERE,e.getLocalizedMessage(),e);
-					return;
-				} catch (IOException e) {
-					LOGGER.log(Level.SEVERE,e.getLocalizedMessage(),e);
-					return;
-				}
-        	}
-        	
-        	
-        	
             // Guaranteed to return a non-null array
             final Object[] listenersArray = listeners.getListenerList();
             // Process the listeners last to first, notifying
             // those that are interested in this event
             final int length = listenersArray.length;
             for (int i = length - 2; i >= 0; i -= 2) {
-                    final int index = i + 1;
                     if (listenersArray[i] == FileSystemMonitorListener.class) {
-                            // Lazily create the event inside the dispatching thread in
-                            // order to avoid problems if we run this inside a GUI app.
-                            SwingUtilities.invokeLater(new Runnable() {
-
-                                    public void run() {
-                                            ((FileSystemMonitorListener) listenersArray[index])
-                                                            .fileMonitorEventDelivered(event);
-
-                                    }
-                            });
-
+                            ((FileSystemMonitorListener) listenersArray[i + 1])
+                                            .fileMonitorEventDelivered(event);
                     }
             }
 
@@ -131,6 +116,17 @@ public abstract class BaseFileSystemMonitor implements
 	
 	
 	protected BaseFileSystemMonitor(File file, String wildCard,final boolean lockInputFiles, final long maxLockingWait) {
+		this(file, wildCard, lockInputFiles ? new LockFileReadyDetector() : null, maxLockingWait);
+	}
+
+	/**
+	 * @param readyDetector
+	 *            events are delivered once their file is ready according to this detector,
+	 *            right away if <code>null</code>.
+	 * @param maxLockingWait
+	 *            maximum time to wait for a file to be ready, the event is discarded after that.
+	 */
+	protected BaseFileSystemMonitor(File file, String wildCard, final FileReadyDetector readyDetector, final long maxLockingWait) {
 		if (file==null)
 			throw new IllegalArgumentException("Null file provided to this FileSystemMonitor");
 		if(wildCard!=null&&wildCard.length()<=0)
@@ -139,7 +135,8 @@ public abstract class BaseFileSystemMonitor implements
 			throw new IllegalArgumentException("Wild card provided, while monitoring a singl file");
 		this.file = file;
 		this.wildCardString = wildCard;
-		this.lockInputFiles=lockInputFiles;
+		this.lockInputFiles=readyDetector!=null;
+		this.readyDetector=readyDetector;
 		this.lockWaitThreshold=maxLockingWait;
 		
 	}
@@ -163,6 +160,72 @@ public abstract class BaseFileSystemMonitor implements
 	
 	protected boolean lockInputFiles;
 
+	protected FileReadyDetector readyDetector;
+
+	/**
+	 * Whether events are delivered by the delivery thread of this monitor rather than by the
+	 * thread detecting them, see {@link #setAsyncDelivery(boolean)}.
+	 */
+	private volatile boolean asyncDelivery;
+
+	/**
+	 * Events waiting for the delivery thread.
+	 */
+	private final BlockingQueue<Runnable> deliveries = new LinkedBlockingQueue<Runnable>();
+
+	private Thread deliveryThread;
+
+	/**
+	 * Delivers the events from a thread owned by this monitor, in order, so that slow
+	 * listeners never hold the thread detecting the changes. Meant for monitors whose checks
+	 * run on a shared pool. Events waiting for the {@link #readyDetector} are always delivered
+	 * by that thread.
+	 */
+	protected void setAsyncDelivery(final boolean asyncDelivery) {
+		this.asyncDelivery = asyncDelivery;
+	}
+
+	/**
+	 * @return the number of events waiting for the delivery thread.
+	 */
+	protected int getPendingDeliveries() {
+		return deliveries.size();
+	}
+
+	/**
+	 * Queues an event for the delivery thread, starting it if needed.
+	 */
+	private synchronized void deliver(final Runnable delivery) {
+		if (listeners == null)
+			return;
+		if (deliveryThread == null) {
+			deliveryThread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (!Thread.currentThread().isInterrupted())
+							deliveries.take().run();
+					} catch (InterruptedException e) {
+						// disposed
+					}
+				}
+			}, "FSMonitorDelivery-" + file.getName());
+			deliveryThread.setDaemon(true);
+			deliveryThread.start();
+		}
+		deliveries.add(delivery);
+	}
+
+	/**
+	 * Stops the delivery thread, the events waiting for it are discarded.
+	 */
+	protected synchronized void stopDelivery() {
+		if (deliveryThread != null) {
+			deliveryThread.interrupt();
+			deliveryThread = null;
+		}
+		deliveries.clear();
+	}
+
 
 
 	public abstract FileSystemMonitorSPI getSPI();
@@ -208,6 +271,7 @@ public abstract class BaseFileSystemMonitor implements
 
 	public synchronized void dispose() {
 		stop();
+		stopDelivery();
 		if (listeners != null) {
 			Object[] listenerArray = listeners.getListenerList();
 			final int length = listenerArray.length;
@@ -223,11 +287,13 @@ public abstract class BaseFileSystemMonitor implements
 
 
 	/**
-	 * Sending an event by putting it inside the Swing dispatching thred. This
-	 * might be useless in command line app but it is important in GUi apps. I
-	 * might change this though.
+	 * Notifies the listeners of an event. The event is held until its file is
+	 * ready if a ready detector is set, then handed to the delivery thread of
+	 * this monitor in asynchronous delivery mode or else delivered on the
+	 * calling thread.
 	 * 
-	 * @param file
+	 * @param fe
+	 *            the event to send.
 	 */
 	protected void sendEvent(final FileSystemMonitorEvent fe) {
 		new EventManager(fe);
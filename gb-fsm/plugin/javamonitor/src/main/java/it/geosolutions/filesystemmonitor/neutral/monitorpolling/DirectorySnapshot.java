@@ -0,0 +1,128 @@
+package it.geosolutions.filesystemmonitor.neutral.monitorpolling;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable snapshot of the content of a directory: the names of its entries, sorted, and their
+ * last modification times, kept in two parallel arrays.
+ * <p>
+ * Two snapshots are compared with a single sort-merge pass, linear in the size of the
+ * directory, see {@link #diff(DirectorySnapshot, Visitor)}.
+ */
+public final class DirectorySnapshot {
+
+	/**
+	 * Receives the differences found by {@link DirectorySnapshot#diff(DirectorySnapshot, Visitor)},
+	 * in name order.
+	 */
+	public interface Visitor {
+		void added(String name);
+
+		void removed(String name);
+
+		void modified(String name);
+	}
+
+	public final static DirectorySnapshot EMPTY = new DirectorySnapshot(new String[0], new long[0]);
+
+	private final String[] names;
+
+	private final long[] lastModified;
+
+	private DirectorySnapshot(final String[] names, final long[] lastModified) {
+		this.names = names;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Takes a snapshot of the provided directory.
+	 * 
+	 * @param filter
+	 *            selects the entries to keep, may be <code>null</code>.
+	 * @return the snapshot, {@link #EMPTY} if the directory cannot be listed.
+	 */
+	public static DirectorySnapshot take(final File directory, final FilenameFilter filter) {
+		final String[] names = filter != null ? directory.list(filter) : directory.list();
+		if (names == null || names.length == 0)
+			return EMPTY;
+		Arrays.sort(names);
+		final long[] lastModified = new long[names.length];
+		for (int i = 0; i < names.length; i++)
+			lastModified[i] = new File(directory, names[i]).lastModified();
+		return new DirectorySnapshot(names, lastModified);
+	}
+
+	/**
+	 * Builds a snapshot out of the provided entries, the arrays are copied.
+	 * 
+	 * @param names
+	 *            the entry names, in any order, without duplicates.
+	 * @param lastModified
+	 *            the last modification time of each entry.
+	 */
+	public static DirectorySnapshot create(final String[] names, final long[] lastModified) {
+		if (names.length != lastModified.length)
+			throw new IllegalArgumentException("Names and modification times differ in length");
+		final int size = names.length;
+		final Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = Integer.valueOf(i);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return names[o1.intValue()].compareTo(names[o2.intValue()]);
+			}
+		});
+		final String[] sortedNames = new String[size];
+		final long[] sortedLastModified = new long[size];
+		for (int i = 0; i < size; i++) {
+			sortedNames[i] = names[order[i].intValue()];
+			sortedLastModified[i] = lastModified[order[i].intValue()];
+		}
+		return new DirectorySnapshot(sortedNames, sortedLastModified);
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @return the last modification time of the named entry, <code>-1</code> if there is no
+	 *         such entry.
+	 */
+	public long getLastModified(final String name) {
+		final int index = Arrays.binarySearch(names, name);
+		return index >= 0 ? lastModified[index] : -1;
+	}
+
+	/**
+	 * Reports the entries which have been added, removed or modified in the newer snapshot with
+	 * respect to this one.
+	 */
+	public void diff(final DirectorySnapshot newer, final Visitor visitor) {
+		final String[] oldNames = this.names;
+		final String[] newNames = newer.names;
+		int i = 0, j = 0;
+		while (i < oldNames.length && j < newNames.length) {
+			final int comparison = oldNames[i].compareTo(newNames[j]);
+			if (comparison == 0) {
+				if (lastModified[i] != newer.lastModified[j])
+					visitor.modified(newNames[j]);
+				i++;
+				j++;
+			} else if (comparison < 0)
+				visitor.removed(oldNames[i++]);
+			else
+				visitor.added(newNames[j++]);
+		}
+		while (i < oldNames.length)
+			visitor.removed(oldNames[i++]);
+		while (j < newNames.length)
+			visitor.added(newNames[j++]);
+	}
+}
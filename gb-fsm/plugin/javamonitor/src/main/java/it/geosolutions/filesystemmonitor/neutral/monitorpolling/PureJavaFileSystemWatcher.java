@@ -1,63 +1,127 @@
 package it.geosolutions.filesystemmonitor.neutral.monitorpolling;
 
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
-import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorListener;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
 import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
 import it.geosolutions.filesystemmonitor.monitor.impl.BaseFileSystemMonitor;
-import it.geosolutions.filesystemmonitor.monitor.thread.AbstractPausableThread;
-import it.geosolutions.filesystemmonitor.monitor.thread.AbstractPeriodicThread;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.IOCase;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 
+/**
+ * Polling {@link it.geosolutions.filesystemmonitor.monitor.FileSystemMonitor}.
+ * <p>
+ * One instance can watch several roots, optionally including their sub directories. Each
+ * watched directory keeps its own {@link DirectorySnapshot}, which is listed again only when
+ * the modification time of the directory changes, therefore a check costs one
+ * <code>lastModified</code> per watched directory plus a listing of the changed ones.
+ * <p>
+ * The checks of all the instances run on a shared pool of daemon threads, whose size can be
+ * set through the {@link #POLLING_THREADS_KEY} system property. Each instance delivers its
+ * events from its own thread, a listener slow to accept them only delays the checks of its own
+ * watcher, which are skipped until the events of the previous check have been delivered.
+ * 
+ * @author Simone Giannecchini, GeoSolutions
+ */
 public final class PureJavaFileSystemWatcher extends BaseFileSystemMonitor {
-	
+
+	private final static Logger LOGGER = Logger.getLogger(PureJavaFileSystemWatcher.class.toString());
+
 	public final static long DEFAULT_POLLING_INTERVAL=1000;
 
+	public final static String POLLING_THREADS_KEY = "it.geosolutions.filesystemmonitor.polling.threads";
+
 	/**
-	 * This is the timer thread which is executed every n milliseconds according
-	 * to the setting of the file monitor. It investigates the file in question
-	 * and notify listeners if changed.
-	 * 
-	 * @author SImone Giannecchini
-	 * 
+	 * Pool shared by all the polling watchers.
 	 */
-	private class PureJavaMonitorNotifier extends AbstractPeriodicThread {
+	private final static ScheduledExecutorService SCHEDULER;
+	static {
+		final int threads = Math.max(1, Integer.getInteger(POLLING_THREADS_KEY,
+				Math.max(2, Runtime.getRuntime().availableProcessors())).intValue());
+		SCHEDULER = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
 
-		public PureJavaMonitorNotifier(final long pollingInterval) {
-			super("PureJavaFSMonitor", pollingInterval);
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "PureJavaFSMonitor-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
 
-		}
+	/**
+	 * State of a watched directory.
+	 */
+	private final static class DirectoryNode {
+		private final File directory;
 
-		public boolean execute() {
+		private long lastModified = -1;
 
-			PureJavaFileSystemWatcher.this.checkFileSystem();
+		private DirectorySnapshot snapshot = DirectorySnapshot.EMPTY;
 
-			return true;
-		}
+		/** Watched sub directories by name, recursive mode only. */
+		private final Map<String, DirectoryNode> children = new HashMap<String, DirectoryNode>();
 
-		public void dispose() {
+		DirectoryNode(final File directory) {
+			this.directory = directory;
+		}
 
+		void clear() {
+			lastModified = -1;
+			snapshot = DirectorySnapshot.EMPTY;
+			children.clear();
 		}
+	}
 
+	/**
+	 * Checks all the roots, scheduled on the shared pool.
+	 */
+	private final class Check implements Runnable {
+		public void run() {
+			// changes are picked up by the next check once the listeners caught up
+			if (isPaused || getPendingDeliveries() > 0)
+				return;
+			try {
+				// a check left running by a previous start may still be around
+				synchronized (roots) {
+					checkFileSystem();
+				}
+			} catch (Throwable e) {
+				if (LOGGER.isLoggable(Level.SEVERE))
+					LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+			}
+		}
 	}
 
-	protected final Map<String, Long> filesMap = Collections.synchronizedMap(new TreeMap<String, Long>());
-	protected long lastModifiedTime = -1;
-	protected Thread workers[];
+	private final List<DirectoryNode> roots = new ArrayList<DirectoryNode>();
+
+	/** Modification time of the roots as of the last check, parallel to {@link #roots}. */
+	private final long[] rootsLastModified;
+
+	private final boolean includeSubdirectories;
+
+	private final FilenameFilter filter;
+
+	private final long pollingInterval;
+
+	private ScheduledFuture<?> scheduled;
+
+	private volatile boolean isPaused = false;
 
 	public PureJavaFileSystemWatcher(File file) {
 		this(file, DEFAULT_POLLING_INTERVAL);
@@ -82,35 +146,44 @@ public final class PureJavaFileSystemWatcher extends BaseFileSystemMonitor {
 	 */
 	public PureJavaFileSystemWatcher(File file, String wildCard,
 			long pollingInterval) {
-		super(file, wildCard);
-		long modifiedTime = file.exists() ? file.lastModified() : -1;
-		lastModifiedTime = modifiedTime;
-		if (this.file.exists()&&file.canRead()) {
-			final File[] files;
-			if(wildCard==null){
-				if(file.isDirectory())
-					files =this.file.listFiles();
-				else
-					files = new File[]{file};
-			}else
-				if(file.isDirectory())
-					files =this.file.listFiles((FileFilter) new WildcardFileFilter(wildCardString,IOCase.INSENSITIVE));
-				else
-					throw new IllegalStateException("Cannot use a wildcard with aplain file");
-
-			for (int i = 0; i < files.length; i++) {
-				filesMap.put(files[i].getName(), new Long(files[i]
-						.lastModified()));// name -- last modified
+		this(new File[] { file }, wildCard, false, pollingInterval);
+	}
 
-			}
+	/**
+	 * Create a file monitor instance watching several roots.
+	 * 
+	 * @param roots
+	 *            the watched directories or files, the first one is the one returned by
+	 *            {@link #getFile()}.
+	 * @param includeSubdirectories
+	 *            whether the sub directories of the roots are watched as well.
+	 * @param pollingInterval
+	 *            Polling interval in milli seconds.
+	 */
+	public PureJavaFileSystemWatcher(File[] roots, String wildCard,
+			boolean includeSubdirectories, long pollingInterval) {
+		super(roots[0], wildCard);
+		setAsyncDelivery(true);
+		this.includeSubdirectories = includeSubdirectories;
+		this.pollingInterval = pollingInterval > 0 ? pollingInterval : DEFAULT_POLLING_INTERVAL;
+		this.rootsLastModified = new long[roots.length];
+		for (int i = 0; i < roots.length; i++) {
+			final File root = roots[i];
+			if (root==null||!root.exists()||!root.canRead())
+				throw new IllegalArgumentException("Input File not valid!");
+			if(wildCard!=null&&!root.isDirectory())
+				throw new IllegalStateException("Cannot use a wildcard with aplain file");
+			rootsLastModified[i] = root.lastModified();
 		}
-		else
-			throw new IllegalArgumentException("Input File not valid!");
+		filter = wildCard != null ? new WildcardFileFilter(wildCard, IOCase.INSENSITIVE) : null;
 
-		this.workers = new Thread[] { new PureJavaMonitorNotifier(
-				pollingInterval) };
-		this.wildCardString = wildCard;
-		((PureJavaMonitorNotifier) this.workers[0]).setDaemon(true);
+		// initial state, no events
+		for (File root : roots) {
+			final DirectoryNode node = new DirectoryNode(root.getAbsoluteFile());
+			if (root.isDirectory())
+				check(node, false);
+			this.roots.add(node);
+		}
 	}
 
 	public FileSystemMonitorSPI getSPI() {
@@ -118,303 +191,161 @@ public final class PureJavaFileSystemWatcher extends BaseFileSystemMonitor {
 	}
 
 	/**
-	 * This is the timer thread which is executed every n milliseconds according
-	 * to the setting of the file monitor. It investigates the file in question
-	 * and notify listeners if changed.
+	 * Investigates the watched roots and notifies listeners about the changes, called
+	 * periodically on the shared pool, never concurrently for the same instance.
 	 * 
 	 * @author Simone Giannecchini
 	 * 
 	 */
 	protected void checkFileSystem() {
-	
-		synchronized (filesMap) {
-	
-			// //
-			//
-			// If we do not have anything to watch let's proceed.
-			//
-			// //
-			if (file == null)
-				return;
-	
-			// //
-			//
-			// Get the newest modified time for this directoy.
-			//
-			// //
-			final long newModifiedTime = file.exists() ? file.lastModified(): -1;
-	
+		for (int i = 0; i < roots.size(); i++) {
+			final DirectoryNode root = roots.get(i);
+			final File file = root.directory;
+
 			// //
 			//
-			// In case I had some changes in the modified time for the
-			// watched directory I start all the needed controls.
-			//
-			// Either the directory has been removed or it has been added or
+			// Either the root has been removed or it has been added or
 			// same changes happened below it. We start with looking for the
-			// first two conditions that are, the directory has been removed
-			// or created.
-			//
-			//
-			// In the rest we look at all the children of this directory to
-			// see if something changed
+			// first two conditions.
 			//
 			// //
-			if (newModifiedTime != lastModifiedTime) {
-	
-				// //
-				//
-				// Directory removed
-				//
-				// //
-				if (newModifiedTime == -1)
+			final long newModifiedTime = file.exists() ? file.lastModified() : -1;
+			final long lastModifiedTime = rootsLastModified[i];
+			rootsLastModified[i] = newModifiedTime;
+			if (newModifiedTime == -1) {
+				if (lastModifiedTime != -1) {
+					root.clear();
 					sendEvent(new FileSystemMonitorEvent(file,
 							FileSystemMonitorNotifications.DIR_REMOVED));
+				}
+				continue;
+			}
+			if (lastModifiedTime == -1)
+				sendEvent(new FileSystemMonitorEvent(file,
+						FileSystemMonitorNotifications.DIR_CREATED));
+
+			if (!file.isDirectory()) {
 				// //
 				//
-				// Directory created
+				// Plain file modified
 				//
 				// //
-				else if (lastModifiedTime == -1)
+				if (lastModifiedTime != -1 && newModifiedTime != lastModifiedTime)
 					sendEvent(new FileSystemMonitorEvent(file,
-							FileSystemMonitorNotifications.DIR_CREATED));
-				else {
-					// //
-					//
-					// Directory modified, let's look for changes in the
-					// children
-					//
-					// //
-					// prefix for the files
-					final String prefix = new StringBuffer(file
-							.getAbsolutePath().trim()).append(File.separator)
-							.toString();
-	
-					// get updated file list
-					final String[] newFiles = wildCardString != null ? file
-							.list((FilenameFilter) new WildcardFileFilter(wildCardString,IOCase.INSENSITIVE)) : file.list();
-					// converting to a list
-					final List<String> newFilesList = new ArrayList<String>();
-					newFilesList.addAll(Arrays.asList(newFiles));
-	
-					// //
-					//
-					// First look for removed and modified by looping
-					// through the old list. If I do not find some of the
-					// old ones in the newest I assume they have been
-					// removed, if I find them I have to check if they have
-					// been modified by looking at the last modified.
-					//
-					// It is important to remove the found files from the
-					// updated list in order to have at the end the list of
-					// newly created files.
-					//
-					// //
-					String oldFileName;
-					// this has to be used in a synch environment
-					final Set<String> keySet = filesMap.keySet();
-					Iterator<String> it = keySet.iterator();
-					File file;
-					long newLastModified;
-					// this is going to old the values to be added to the
-					// back end list.
-					final TreeMap<String, Long> newValues = new TreeMap<String, Long>();
-					while (it.hasNext()) {
-						// modified ar removed
-						oldFileName = it.next();
-						file = new File(new StringBuffer(prefix).append(oldFileName).toString());
-	
-						// //
-						//
-						// If the new list does not contain the old file
-						// name it means that the file has been removed,
-						// hence we have to remove it from the old list and
-						// notify the listeners.
-						//
-						// If the new list contains the old file name I have
-						// to check if it has been modified. In such case I
-						// have to update the modified time.
-						//
-						// //
-						if (newFilesList.contains(oldFileName)) {
-							// remove it from the new files list
-							newFilesList.remove(oldFileName);
-	
-							// change modification time if it has
-							// changed. It is worth to note that I CANNOT
-							// modify the list while the Iterator is
-							// iterating through the key set therefore I
-							// have to remove the key,value pair and add it
-							// to the new files list.
-							newLastModified = file.lastModified();
-							if (newLastModified != filesMap.get(oldFileName).longValue()) {
-	
-								it.remove();
-								newValues.put(oldFileName, new Long(newLastModified));
-	
-								// event
-								sendEvent(new FileSystemMonitorEvent(file,FileSystemMonitorNotifications.FILE_MODIFIED));
-							}
-						} else {
-							// the file has been removed
-							// remove it
-							it.remove();
-	
-							// removed
-							sendEvent(new FileSystemMonitorEvent(file,FileSystemMonitorNotifications.FILE_REMOVED));
-						}
-	
-					}
-	
-					// //
-					//
-					// Now the files that are still in the new list have
-					// been created
-					//
-					// //
-					it = newFilesList.iterator();
-					String newFileName;
-					while (it.hasNext()) {
-	
-						// get the name
-						newFileName = it.next();
-						// create a file
-						file = new File(new StringBuffer(prefix).append(newFileName).toString());
-	
-						// add it
-						newValues.put(newFileName,new Long(file.lastModified()));
-	
-						// fire event
-						sendEvent(new FileSystemMonitorEvent(file,FileSystemMonitorNotifications.FILE_ADDED));
-					}
-					// add them all
-					filesMap.putAll(newValues);
-	
-				}
-				// Register new modified time for the enclosing dir
-				lastModifiedTime = newModifiedTime;
+							FileSystemMonitorNotifications.FILE_MODIFIED));
+				continue;
 			}
+
+			// //
+			//
+			// Look for changes in the children, listing only the
+			// directories whose modification time changed
+			//
+			// //
+			check(root, true);
 		}
 	}
 
-	public synchronized void dispose() {
-		stop();
-		for (int i = 0; i < workers.length; i++) {
-			((AbstractPausableThread) this.workers[i]).requestTermination();
-			((AbstractPausableThread) this.workers[i]).dispose();
-			this.workers[i] = null;
-		}
-	
-		this.workers = null;
-	
-		if (listeners != null) {
-			Object[] listenerArray = listeners.getListenerList();
-			final int length = listenerArray.length;
-			for (int i = length - 2; i >= 0; i -= 2) {
-				if (listenerArray[i] == FileSystemMonitorListener.class) {
-					listeners.remove(FileSystemMonitorListener.class,
-							(FileSystemMonitorListener) listenerArray[i + 1]);
+	/**
+	 * Updates the state of a directory, and of its sub directories in recursive mode.
+	 * 
+	 * @param notify
+	 *            whether changes have to be notified.
+	 */
+	private void check(final DirectoryNode node, final boolean notify) {
+		final File directory = node.directory;
+		final long newModifiedTime = directory.lastModified();
+		if (newModifiedTime != node.lastModified) {
+			// in recursive mode we need all the entries to find the sub directories
+			final DirectorySnapshot newSnapshot = DirectorySnapshot.take(directory,
+					includeSubdirectories ? null : filter);
+			node.snapshot.diff(newSnapshot, new DirectorySnapshot.Visitor() {
+				public void added(String name) {
+					if (includeSubdirectories) {
+						final File child = new File(directory, name);
+						if (child.isDirectory())
+							// checked below, its content is reported as added
+							node.children.put(name, new DirectoryNode(child));
+					}
+					fire(directory, name, FileSystemMonitorNotifications.FILE_ADDED, notify);
 				}
-			}
+
+				public void removed(String name) {
+					node.children.remove(name);
+					fire(directory, name, FileSystemMonitorNotifications.FILE_REMOVED, notify);
+				}
+
+				public void modified(String name) {
+					fire(directory, name, FileSystemMonitorNotifications.FILE_MODIFIED, notify);
+				}
+			});
+			node.snapshot = newSnapshot;
+			node.lastModified = newModifiedTime;
 		}
-		filesMap.clear();
-		listeners = null;
+
+		for (DirectoryNode child : node.children.values())
+			check(child, notify);
+	}
+
+	private void fire(final File directory, final String name,
+			final FileSystemMonitorNotifications notification, final boolean notify) {
+		if (!notify)
+			return;
+		// in recursive mode the listing is not filtered
+		if (includeSubdirectories && filter != null && !filter.accept(directory, name))
+			return;
+		sendEvent(new FileSystemMonitorEvent(new File(directory, name), notification));
 	}
 
 	/**
 	 * 
 	 */
-	public synchronized boolean isPaused() {
-		if (this.workers != null) {
-			for (int i = 0; i < workers.length; i++) {
-				if (this.workers[i] != null
-						&& ((AbstractPausableThread) this.workers[i]).isPaused()) {
-					return true;
-				}
-			}
-	
-		}
-		return false;
+	public boolean isPaused() {
+		return isPaused;
 	}
 
 	/**
 	 * Check if the watcher is up and running.
 	 */
 	public synchronized boolean isRunning() {
-		boolean isAlive = true;
-		if (this.workers != null) {
-			for (int i = 0; i < workers.length; i++) {
-				final Thread observer = ((Thread) this.workers[i]);
-				isAlive = isAlive && observer != null && observer.isAlive();
-			}
-		} else
-			isAlive = false;
-	
-		return this.workers != null && isAlive;
+		return scheduled != null && !scheduled.isDone();
 	}
 
 	/**
-	 * 
+	 * Changes happening while paused are notified on restart.
 	 */
-	public synchronized void pause() {
-		if (this.workers != null) {
-			for (int i = 0; i < workers.length; i++) {
-				if (this.workers[i] != null) {
-					((AbstractPausableThread) this.workers[i])
-							.setPauseRequested(true);
-				}
-			}
-	
-		}
-	
+	public void pause() {
+		isPaused = true;
 	}
 
 	/**
 	 * 
 	 */
-	public synchronized void reset() {
-		if (this.workers != null) {
-			for (int i = 0; i < workers.length; i++) {
-				if (this.workers[i] != null) {
-					((AbstractPausableThread) this.workers[i]).setPaused(false);
-					((AbstractPausableThread) this.workers[i])
-							.setTerminationRequested(false);
-					((AbstractPausableThread) this.workers[i]).setPaused(false);
-				}
-			}
-	
-		}
-	
+	public void reset() {
+		isPaused = false;
 	}
 
 
 	/**
-	 * Starts watching changes in the directory. Note that a worker thread will
-	 * be started to monitor file system changes, and this method will return
-	 * immediately. All file system events are fired in the worker thread. The
-	 * worker thread will run until stop() is invoked if there is no error. In
-	 * case of error, the worker thread might terminate prematurely. You can use
-	 * isRunning() to check whether the worker thread is running or not.
+	 * Starts watching changes in the directory. Note that checks are scheduled on a shared pool
+	 * of threads and this method will return immediately. All file system events are fired in
+	 * the delivery thread of this watcher. Checks will run until stop() is invoked.
 	 */
 	public synchronized void start() {
+		isPaused = false;
 		if(isRunning())
 			return ;
-		for (int i = 0; i < workers.length; i++) {
-			if (workers[i] != null) {
-				this.workers[i].start();
-			}
-		}
-	
+		scheduled = SCHEDULER.scheduleWithFixedDelay(new Check(), pollingInterval,
+				pollingInterval, TimeUnit.MILLISECONDS);
 	}
 
 	/**
 	 * Stops watching changes in the directory.
 	 */
 	public synchronized void stop() {
-		if (this.workers != null) {
-			for (int i = 0; i < workers.length; i++) {
-				((AbstractPausableThread) this.workers[i]).requestTermination();
-			}
-	
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
 		}
 	}
 
@@ -6,9 +6,13 @@ import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
 import java.io.File;
 import java.util.Map;
 
-public final class PureJavaFileSystemWatcherSPI implements FileSystemMonitorSPI {
+import org.springframework.core.Ordered;
+
+public final class PureJavaFileSystemWatcherSPI implements FileSystemMonitorSPI, Ordered {
 	
 	public final static String INTERVAL="interval";
+	/** Additional roots to watch, as a <code>File[]</code>. */
+	public final static String ROOTS="roots";
 	public boolean canWatch(OsType osType) {
 		return true;
 	}
@@ -18,6 +22,13 @@ public final class PureJavaFileSystemWatcherSPI implements FileSystemMonitorSPI
 		return true;
 	}
 
+	/**
+	 * Polling always works, it is the last resort when nothing else is available.
+	 */
+	public int getOrder() {
+		return Ordered.LOWEST_PRECEDENCE;
+	}
+
 	public PureJavaFileSystemWatcher createInstance(Map<String, ?> configuration) {
 		//get the params
 		//polling interval
@@ -38,10 +49,30 @@ public final class PureJavaFileSystemWatcherSPI implements FileSystemMonitorSPI
 		if(element!=null && element.getClass().isAssignableFrom(String.class))
 			wildcard=(String)element;
 		
+		// sub directories
+		boolean includeSubdir=false;
+		element=configuration.get(SUBDIRS);
+		if(element!=null && element.getClass().isAssignableFrom(Boolean.class))
+			includeSubdir=((Boolean)element).booleanValue();
+
+		// additional roots
+		File[] roots=null;
+		element=configuration.get(ROOTS);
+		if(element!=null && element.getClass().isAssignableFrom(File[].class))
+			roots=(File[])element;
+
 		//checks
-		if (!file.exists()||!file.canRead())
+		if (file==null||!file.exists()||!file.canRead())
 			return null;
 		
+		if(includeSubdir||(roots!=null&&roots.length>0)){
+			final File[] all=new File[1+(roots!=null?roots.length:0)];
+			all[0]=file;
+			if(roots!=null)
+				System.arraycopy(roots, 0, all, 1, roots.length);
+			return new PureJavaFileSystemWatcher(all,wildcard,includeSubdir,interval!=null?interval.longValue():-1);
+		}
+		
 		if(wildcard!=null&&interval!=null&&interval>0)
 			return new PureJavaFileSystemWatcher(file,wildcard,interval);
 		if(wildcard!=null&&(interval==null||interval<=0))
@@ -0,0 +1,128 @@
+package it.geosolutions.filesystemmonitor.monitorpolling;
+
+import it.geosolutions.filesystemmonitor.neutral.monitorpolling.DirectorySnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Compares the time needed to diff two listings of a directory of growing size with the
+ * {@link DirectorySnapshot} sort-merge against the list based diff it replaced. Only run with
+ * the <code>stress</code> profile.
+ */
+public class DirectorySnapshotStressTest {
+
+	private final static Logger LOGGER = Logger.getLogger(DirectorySnapshotStressTest.class.toString());
+
+	private final static int[] SIZES = { 1000, 10000, 50000 };
+
+	/** One entry out of CHANGE_RATIO is removed, modified and added between listings. */
+	private final static int CHANGE_RATIO = 100;
+
+	private final static class Counter implements DirectorySnapshot.Visitor {
+		int changes;
+
+		public void added(String name) {
+			changes++;
+		}
+
+		public void removed(String name) {
+			changes++;
+		}
+
+		public void modified(String name) {
+			changes++;
+		}
+	}
+
+	@Test
+	public void testDiff() {
+		for (int size : SIZES) {
+			final String[] oldNames = new String[size];
+			final long[] oldTimes = new long[size];
+			final List<String> newNames = new ArrayList<String>(size);
+			final List<Long> newTimes = new ArrayList<Long>(size);
+			for (int i = 0; i < size; i++) {
+				oldNames[i] = "granule_" + i + ".tif";
+				oldTimes[i] = i;
+				if (i % CHANGE_RATIO == 0)
+					// removed
+					continue;
+				newNames.add(oldNames[i]);
+				newTimes.add(Long.valueOf(i % CHANGE_RATIO == 1 ? i + 1 : i));
+				if (i % CHANGE_RATIO == 2) {
+					newNames.add("added_" + i + ".tif");
+					newTimes.add(Long.valueOf(i));
+				}
+			}
+			final String[] newNamesArray = newNames.toArray(new String[newNames.size()]);
+			final long[] newTimesArray = new long[newTimes.size()];
+			for (int i = 0; i < newTimesArray.length; i++)
+				newTimesArray[i] = newTimes.get(i).longValue();
+
+			long start = System.nanoTime();
+			final int legacyChanges = legacy(oldNames, oldTimes, newNamesArray, newTimesArray);
+			final long legacyTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final DirectorySnapshot older = DirectorySnapshot.create(oldNames, oldTimes);
+			final DirectorySnapshot newer = DirectorySnapshot.create(newNamesArray, newTimesArray);
+			final Counter counter = new Counter();
+			older.diff(newer, counter);
+			final long snapshotTime = System.nanoTime() - start;
+
+			LOGGER.info("Diff of " + size + " entries, list based: " + legacyTime / 1000000
+					+ "ms, snapshot sort-merge: " + snapshotTime / 1000000 + "ms");
+			Assert.assertEquals(legacyChanges, counter.changes);
+			Assert.assertEquals(3 * (size / CHANGE_RATIO), counter.changes);
+		}
+	}
+
+	/**
+	 * The diff formerly performed by the polling watcher.
+	 */
+	private static int legacy(final String[] oldNames, final long[] oldTimes,
+			final String[] newNames, final long[] newTimes) {
+		final Map<String, Long> filesMap = new TreeMap<String, Long>();
+		for (int i = 0; i < oldNames.length; i++)
+			filesMap.put(oldNames[i], Long.valueOf(oldTimes[i]));
+		final Map<String, Long> current = new TreeMap<String, Long>();
+		for (int i = 0; i < newNames.length; i++)
+			current.put(newNames[i], Long.valueOf(newTimes[i]));
+
+		int changes = 0;
+		final List<String> newFilesList = new ArrayList<String>();
+		newFilesList.addAll(Arrays.asList(newNames));
+		final TreeMap<String, Long> newValues = new TreeMap<String, Long>();
+		for (Iterator<String> it = filesMap.keySet().iterator(); it.hasNext();) {
+			final String oldFileName = it.next();
+			if (newFilesList.contains(oldFileName)) {
+				newFilesList.remove(oldFileName);
+				final Long newLastModified = current.get(oldFileName);
+				if (!newLastModified.equals(filesMap.get(oldFileName))) {
+					it.remove();
+					newValues.put(oldFileName, newLastModified);
+					changes++;
+				}
+			} else {
+				it.remove();
+				changes++;
+			}
+		}
+		for (String newFileName : newFilesList) {
+			newValues.put(newFileName, current.get(newFileName));
+			changes++;
+		}
+		filesMap.putAll(newValues);
+		return changes;
+	}
+}
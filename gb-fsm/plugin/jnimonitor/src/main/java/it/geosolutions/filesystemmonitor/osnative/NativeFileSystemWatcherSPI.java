@@ -6,7 +6,9 @@ import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
 import java.io.File;
 import java.util.Map;
 
-public class NativeFileSystemWatcherSPI implements FileSystemMonitorSPI {
+import org.springframework.core.Ordered;
+
+public class NativeFileSystemWatcherSPI implements FileSystemMonitorSPI, Ordered {
 
 	public final static String SUBDIRS="subdirs";
 
@@ -22,6 +24,13 @@ public class NativeFileSystemWatcherSPI implements FileSystemMonitorSPI {
 		return NativeLibsUtils.available;
 	}
 
+	/**
+	 * The native monitor is preferred over any other one when its libraries are available.
+	 */
+	public int getOrder() {
+		return 0;
+	}
+
 	public NativeFileSystemWatcher createInstance(Map<String, ?> configuration) {
 		if(!NativeLibsUtils.available)
 			throw new IllegalStateException("Native monitor unable to work.");
@@ -0,0 +1,411 @@
+package it.geosolutions.filesystemmonitor.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
+import it.geosolutions.filesystemmonitor.monitor.impl.BaseFileSystemMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
+
+/**
+ * {@link it.geosolutions.filesystemmonitor.monitor.FileSystemMonitor} built on top of the Java 7
+ * {@link WatchService}, which relies on the notification facility of the operating system
+ * where available (inotify, ReadDirectoryChangesW) instead of polling.
+ * <p>
+ * Sub directories are watched as well when requested, new ones being registered as soon as
+ * they show up. When the operating system drops events, i.e. an <code>OVERFLOW</code> is
+ * received, the watched tree is scanned again and compared against the last known state, so
+ * that the lost additions, modifications and removals are still notified.
+ * <p>
+ * While paused, the events are left in the {@link WatchService} and delivered on restart.
+ * Events are delivered by a dedicated daemon thread.
+ * <p>
+ * When the watched directory is removed, or moved away, a <code>DIR_REMOVED</code> event is
+ * fired and the watcher stops, it can be started again once the directory is back.
+ */
+public final class Nio2FileSystemWatcher extends BaseFileSystemMonitor {
+
+	private final static Logger LOGGER = Logger.getLogger(Nio2FileSystemWatcher.class.toString());
+
+	/**
+	 * Seconds between two checks that the watched directory is still in place, its removal is
+	 * not notified on every platform and its move never is.
+	 */
+	private final static long ROOT_CHECK_INTERVAL = 5;
+
+	/**
+	 * Watches the tree starting at the monitored directory, one instance per
+	 * {@link Nio2FileSystemWatcher#start()}.
+	 */
+	private final class Worker implements Runnable {
+
+		private final Path root;
+
+		private final WatchService watchService;
+
+		/** Watched directories. */
+		private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+		/** Last modified time of the known entries, used to recover from overflows. */
+		private final Map<Path, Long> entries = new HashMap<Path, Long>();
+
+		/** Known entries which are directories. */
+		private final Set<Path> subdirectories = new HashSet<Path>();
+
+		private volatile boolean closed = false;
+
+		Worker(final Path root) throws IOException {
+			this.root = root;
+			this.watchService = root.getFileSystem().newWatchService();
+			try {
+				scan(root, false, null);
+			} catch (IOException e) {
+				watchService.close();
+				throw e;
+			}
+		}
+
+		public void run() {
+			try {
+				while (!closed) {
+					final WatchKey key = watchService.poll(ROOT_CHECK_INTERVAL, TimeUnit.SECONDS);
+					if (key == null) {
+						if (!closed && !Files.isDirectory(root)) {
+							rootRemoved();
+							break;
+						}
+						continue;
+					}
+					awaitResume();
+					if (closed)
+						break;
+
+					final Path dir = directories.get(key);
+					if (dir != null) {
+						for (WatchEvent<?> event : key.pollEvents()) {
+							final WatchEvent.Kind<?> kind = event.kind();
+							if (kind == OVERFLOW) {
+								rescan();
+								continue;
+							}
+							final Path child = dir.resolve((Path) event.context());
+							if (kind == ENTRY_CREATE)
+								created(child);
+							else if (kind == ENTRY_MODIFY)
+								modified(child);
+							else if (kind == ENTRY_DELETE)
+								deleted(child);
+						}
+					}
+
+					if (!key.reset()) {
+						directories.remove(key);
+						if (root.equals(dir)) {
+							rootRemoved();
+							break;
+						}
+					}
+				}
+			} catch (ClosedWatchServiceException e) {
+				// stopped
+			} catch (InterruptedException e) {
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Interrupted while watching " + root);
+			} catch (Throwable e) {
+				if (LOGGER.isLoggable(Level.SEVERE))
+					LOGGER.log(Level.SEVERE, "Unable to keep watching " + root + ": "
+							+ e.getLocalizedMessage(), e);
+			} finally {
+				close();
+				stopped(this);
+			}
+		}
+
+		private void rootRemoved() {
+			if (LOGGER.isLoggable(Level.WARNING))
+				LOGGER.warning("Watched directory " + root + " removed, stopping the watcher");
+			// whatever the wildcard
+			sendEvent(new FileSystemMonitorEvent(root.toFile(), FileSystemMonitorNotifications.DIR_REMOVED));
+		}
+
+		void close() {
+			closed = true;
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+			}
+			synchronized (pauseLock) {
+				pauseLock.notifyAll();
+			}
+		}
+
+		private void awaitResume() throws InterruptedException {
+			synchronized (pauseLock) {
+				while (isPaused && !closed)
+					pauseLock.wait();
+			}
+		}
+
+		private void created(final Path child) throws IOException {
+			final BasicFileAttributes attributes = readAttributes(child);
+			if (attributes == null)
+				// already gone
+				return;
+			if (attributes.isDirectory() && includeSubdirectories)
+				// register it and catch up with what has been created before registration
+				scan(child, true, null);
+			else
+				track(child, attributes, true, null);
+		}
+
+		private void modified(final Path child) {
+			final BasicFileAttributes attributes = readAttributes(child);
+			if (attributes == null)
+				return;
+			track(child, attributes, false, null);
+			fire(child, FileSystemMonitorNotifications.FILE_MODIFIED);
+		}
+
+		private void deleted(final Path child) {
+			if (entries.remove(child) == null)
+				return;
+			if (subdirectories.remove(child))
+				forget(child);
+			fire(child, FileSystemMonitorNotifications.FILE_REMOVED);
+		}
+
+		/**
+		 * Drops the known entries below a removed directory, their own removal is notified by
+		 * the watch key of the directory, if any.
+		 */
+		private void forget(final Path directory) {
+			for (Iterator<Path> it = entries.keySet().iterator(); it.hasNext();) {
+				final Path path = it.next();
+				if (path.startsWith(directory)) {
+					it.remove();
+					subdirectories.remove(path);
+				}
+			}
+		}
+
+		/**
+		 * Scans the whole tree again notifying the differences with the last known state.
+		 */
+		private void rescan() throws IOException {
+			if (LOGGER.isLoggable(Level.INFO))
+				LOGGER.info("Events lost while watching " + root + ", scanning it again");
+			final Set<Path> seen = new HashSet<Path>();
+			scan(root, true, seen);
+			for (Iterator<Map.Entry<Path, Long>> it = entries.entrySet().iterator(); it.hasNext();) {
+				final Path path = it.next().getKey();
+				if (!seen.contains(path)) {
+					it.remove();
+					subdirectories.remove(path);
+					fire(path, FileSystemMonitorNotifications.FILE_REMOVED);
+				}
+			}
+		}
+
+		/**
+		 * Registers the directories and records the entries of the tree starting at the
+		 * provided directory.
+		 * 
+		 * @param notify
+		 *            whether new and changed entries have to be notified.
+		 * @param seen
+		 *            collects the visited entries, may be <code>null</code>.
+		 */
+		private void scan(final Path start, final boolean notify, final Set<Path> seen)
+				throws IOException {
+			final int depth = includeSubdirectories ? Integer.MAX_VALUE : 1;
+			Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), depth,
+					new SimpleFileVisitor<Path>() {
+
+						public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+								throws IOException {
+							directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE,
+									ENTRY_MODIFY), dir);
+							if (!dir.equals(root))
+								track(dir, attrs, notify, seen);
+							return FileVisitResult.CONTINUE;
+						}
+
+						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+							track(file, attrs, notify, seen);
+							return FileVisitResult.CONTINUE;
+						}
+
+						public FileVisitResult visitFileFailed(Path file, IOException e) {
+							// most likely removed in the meanwhile
+							if (LOGGER.isLoggable(Level.FINE))
+								LOGGER.fine("Unable to visit " + file + ": " + e.getLocalizedMessage());
+							return FileVisitResult.CONTINUE;
+						}
+					});
+		}
+
+		private void track(final Path path, final BasicFileAttributes attributes,
+				final boolean notify, final Set<Path> seen) {
+			final Long lastModified = Long.valueOf(attributes.lastModifiedTime().toMillis());
+			final Long previous = entries.put(path, lastModified);
+			if (attributes.isDirectory())
+				subdirectories.add(path);
+			if (seen != null)
+				seen.add(path);
+			if (!notify)
+				return;
+			if (previous == null)
+				fire(path, FileSystemMonitorNotifications.FILE_ADDED);
+			else if (!previous.equals(lastModified))
+				fire(path, FileSystemMonitorNotifications.FILE_MODIFIED);
+		}
+	}
+
+	private final Object pauseLock = new Object();
+
+	private volatile boolean isPaused = false;
+
+	private volatile boolean isRunning = false;
+
+	/** Whether sub-directories should be included or not... */
+	private final boolean includeSubdirectories;
+
+	private Worker worker;
+
+	public Nio2FileSystemWatcher(File file) {
+		this(file, false, null);
+	}
+
+	public Nio2FileSystemWatcher(File file, boolean includeSubdirectories) {
+		this(file, includeSubdirectories, null);
+	}
+
+	public Nio2FileSystemWatcher(File file, String wildCard) {
+		this(file, false, wildCard);
+	}
+
+	public Nio2FileSystemWatcher(File file, boolean includeSubdirectories, String wildCard) {
+		super(file, wildCard);
+		this.includeSubdirectories = includeSubdirectories;
+	}
+
+	public FileSystemMonitorSPI getSPI() {
+		return new Nio2FileSystemWatcherSPI();
+	}
+
+	/**
+	 * Starts watching changes in the directory, or resumes delivering them if paused. Events are
+	 * fired by a worker thread which runs until {@link #stop()} is invoked or the watched
+	 * directory is removed.
+	 */
+	public synchronized void start() {
+		if (isPaused) {
+			synchronized (pauseLock) {
+				isPaused = false;
+				pauseLock.notifyAll();
+			}
+			return;
+		}
+		if (isRunning)
+			return;
+
+		if (file == null || !file.exists() || !file.isDirectory())
+			throw new IllegalStateException("Severe Error. FileSystemWatcher is not properly configured!!");
+
+		try {
+			worker = new Worker(file.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		final Thread thread = new Thread(worker, "Nio2FileSystemWatcher-" + file.getName());
+		thread.setDaemon(true);
+		isRunning = true;
+		thread.start();
+	}
+
+	/**
+	 * Stops watching changes in the directory, pending events are discarded.
+	 */
+	public synchronized void stop() {
+		isPaused = false;
+		isRunning = false;
+		if (worker != null) {
+			worker.close();
+			worker = null;
+		}
+	}
+
+	/**
+	 * Marks the watcher as stopped once its worker is done, unless it has been replaced.
+	 */
+	private synchronized void stopped(final Worker done) {
+		if (worker != done)
+			return;
+		worker = null;
+		isRunning = false;
+		isPaused = false;
+	}
+
+	public void pause() {
+		isPaused = true;
+	}
+
+	public synchronized void reset() {
+		stop();
+		start();
+	}
+
+	public boolean isRunning() {
+		return isRunning && worker != null && !worker.closed;
+	}
+
+	public boolean isPaused() {
+		return isPaused;
+	}
+
+	private void fire(final Path path, final FileSystemMonitorNotifications notification) {
+		if (wildCardString != null
+				&& !FilenameUtils.wildcardMatch(path.getFileName().toString(), wildCardString,
+						IOCase.INSENSITIVE))
+			return;
+		sendEvent(new FileSystemMonitorEvent(path.toFile(), notification));
+	}
+
+	private static BasicFileAttributes readAttributes(final Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
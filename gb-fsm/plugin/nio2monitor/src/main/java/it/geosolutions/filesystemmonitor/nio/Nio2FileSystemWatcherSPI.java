@@ -0,0 +1,81 @@
+package it.geosolutions.filesystemmonitor.nio;
+
+import it.geosolutions.filesystemmonitor.OsType;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.core.Ordered;
+
+/**
+ * {@link FileSystemMonitorSPI} for the {@link Nio2FileSystemWatcher}.
+ * <p>
+ * It is preferred over the polling monitor whenever the default file system provides a
+ * {@link WatchService}, and gives way to the native one when its libraries are installed,
+ * unless {@link OsType#OS_NIO2} is requested.
+ */
+public final class Nio2FileSystemWatcherSPI implements FileSystemMonitorSPI, Ordered {
+
+	private final static Logger LOGGER = Logger.getLogger(Nio2FileSystemWatcherSPI.class.toString());
+
+	private static Boolean available;
+
+	public boolean canWatch(OsType osType) {
+		return isAvailable();
+	}
+
+	/**
+	 * Checks once whether a {@link WatchService} can be created on the default file system.
+	 */
+	public boolean isAvailable() {
+		synchronized (Nio2FileSystemWatcherSPI.class) {
+			if (available == null) {
+				try {
+					FileSystems.getDefault().newWatchService().close();
+					available = Boolean.TRUE;
+				} catch (Throwable e) {
+					if (LOGGER.isLoggable(Level.INFO))
+						LOGGER.info("NIO.2 file system monitor not available: " + e.getLocalizedMessage());
+					available = Boolean.FALSE;
+				}
+			}
+			return available.booleanValue();
+		}
+	}
+
+	public int getOrder() {
+		return 100;
+	}
+
+	public Nio2FileSystemWatcher createInstance(Map<String, ?> configuration) {
+		//get the params
+		Boolean includeSubdir=null;
+		Object element=configuration.get(SUBDIRS);
+		if(element!=null && element.getClass().isAssignableFrom(Boolean.class))
+			includeSubdir=(Boolean)element;
+
+		//file
+		File file=null;
+		element=configuration.get(SOURCE);
+		if(element!=null && element.getClass().isAssignableFrom(File.class))
+			file=(File)element;
+
+		// wildcard
+		String wildcard=null;
+		element=configuration.get(WILDCARD);
+		if(element!=null && element.getClass().isAssignableFrom(String.class))
+			wildcard=(String)element;
+
+		//checks
+		if (file==null||!file.exists()||!file.canRead())
+			return null;
+
+		return new Nio2FileSystemWatcher(file, includeSubdir != null && includeSubdir.booleanValue(), wildcard);
+	}
+
+}
@@ -0,0 +1,143 @@
+package it.geosolutions.filesystemmonitor.nio;
+
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitor;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorEvent;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorListener;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorNotifications;
+import it.geosolutions.filesystemmonitor.monitor.FileSystemMonitorSPI;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+@ContextConfiguration(locations={"/applicationContext.xml"})
+public class Nio2Test extends AbstractJUnit4SpringContextTests {
+
+	private final BlockingQueue<FileSystemMonitorEvent> events = new LinkedBlockingQueue<FileSystemMonitorEvent>();
+
+	private FileSystemMonitor monitor;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("nio2", "test");
+		Assert.assertTrue(dir.delete() && dir.mkdir());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (monitor != null) {
+			monitor.stop();
+			monitor.dispose();
+		}
+		delete(dir);
+	}
+
+	@Test
+	public void testRecursiveWatch() throws Exception {
+		final FileSystemMonitorSPI spi = (FileSystemMonitorSPI) this.applicationContext.getBean("nio2FSMSPI");
+		if (!spi.isAvailable())
+			return;
+
+		final Map<String, Object> params = new HashMap<String, Object>();
+		params.put(FileSystemMonitorSPI.SOURCE, dir);
+		params.put(FileSystemMonitorSPI.WILDCARD, "*.txt");
+		params.put(Nio2FileSystemWatcherSPI.SUBDIRS, Boolean.TRUE);
+		monitor = spi.createInstance(params);
+		monitor.addListener(new FileSystemMonitorListener() {
+			public void fileMonitorEventDelivered(FileSystemMonitorEvent fe) {
+				events.add(fe);
+			}
+		});
+		monitor.start();
+
+		final File subdir = new File(dir, "sub");
+		Assert.assertTrue(subdir.mkdir());
+		final File file = new File(subdir, "file.txt");
+		Assert.assertTrue(file.createNewFile());
+		Assert.assertTrue(new File(subdir, "file.xml").createNewFile());
+		expect(file, FileSystemMonitorNotifications.FILE_ADDED);
+
+		// paused events are delivered on restart
+		monitor.pause();
+		Assert.assertTrue(file.delete());
+		Assert.assertNull(events.poll(1, TimeUnit.SECONDS));
+		monitor.start();
+		expect(file, FileSystemMonitorNotifications.FILE_REMOVED);
+	}
+
+	@Test
+	public void testRootRemoved() throws Exception {
+		final FileSystemMonitorSPI spi = (FileSystemMonitorSPI) this.applicationContext.getBean("nio2FSMSPI");
+		if (!spi.isAvailable())
+			return;
+
+		final Map<String, Object> params = new HashMap<String, Object>();
+		params.put(FileSystemMonitorSPI.SOURCE, dir);
+		params.put(FileSystemMonitorSPI.WILDCARD, "*.txt");
+		monitor = spi.createInstance(params);
+		monitor.addListener(new FileSystemMonitorListener() {
+			public void fileMonitorEventDelivered(FileSystemMonitorEvent fe) {
+				events.add(fe);
+			}
+		});
+		monitor.start();
+		Assert.assertTrue(monitor.isRunning());
+
+		Assert.assertTrue(dir.delete());
+		final FileSystemMonitorEvent event = events.poll(30, TimeUnit.SECONDS);
+		Assert.assertNotNull(event);
+		Assert.assertEquals(dir, event.getSource());
+		Assert.assertEquals(FileSystemMonitorNotifications.DIR_REMOVED, event.getNotification());
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (monitor.isRunning() && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+		Assert.assertFalse(monitor.isRunning());
+
+		// started again once the directory is back
+		Assert.assertTrue(dir.mkdir());
+		monitor.start();
+		Assert.assertTrue(monitor.isRunning());
+		final File file = new File(dir, "file.txt");
+		Assert.assertTrue(file.createNewFile());
+		expect(file, FileSystemMonitorNotifications.FILE_ADDED);
+	}
+
+	private void expect(final File file, final FileSystemMonitorNotifications notification)
+			throws InterruptedException {
+		FileSystemMonitorEvent event;
+		// the JDK may fall back to polling, be generous
+		while ((event = events.poll(30, TimeUnit.SECONDS)) != null) {
+			Assert.assertTrue(event.getSource().getName().endsWith(".txt"));
+			if (event.getSource().equals(file) && event.getNotification() == notification)
+				return;
+		}
+		Assert.fail("No " + notification + " event for " + file);
+	}
+
+	private static void delete(final File file) throws IOException {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
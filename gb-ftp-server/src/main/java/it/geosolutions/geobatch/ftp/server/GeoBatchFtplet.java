@@ -30,11 +30,15 @@
 package it.geosolutions.geobatch.ftp.server;
 
 import it.geosolutions.geobatch.ftp.server.model.FtpUser;
+import it.geosolutions.geobatch.utils.io.NotifiedFileReadyDetector;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
 import org.apache.ftpserver.ftplet.FtpReply;
 import org.apache.ftpserver.ftplet.FtpRequest;
 import org.apache.ftpserver.ftplet.FtpSession;
@@ -62,7 +66,20 @@ public class GeoBatchFtplet implements Ftplet {
 	 * org.apache.ftpserver.ftplet.FtpReply)
 	 */
 	public FtpletResult afterCommand(FtpSession session, FtpRequest request,
-			FtpReply arg2) throws FtpException, IOException {
+			FtpReply reply) throws FtpException, IOException {
+		// let the flows know that an upload is over, see NotifiedFileReadyDetector
+		final String command = request.getCommand();
+		if (reply != null && reply.getCode() == FtpReply.REPLY_226_CLOSING_DATA_CONNECTION
+				&& request.hasArgument()
+				&& ("STOR".equalsIgnoreCase(command) || "APPE".equalsIgnoreCase(command))) {
+			final FtpFile file = session.getFileSystemView().getFile(request.getArgument());
+			if (file != null) {
+				final File uploaded = new File(session.getUser().getHomeDirectory(), file.getAbsolutePath());
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Upload completed: " + uploaded);
+				NotifiedFileReadyDetector.fileClosed(uploaded);
+			}
+		}
 		return null;
 	}
 
@@ -0,0 +1,53 @@
+/*
+ *  GeoBatch - Open Source geospatial batch processing system
+ *  http://geobatch.codehaus.org/
+ *  Copyright (C) 2007-2008-2009 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.geosolutions.geobatch.ui.mvc;
+
+import it.geosolutions.geobatch.metrics.MetricRegistry;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Renders the metrics of the node, optionally only the ones of a flow.
+ */
+public class MetricsController extends AbstractController {
+
+    @Override
+    protected ModelAndView handleRequestInternal(HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        final String fmId = request.getParameter("fmId");
+
+        ModelAndView mav = new ModelAndView("metrics");
+        if (fmId != null && fmId.length() > 0)
+            mav.addObject("metrics", MetricRegistry.getDefault().getMetrics().subMap(
+                    MetricRegistry.name("flow", fmId) + ".", MetricRegistry.name("flow", fmId) + "/"));
+        else
+            mav.addObject("metrics", MetricRegistry.getDefault().getMetrics());
+        mav.addObject("fmId", fmId);
+
+        return mav;
+    }
+}
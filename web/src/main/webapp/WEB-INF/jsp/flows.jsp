@@ -100,6 +100,7 @@
   							</c:otherwise>
   						</c:choose>
 						<a href="dispose.do?fmId=${fm.id}"><image src='img/dispose.png' border='0' title='dispose' alt='dispose' width='16' height='16'/></a>
+						<a href="metrics.do?fmId=${fm.id}">metrics</a>
 					</td>
 				</tr>
 			</c:forEach>